@@ -1,18 +1,27 @@
 package com.tss.tssmanager_backend.aspect;
 
 import com.tss.tssmanager_backend.security.CustomUserDetails;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.hibernate.query.NativeQuery;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.List;
+import java.util.Objects;
+
 @Aspect
 @Component
 @Order(20)
@@ -21,21 +30,37 @@ public class AuditAspect {
     @PersistenceContext
     private EntityManager entityManager;
 
-    @Around("execution(* com.tss.tssmanager_backend.service..*(..)) || @annotation(org.springframework.transaction.annotation.Transactional)")
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Sentencias set_config ejecutadas y llamadas que reutilizaron el usuario ya vinculado
+    private Counter vinculaciones;
+    private Counter vinculacionesOmitidas;
+
+    @PostConstruct
+    public void registrarMetricas() {
+        vinculaciones = Counter.builder("auditoria.usuario.vinculaciones")
+                .description("Sentencias set_config('app.user_id') ejecutadas")
+                .register(meterRegistry);
+        vinculacionesOmitidas = Counter.builder("auditoria.usuario.vinculaciones.omitidas")
+                .description("Llamadas que reutilizaron el usuario ya vinculado a la transacción")
+                .register(meterRegistry);
+    }
+
+    // Los repositorios también se interceptan para vincular al usuario antes de la primera
+    // escritura cuando la transacción la abre el propio método de servicio
+    @Around("execution(* com.tss.tssmanager_backend.service..*(..)) || " +
+            "@annotation(org.springframework.transaction.annotation.Transactional) || " +
+            "this(org.springframework.data.repository.Repository)")
     public Object setAuditUser(ProceedingJoinPoint joinPoint) throws Throwable {
 
-        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()
+                && TransactionSynchronizationManager.isSynchronizationActive()) {
             try {
                 Authentication auth = SecurityContextHolder.getContext().getAuthentication();
 
-                if (auth != null && auth.getPrincipal() instanceof CustomUserDetails) {
-                    CustomUserDetails userDetails = (CustomUserDetails) auth.getPrincipal();
-                    Integer userId = userDetails.getId();
-
-                    entityManager
-                            .createNativeQuery("SELECT set_config('app.user_id', '" + userId + "', false)")
-                            .getSingleResult();
-
+                if (auth != null && auth.getPrincipal() instanceof CustomUserDetails userDetails) {
+                    vincularUsuario(userDetails.getId());
                 }
             } catch (Exception e) {
                 System.err.println("AUDIT WARN: No se pudo inyectar usuario: " + e.getMessage());
@@ -44,4 +69,54 @@ public class AuditAspect {
 
         return joinPoint.proceed();
     }
-}
\ No newline at end of file
+
+    /**
+     * Ejecuta set_config una sola vez por transacción física. La marca se guarda como una
+     * sincronización de la transacción, así que una transacción REQUIRES_NEW (que suspende
+     * las sincronizaciones de la externa) vuelve a vincular al usuario en su propia conexión.
+     */
+    private void vincularUsuario(Integer userId) {
+        if (Objects.equals(usuarioVinculado(), userId)) {
+            vinculacionesOmitidas.increment();
+            return;
+        }
+
+        // is_local = true: el valor vive solo en esta transacción y no pasa a la siguiente
+        // petición que reciba la misma conexión del pool. El espacio de consulta vacío evita
+        // que Hibernate vacíe los cambios pendientes antes de tener al usuario vinculado.
+        entityManager
+                .createNativeQuery("SELECT set_config('app.user_id', ?1, true)")
+                .setParameter(1, String.valueOf(userId))
+                .unwrap(NativeQuery.class)
+                .addSynchronizedQuerySpace("")
+                .getSingleResult();
+
+        TransactionSynchronizationManager.registerSynchronization(new UsuarioVinculado(userId));
+        vinculaciones.increment();
+    }
+
+    private Integer usuarioVinculado() {
+        Integer userId = null;
+        List<TransactionSynchronization> sincronizaciones = TransactionSynchronizationManager.getSynchronizations();
+        for (TransactionSynchronization sincronizacion : sincronizaciones) {
+            if (sincronizacion instanceof UsuarioVinculado vinculado) {
+                userId = vinculado.userId;
+            }
+        }
+        return userId;
+    }
+
+    private static final class UsuarioVinculado implements TransactionSynchronization, Ordered {
+
+        private final Integer userId;
+
+        private UsuarioVinculado(Integer userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.LOWEST_PRECEDENCE;
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package com.tss.tssmanager_backend.aspect;
 
-import com.tss.tssmanager_backend.service.CalendarioService;
+import com.tss.tssmanager_backend.entity.*;
+import com.tss.tssmanager_backend.repository.*;
+import com.tss.tssmanager_backend.service.CacheCalendario;
+import com.tss.tssmanager_backend.service.CacheCalendario.Fuente;
+import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.annotation.AfterReturning;
 import org.aspectj.lang.annotation.Aspect;
 import org.slf4j.Logger;
@@ -8,6 +12,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+/**
+ * Invalida solo las cubetas del calendario afectadas por la entidad guardada o eliminada en los
+ * repositorios de actividades, cuentas, equipos y de los datos que muestran sus eventos.
+ */
 @Aspect
 @Component
 public class CalendarioInvalidationAspect {
@@ -15,38 +23,121 @@ public class CalendarioInvalidationAspect {
     private static final Logger logger = LoggerFactory.getLogger(CalendarioInvalidationAspect.class);
 
     @Autowired
-    private CalendarioService calendarioService;
-
-    // Intercepta cualquier método que termine en "save", "update", "delete", "crear", "actualizar", "eliminar", "marcar*"
-    @AfterReturning(pointcut = "execution(* com.tss.tssmanager_backend.service.*Service.*(..)) && " +
-            "(execution(* *save*(..)) || " +
-            "execution(* *update*(..)) || " +
-            "execution(* *delete*(..)) || " +
-            "execution(* *crear*(..)) || " +
-            "execution(* *actualizar*(..)) || " +
-            "execution(* *eliminar*(..)) || " +
-            "execution(* *marcar*(..)) || " +
-            "execution(* *regenerar*(..)))")
-    public void invalidateCalendarioCache() {
-        logger.info("Invalidando caché del calendario por operación de modificación de datos");
+    private CacheCalendario cacheCalendario;
+
+    @AfterReturning(pointcut = "this(org.springframework.data.repository.Repository) && " +
+            "(execution(* save(..)) || execution(* saveAndFlush(..)) || " +
+            "execution(* saveAll(..)) || execution(* saveAllAndFlush(..)))", returning = "resultado")
+    public void entidadesGuardadas(Object resultado) {
+        try {
+            if (resultado instanceof Iterable<?> entidades) {
+                for (Object entidad : entidades) {
+                    entidadCambiada(entidad);
+                }
+            } else {
+                entidadCambiada(resultado);
+            }
+        } catch (Exception e) {
+            logger.error("Error al invalidar caché del calendario", e);
+        }
+    }
+
+    @AfterReturning(pointcut = "this(org.springframework.data.repository.Repository) && " +
+            "execution(* delete(..)) && args(entidad)")
+    public void entidadEliminada(Object entidad) {
+        try {
+            entidadCambiada(entidad);
+        } catch (Exception e) {
+            logger.error("Error al invalidar caché del calendario", e);
+        }
+    }
+
+    @AfterReturning(pointcut = "this(org.springframework.data.repository.Repository) && " +
+            "execution(* deleteById(..)) && args(id)")
+    public void entidadEliminadaPorId(JoinPoint joinPoint, Object id) {
         try {
-            calendarioService.invalidarCacheCalendario();
+            Class<?> tipo = tipoEntidad(joinPoint.getThis());
+            if (tipo != null) {
+                cacheCalendario.referenciaCambiada(tipo, id);
+            }
         } catch (Exception e) {
             logger.error("Error al invalidar caché del calendario", e);
         }
     }
 
-    // Intercepta específicamente operaciones en entidades del calendario
-    @AfterReturning(pointcut = "execution(* com.tss.tssmanager_backend.service.CuentaPorCobrarService.*(..)) || " +
-            "execution(* com.tss.tssmanager_backend.service.CuentaPorPagarService.*(..)) || " +
-            "execution(* com.tss.tssmanager_backend.service.TratoService.*(..)) || " +
-            "execution(* com.tss.tssmanager_backend.service.UsuarioService.*(..))")
-    public void invalidateCalendarioForSpecificEntities() {
-        logger.info("Invalidando caché del calendario por cambio en entidad específica del calendario");
+    // Actualizaciones y borrados masivos: no se sabe qué filas cambiaron, se descarta la fuente
+    @AfterReturning(pointcut = "this(org.springframework.data.repository.Repository) && " +
+            "(@annotation(org.springframework.data.jpa.repository.Modifying) || " +
+            "execution(* deleteAll*(..)) || execution(* deleteAllInBatch(..)))")
+    public void actualizacionMasiva(JoinPoint joinPoint) {
         try {
-            calendarioService.invalidarCacheCalendario();
+            Object repositorio = joinPoint.getThis();
+            Fuente fuente = null;
+            if (repositorio instanceof ActividadRepository) {
+                fuente = Fuente.ACTIVIDADES;
+            } else if (repositorio instanceof CuentaPorCobrarRepository) {
+                fuente = Fuente.CUENTAS_POR_COBRAR;
+            } else if (repositorio instanceof CuentaPorPagarRepository) {
+                fuente = Fuente.CUENTAS_POR_PAGAR;
+            } else if (repositorio instanceof EquipoRepository) {
+                fuente = Fuente.EQUIPOS;
+            }
+
+            if (fuente != null) {
+                logger.info("Invalidando {} del calendario por {}", fuente, joinPoint.getSignature().getName());
+                cacheCalendario.invalidarFuente(fuente);
+            }
         } catch (Exception e) {
-            logger.error("Error al invalidar caché del calendario para entidades específicas", e);
+            logger.error("Error al invalidar caché del calendario por actualización masiva", e);
+        }
+    }
+
+    private void entidadCambiada(Object entidad) {
+        if (entidad instanceof Actividad actividad) {
+            cacheCalendario.entidadCambiada(Fuente.ACTIVIDADES, Actividad.class, actividad.getId(),
+                    actividad.getAsignadoAId(), actividad.getFechaLimite());
+        } else if (entidad instanceof CuentaPorCobrar cuenta) {
+            cacheCalendario.entidadCambiada(Fuente.CUENTAS_POR_COBRAR, CuentaPorCobrar.class, cuenta.getId(),
+                    CacheCalendario.TODOS, cuenta.getFechaPago());
+        } else if (entidad instanceof CuentaPorPagar cuenta) {
+            cacheCalendario.entidadCambiada(Fuente.CUENTAS_POR_PAGAR, CuentaPorPagar.class, cuenta.getId(),
+                    CacheCalendario.TODOS, cuenta.getFechaPago());
+        } else if (entidad instanceof Equipo equipo) {
+            cacheCalendario.entidadCambiada(Fuente.EQUIPOS, Equipo.class, equipo.getId(), CacheCalendario.TODOS,
+                    equipo.getFechaExpiracion() != null ? equipo.getFechaExpiracion().toLocalDate() : null);
+        } else if (entidad instanceof Trato trato) {
+            cacheCalendario.referenciaCambiada(Trato.class, trato.getId());
+        } else if (entidad instanceof Usuario usuario) {
+            cacheCalendario.referenciaCambiada(Usuario.class, usuario.getId());
+        } else if (entidad instanceof Empresa empresa) {
+            cacheCalendario.referenciaCambiada(Empresa.class, empresa.getId());
+        } else if (entidad instanceof Sim sim) {
+            cacheCalendario.referenciaCambiada(Sim.class, sim.getId());
+        } else if (entidad instanceof CuentasTransacciones cuenta) {
+            cacheCalendario.referenciaCambiada(CuentasTransacciones.class, cuenta.getId());
+        }
+    }
+
+    private Class<?> tipoEntidad(Object repositorio) {
+        if (repositorio instanceof ActividadRepository) {
+            return Actividad.class;
+        } else if (repositorio instanceof CuentaPorCobrarRepository) {
+            return CuentaPorCobrar.class;
+        } else if (repositorio instanceof CuentaPorPagarRepository) {
+            return CuentaPorPagar.class;
+        } else if (repositorio instanceof EquipoRepository) {
+            return Equipo.class;
+        } else if (repositorio instanceof TratoRepository) {
+            return Trato.class;
+        } else if (repositorio instanceof UsuarioRepository) {
+            return Usuario.class;
+        } else if (repositorio instanceof EmpresaRepository) {
+            return Empresa.class;
+        } else if (repositorio instanceof SimRepository) {
+            return Sim.class;
+        } else if (repositorio instanceof CuentasTransaccionesRepository) {
+            return CuentasTransacciones.class;
         }
+        return null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,69 @@
+package com.tss.tssmanager_backend.aspect;
+
+import com.tss.tssmanager_backend.entity.Actividad;
+import com.tss.tssmanager_backend.service.RecordatorioActividadService;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Aspect
+@Component
+public class RecordatorioActividadAspect {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordatorioActividadAspect.class);
+
+    @Autowired
+    private RecordatorioActividadService recordatorioActividadService;
+
+    // Toda actividad guardada (alta, reprogramación, cierre, reasignación) actualiza su recordatorio
+    @AfterReturning(pointcut = "this(com.tss.tssmanager_backend.repository.ActividadRepository) && " +
+            "(execution(* save(..)) || execution(* saveAndFlush(..)))", returning = "resultado")
+    public void actividadGuardada(Object resultado) {
+        try {
+            if (resultado instanceof Actividad actividad) {
+                recordatorioActividadService.actividadGuardada(actividad);
+            }
+        } catch (Exception e) {
+            logger.error("Error al actualizar recordatorio de actividad", e);
+        }
+    }
+
+    @AfterReturning(pointcut = "this(com.tss.tssmanager_backend.repository.ActividadRepository) && " +
+            "(execution(* saveAll(..)) || execution(* saveAllAndFlush(..)))", returning = "resultado")
+    public void actividadesGuardadas(Object resultado) {
+        try {
+            if (resultado instanceof Iterable<?> actividades) {
+                for (Object actividad : actividades) {
+                    if (actividad instanceof Actividad guardada) {
+                        recordatorioActividadService.actividadGuardada(guardada);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error al actualizar recordatorios de actividades", e);
+        }
+    }
+
+    @AfterReturning(pointcut = "this(com.tss.tssmanager_backend.repository.ActividadRepository) && " +
+            "execution(* delete(..)) && args(actividad)")
+    public void actividadEliminada(Actividad actividad) {
+        try {
+            recordatorioActividadService.actividadEliminada(actividad.getId());
+        } catch (Exception e) {
+            logger.error("Error al cancelar recordatorio de actividad", e);
+        }
+    }
+
+    @AfterReturning(pointcut = "this(com.tss.tssmanager_backend.repository.ActividadRepository) && " +
+            "execution(* deleteById(..)) && args(actividadId)")
+    public void actividadEliminadaPorId(Integer actividadId) {
+        try {
+            recordatorioActividadService.actividadEliminada(actividadId);
+        } catch (Exception e) {
+            logger.error("Error al cancelar recordatorio de actividad {}", actividadId, e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.tss.tssmanager_backend.aspect;
+
+import com.tss.tssmanager_backend.entity.Actividad;
+import com.tss.tssmanager_backend.entity.Empresa;
+import com.tss.tssmanager_backend.entity.Trato;
+import com.tss.tssmanager_backend.repository.ActividadRepository;
+import com.tss.tssmanager_backend.repository.EmpresaRepository;
+import com.tss.tssmanager_backend.repository.TratoRepository;
+import com.tss.tssmanager_backend.service.RefrescoMetricasDashboard;
+import com.tss.tssmanager_backend.service.ReporteService;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Invalida los reportes de actividades en caché cuando se cierra, edita o elimina una actividad
+ * (solo los del usuario que la completó) o cuando cambia un trato o una empresa, cuyos nombres
+ * aparecen en el reporte. Los mismos cambios marcan como pendientes las métricas del dashboard.
+ */
+@Aspect
+@Component
+public class ReporteInvalidationAspect {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReporteInvalidationAspect.class);
+
+    @Autowired
+    private ReporteService reporteService;
+
+    @Autowired
+    private RefrescoMetricasDashboard refrescoMetricasDashboard;
+
+    @AfterReturning(pointcut = "this(org.springframework.data.repository.Repository) && " +
+            "(execution(* save(..)) || execution(* saveAndFlush(..)) || " +
+            "execution(* saveAll(..)) || execution(* saveAllAndFlush(..)))", returning = "resultado")
+    public void entidadesGuardadas(Object resultado) {
+        try {
+            if (resultado instanceof Iterable<?> entidades) {
+                for (Object entidad : entidades) {
+                    entidadCambiada(entidad);
+                }
+            } else {
+                entidadCambiada(resultado);
+            }
+        } catch (Exception e) {
+            logger.error("Error al invalidar caché de reportes", e);
+        }
+    }
+
+    @AfterReturning(pointcut = "this(org.springframework.data.repository.Repository) && " +
+            "execution(* delete(..)) && args(entidad)")
+    public void entidadEliminada(Object entidad) {
+        try {
+            entidadCambiada(entidad);
+        } catch (Exception e) {
+            logger.error("Error al invalidar caché de reportes", e);
+        }
+    }
+
+    // Borrados por id y operaciones masivas: no se sabe de qué usuario eran, se descarta todo
+    @AfterReturning(pointcut = "this(org.springframework.data.repository.Repository) && " +
+            "(execution(* deleteById(..)) || execution(* deleteAll*(..)) || " +
+            "@annotation(org.springframework.data.jpa.repository.Modifying))")
+    public void cambioSinEntidad(JoinPoint joinPoint) {
+        try {
+            Object repositorio = joinPoint.getThis();
+            if (repositorio instanceof ActividadRepository || repositorio instanceof TratoRepository
+                    || repositorio instanceof EmpresaRepository) {
+                reporteService.invalidarReportesActividades();
+                refrescoMetricasDashboard.marcarPendiente();
+            }
+        } catch (Exception e) {
+            logger.error("Error al invalidar caché de reportes", e);
+        }
+    }
+
+    private void entidadCambiada(Object entidad) {
+        if (entidad instanceof Actividad actividad) {
+            if (actividad.getUsuarioCompletadoId() != null) {
+                reporteService.invalidarReporteActividades(actividad.getUsuarioCompletadoId());
+            }
+            refrescoMetricasDashboard.marcarPendiente();
+        } else if (entidad instanceof Trato || entidad instanceof Empresa) {
+            reporteService.invalidarReportesActividades();
+            refrescoMetricasDashboard.marcarPendiente();
+        }
+    }
+}
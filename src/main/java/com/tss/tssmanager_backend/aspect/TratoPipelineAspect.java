@@ -0,0 +1,66 @@
+package com.tss.tssmanager_backend.aspect;
+
+import com.tss.tssmanager_backend.entity.Actividad;
+import com.tss.tssmanager_backend.service.TratoPipelineService;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Aspect
+@Component
+public class TratoPipelineAspect {
+
+    private static final Logger logger = LoggerFactory.getLogger(TratoPipelineAspect.class);
+
+    @Autowired
+    private TratoPipelineService tratoPipelineService;
+
+    // Cualquier alta, cambio o baja de una actividad modifica los contadores de su trato
+    @AfterReturning(pointcut = "this(com.tss.tssmanager_backend.repository.ActividadRepository) && " +
+            "(execution(* save(..)) || execution(* saveAndFlush(..)))", returning = "resultado")
+    public void actividadGuardada(Object resultado) {
+        if (resultado instanceof Actividad actividad) {
+            marcar(actividad);
+        }
+    }
+
+    @AfterReturning(pointcut = "this(com.tss.tssmanager_backend.repository.ActividadRepository) && " +
+            "(execution(* saveAll(..)) || execution(* saveAllAndFlush(..)))", returning = "resultado")
+    public void actividadesGuardadas(Object resultado) {
+        if (resultado instanceof Iterable<?> actividades) {
+            for (Object actividad : actividades) {
+                if (actividad instanceof Actividad guardada) {
+                    marcar(guardada);
+                }
+            }
+        }
+    }
+
+    @AfterReturning(pointcut = "this(com.tss.tssmanager_backend.repository.ActividadRepository) && " +
+            "execution(* delete(..)) && args(actividad)")
+    public void actividadEliminada(Actividad actividad) {
+        marcar(actividad);
+    }
+
+    // Bajas sin la entidad: no se sabe de qué tratos eran, se reconstruye el pipeline al confirmar
+    @AfterReturning(pointcut = "this(com.tss.tssmanager_backend.repository.ActividadRepository) && " +
+            "(execution(* deleteById(..)) || execution(* deleteAll*(..)))")
+    public void actividadesEliminadasSinEntidad() {
+        try {
+            tratoPipelineService.marcarReconstruccion();
+        } catch (Exception e) {
+            logger.error("Error al marcar la reconstrucción del pipeline de tratos", e);
+        }
+    }
+
+    private void marcar(Actividad actividad) {
+        try {
+            tratoPipelineService.marcarTrato(actividad.getTratoId());
+        } catch (Exception e) {
+            logger.error("Error al marcar el pipeline del trato {}", actividad.getTratoId(), e);
+        }
+    }
+}
@@ -36,7 +36,6 @@ public class CacheConfig {
                 "modelos",
                 "sims",
                 "notificaciones",
-                "calendario-eventos",
                 "dashboard-stats",
                 "reports-data",
                 "gruposDisponibles",
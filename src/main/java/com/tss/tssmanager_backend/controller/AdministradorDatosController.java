@@ -2,16 +2,22 @@ package com.tss.tssmanager_backend.controller;
 
 import com.tss.tssmanager_backend.dto.*;
 import com.tss.tssmanager_backend.service.AdministradorDatosService;
+import com.tss.tssmanager_backend.utils.DescargaEnStreaming;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 
 @RestController
 @RequestMapping("/api/administrador-datos")
@@ -21,6 +27,9 @@ public class AdministradorDatosController {
 
     private final AdministradorDatosService administradorDatosService;
 
+    @Value("${descargas.streaming.timeout-segundos:900}")
+    private long timeoutDescargaSegundos;
+
 
     @GetMapping("/descargar-plantilla/{tipoDatos}")
     public ResponseEntity<Resource> descargarPlantilla(@PathVariable String tipoDatos) {
@@ -84,6 +93,25 @@ public class AdministradorDatosController {
         }
     }
 
+    @PostMapping("/exportar-datos/stream")
+    public ResponseEntity<ResponseBodyEmitter> exportarDatosStream(
+            @RequestBody SolicitudExportacionDTO solicitud) {
+        boolean esXLSX = "xlsx".equalsIgnoreCase(solicitud.getFormatoExportacion());
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+        String nombreArchivo = "exportacion_" + solicitud.getTipoDatos() + "_" + timestamp + (esXLSX ? ".xlsx" : ".csv");
+        MediaType mediaType = esXLSX
+                ? MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")
+                : MediaType.parseMediaType("text/csv");
+
+        ResponseBodyEmitter cuerpo = DescargaEnStreaming.iniciar(Duration.ofSeconds(timeoutDescargaSegundos),
+                mediaType, salida -> administradorDatosService.escribirExportacion(solicitud, salida));
+
+        return ResponseEntity.ok()
+                .contentType(mediaType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + nombreArchivo + "\"")
+                .body(cuerpo);
+    }
+
     @GetMapping("/historial-exportaciones/{usuarioId}")
     public ResponseEntity<List<HistorialExportacionDTO>> obtenerHistorialExportaciones(
             @PathVariable Integer usuarioId) {
@@ -114,6 +142,8 @@ public class AdministradorDatosController {
                     mediaType = MediaType.parseMediaType("text/csv");
                 } else if (nombreArchivo.endsWith(".pdf")) {
                     mediaType = MediaType.APPLICATION_PDF;
+                } else if (nombreArchivo.endsWith(".xlsx")) {
+                    mediaType = MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
                 }
             }
 
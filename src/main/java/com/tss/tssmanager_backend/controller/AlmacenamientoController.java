@@ -195,6 +195,18 @@ public class AlmacenamientoController {
         }
     }
 
+    @GetMapping("/limpieza/progreso")
+    @Operation(summary = "Obtener progreso de limpiezas por lotes",
+            description = "Devuelve los registros eliminados, el último id procesado y el ritmo de las limpiezas en curso")
+    public ResponseEntity<List<ProgresoLimpiezaDTO>> obtenerProgresoLimpieza() {
+        try {
+            return ResponseEntity.ok(almacenamientoService.obtenerProgresoLimpieza());
+        } catch (Exception e) {
+            log.error("Error al obtener progreso de limpieza", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     @GetMapping("/historial")
     @Operation(summary = "Obtener historial de limpieza",
             description = "Devuelve el historial de limpiezas realizadas")
@@ -104,9 +104,7 @@ public class AuthController {
         if (usuario.getEstatus() == EstatusUsuarioEnum.ACTIVO && reasignarA != null) {
             usuarioService.desactivarUsuarioConReasignacion(userId, reasignarA);
         } else {
-            usuario.setEstatus(usuario.getEstatus() == EstatusUsuarioEnum.ACTIVO ?
-                    EstatusUsuarioEnum.INACTIVO : EstatusUsuarioEnum.ACTIVO);
-            usuarioRepository.save(usuario);
+            usuarioService.alternarEstatus(userId);
         }
 
         Usuario updatedUsuario = usuarioRepository.findById(userId).get();
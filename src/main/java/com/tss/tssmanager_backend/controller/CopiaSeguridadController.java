@@ -2,6 +2,7 @@ package com.tss.tssmanager_backend.controller;
 
 import com.tss.tssmanager_backend.dto.CopiaSeguridadDTO;
 import com.tss.tssmanager_backend.dto.ConfiguracionCopiasDTO;
+import com.tss.tssmanager_backend.dto.ResultadoRestauracionDTO;
 import com.tss.tssmanager_backend.enums.TipoCopiaSeguridadEnum;
 import com.tss.tssmanager_backend.service.CopiaSeguridadService;
 import lombok.RequiredArgsConstructor;
@@ -108,10 +109,10 @@ public class CopiaSeguridadController {
     }
 
     @PostMapping("/restaurar/{copiaId}")
-    public ResponseEntity<Map<String, String>> restaurarCopia(@PathVariable Integer copiaId) {
+    public ResponseEntity<Map<String, Object>> restaurarCopia(@PathVariable Integer copiaId) {
         try {
-            copiaSeguridadService.restaurarCopia(copiaId);
-            return ResponseEntity.ok(Map.of("message", "Datos restaurados correctamente"));
+            ResultadoRestauracionDTO resultado = copiaSeguridadService.restaurarCopia(copiaId);
+            return ResponseEntity.ok(Map.of("message", "Datos restaurados correctamente", "resultado", resultado));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("error", "Error al restaurar la copia de seguridad"));
         }
@@ -147,9 +148,12 @@ public class CopiaSeguridadController {
         try {
             Resource resource = copiaSeguridadService.descargarArchivo(copiaId, "CSV");
 
+            // Las copias nuevas se guardan como CSV comprimido; las anteriores siguen en CSV plano
+            boolean comprimido = resource.getFilename() != null && resource.getFilename().endsWith(".gz");
             return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType("text/csv"))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"copia_" + copiaId + ".csv\"")
+                    .contentType(MediaType.parseMediaType(comprimido ? "application/gzip" : "text/csv"))
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"copia_" + copiaId +
+                            (comprimido ? ".csv.gz" : ".csv") + "\"")
                     .body(resource);
         } catch (Exception e) {
             return ResponseEntity.notFound().build();
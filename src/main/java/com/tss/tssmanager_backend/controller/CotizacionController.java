@@ -8,7 +8,7 @@ import com.tss.tssmanager_backend.service.CotizacionService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -94,14 +94,14 @@ public class CotizacionController {
     }
 
     @GetMapping("/{id}/download-pdf")
-    public ResponseEntity<ByteArrayResource> descargarCotizacionPDF(
+    public ResponseEntity<Resource> descargarCotizacionPDF(
             @PathVariable Integer id,
             @RequestParam(value = "incluirArchivos", defaultValue = "false") boolean incluirArchivos) {
 
         try {
             logger.info("Solicitud para descargar PDF de cotización con ID: {} (incluirArchivos: {})", id, incluirArchivos);
 
-            ByteArrayResource resource = cotizacionService.generateCotizacionPDF(id, incluirArchivos);
+            Resource resource = cotizacionService.generateCotizacionPDF(id, incluirArchivos);
             Cotizacion cotizacion = cotizacionService.findById(id);
 
             HttpHeaders headers = new HttpHeaders();
@@ -121,7 +121,6 @@ public class CotizacionController {
 
         } catch (OutOfMemoryError e) {
             logger.error("Memoria insuficiente al generar PDF para cotización ID {}: {}", id, e.getMessage());
-            System.gc();
             return ResponseEntity.status(507)
                     .header("X-Error-Message", "Archivo demasiado grande. Intenta sin incluir archivos adicionales")
                     .body(null);
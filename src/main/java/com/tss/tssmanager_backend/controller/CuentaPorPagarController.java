@@ -7,13 +7,17 @@ import com.tss.tssmanager_backend.entity.CuentaPorPagar;
 import com.tss.tssmanager_backend.service.CuentaPorPagarService;
 import com.tss.tssmanager_backend.service.ReporteCuentasPorPagarService;
 import com.tss.tssmanager_backend.service.TransaccionService;
+import com.tss.tssmanager_backend.utils.DescargaEnStreaming;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
@@ -26,8 +30,9 @@ public class CuentaPorPagarController {
     private CuentaPorPagarService cuentasPorPagarService;
     @Autowired
     private ReporteCuentasPorPagarService reporteService;
-    @Autowired
-    private com.tss.tssmanager_backend.service.CalendarioService calendarioService;
+
+    @Value("${descargas.streaming.timeout-segundos:900}")
+    private long timeoutDescargaSegundos;
 
     @GetMapping
     public ResponseEntity<List<CuentaPorPagar>> obtenerTodasLasCuentasPorPagar(
@@ -52,7 +57,6 @@ public class CuentaPorPagarController {
                     false,
                     request.getCantidadCreditos()
             );
-            calendarioService.invalidarCacheCalendario();
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         } catch (IllegalArgumentException e) {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
@@ -114,7 +118,6 @@ public class CuentaPorPagarController {
                         request.getFormaPago()
                 );
             }
-            calendarioService.invalidarCacheCalendario();
             return ResponseEntity.ok().build();
         } catch (Exception e) {
             System.err.println("Error al regenerar cuentas por pagar: " + e.getMessage());
@@ -138,7 +141,6 @@ public class CuentaPorPagarController {
                     true,
                     dto.getCantidadCreditos()
             );
-            calendarioService.invalidarCacheCalendario();
             return ResponseEntity.noContent().build();
         } catch (IllegalArgumentException e) {
             System.err.println("Error de validación: " + e.getMessage());
@@ -169,7 +171,7 @@ public class CuentaPorPagarController {
     }
 
     @GetMapping("/reporte/pdf")
-    public ResponseEntity<byte[]> generarReportePDF(
+    public ResponseEntity<ResponseBodyEmitter> generarReportePDF(
             @RequestParam String fechaInicio,
             @RequestParam String fechaFin,
             @RequestParam(defaultValue = "Todas") String filtroEstatus,
@@ -178,9 +180,6 @@ public class CuentaPorPagarController {
             LocalDate inicio = LocalDate.parse(fechaInicio);
             LocalDate fin = LocalDate.parse(fechaFin);
 
-            ReporteCuentasPorPagarDTO datos = reporteService.generarDatosReporte(inicio, fin, filtroEstatus, filtroCuenta);
-            byte[] pdfBytes = reporteService.generarReportePDF(datos, filtroCuenta);
-
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
             String fileName = String.format("reporte_cuentas_por_pagar_%s_%s.pdf",
                     inicio.format(formatter), fin.format(formatter));
@@ -188,9 +187,11 @@ public class CuentaPorPagarController {
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_PDF);
             headers.setContentDispositionFormData("attachment", fileName);
-            headers.setContentLength(pdfBytes.length);
 
-            return new ResponseEntity<>(pdfBytes, headers, HttpStatus.OK);
+            ResponseBodyEmitter cuerpo = DescargaEnStreaming.iniciar(Duration.ofSeconds(timeoutDescargaSegundos),
+                    MediaType.APPLICATION_PDF,
+                    salida -> reporteService.escribirReportePDF(inicio, fin, filtroEstatus, filtroCuenta, salida));
+            return new ResponseEntity<>(cuerpo, headers, HttpStatus.OK);
         } catch (Exception e) {
             System.err.println("Error al generar reporte PDF: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
@@ -198,17 +199,15 @@ public class CuentaPorPagarController {
     }
 
     @GetMapping("/reporte/pdf-resumido")
-    public ResponseEntity<byte[]> generarReporteResumidoPDF(
+    public ResponseEntity<ResponseBodyEmitter> generarReporteResumidoPDF(
             @RequestParam String fechaInicio,
             @RequestParam String fechaFin,
             @RequestParam(defaultValue = "Todas") String filtroEstatus,
-            @RequestParam(required = false) String filtroCuenta) { // <--- Agregar parámetro
+            @RequestParam(required = false) String filtroCuenta) {
         try {
             LocalDate inicio = LocalDate.parse(fechaInicio);
             LocalDate fin = LocalDate.parse(fechaFin);
 
-            byte[] pdfBytes = reporteService.generarReporteResumidoPDF(inicio, fin, filtroEstatus, filtroCuenta);
-
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
             String fileName = String.format("reporte_resumido_cuentas_por_pagar_%s_%s.pdf",
                     inicio.format(formatter), fin.format(formatter));
@@ -216,9 +215,11 @@ public class CuentaPorPagarController {
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_PDF);
             headers.setContentDispositionFormData("attachment", fileName);
-            headers.setContentLength(pdfBytes.length);
 
-            return new ResponseEntity<>(pdfBytes, headers, HttpStatus.OK);
+            ResponseBodyEmitter cuerpo = DescargaEnStreaming.iniciar(Duration.ofSeconds(timeoutDescargaSegundos),
+                    MediaType.APPLICATION_PDF,
+                    salida -> reporteService.escribirReporteResumidoPDF(inicio, fin, filtroEstatus, filtroCuenta, salida));
+            return new ResponseEntity<>(cuerpo, headers, HttpStatus.OK);
         } catch (Exception e) {
             System.err.println("Error al generar reporte resumido PDF: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
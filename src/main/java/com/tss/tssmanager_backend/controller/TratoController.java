@@ -47,7 +47,8 @@ public class TratoController {
             @RequestParam(required = false) Instant endDate,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "100") int size,
-            @RequestParam(defaultValue = "false") boolean enablePagination) {
+            @RequestParam(defaultValue = "false") boolean enablePagination,
+            @RequestParam(defaultValue = "true") boolean incluirActividades) {
 
         try {
             if (enablePagination) {
@@ -58,7 +59,8 @@ public class TratoController {
                 );
                 return ResponseEntity.ok(result);
             } else {
-                List<TratoDTO> result = tratoService.filtrarTratos(empresaId, propietarioId, startDate, endDate);
+                List<TratoDTO> result = tratoService.filtrarTratos(
+                        empresaId, propietarioId, startDate, endDate, incluirActividades);
                 return ResponseEntity.ok(result);
             }
         } catch (Exception e) {
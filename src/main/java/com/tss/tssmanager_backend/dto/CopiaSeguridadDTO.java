@@ -18,4 +18,6 @@ public class CopiaSeguridadDTO {
     private String frecuencia;
     private String archivoPdfUrl;
     private String archivoCsvUrl;
+    private String modalidad;
+    private Integer copiaBaseId;
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package com.tss.tssmanager_backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProgresoLimpiezaDTO {
+    private String tablaNombre;
+    private Integer historialId;
+    private LocalDate fechaCorte;
+    private Long registrosEliminados;
+    private Long ultimoIdProcesado;
+    private Integer lotesProcesados;
+    private Double registrosPorSegundo;
+    private LocalDateTime fechaInicio;
+}
@@ -0,0 +1,23 @@
+package com.tss.tssmanager_backend.dto;
+
+import com.tss.tssmanager_backend.enums.TipoCopiaSeguridadEnum;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+public class ResultadoRestauracionDTO {
+    private TipoCopiaSeguridadEnum tipoDatos;
+    private int registrosLeidos;
+    private int registrosRestaurados;
+    private int registrosOmitidos;
+    private long tiempoTotalMs;
+    private Map<String, Long> tiemposPorFaseMs = new LinkedHashMap<>();
+
+    public ResultadoRestauracionDTO(TipoCopiaSeguridadEnum tipoDatos) {
+        this.tipoDatos = tipoDatos;
+    }
+}
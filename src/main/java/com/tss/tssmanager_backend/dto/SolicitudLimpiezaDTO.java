@@ -12,4 +12,5 @@ public class SolicitudLimpiezaDTO {
     private Integer diasAntiguedad;
     private Boolean confirmarEliminacion;
     private String criterioEliminacion;
+    private Boolean ejecutarVacuum;
 }
@@ -26,6 +26,9 @@ public class TratoBasicoDTO {
     private Boolean isNeglected;
     private Boolean hasActivities;
     private Integer actividadesAbiertasCount;
+    private Integer tareasAbiertasCount;
+    private Integer llamadasAbiertasCount;
+    private Integer reunionesAbiertasCount;
     private String proximaActividadTipo;
     private LocalDate proximaActividadFecha;
     private Integer contactoId;
@@ -3,6 +3,7 @@ package com.tss.tssmanager_backend.dto;
 import lombok.Data;
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -41,5 +42,13 @@ public class TratoDTO {
     private String nuevoAdministradorNombre;
     private Boolean isNeglected;
     private Boolean hasActivities;
+
+    // Resumen del pipeline, disponible aunque no se carguen las actividades
+    private Integer actividadesAbiertasCount;
+    private Integer tareasAbiertasCount;
+    private Integer llamadasAbiertasCount;
+    private Integer reunionesAbiertasCount;
+    private String proximaActividadTipo;
+    private LocalDate proximaActividadFecha;
 }
 
@@ -56,6 +56,18 @@ public class CopiasSeguridad {
     @Column(name = "google_drive_folder_id", length = 255)
     private String googleDriveFolderId;
 
+    // COMPLETA o INCREMENTAL; las copias anteriores a este campo se tratan como completas
+    @Column(name = "modalidad", length = 20)
+    private String modalidad = "COMPLETA";
+
+    // Copia completa sobre la que se aplica una copia incremental
+    @Column(name = "copia_base_id")
+    private Integer copiaBaseId;
+
+    // Instante en que se tomaron los datos; las incrementales respaldan lo modificado después
+    @Column(name = "marca_agua", columnDefinition = "TIMESTAMPTZ")
+    private LocalDateTime marcaAgua;
+
     @PrePersist
     protected void onCreate() {
         if (fechaCreacion == null) {
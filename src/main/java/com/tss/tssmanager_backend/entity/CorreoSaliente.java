@@ -0,0 +1,65 @@
+package com.tss.tssmanager_backend.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.Instant;
+
+@Entity
+@Table(name = "\"Correos_Salientes\"")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CorreoSaliente {
+
+    public static final String ESTADO_PENDIENTE = "PENDIENTE";
+    public static final String ESTADO_ENVIANDO = "ENVIANDO";
+    public static final String ESTADO_ENVIADO = "ENVIADO";
+    public static final String ESTADO_FALLIDO = "FALLIDO";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "destinatario", nullable = false)
+    private String destinatario;
+
+    @Column(name = "asunto", nullable = false)
+    private String asunto;
+
+    @Column(name = "cuerpo", columnDefinition = "TEXT", nullable = false)
+    private String cuerpo;
+
+    @Column(name = "tipo_correo_consolidado", length = 100)
+    private String tipoCorreoConsolidado;
+
+    @Column(name = "estado", nullable = false, length = 20)
+    private String estado = ESTADO_PENDIENTE;
+
+    @Column(name = "intentos", nullable = false)
+    private Integer intentos = 0;
+
+    @Column(name = "proximo_intento", nullable = false)
+    private Instant proximoIntento;
+
+    @Column(name = "ultimo_error", columnDefinition = "TEXT")
+    private String ultimoError;
+
+    @Column(name = "email_record_id")
+    private Integer emailRecordId;
+
+    @Column(name = "fecha_creacion", nullable = false, updatable = false)
+    private Instant fechaCreacion;
+
+    @Column(name = "fecha_envio")
+    private Instant fechaEnvio;
+
+    @PrePersist
+    protected void onCreate() {
+        fechaCreacion = Instant.now();
+        if (proximoIntento == null) {
+            proximoIntento = fechaCreacion;
+        }
+    }
+}
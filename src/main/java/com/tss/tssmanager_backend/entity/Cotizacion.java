@@ -59,9 +59,15 @@ public class Cotizacion {
     @Column(name = "notas_comerciales_nombre")
     private String notasComercialesNombre;
 
-    @Lob
-    @Column(name = "notas_comerciales_contenido")
-    private byte[] notasComercialesContenido;
+    // Referencia al contenido en el AlmacenArchivos; el PDF no viaja con la fila
+    @Column(name = "notas_comerciales_archivo")
+    private String notasComercialesArchivo;
+
+    @Column(name = "notas_comerciales_tamano")
+    private Long notasComercialesTamano;
+
+    @Column(name = "notas_comerciales_hash", length = 64)
+    private String notasComercialesHash;
 
     @Column(name = "notas_comerciales_tipo")
     private String notasComercialesTopo;
@@ -69,9 +75,14 @@ public class Cotizacion {
     @Column(name = "ficha_tecnica_nombre")
     private String fichaTecnicaNombre;
 
-    @Lob
-    @Column(name = "ficha_tecnica_contenido")
-    private byte[] fichaTecnicaContenido;
+    @Column(name = "ficha_tecnica_archivo")
+    private String fichaTecnicaArchivo;
+
+    @Column(name = "ficha_tecnica_tamano")
+    private Long fichaTecnicaTamano;
+
+    @Column(name = "ficha_tecnica_hash", length = 64)
+    private String fichaTecnicaHash;
 
     @Column(name = "ficha_tecnica_tipo")
     private String fichaTecnicaTipo;
@@ -5,6 +5,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 @Entity
@@ -14,6 +15,11 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 public class HistorialLimpieza {
 
+    public static final String ESTADO_EN_PROCESO = "EN_PROCESO";
+    public static final String ESTADO_INTERRUMPIDA = "INTERRUMPIDA";
+    public static final String ESTADO_COMPLETADA = "COMPLETADA";
+    public static final String ESTADO_DESCARTADA = "DESCARTADA";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Integer id;
@@ -39,6 +45,19 @@ public class HistorialLimpieza {
     @Column(name = "descripcion", columnDefinition = "TEXT")
     private String descripcion;
 
+    // Punto de control de las limpiezas por lotes: permite reanudar una limpieza interrumpida
+    @Column(name = "estado", length = 20)
+    private String estado;
+
+    @Column(name = "ultimo_id_procesado")
+    private Long ultimoIdProcesado;
+
+    @Column(name = "fecha_corte")
+    private LocalDate fechaCorte;
+
+    @Column(name = "fecha_finalizacion")
+    private LocalDateTime fechaFinalizacion;
+
     @PrePersist
     protected void onCreate() {
         fechaLimpieza = LocalDateTime.now();
@@ -3,6 +3,7 @@ package com.tss.tssmanager_backend.entity;
 import jakarta.persistence.*;
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 import lombok.Data;
@@ -97,4 +98,8 @@ public class Trato {
     @Column(name = "proceso_fecha_inicio")
     private LocalDateTime procesoFechaInicio;
 
+    // Fecha del siguiente correo de seguimiento; null si no hay ninguno pendiente
+    @Column(name = "proceso_proxima_fecha")
+    private LocalDate procesoProximaFecha;
+
 }
\ No newline at end of file
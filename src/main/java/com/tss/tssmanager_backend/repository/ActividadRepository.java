@@ -2,6 +2,7 @@ package com.tss.tssmanager_backend.repository;
 
 import com.tss.tssmanager_backend.entity.Actividad;
 import com.tss.tssmanager_backend.enums.EstatusActividadEnum;
+import com.tss.tssmanager_backend.enums.TipoActividadEnum;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -11,6 +12,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -23,6 +25,27 @@ public interface ActividadRepository extends JpaRepository<Actividad, Integer> {
     @Query("SELECT e.nombre FROM Empresa e WHERE e.id = (SELECT t.empresaId FROM Trato t WHERE t.id = :tratoId)")
     String findEmpresaNameByTratoId(Integer tratoId);
 
+    // Agregados del reporte de actividades completadas por un usuario en un rango
+    @Query("SELECT a.tipo, a.medio, COUNT(a) FROM Actividad a " +
+            "WHERE a.usuarioCompletadoId = :userId AND a.fechaCompletado BETWEEN :start AND :end " +
+            "GROUP BY a.tipo, a.medio")
+    List<Object[]> contarCompletadasPorTipoYMedio(@Param("userId") Integer userId,
+                                                  @Param("start") Instant start, @Param("end") Instant end);
+
+    @Query("SELECT e.nombre, COUNT(a) FROM Actividad a " +
+            "LEFT JOIN Trato t ON t.id = a.tratoId LEFT JOIN Empresa e ON e.id = t.empresaId " +
+            "WHERE a.usuarioCompletadoId = :userId AND a.fechaCompletado BETWEEN :start AND :end " +
+            "GROUP BY e.nombre")
+    List<Object[]> contarCompletadasPorEmpresa(@Param("userId") Integer userId,
+                                               @Param("start") Instant start, @Param("end") Instant end);
+
+    @Query("SELECT e.nombre, a.notas, a.respuesta, a.interes FROM Actividad a " +
+            "LEFT JOIN Trato t ON t.id = a.tratoId LEFT JOIN Empresa e ON e.id = t.empresaId " +
+            "WHERE a.usuarioCompletadoId = :userId AND a.fechaCompletado BETWEEN :start AND :end " +
+            "AND a.estatus = :estatus ORDER BY a.fechaCompletado, a.id")
+    List<Object[]> findNotasCompletadas(@Param("userId") Integer userId, @Param("start") Instant start,
+                                        @Param("end") Instant end, @Param("estatus") EstatusActividadEnum estatus);
+
     List<Actividad> findByAsignadoAIdAndFechaLimiteAndEstatus(
             Integer asignadoAId,
             LocalDate fechaLimite,
@@ -99,4 +122,11 @@ public interface ActividadRepository extends JpaRepository<Actividad, Integer> {
 
     @Query("SELECT a FROM Actividad a WHERE a.asignadoAId = :userId AND a.fechaLimite = :fecha AND a.estatus = 'ABIERTA'")
     List<Actividad> findConflictingActivities(@Param("userId") Integer userId, @Param("fecha") LocalDate fecha);
-}
\ No newline at end of file
+
+    @Query("SELECT a FROM Actividad a WHERE a.estatus = :estatus AND a.tipo IN :tipos " +
+            "AND a.fechaLimite BETWEEN :desde AND :hasta AND a.horaInicio IS NOT NULL")
+    List<Actividad> findPendientesDeRecordatorio(@Param("estatus") EstatusActividadEnum estatus,
+                                                 @Param("tipos") Collection<TipoActividadEnum> tipos,
+                                                 @Param("desde") LocalDate desde,
+                                                 @Param("hasta") LocalDate hasta);
+}
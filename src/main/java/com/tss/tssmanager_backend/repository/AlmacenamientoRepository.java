@@ -4,6 +4,8 @@ import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.Query;
 import org.springframework.stereotype.Repository;
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -18,6 +20,39 @@ public class AlmacenamientoRepository {
         return query.getResultList();
     }
 
+    /**
+     * Filas estimadas y tamaño total (con índices y TOAST) según los catálogos de PostgreSQL,
+     * sin recorrer las tablas. Se usa n_live_tup y, si la tabla nunca se analizó, reltuples.
+     */
+    public List<Object[]> obtenerEstadisticasCatalogo(Collection<String> tablas) {
+        String sql = "SELECT c.relname, " +
+                "GREATEST(COALESCE(s.n_live_tup, 0), c.reltuples)::bigint, " +
+                "ROUND(pg_total_relation_size(c.oid) / 1048576.0, 2) " +
+                "FROM pg_class c " +
+                "JOIN pg_namespace n ON n.oid = c.relnamespace " +
+                "LEFT JOIN pg_stat_user_tables s ON s.relid = c.oid " +
+                "WHERE n.nspname = current_schema() AND c.relkind = 'r' AND c.relname IN (:tablas) " +
+                "ORDER BY c.relname";
+        Query query = entityManager.createNativeQuery(sql);
+        query.setParameter("tablas", tablas);
+        return query.getResultList();
+    }
+
+    public Long contarRegistros(String sql, LocalDate fechaLimite) {
+        Query query = entityManager.createNativeQuery(sql);
+        if (sql.contains(":fechaLimite")) {
+            query.setParameter("fechaLimite", fechaLimite);
+        }
+        return ((Number) query.getSingleResult()).longValue();
+    }
+
+    // Evita que un conteo de fondo sobre una tabla grande bloquee la conexión por mucho tiempo
+    public void limitarDuracionConsultas(int segundos) {
+        entityManager.createNativeQuery("SELECT set_config('statement_timeout', :valor, true)")
+                .setParameter("valor", segundos + "s")
+                .getSingleResult();
+    }
+
     public Double calcularTamanoTabla(String tablaNombre) {
         String sql = "SELECT calcular_tamano_tabla(:tablaNombre)";
         Query query = entityManager.createNativeQuery(sql);
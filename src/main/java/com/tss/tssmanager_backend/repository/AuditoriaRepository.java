@@ -3,11 +3,31 @@ package com.tss.tssmanager_backend.repository;
 import com.tss.tssmanager_backend.entity.Auditoria;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface AuditoriaRepository extends JpaRepository<Auditoria, Integer> {
     List<Auditoria> findByFechaBetween(Instant fechaInicio, Instant fechaFin);
-}
\ No newline at end of file
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT a FROM Auditoria a")
+    Stream<Auditoria> streamAllForExport();
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT a FROM Auditoria a WHERE a.fecha BETWEEN :fechaInicio AND :fechaFin")
+    Stream<Auditoria> streamByFechaBetween(@Param("fechaInicio") Instant fechaInicio, @Param("fechaFin") Instant fechaFin);
+}
@@ -7,10 +7,15 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.Collection;
+import java.util.stream.Stream;
 
 public interface ContactoRepository extends JpaRepository<Contacto, Integer> {
     List<Contacto> findByFechaCreacionBetween(Instant fechaInicio, Instant fechaFin);
@@ -42,4 +47,25 @@ public interface ContactoRepository extends JpaRepository<Contacto, Integer> {
                          @Param("telefonos") List<String> telefonos,
                          @Param("excludeId") Integer excludeId);
 
-}
\ No newline at end of file
+    @Query("SELECT c.id FROM Contacto c WHERE c.id IN :ids")
+    List<Integer> findIdsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT c FROM Contacto c LEFT JOIN FETCH c.empresa LEFT JOIN FETCH c.propietario")
+    Stream<Contacto> streamAllForExport();
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT c FROM Contacto c LEFT JOIN FETCH c.empresa LEFT JOIN FETCH c.propietario WHERE c.fechaCreacion BETWEEN :fechaInicio AND :fechaFin")
+    Stream<Contacto> streamByFechaCreacionBetween(@Param("fechaInicio") Instant fechaInicio, @Param("fechaFin") Instant fechaFin);
+
+    List<Contacto> findByPropietario_IdAndFechaModificacionAfter(Integer propietarioId, Instant fecha);
+
+    @Query("SELECT c.id FROM Contacto c WHERE c.propietario.id = :propietarioId")
+    List<Integer> findIdsByPropietarioId(@Param("propietarioId") Integer propietarioId);
+}
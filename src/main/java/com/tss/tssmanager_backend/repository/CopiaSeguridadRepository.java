@@ -24,5 +24,12 @@ public interface CopiaSeguridadRepository extends JpaRepository<CopiasSeguridad,
     List<CopiasSeguridad> findCopiasActivasByUsuario(@Param("usuarioId") Integer usuarioId, @Param("fecha") LocalDateTime fecha);
 
     void deleteByFechaEliminacionBefore(LocalDateTime fecha);
-}
 
+    @Query("SELECT c FROM CopiasSeguridad c WHERE c.usuarioId = :usuarioId AND c.tipoDatos = :tipoDatos " +
+            "AND (c.modalidad IS NULL OR c.modalidad = 'COMPLETA') AND c.fechaEliminacion > :fecha ORDER BY c.fechaCreacion DESC")
+    List<CopiasSeguridad> findCopiasCompletasActivas(@Param("usuarioId") Integer usuarioId,
+                                                     @Param("tipoDatos") TipoCopiaSeguridadEnum tipoDatos,
+                                                     @Param("fecha") LocalDateTime fecha);
+
+    List<CopiasSeguridad> findByCopiaBaseIdOrderByFechaCreacionAsc(Integer copiaBaseId);
+}
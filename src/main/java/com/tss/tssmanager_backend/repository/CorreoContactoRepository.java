@@ -5,10 +5,21 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import java.util.stream.Stream;
 
 public interface CorreoContactoRepository extends JpaRepository<CorreoContacto, Integer> {
     @Modifying
     @Query("DELETE FROM CorreoContacto c WHERE c.contacto.id = :contactoId")
     void deleteByContactoId(@Param("contactoId") Integer contactoId);
 
-}
\ No newline at end of file
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT c FROM CorreoContacto c LEFT JOIN FETCH c.contacto")
+    Stream<CorreoContacto> streamAllForExport();
+}
@@ -0,0 +1,42 @@
+package com.tss.tssmanager_backend.repository;
+
+import com.tss.tssmanager_backend.entity.CorreoSaliente;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface CorreoSalienteRepository extends JpaRepository<CorreoSaliente, Integer> {
+
+    // Bloquea los correos tomados para que otra instancia no los envíe al mismo tiempo
+    @Query(value = """
+            SELECT * FROM "Correos_Salientes"
+            WHERE estado = 'PENDIENTE' AND proximo_intento <= :ahora
+            ORDER BY proximo_intento, id
+            LIMIT :limite
+            FOR UPDATE SKIP LOCKED
+            """, nativeQuery = true)
+    List<CorreoSaliente> findPendientesParaEnvio(@Param("ahora") Instant ahora, @Param("limite") int limite);
+
+    // proximoIntento guarda el momento en que se tomó el correo mientras está en envío
+    @Modifying
+    @Query("UPDATE CorreoSaliente c SET c.estado = 'ENVIANDO', c.proximoIntento = :ahora WHERE c.id IN :ids")
+    int marcarEnviando(@Param("ids") Collection<Integer> ids, @Param("ahora") Instant ahora);
+
+    // Correos que quedaron en envío por un reinicio o una caída a mitad del lote
+    @Modifying
+    @Query("UPDATE CorreoSaliente c SET c.estado = 'PENDIENTE' WHERE c.estado = 'ENVIANDO' AND c.proximoIntento < :limite")
+    int liberarEnviosAbandonados(@Param("limite") Instant limite);
+
+    @Query("SELECT COUNT(c) > 0 FROM CorreoSaliente c WHERE c.tipoCorreoConsolidado = :tipo " +
+            "AND c.estado IN ('PENDIENTE', 'ENVIANDO', 'ENVIADO') AND c.fechaCreacion >= :desde")
+    boolean existeEncoladoDesde(@Param("tipo") String tipo, @Param("desde") Instant desde);
+
+    long countByEstado(String estado);
+}
@@ -22,6 +22,11 @@ public interface CotizacionRepository extends JpaRepository<Cotizacion, Integer>
     @Query("SELECT c FROM Cotizacion c WHERE c.cliente.id = :clienteId AND c.tratoId IS NULL ORDER BY c.fechaCreacion DESC")
     List<Cotizacion> findByClienteIdAndTratoIdIsNull(@Param("clienteId") Integer clienteId);
 
+    // id, notas comerciales y ficha técnica en el almacén de las cotizaciones de un propietario
+    @Query("SELECT c.id, c.notasComercialesArchivo, c.fichaTecnicaArchivo FROM Cotizacion c " +
+            "WHERE c.cliente.id IN (SELECT e.id FROM Empresa e WHERE e.propietario.id = :propietarioId)")
+    List<Object[]> findArchivosByEmpresaPropietarioId(@Param("propietarioId") Integer propietarioId);
+
     @Modifying
     @Query("DELETE FROM Cotizacion c WHERE c.cliente.id IN (SELECT e.id FROM Empresa e WHERE e.propietario.id = :propietarioId)")
     void deleteByEmpresaPropietarioId(@Param("propietarioId") Integer propietarioId);
@@ -62,8 +62,6 @@ public interface CreditoPlataformaRepository extends JpaRepository<CreditoPlataf
     """)
     List<Object[]> getSaldosPorPlataformaYSubtipo();
 
-    List<CreditoPlataforma> findByFechaLessThanEqualOrderByFecha(LocalDateTime fecha);
-
     @Query("SELECT c.plataforma.nombrePlataforma, " +
             "SUM(CASE WHEN c.tipo = 'ABONO' THEN c.monto ELSE 0 END) " +
             "FROM CreditoPlataforma c " +
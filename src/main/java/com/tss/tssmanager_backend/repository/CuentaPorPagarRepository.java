@@ -14,6 +14,16 @@ public interface CuentaPorPagarRepository extends JpaRepository<CuentaPorPagar,
     boolean existsByTransaccionIdAndEstatusNot(Integer transaccionId, String estatus);
     @Query("SELECT c FROM CuentaPorPagar c WHERE c.fechaPago BETWEEN :start AND :end")
     List<CuentaPorPagar> findByFechaPagoBetween(@Param("start") LocalDate start, @Param("end") LocalDate end);
+
+    // Cuentas del reporte con sus relaciones ya cargadas; estatus y cuenta nulos no filtran
+    @Query("SELECT c FROM CuentaPorPagar c LEFT JOIN FETCH c.cuenta cu LEFT JOIN FETCH c.sim " +
+            "LEFT JOIN FETCH c.transaccion t LEFT JOIN FETCH t.categoria " +
+            "WHERE c.fechaPago BETWEEN :start AND :end " +
+            "AND (:estatus IS NULL OR c.estatus = :estatus) " +
+            "AND (:cuenta IS NULL OR cu.nombre = :cuenta) " +
+            "ORDER BY c.fechaPago, c.id")
+    List<CuentaPorPagar> findParaReporte(@Param("start") LocalDate start, @Param("end") LocalDate end,
+                                         @Param("estatus") String estatus, @Param("cuenta") String cuenta);
     List<CuentaPorPagar> findByTransaccionId(Integer transaccionId);
     List<CuentaPorPagar> findAllByOrderByFechaPagoAsc();
     List<CuentaPorPagar> findBySimId(Integer simId);
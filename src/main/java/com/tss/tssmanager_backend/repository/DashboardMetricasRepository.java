@@ -7,46 +7,47 @@ import org.springframework.stereotype.Repository;
 
 import com.tss.tssmanager_backend.entity.Usuario;
 
-import java.time.Instant;
+import java.time.LocalDate;
 import java.util.List;
 
 @Repository
 public interface DashboardMetricasRepository extends JpaRepository<Usuario, Integer> {
 
+    // Las consultas leen las vistas materializadas mv_metricas_actividades_dia (actividades cerradas
+    // agregadas por día, usuario asignado, trato y empresa) y mv_metricas_empresas (una fila por
+    // empresa con su día de creación). Las refresca RefrescoMetricasDashboard.
+
     // Consulta para obtener métricas de empresas creadas por usuario
     @Query(value = """
+    WITH creadas AS (
+        SELECT me.empresa_id, me.creado_por, me.info_enviada
+        FROM mv_metricas_empresas me
+        WHERE me.dia BETWEEN :startDate AND :endDate
+    ),
+    contactadas AS (
+        SELECT DISTINCT ma.empresa_id
+        FROM mv_metricas_actividades_dia ma
+        WHERE ma.dia BETWEEN :startDate AND :endDate
+            AND ma.empresa_id > 0
+    )
     SELECT 
         u.id as usuario_id,
         u.nombre || ' ' || u.apellidos as nombre_completo,
-        COUNT(DISTINCT e.id) as empresas_nuevas,
-        COUNT(DISTINCT CASE 
-            WHEN EXISTS (
-                SELECT 1 FROM "Actividades" a 
-                WHERE a.trato_id IN (SELECT t.id FROM "Tratos" t WHERE t.empresa_id = e.id)
-                AND a.estatus = 'CERRADA'
-                AND a.fecha_completado BETWEEN :startDate AND :endDate
-            ) THEN e.id END
-        ) as empresas_contactadas,
-        COUNT(DISTINCT CASE 
-            WHEN EXISTS (
-                SELECT 1 FROM "Tratos" t 
-                WHERE t.empresa_id = e.id 
-                AND t.fase IN ('ENVIO_DE_INFORMACION', 'REUNION', 'COTIZACION_PROPUESTA_PRACTICA', 
-                              'NEGOCIACION_REVISION', 'CERRADO_GANADO')
-            ) THEN e.id END
-        ) as empresas_info_enviada
+        COUNT(DISTINCT c.empresa_id) as empresas_nuevas,
+        COUNT(DISTINCT ct.empresa_id) as empresas_contactadas,
+        COUNT(DISTINCT CASE WHEN c.info_enviada THEN c.empresa_id END) as empresas_info_enviada
     FROM "Usuarios" u
-    LEFT JOIN "Empresas" e ON e.creado_por = u.nombre_usuario 
-        AND e.fecha_creacion BETWEEN :startDate AND :endDate
+    LEFT JOIN creadas c ON c.creado_por = u.nombre_usuario
+    LEFT JOIN contactadas ct ON ct.empresa_id = c.empresa_id
     WHERE u.estatus = 'ACTIVO'
         AND (:usuarioId IS NULL OR u.id = :usuarioId)
     GROUP BY u.id, u.nombre, u.apellidos
-    HAVING COUNT(DISTINCT e.id) > 0 OR :usuarioId IS NOT NULL
+    HAVING COUNT(DISTINCT c.empresa_id) > 0 OR :usuarioId IS NOT NULL
     ORDER BY u.nombre
     """, nativeQuery = true)
     List<Object[]> findEmpresasCreadasPorUsuario(
-            @Param("startDate") Instant startDate,
-            @Param("endDate") Instant endDate,
+            @Param("startDate") LocalDate startDate,
+            @Param("endDate") LocalDate endDate,
             @Param("usuarioId") Integer usuarioId
     );
 
@@ -55,244 +56,109 @@ public interface DashboardMetricasRepository extends JpaRepository<Usuario, Inte
         SELECT 
             u.id as usuario_id,
             u.nombre || ' ' || u.apellidos as nombre_completo,
-            COUNT(CASE WHEN a.tipo = 'LLAMADA' AND a.estatus = 'CERRADA' THEN 1 END) as total_llamadas,
-            COUNT(CASE 
-                WHEN a.tipo = 'LLAMADA' 
-                AND a.estatus = 'CERRADA' 
-                AND a.interes IN ('MEDIO', 'ALTO') 
-                THEN 1 END
-            ) as llamadas_exitosas
+            COALESCE(SUM(ma.llamadas), 0) as total_llamadas,
+            COALESCE(SUM(ma.llamadas_exitosas), 0) as llamadas_exitosas
         FROM "Usuarios" u
-        LEFT JOIN "Actividades" a ON a.asignado_a_id = u.id 
-            AND a.fecha_completado BETWEEN :startDate AND :endDate
+        LEFT JOIN mv_metricas_actividades_dia ma ON ma.usuario_id = u.id 
+            AND ma.dia BETWEEN :startDate AND :endDate
         WHERE u.estatus = 'ACTIVO'
             AND (:usuarioId IS NULL OR u.id = :usuarioId)
         GROUP BY u.id, u.nombre, u.apellidos
-        HAVING COUNT(CASE WHEN a.tipo = 'LLAMADA' AND a.estatus = 'CERRADA' THEN 1 END) > 0 
+        HAVING COALESCE(SUM(ma.llamadas), 0) > 0 
             OR :usuarioId IS NOT NULL
         ORDER BY u.nombre
         """, nativeQuery = true)
     List<Object[]> findTasaRespuestaPorUsuario(
-            @Param("startDate") Instant startDate,
-            @Param("endDate") Instant endDate,
+            @Param("startDate") LocalDate startDate,
+            @Param("endDate") LocalDate endDate,
             @Param("usuarioId") Integer usuarioId
     );
 
-    // Consulta para obtener métricas de conversión por usuario
+    // Consulta para obtener métricas de conversión por usuario: cada trato contactado en el rango
+    // avanza de etapa (respuesta, interés, reunión) solo si cumplió la anterior
     @Query(value = """
-        WITH empresas_contactadas AS (
-            SELECT DISTINCT
-                u.id as usuario_id,
-                u.nombre || ' ' || u.apellidos as nombre_completo,
-                t.empresa_id,
-                t.id as trato_id
-            FROM "Usuarios" u
-            INNER JOIN "Actividades" a ON a.asignado_a_id = u.id 
-                AND a.estatus = 'CERRADA'
-                AND a.fecha_completado BETWEEN :startDate AND :endDate
-            INNER JOIN "Tratos" t ON t.id = a.trato_id
-            WHERE u.estatus = 'ACTIVO'
-                AND (:usuarioId IS NULL OR u.id = :usuarioId)
-        ),
-        respuesta_positiva AS (
-            SELECT DISTINCT
-                ec.usuario_id,
-                ec.nombre_completo,
-                ec.empresa_id,
-                ec.trato_id
-            FROM empresas_contactadas ec
-            INNER JOIN "Actividades" a ON a.trato_id = ec.trato_id
-                AND a.asignado_a_id = ec.usuario_id
-                AND a.estatus = 'CERRADA'
-                AND a.respuesta = 'SI'
-                AND a.fecha_completado BETWEEN :startDate AND :endDate
-        ),
-        interes_medio_alto AS (
-            SELECT DISTINCT
-                rp.usuario_id,
-                rp.nombre_completo,
-                rp.empresa_id,
-                rp.trato_id
-            FROM respuesta_positiva rp
-            INNER JOIN "Actividades" a ON a.trato_id = rp.trato_id
-                AND a.asignado_a_id = rp.usuario_id
-                AND a.estatus = 'CERRADA'
-                AND a.interes IN ('MEDIO', 'ALTO')
-                AND a.fecha_completado BETWEEN :startDate AND :endDate
-        ),
-            reuniones_concretadas AS (
-                 SELECT DISTINCT
-                     ima.usuario_id,
-                     ima.nombre_completo,
-                     ima.empresa_id,
-                     ima.trato_id
-                 FROM interes_medio_alto ima
-                 WHERE EXISTS (
-                     SELECT 1 FROM "Actividades" a
-                     WHERE a.trato_id = ima.trato_id
-                         AND a.asignado_a_id = ima.usuario_id
-                         AND a.estatus = 'CERRADA'
-                         AND a.tipo = 'REUNION'
-                         AND a.fecha_completado BETWEEN :startDate AND :endDate
-                 )
-             )
+        WITH tratos_contactados AS (
+            SELECT
+                ma.usuario_id,
+                ma.trato_id,
+                ma.empresa_id,
+                BOOL_OR(ma.con_respuesta) as respuesta,
+                BOOL_OR(ma.con_interes) as interes,
+                BOOL_OR(ma.con_reunion) as reunion
+            FROM mv_metricas_actividades_dia ma
+            WHERE ma.dia BETWEEN :startDate AND :endDate
+                AND ma.empresa_id > 0
+                AND (:usuarioId IS NULL OR ma.usuario_id = :usuarioId)
+            GROUP BY ma.usuario_id, ma.trato_id, ma.empresa_id
+        )
         SELECT 
-            COALESCE(ec.usuario_id, u.id) as usuario_id,
-            COALESCE(ec.nombre_completo, u.nombre || ' ' || u.apellidos) as nombre_completo,
-            COUNT(DISTINCT ec.empresa_id) as empresas_contactadas,
-            COUNT(DISTINCT rp.empresa_id) as respuesta_positiva,
-            COUNT(DISTINCT ima.empresa_id) as interes_medio_alto,
-            COUNT(DISTINCT rc.empresa_id) as reuniones_concretadas
+            u.id as usuario_id,
+            u.nombre || ' ' || u.apellidos as nombre_completo,
+            COUNT(DISTINCT tc.empresa_id) as empresas_contactadas,
+            COUNT(DISTINCT CASE WHEN tc.respuesta THEN tc.empresa_id END) as respuesta_positiva,
+            COUNT(DISTINCT CASE WHEN tc.respuesta AND tc.interes THEN tc.empresa_id END) as interes_medio_alto,
+            COUNT(DISTINCT CASE WHEN tc.respuesta AND tc.interes AND tc.reunion THEN tc.empresa_id END) as reuniones_concretadas
         FROM "Usuarios" u
-        LEFT JOIN empresas_contactadas ec ON ec.usuario_id = u.id
-        LEFT JOIN respuesta_positiva rp ON rp.usuario_id = u.id AND rp.empresa_id = ec.empresa_id
-        LEFT JOIN interes_medio_alto ima ON ima.usuario_id = u.id AND ima.empresa_id = rp.empresa_id  
-        LEFT JOIN reuniones_concretadas rc ON rc.usuario_id = u.id AND rc.empresa_id = ima.empresa_id
+        LEFT JOIN tratos_contactados tc ON tc.usuario_id = u.id
         WHERE u.estatus = 'ACTIVO'
             AND (:usuarioId IS NULL OR u.id = :usuarioId)
-            AND (ec.usuario_id IS NOT NULL OR :usuarioId IS NOT NULL)
-        GROUP BY COALESCE(ec.usuario_id, u.id), COALESCE(ec.nombre_completo, u.nombre || ' ' || u.apellidos)
+        GROUP BY u.id, u.nombre, u.apellidos
+        HAVING COUNT(tc.usuario_id) > 0 OR :usuarioId IS NOT NULL
         ORDER BY nombre_completo
         """, nativeQuery = true)
     List<Object[]> findTasaConversionPorUsuario(
-            @Param("startDate") Instant startDate,
-            @Param("endDate") Instant endDate,
+            @Param("startDate") LocalDate startDate,
+            @Param("endDate") LocalDate endDate,
             @Param("usuarioId") Integer usuarioId
     );
 
-    // Consulta para obtener resumen ejecutivo
+    // Consulta para obtener resumen ejecutivo (se usa también para el período anterior)
     @Query(value = """
+        WITH empresas AS (
+            SELECT me.empresa_id FROM mv_metricas_empresas me
+            WHERE me.dia BETWEEN :startDate AND :endDate
+        ),
+        actividades AS (
+            SELECT ma.* FROM mv_metricas_actividades_dia ma
+            WHERE ma.dia BETWEEN :startDate AND :endDate
+        )
         SELECT 
             -- Total empresas creadas
-            (SELECT COUNT(*) FROM "Empresas" WHERE fecha_creacion BETWEEN :startDate AND :endDate) as total_empresas,
+            (SELECT COUNT(*) FROM empresas) as total_empresas,
             
             -- Promedio de contacto
             CASE 
-                WHEN (SELECT COUNT(*) FROM "Empresas" WHERE fecha_creacion BETWEEN :startDate AND :endDate) = 0 
+                WHEN (SELECT COUNT(*) FROM empresas) = 0 
                 THEN 0
                 ELSE ROUND(
-                    (SELECT COUNT(DISTINCT e.id) * 100.0
-                     FROM "Empresas" e
-                     WHERE e.fecha_creacion BETWEEN :startDate AND :endDate
-                     AND EXISTS (
-                         SELECT 1 FROM "Actividades" a 
-                         INNER JOIN "Tratos" t ON t.id = a.trato_id
-                         WHERE t.empresa_id = e.id
-                         AND a.estatus = 'CERRADA'
-                         AND a.fecha_completado BETWEEN :startDate AND :endDate
-                     )) / 
-                    (SELECT COUNT(*) FROM "Empresas" WHERE fecha_creacion BETWEEN :startDate AND :endDate), 2)
+                    (SELECT COUNT(*) * 100.0 FROM empresas e
+                     WHERE EXISTS (SELECT 1 FROM actividades a WHERE a.empresa_id = e.empresa_id)) / 
+                    (SELECT COUNT(*) FROM empresas), 2)
             END as promedio_contacto,
             
             -- Tasa respuesta global
             CASE 
-                WHEN (SELECT COUNT(*) FROM "Actividades" WHERE tipo = 'LLAMADA' AND estatus = 'CERRADA' 
-                      AND fecha_completado BETWEEN :startDate AND :endDate) = 0 
+                WHEN (SELECT COALESCE(SUM(llamadas), 0) FROM actividades) = 0 
                 THEN 0
                 ELSE ROUND(
-                    (SELECT COUNT(*) * 100.0 FROM "Actividades" 
-                     WHERE tipo = 'LLAMADA' AND estatus = 'CERRADA' 
-                     AND interes IN ('MEDIO', 'ALTO')
-                     AND fecha_completado BETWEEN :startDate AND :endDate) /
-                    (SELECT COUNT(*) FROM "Actividades" WHERE tipo = 'LLAMADA' AND estatus = 'CERRADA' 
-                     AND fecha_completado BETWEEN :startDate AND :endDate), 2)
+                    (SELECT SUM(llamadas_exitosas) * 100.0 FROM actividades) /
+                    (SELECT SUM(llamadas) FROM actividades), 2)
             END as tasa_respuesta_global,
             
             -- Tasa conversión global  
             CASE 
-                WHEN (SELECT COUNT(DISTINCT t.empresa_id) FROM "Tratos" t
-                      INNER JOIN "Actividades" a ON a.trato_id = t.id
-                      WHERE a.estatus = 'CERRADA' AND a.respuesta = 'SI' AND a.interes IN ('MEDIO', 'ALTO')
-                      AND a.fecha_completado BETWEEN :startDate AND :endDate) = 0
+                WHEN (SELECT COUNT(DISTINCT empresa_id) FROM actividades
+                      WHERE con_respuesta_interes AND empresa_id > 0) = 0
                 THEN 0
                 ELSE ROUND(
-                    (SELECT COUNT(DISTINCT t.empresa_id) * 100.0 FROM "Tratos" t
-                     INNER JOIN "Actividades" a1 ON a1.trato_id = t.id
-                     WHERE a1.estatus = 'CERRADA' AND a1.respuesta = 'SI' AND a1.interes IN ('MEDIO', 'ALTO')
-                     AND a1.fecha_completado BETWEEN :startDate AND :endDate
-                     AND EXISTS (
-                         SELECT 1 FROM "Actividades" a2 
-                         WHERE a2.trato_id = t.id 
-                         AND a2.tipo = 'REUNION'
-                         AND a2.id > a1.id
-                         AND EXTRACT(WEEK FROM a1.fecha_completado) = EXTRACT(WEEK FROM a2.fecha_creacion)
-                     )) /
-                    (SELECT COUNT(DISTINCT t.empresa_id) FROM "Tratos" t
-                     INNER JOIN "Actividades" a ON a.trato_id = t.id
-                     WHERE a.estatus = 'CERRADA' AND a.respuesta = 'SI' AND a.interes IN ('MEDIO', 'ALTO')
-                     AND a.fecha_completado BETWEEN :startDate AND :endDate), 2)
+                    (SELECT COUNT(DISTINCT empresa_id) * 100.0 FROM actividades
+                     WHERE con_conversion AND empresa_id > 0) /
+                    (SELECT COUNT(DISTINCT empresa_id) FROM actividades
+                     WHERE con_respuesta_interes AND empresa_id > 0), 2)
             END as tasa_conversion_global
         """, nativeQuery = true)
     List<Object[]> findResumenEjecutivo(
-            @Param("startDate") Instant startDate,
-            @Param("endDate") Instant endDate
-    );
-
-    // Consulta para obtener resumen ejecutivo del período anterior (para tendencias)
-    @Query(value = """
-        SELECT 
-            -- Total empresas creadas período anterior
-            (SELECT COUNT(*) FROM "Empresas" WHERE fecha_creacion BETWEEN :startDatePrev AND :endDatePrev) as total_empresas_prev,
-            
-            -- Promedio de contacto período anterior
-            CASE 
-                WHEN (SELECT COUNT(*) FROM "Empresas" WHERE fecha_creacion BETWEEN :startDatePrev AND :endDatePrev) = 0 
-                THEN 0
-                ELSE ROUND(
-                    (SELECT COUNT(DISTINCT e.id) * 100.0
-                     FROM "Empresas" e
-                     WHERE e.fecha_creacion BETWEEN :startDatePrev AND :endDatePrev
-                     AND EXISTS (
-                         SELECT 1 FROM "Actividades" a 
-                         INNER JOIN "Tratos" t ON t.id = a.trato_id
-                         WHERE t.empresa_id = e.id
-                         AND a.estatus = 'CERRADA'
-                         AND a.fecha_completado BETWEEN :startDatePrev AND :endDatePrev
-                     )) / 
-                    (SELECT COUNT(*) FROM "Empresas" WHERE fecha_creacion BETWEEN :startDatePrev AND :endDatePrev), 2)
-            END as promedio_contacto_prev,
-            
-            -- Tasa respuesta global período anterior
-            CASE 
-                WHEN (SELECT COUNT(*) FROM "Actividades" WHERE tipo = 'LLAMADA' AND estatus = 'CERRADA' 
-                      AND fecha_completado BETWEEN :startDatePrev AND :endDatePrev) = 0 
-                THEN 0
-                ELSE ROUND(
-                    (SELECT COUNT(*) * 100.0 FROM "Actividades" 
-                     WHERE tipo = 'LLAMADA' AND estatus = 'CERRADA' 
-                     AND interes IN ('MEDIO', 'ALTO')
-                     AND fecha_completado BETWEEN :startDatePrev AND :endDatePrev) /
-                    (SELECT COUNT(*) FROM "Actividades" WHERE tipo = 'LLAMADA' AND estatus = 'CERRADA' 
-                     AND fecha_completado BETWEEN :startDatePrev AND :endDatePrev), 2)
-            END as tasa_respuesta_global_prev,
-            
-            -- Tasa conversión global período anterior
-            CASE 
-                WHEN (SELECT COUNT(DISTINCT t.empresa_id) FROM "Tratos" t
-                      INNER JOIN "Actividades" a ON a.trato_id = t.id
-                      WHERE a.estatus = 'CERRADA' AND a.respuesta = 'SI' AND a.interes IN ('MEDIO', 'ALTO')
-                      AND a.fecha_completado BETWEEN :startDatePrev AND :endDatePrev) = 0
-                THEN 0
-                ELSE ROUND(
-                    (SELECT COUNT(DISTINCT t.empresa_id) * 100.0 FROM "Tratos" t
-                     INNER JOIN "Actividades" a1 ON a1.trato_id = t.id
-                     WHERE a1.estatus = 'CERRADA' AND a1.respuesta = 'SI' AND a1.interes IN ('MEDIO', 'ALTO')
-                     AND a1.fecha_completado BETWEEN :startDatePrev AND :endDatePrev
-                     AND EXISTS (
-                         SELECT 1 FROM "Actividades" a2 
-                         WHERE a2.trato_id = t.id 
-                         AND a2.tipo = 'REUNION'
-                         AND a2.id > a1.id
-                         AND EXTRACT(WEEK FROM a1.fecha_completado) = EXTRACT(WEEK FROM a2.fecha_creacion)
-                     )) /
-                    (SELECT COUNT(DISTINCT t.empresa_id) FROM "Tratos" t
-                     INNER JOIN "Actividades" a ON a.trato_id = t.id
-                     WHERE a.estatus = 'CERRADA' AND a.respuesta = 'SI' AND a.interes IN ('MEDIO', 'ALTO')
-                     AND a.fecha_completado BETWEEN :startDatePrev AND :endDatePrev), 2)
-            END as tasa_conversion_global_prev
-        """, nativeQuery = true)
-    List<Object[]> findResumenEjecutivoPeriodoAnterior(
-            @Param("startDatePrev") Instant startDatePrev,
-            @Param("endDatePrev") Instant endDatePrev
+            @Param("startDate") LocalDate startDate,
+            @Param("endDate") LocalDate endDate
     );
-}
\ No newline at end of file
+}
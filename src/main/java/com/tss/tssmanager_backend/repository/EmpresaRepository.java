@@ -7,10 +7,15 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.Collection;
+import java.util.stream.Stream;
 
 public interface EmpresaRepository extends JpaRepository<Empresa, Integer> {
     List<Empresa> findByFechaCreacionBetween(Instant fechaInicio, Instant fechaFin);
@@ -67,4 +72,26 @@ ORDER BY e.nombre
 
     @Query("SELECT e FROM Empresa e WHERE e.estatus = 'CLIENTE'")
     List<Empresa> findAllClientes();
-}
\ No newline at end of file
+
+    @Query("SELECT e.id FROM Empresa e WHERE e.id IN :ids")
+    List<Integer> findIdsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT e FROM Empresa e LEFT JOIN FETCH e.propietario LEFT JOIN FETCH e.sector")
+    Stream<Empresa> streamAllForExport();
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT e FROM Empresa e LEFT JOIN FETCH e.propietario LEFT JOIN FETCH e.sector WHERE e.fechaCreacion BETWEEN :fechaInicio AND :fechaFin")
+    Stream<Empresa> streamByFechaCreacionBetween(@Param("fechaInicio") Instant fechaInicio, @Param("fechaFin") Instant fechaFin);
+
+    List<Empresa> findByPropietario_IdAndFechaModificacionAfter(Integer propietarioId, Instant fecha);
+
+    @Query("SELECT e.id FROM Empresa e WHERE e.propietario.id = :propietarioId")
+    List<Integer> findIdsByPropietarioId(@Param("propietarioId") Integer propietarioId);
+}
@@ -6,9 +6,14 @@ import com.tss.tssmanager_backend.enums.TipoEquipoEnum;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Collection;
+import java.util.stream.Stream;
 
 public interface EquipoRepository extends JpaRepository<Equipo, Integer> {
 
@@ -106,4 +111,17 @@ public interface EquipoRepository extends JpaRepository<Equipo, Integer> {
                 ORDER BY e.fechaExpiracion ASC
             """)
     List<Equipo> findEquiposProximosAExpirar();
-}
\ No newline at end of file
+
+    @Query("SELECT e.modeloId, COUNT(e) FROM Equipo e GROUP BY e.modeloId")
+    List<Object[]> contarPorModelo();
+
+    @Query("SELECT e FROM Equipo e WHERE e.imei IN :imeis")
+    List<Equipo> findByImeiIn(@Param("imeis") Collection<String> imeis);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT e FROM Equipo e LEFT JOIN FETCH e.plataforma LEFT JOIN FETCH e.simReferenciada")
+    Stream<Equipo> streamAllForExport();
+}
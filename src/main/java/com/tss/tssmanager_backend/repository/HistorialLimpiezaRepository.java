@@ -6,7 +6,9 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface HistorialLimpiezaRepository extends JpaRepository<HistorialLimpieza, Integer> {
@@ -19,6 +21,10 @@ public interface HistorialLimpiezaRepository extends JpaRepository<HistorialLimp
     @Query("SELECT hl FROM HistorialLimpieza hl WHERE hl.tipoLimpieza = :tipo ORDER BY hl.fechaLimpieza DESC")
     List<HistorialLimpieza> findByTipoLimpieza(@Param("tipo") String tipo);
 
+    Optional<HistorialLimpieza> findFirstByTablaNombreAndEstadoInOrderByFechaLimpiezaDesc(String tablaNombre, Collection<String> estados);
+
+    List<HistorialLimpieza> findByEstadoIn(Collection<String> estados);
+
     @Query("SELECT COUNT(hl) FROM HistorialLimpieza hl WHERE hl.fechaLimpieza >= :fechaDesde")
     Long countRecentCleanups(@Param("fechaDesde") LocalDateTime fechaDesde);
 
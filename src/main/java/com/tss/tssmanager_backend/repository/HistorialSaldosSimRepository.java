@@ -5,9 +5,14 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import java.sql.Date;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface HistorialSaldosSimRepository extends JpaRepository<HistorialSaldosSim, Integer> {
     List<HistorialSaldosSim> findByFechaBetween(Date fechaInicio, Date fechaFin);
@@ -21,4 +26,32 @@ public interface HistorialSaldosSimRepository extends JpaRepository<HistorialSal
     @Query("SELECT h FROM HistorialSaldosSim h WHERE h.sim.numero = :numero ORDER BY h.fecha DESC, h.id DESC")
     List<HistorialSaldosSim> findBySimNumeroOrderByFechaDesc(@Param("numero") String numero);
 
-}
\ No newline at end of file
+    // Último registro de cada SIM (o nulos si no tiene historial): id SIM, tarifa, id historial, saldo, datos, fecha, revisado
+    @Query(value = """
+            SELECT s.id, s.tarifa, u.id, u.saldo_actual, u.datos, u.fecha, u.revisado
+            FROM "SIMs" s
+            LEFT JOIN LATERAL (
+                SELECT h.id, h.saldo_actual, h.datos, h.fecha, h.revisado
+                FROM "Historial_Saldos_SIMs" h
+                WHERE h.sim_numero = s.numero
+                ORDER BY h.fecha DESC, h.id DESC
+                LIMIT 1
+            ) u ON TRUE
+            WHERE s.id IN (:simIds)
+            """, nativeQuery = true)
+    List<Object[]> findUltimosSaldosBySimIds(@Param("simIds") Collection<Integer> simIds);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT h FROM HistorialSaldosSim h LEFT JOIN FETCH h.sim")
+    Stream<HistorialSaldosSim> streamAllForExport();
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT h FROM HistorialSaldosSim h LEFT JOIN FETCH h.sim WHERE h.fecha BETWEEN :fechaInicio AND :fechaFin")
+    Stream<HistorialSaldosSim> streamByFechaBetween(@Param("fechaInicio") Date fechaInicio, @Param("fechaFin") Date fechaFin);
+}
@@ -6,8 +6,13 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import java.util.List;
+import java.util.Collection;
+import java.util.stream.Stream;
 
 public interface ModeloEquipoRepository extends JpaRepository<ModeloEquipo, Integer> {
 
@@ -28,4 +33,14 @@ public interface ModeloEquipoRepository extends JpaRepository<ModeloEquipo, Inte
             "LEFT JOIN \"Equipos\" e ON m.id = e.modelo_id " +
             "GROUP BY m.id", nativeQuery = true)
     List<Object[]> countEquiposByModelo();
-}
\ No newline at end of file
+
+    @Query("SELECT m.id FROM ModeloEquipo m WHERE m.id IN :ids")
+    List<Integer> findIdsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT m FROM ModeloEquipo m")
+    Stream<ModeloEquipo> streamAllForExport();
+}
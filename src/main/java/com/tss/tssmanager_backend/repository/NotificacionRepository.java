@@ -8,6 +8,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 public interface NotificacionRepository extends JpaRepository<Notificacion, Integer> {
@@ -41,4 +42,19 @@ public interface NotificacionRepository extends JpaRepository<Notificacion, Inte
     @Query("DELETE FROM Notificacion n WHERE n.estatus = :estatus AND n.fechaLeida < :fecha")
     int deleteByEstatusAndFechaLeidaBefore(@Param("estatus") EstatusNotificacionEnum estatus, @Param("fecha") Instant fecha);
 
+    // Usuario, tipo y mensaje de las notificaciones recientes, para descartar duplicados de un lote
+    @Query("SELECT n.usuario.id, n.tipoNotificacion, n.mensaje FROM Notificacion n " +
+            "WHERE n.usuario.id IN :usuarioIds AND n.tipoNotificacion IN :tipos AND n.fechaCreacion > :desde")
+    List<Object[]> findClavesRecientes(@Param("usuarioIds") Collection<Integer> usuarioIds,
+                                       @Param("tipos") Collection<String> tipos,
+                                       @Param("desde") Instant desde);
+
+    @Modifying
+    @Query("UPDATE Notificacion n SET n.estatus = :leida, n.fechaLeida = :fecha " +
+            "WHERE n.usuario.id = :usuarioId AND n.estatus = :noLeida")
+    int marcarTodasComoLeidas(@Param("usuarioId") Integer usuarioId,
+                              @Param("noLeida") EstatusNotificacionEnum noLeida,
+                              @Param("leida") EstatusNotificacionEnum leida,
+                              @Param("fecha") Instant fecha);
+
 }
\ No newline at end of file
@@ -2,6 +2,25 @@ package com.tss.tssmanager_backend.repository;
 
 import com.tss.tssmanager_backend.entity.ProveedorEquipo;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
 
 public interface ProveedorEquipoRepository extends JpaRepository<ProveedorEquipo, Integer> {
-}
\ No newline at end of file
+
+    @Query("SELECT p.id FROM ProveedorEquipo p WHERE p.id IN :ids")
+    List<Integer> findIdsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT p FROM ProveedorEquipo p")
+    Stream<ProveedorEquipo> streamAllForExport();
+}
@@ -7,6 +7,8 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
+import java.util.Collection;
+import java.util.List;
 
 @Repository
 public interface SectorRepository extends JpaRepository<Sector, Integer> {
@@ -21,4 +23,6 @@ public interface SectorRepository extends JpaRepository<Sector, Integer> {
     @Query("SELECT COUNT(e) FROM Empresa e WHERE e.sector.id = :sectorId")
     long countAssociatedEmpresas(@Param("sectorId") Integer sectorId);
 
-}
\ No newline at end of file
+    @Query("SELECT s.id, s.nombreSector FROM Sector s WHERE LOWER(s.nombreSector) IN :nombres")
+    List<Object[]> findIdAndNombreByNombreLowerIn(@Param("nombres") Collection<String> nombres);
+}
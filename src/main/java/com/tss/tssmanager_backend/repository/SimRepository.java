@@ -6,9 +6,14 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Collection;
+import java.util.stream.Stream;
 
 public interface SimRepository extends JpaRepository<Sim, Integer> {
     @Query("SELECT s FROM Sim s WHERE s.equipo IS NULL AND (s.responsable = 'TSS' OR s.responsable = 'CLIENTE')")
@@ -20,6 +25,9 @@ public interface SimRepository extends JpaRepository<Sim, Integer> {
     @Query("SELECT s.numero FROM Sim s WHERE s.grupo = :grupo AND s.principal = 'SI'")
     Optional<String> findNumeroPrincipalByGrupo(@Param("grupo") Integer grupo);
 
+    @Query("SELECT s.grupo, s.numero FROM Sim s WHERE s.grupo IN :grupos AND s.principal = 'SI'")
+    List<Object[]> findNumerosPrincipalesByGrupos(@Param("grupos") Collection<Integer> grupos);
+
     @Query("SELECT DISTINCT s.grupo FROM Sim s WHERE s.grupo IS NOT NULL")
     List<Integer> findAllGroups();
 
@@ -141,4 +149,14 @@ LIMIT 100
 """, nativeQuery = true)
     List<Object[]> findSimsOptimizedWithLimit(@Param("grupo") Integer grupo,
                                               @Param("numero") String numero);
-}
\ No newline at end of file
+
+    @Query("SELECT s FROM Sim s WHERE s.numero IN :numeros")
+    List<Sim> findByNumeroIn(@Param("numeros") Collection<String> numeros);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT s FROM Sim s LEFT JOIN FETCH s.equipo")
+    Stream<Sim> streamAllWithEquipo();
+}
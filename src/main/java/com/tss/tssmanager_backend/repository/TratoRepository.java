@@ -8,11 +8,15 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import java.time.Instant;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface TratoRepository extends JpaRepository<Trato, Integer> {
@@ -58,7 +62,7 @@ public interface TratoRepository extends JpaRepository<Trato, Integer> {
     void deleteByPropietarioId(@Param("propietarioId") Integer propietarioId);
 
     @Query(value = """
-        SELECT 
+        SELECT
             t.id,
             t.nombre,
             t.empresa_id,
@@ -78,11 +82,16 @@ public interface TratoRepository extends JpaRepository<Trato, Integer> {
             e.nombre as empresa_nombre,
             c.id as contacto_id,
             c.nombre as contacto_nombre,
-            -- Contar actividades abiertas
-            (SELECT COUNT(*) FROM "Actividades" a WHERE a.trato_id = t.id AND a.estatus = 'ABIERTA') as actividades_abiertas_count,
-            -- Verificar si tiene actividades
-            (SELECT COUNT(*) > 0 FROM "Actividades" a WHERE a.trato_id = t.id) as has_activities
+            -- Contadores del modelo de lectura del pipeline
+            COALESCE(p.actividades_abiertas, 0) as actividades_abiertas_count,
+            COALESCE(p.actividades_total, 0) > 0 as has_activities,
+            COALESCE(p.tareas_abiertas, 0) as tareas_abiertas_count,
+            COALESCE(p.llamadas_abiertas, 0) as llamadas_abiertas_count,
+            COALESCE(p.reuniones_abiertas, 0) as reuniones_abiertas_count,
+            p.proxima_actividad_tipo,
+            p.proxima_actividad_fecha
         FROM "Tratos" t
+        LEFT JOIN "Tratos_Pipeline" p ON p.trato_id = t.id
         LEFT JOIN "Usuarios" u ON t.propietario_id = u.id
         LEFT JOIN "Empresas" e ON t.empresa_id = e.id
         LEFT JOIN "Contactos" c ON t.contacto_id = c.id
@@ -100,7 +109,7 @@ public interface TratoRepository extends JpaRepository<Trato, Integer> {
 
     // Query para empleados con actividades asignadas
     @Query(value = """
-        SELECT DISTINCT
+        SELECT
             t.id,
             t.nombre,
             t.empresa_id,
@@ -120,15 +129,28 @@ public interface TratoRepository extends JpaRepository<Trato, Integer> {
             e.nombre as empresa_nombre,
             c.id as contacto_id,
             c.nombre as contacto_nombre,
-            (SELECT COUNT(*) FROM "Actividades" a WHERE a.trato_id = t.id AND a.estatus = 'ABIERTA') as actividades_abiertas_count,
-            (SELECT COUNT(*) > 0 FROM "Actividades" a WHERE a.trato_id = t.id) as has_activities
+            -- Contadores del modelo de lectura del pipeline
+            COALESCE(p.actividades_abiertas, 0) as actividades_abiertas_count,
+            COALESCE(p.actividades_total, 0) > 0 as has_activities,
+            COALESCE(p.tareas_abiertas, 0) as tareas_abiertas_count,
+            COALESCE(p.llamadas_abiertas, 0) as llamadas_abiertas_count,
+            COALESCE(p.reuniones_abiertas, 0) as reuniones_abiertas_count,
+            p.proxima_actividad_tipo,
+            p.proxima_actividad_fecha
         FROM "Tratos" t
+        LEFT JOIN "Tratos_Pipeline" p ON p.trato_id = t.id
         LEFT JOIN "Usuarios" u ON t.propietario_id = u.id
         LEFT JOIN "Empresas" e ON t.empresa_id = e.id
         LEFT JOIN "Contactos" c ON t.contacto_id = c.id
-        LEFT JOIN "Actividades" a ON t.id = a.trato_id
-        WHERE (t.propietario_id = :usuarioId OR a.asignado_a_id = :usuarioId)
-        AND t.fecha_creacion BETWEEN :startDate AND :endDate
+        WHERE t.fecha_creacion BETWEEN :startDate AND :endDate
+        AND (
+            t.propietario_id = :usuarioId
+            OR EXISTS (
+                SELECT 1 FROM "Actividades" a
+                WHERE a.trato_id = t.id
+                AND a.asignado_a_id = :usuarioId
+            )
+        )
         ORDER BY t.fecha_modificacion DESC
         """, nativeQuery = true)
     List<Object[]> findTratosForEmpleado(
@@ -142,32 +164,36 @@ public interface TratoRepository extends JpaRepository<Trato, Integer> {
     List<Actividad> findActivitiesByTratoIds(@Param("tratoIds") List<Integer> tratoIds);
 
     @Query(value = """
-    SELECT 
-        t.id,
-        t.nombre,
-        t.propietario_id,
-        t.fecha_cierre,
-        t.no_trato,
-        t.ingresos_esperados,
-        t.fase,
-        t.fecha_ultima_actividad,
-        t.fecha_creacion,
-        t.fecha_modificacion,  -- AGREGAR ESTE CAMPO TAMBIÉN
-        u.nombre as propietario_nombre,
-        e.nombre as empresa_nombre,
-        t.contacto_id,
-        COALESCE((SELECT COUNT(*) FROM "Actividades" a WHERE a.trato_id = t.id), 0) as actividades_count,
-        COALESCE((SELECT COUNT(*) FROM "Actividades" a WHERE a.trato_id = t.id AND a.estatus = 'ABIERTA'), 0) as actividades_abiertas_count,
-        (SELECT a.tipo FROM "Actividades" a WHERE a.trato_id = t.id AND a.estatus = 'ABIERTA' ORDER BY a.fecha_limite ASC LIMIT 1) as proxima_actividad_tipo,
-        (SELECT a.fecha_limite FROM "Actividades" a WHERE a.trato_id = t.id AND a.estatus = 'ABIERTA' ORDER BY a.fecha_limite ASC LIMIT 1) as proxima_actividad_fecha
-    FROM "Tratos" t
-    LEFT JOIN "Usuarios" u ON t.propietario_id = u.id
-    LEFT JOIN "Empresas" e ON t.empresa_id = e.id
-    WHERE (:empresaId IS NULL OR t.empresa_id = :empresaId)
-    AND (:propietarioId IS NULL OR t.propietario_id = :propietarioId)
-    AND t.fecha_creacion BETWEEN :startDate AND :endDate
-    ORDER BY t.fecha_modificacion DESC
-    """, nativeQuery = true)
+        SELECT
+            t.id,
+            t.nombre,
+            t.propietario_id,
+            t.fecha_cierre,
+            t.no_trato,
+            t.ingresos_esperados,
+            t.fase,
+            t.fecha_ultima_actividad,
+            t.fecha_creacion,
+            t.fecha_modificacion,
+            u.nombre as propietario_nombre,
+            e.nombre as empresa_nombre,
+            t.contacto_id,
+            COALESCE(p.actividades_total, 0) as actividades_count,
+            COALESCE(p.actividades_abiertas, 0) as actividades_abiertas_count,
+            p.proxima_actividad_tipo,
+            p.proxima_actividad_fecha,
+            COALESCE(p.tareas_abiertas, 0) as tareas_abiertas_count,
+            COALESCE(p.llamadas_abiertas, 0) as llamadas_abiertas_count,
+            COALESCE(p.reuniones_abiertas, 0) as reuniones_abiertas_count
+        FROM "Tratos" t
+        LEFT JOIN "Tratos_Pipeline" p ON p.trato_id = t.id
+        LEFT JOIN "Usuarios" u ON t.propietario_id = u.id
+        LEFT JOIN "Empresas" e ON t.empresa_id = e.id
+        WHERE (:empresaId IS NULL OR t.empresa_id = :empresaId)
+        AND (:propietarioId IS NULL OR t.propietario_id = :propietarioId)
+        AND t.fecha_creacion BETWEEN :startDate AND :endDate
+        ORDER BY t.fecha_modificacion DESC
+        """, nativeQuery = true)
     List<Object[]> findTratosBasico(
             @Param("empresaId") Integer empresaId,
             @Param("propietarioId") Integer propietarioId,
@@ -176,32 +202,42 @@ public interface TratoRepository extends JpaRepository<Trato, Integer> {
     );
 
     @Query(value = """
-    SELECT DISTINCT
-        t.id,
-        t.nombre,
-        t.propietario_id,
-        t.fecha_cierre,
-        t.no_trato,
-        t.ingresos_esperados,
-        t.fase,
-        t.fecha_ultima_actividad,
-        t.fecha_creacion,
-        t.fecha_modificacion,  -- AGREGAR ESTE CAMPO
-        u.nombre as propietario_nombre,
-        e.nombre as empresa_nombre,
-        t.contacto_id,
-        COALESCE((SELECT COUNT(*) FROM "Actividades" a WHERE a.trato_id = t.id), 0) as actividades_count,
-        COALESCE((SELECT COUNT(*) FROM "Actividades" a WHERE a.trato_id = t.id AND a.estatus = 'ABIERTA'), 0) as actividades_abiertas_count,
-        (SELECT a.tipo FROM "Actividades" a WHERE a.trato_id = t.id AND a.estatus = 'ABIERTA' ORDER BY a.fecha_limite ASC LIMIT 1) as proxima_actividad_tipo,
-        (SELECT a.fecha_limite FROM "Actividades" a WHERE a.trato_id = t.id AND a.estatus = 'ABIERTA' ORDER BY a.fecha_limite ASC LIMIT 1) as proxima_actividad_fecha
-    FROM "Tratos" t
-    LEFT JOIN "Usuarios" u ON t.propietario_id = u.id
-    LEFT JOIN "Empresas" e ON t.empresa_id = e.id
-    LEFT JOIN "Actividades" act ON t.id = act.trato_id
-    WHERE (t.propietario_id = :usuarioId OR act.asignado_a_id = :usuarioId)
-    AND t.fecha_creacion BETWEEN :startDate AND :endDate
-    ORDER BY t.fecha_modificacion DESC
-    """, nativeQuery = true)
+        SELECT
+            t.id,
+            t.nombre,
+            t.propietario_id,
+            t.fecha_cierre,
+            t.no_trato,
+            t.ingresos_esperados,
+            t.fase,
+            t.fecha_ultima_actividad,
+            t.fecha_creacion,
+            t.fecha_modificacion,
+            u.nombre as propietario_nombre,
+            e.nombre as empresa_nombre,
+            t.contacto_id,
+            COALESCE(p.actividades_total, 0) as actividades_count,
+            COALESCE(p.actividades_abiertas, 0) as actividades_abiertas_count,
+            p.proxima_actividad_tipo,
+            p.proxima_actividad_fecha,
+            COALESCE(p.tareas_abiertas, 0) as tareas_abiertas_count,
+            COALESCE(p.llamadas_abiertas, 0) as llamadas_abiertas_count,
+            COALESCE(p.reuniones_abiertas, 0) as reuniones_abiertas_count
+        FROM "Tratos" t
+        LEFT JOIN "Tratos_Pipeline" p ON p.trato_id = t.id
+        LEFT JOIN "Usuarios" u ON t.propietario_id = u.id
+        LEFT JOIN "Empresas" e ON t.empresa_id = e.id
+        WHERE t.fecha_creacion BETWEEN :startDate AND :endDate
+        AND (
+            t.propietario_id = :usuarioId
+            OR EXISTS (
+                SELECT 1 FROM "Actividades" a
+                WHERE a.trato_id = t.id
+                AND a.asignado_a_id = :usuarioId
+            )
+        )
+        ORDER BY t.fecha_modificacion DESC
+        """, nativeQuery = true)
     List<Object[]> findTratosBasicoForEmpleado(
             @Param("usuarioId") Integer usuarioId,
             @Param("startDate") Instant startDate,
@@ -285,49 +321,51 @@ ORDER BY a.fecha_limite ASC, n.fecha_creacion DESC
     List<Object[]> findTratoCompleteByIdWithAllData(@Param("tratoId") Integer tratoId);
 
     @Query(value = """
-    SELECT DISTINCT 
-        t.id,
-        t.nombre,
-        t.empresa_id,
-        t.numero_unidades,
-        t.ingresos_esperados,
-        t.descripcion,
-        t.propietario_id,
-        t.fecha_cierre,
-        t.no_trato,
-        t.probabilidad,
-        t.fase,
-        t.correos_automaticos_activos,
-        t.fecha_creacion,
-        t.fecha_modificacion,
-        t.fecha_ultima_actividad,
-        u.nombre as propietario_nombre,
-        e.nombre as empresa_nombre,
-        c.id as contacto_id,
-        c.nombre as contacto_nombre,
-        CASE WHEN act_count.total > 0 THEN act_count.total ELSE 0 END as actividades_count,
-        CASE WHEN act_count.total > 0 THEN true ELSE false END as has_activities
-    FROM "Tratos" t
-    LEFT JOIN "Usuarios" u ON t.propietario_id = u.id
-    LEFT JOIN "Empresas" e ON t.empresa_id = e.id
-    LEFT JOIN "Contactos" c ON t.contacto_id = c.id
-    LEFT JOIN (
-        SELECT trato_id, COUNT(*) as total
-        FROM "Actividades"
-        GROUP BY trato_id
-    ) act_count ON t.id = act_count.trato_id
-    WHERE t.empresa_id = :empresaId
-      AND (t.fecha_creacion BETWEEN :startDate AND :endDate)
-      AND (
-          t.propietario_id = :usuarioId 
-          OR EXISTS (
-              SELECT 1 FROM "Actividades" a 
-              WHERE a.trato_id = t.id 
-              AND a.asignado_a_id = :usuarioId
-          )
-      )
-    ORDER BY t.fecha_cierre ASC
-""", nativeQuery = true)
+        SELECT
+            t.id,
+            t.nombre,
+            t.empresa_id,
+            t.numero_unidades,
+            t.ingresos_esperados,
+            t.descripcion,
+            t.propietario_id,
+            t.fecha_cierre,
+            t.no_trato,
+            t.probabilidad,
+            t.fase,
+            t.correos_automaticos_activos,
+            t.fecha_creacion,
+            t.fecha_modificacion,
+            t.fecha_ultima_actividad,
+            u.nombre as propietario_nombre,
+            e.nombre as empresa_nombre,
+            c.id as contacto_id,
+            c.nombre as contacto_nombre,
+            -- Contadores del modelo de lectura del pipeline
+            COALESCE(p.actividades_abiertas, 0) as actividades_abiertas_count,
+            COALESCE(p.actividades_total, 0) > 0 as has_activities,
+            COALESCE(p.tareas_abiertas, 0) as tareas_abiertas_count,
+            COALESCE(p.llamadas_abiertas, 0) as llamadas_abiertas_count,
+            COALESCE(p.reuniones_abiertas, 0) as reuniones_abiertas_count,
+            p.proxima_actividad_tipo,
+            p.proxima_actividad_fecha
+        FROM "Tratos" t
+        LEFT JOIN "Tratos_Pipeline" p ON p.trato_id = t.id
+        LEFT JOIN "Usuarios" u ON t.propietario_id = u.id
+        LEFT JOIN "Empresas" e ON t.empresa_id = e.id
+        LEFT JOIN "Contactos" c ON t.contacto_id = c.id
+        WHERE t.empresa_id = :empresaId
+        AND t.fecha_creacion BETWEEN :startDate AND :endDate
+        AND (
+            t.propietario_id = :usuarioId
+            OR EXISTS (
+                SELECT 1 FROM "Actividades" a
+                WHERE a.trato_id = t.id
+                AND a.asignado_a_id = :usuarioId
+            )
+        )
+        ORDER BY t.fecha_cierre ASC
+        """, nativeQuery = true)
     List<Object[]> findTratosForEmpleadoByEmpresa(
             @Param("usuarioId") Integer usuarioId,
             @Param("empresaId") Integer empresaId,
@@ -336,57 +374,43 @@ ORDER BY a.fecha_limite ASC, n.fecha_creacion DESC
     );
 
     @Query(value = """
-    SELECT DISTINCT
-        t.id,
-        t.nombre,
-        t.propietario_id,
-        t.fecha_cierre,
-        t.no_trato,
-        t.ingresos_esperados,
-        t.fase,
-        t.fecha_ultima_actividad,
-        t.fecha_creacion,
-        t.fecha_modificacion,
-        u.nombre as propietario_nombre,
-        e.nombre as empresa_nombre,
-        c.id as contacto_id,
-        COALESCE(act_count.total, 0) as actividades_count,
-        COALESCE(act_abiertas.total, 0) as actividades_abiertas_count,
-        prox_act.tipo as proxima_actividad_tipo,
-        prox_act.fecha_limite as proxima_actividad_fecha
-    FROM "Tratos" t
-    LEFT JOIN "Usuarios" u ON t.propietario_id = u.id
-    LEFT JOIN "Empresas" e ON t.empresa_id = e.id
-    LEFT JOIN "Contactos" c ON t.contacto_id = c.id
-    LEFT JOIN (
-        SELECT trato_id, COUNT(*) as total
-        FROM "Actividades"
-        GROUP BY trato_id
-    ) act_count ON t.id = act_count.trato_id
-    LEFT JOIN (
-        SELECT trato_id, COUNT(*) as total
-        FROM "Actividades"
-        WHERE estatus = 'ABIERTA'
-        GROUP BY trato_id
-    ) act_abiertas ON t.id = act_abiertas.trato_id
-    LEFT JOIN (
-        SELECT DISTINCT ON (trato_id) trato_id, tipo, fecha_limite
-        FROM "Actividades"
-        WHERE estatus = 'ABIERTA'
-        ORDER BY trato_id, fecha_limite ASC
-    ) prox_act ON t.id = prox_act.trato_id
-    WHERE t.empresa_id = :empresaId
-      AND (t.fecha_creacion BETWEEN :startDate AND :endDate)
-      AND (
-          t.propietario_id = :usuarioId 
-          OR EXISTS (
-              SELECT 1 FROM "Actividades" a 
-              WHERE a.trato_id = t.id 
-              AND a.asignado_a_id = :usuarioId
-          )
-      )
-    ORDER BY t.fecha_cierre ASC
-""", nativeQuery = true)
+        SELECT
+            t.id,
+            t.nombre,
+            t.propietario_id,
+            t.fecha_cierre,
+            t.no_trato,
+            t.ingresos_esperados,
+            t.fase,
+            t.fecha_ultima_actividad,
+            t.fecha_creacion,
+            t.fecha_modificacion,
+            u.nombre as propietario_nombre,
+            e.nombre as empresa_nombre,
+            t.contacto_id,
+            COALESCE(p.actividades_total, 0) as actividades_count,
+            COALESCE(p.actividades_abiertas, 0) as actividades_abiertas_count,
+            p.proxima_actividad_tipo,
+            p.proxima_actividad_fecha,
+            COALESCE(p.tareas_abiertas, 0) as tareas_abiertas_count,
+            COALESCE(p.llamadas_abiertas, 0) as llamadas_abiertas_count,
+            COALESCE(p.reuniones_abiertas, 0) as reuniones_abiertas_count
+        FROM "Tratos" t
+        LEFT JOIN "Tratos_Pipeline" p ON p.trato_id = t.id
+        LEFT JOIN "Usuarios" u ON t.propietario_id = u.id
+        LEFT JOIN "Empresas" e ON t.empresa_id = e.id
+        WHERE t.empresa_id = :empresaId
+        AND t.fecha_creacion BETWEEN :startDate AND :endDate
+        AND (
+            t.propietario_id = :usuarioId
+            OR EXISTS (
+                SELECT 1 FROM "Actividades" a
+                WHERE a.trato_id = t.id
+                AND a.asignado_a_id = :usuarioId
+            )
+        )
+        ORDER BY t.fecha_cierre ASC
+        """, nativeQuery = true)
     List<Object[]> findTratosBasicoForEmpleadoByEmpresa(
             @Param("usuarioId") Integer usuarioId,
             @Param("empresaId") Integer empresaId,
@@ -424,4 +448,36 @@ ORDER BY a.fecha_limite ASC, n.fecha_creacion DESC
     List<Trato> findByCorreosSeguimientoActivoTrueAndFaseInWithContacto(
             @Param("fases") List<String> fases
     );
+
+    @Query("SELECT DISTINCT t FROM Trato t " +
+            "LEFT JOIN FETCH t.contacto c " +
+            "LEFT JOIN FETCH c.correos " +
+            "WHERE t.correosSeguimientoActivo = true " +
+            "AND t.fase IN :fases " +
+            "AND t.procesoProximaFecha <= :hoy")
+    List<Trato> findSeguimientosVencidos(@Param("fases") List<String> fases, @Param("hoy") LocalDate hoy);
+
+    @Query("SELECT t FROM Trato t WHERE t.correosSeguimientoActivo = true " +
+            "AND t.procesoAutomaticoId IS NOT NULL " +
+            "AND (t.procesoProximaFecha IS NULL OR t.procesoAutomaticoId = :procesoId)")
+    List<Trato> findSeguimientosPorProgramar(@Param("procesoId") Integer procesoId);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT t FROM Trato t")
+    Stream<Trato> streamAllForExport();
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT t FROM Trato t WHERE t.fechaCreacion BETWEEN :fechaInicio AND :fechaFin")
+    Stream<Trato> streamByFechaCreacionBetween(@Param("fechaInicio") Instant fechaInicio, @Param("fechaFin") Instant fechaFin);
+
+    List<Trato> findByPropietarioIdAndFechaModificacionAfter(Integer propietarioId, Instant fecha);
+
+    @Query("SELECT t.id FROM Trato t WHERE t.propietarioId = :propietarioId")
+    List<Integer> findIdsByPropietarioId(@Param("propietarioId") Integer propietarioId);
 }
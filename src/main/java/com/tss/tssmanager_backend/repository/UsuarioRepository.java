@@ -5,7 +5,9 @@ import com.tss.tssmanager_backend.enums.EstatusUsuarioEnum;
 import com.tss.tssmanager_backend.enums.RolUsuarioEnum;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -14,6 +16,9 @@ public interface UsuarioRepository extends JpaRepository<Usuario, Integer> {
     Usuario findByNombreUsuario(String nombreUsuario);
     Usuario findByNombre(String nombre);
 
+    @Query("SELECT u FROM Usuario u WHERE LOWER(TRIM(u.nombre)) = LOWER(TRIM(:nombre)) ORDER BY u.id ASC LIMIT 1")
+    Usuario findByNombreIgnorandoMayusculas(@Param("nombre") String nombre);
+
     Optional<Usuario> findByIdAndEstatusNot(Integer id, EstatusUsuarioEnum estatus);
     void deleteByIdAndEstatusNot(Integer id, String estatus);
 
@@ -28,4 +33,6 @@ public interface UsuarioRepository extends JpaRepository<Usuario, Integer> {
 
     boolean existsByCorreoElectronicoAndEstatus(String correoElectronico, EstatusUsuarioEnum estatus);
 
+    @Query("SELECT u.id FROM Usuario u WHERE u.id IN :ids")
+    List<Integer> findIdsByIdIn(@Param("ids") Collection<Integer> ids);
 }
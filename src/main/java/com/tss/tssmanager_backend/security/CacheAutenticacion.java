@@ -0,0 +1,103 @@
+package com.tss.tssmanager_backend.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Cachés de la autenticación por JWT: los tokens ya verificados (por hash del token, hasta su
+ * expiración) y los usuarios autenticados (por nombre de usuario). Con ambos, una petición
+ * autenticada no verifica la firma más de una vez por token ni consulta la base de datos.
+ * UsuarioService invalida el usuario cuando cambia su rol, estatus o contraseña.
+ */
+@Component
+public class CacheAutenticacion {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheAutenticacion.class);
+
+    private static final long MAXIMO_TOKENS = 10_000;
+    private static final long MAXIMO_USUARIOS = 1_000;
+    // Respaldo por si un usuario se modifica fuera de UsuarioService
+    private static final long MINUTOS_VIGENCIA_USUARIO = 10;
+
+    private final Cache<String, TokenVerificado> tokens = Caffeine.newBuilder()
+            .maximumSize(MAXIMO_TOKENS)
+            .expireAfter(new Expiry<String, TokenVerificado>() {
+                @Override
+                public long expireAfterCreate(String llave, TokenVerificado token, long tiempoActual) {
+                    long restanteMs = token.expiracionMs() - System.currentTimeMillis();
+                    return TimeUnit.MILLISECONDS.toNanos(Math.max(0, restanteMs));
+                }
+
+                @Override
+                public long expireAfterUpdate(String llave, TokenVerificado token, long tiempoActual,
+                                              long duracionActual) {
+                    return expireAfterCreate(llave, token, tiempoActual);
+                }
+
+                @Override
+                public long expireAfterRead(String llave, TokenVerificado token, long tiempoActual,
+                                            long duracionActual) {
+                    return duracionActual;
+                }
+            })
+            .build();
+
+    private final Cache<String, CustomUserDetails> usuarios = Caffeine.newBuilder()
+            .maximumSize(MAXIMO_USUARIOS)
+            .expireAfterWrite(MINUTOS_VIGENCIA_USUARIO, TimeUnit.MINUTES)
+            .build();
+
+    public TokenVerificado obtenerToken(String token, Function<String, TokenVerificado> verificar) {
+        return tokens.get(hash(token), llave -> verificar.apply(token));
+    }
+
+    public CustomUserDetails obtenerUsuario(String nombreUsuario, Function<String, CustomUserDetails> cargar) {
+        return usuarios.get(nombreUsuario, cargar);
+    }
+
+    /**
+     * Descarta el usuario en cuanto se llama y otra vez al confirmar la transacción, para que
+     * una petición concurrente no vuelva a guardar los datos anteriores.
+     */
+    public void invalidarUsuario(String nombreUsuario) {
+        if (nombreUsuario == null) {
+            return;
+        }
+        usuarios.invalidate(nombreUsuario);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    usuarios.invalidate(nombreUsuario);
+                }
+            });
+        }
+        logger.debug("Usuario {} descartado de la caché de autenticación", nombreUsuario);
+    }
+
+    private static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    public record TokenVerificado(String nombreUsuario, long expiracionMs) {
+    }
+}
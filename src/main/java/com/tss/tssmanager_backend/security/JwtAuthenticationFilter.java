@@ -20,10 +20,13 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtUtil jwtUtil;
     private final CustomUserDetailsService userDetailsService;
+    private final CacheAutenticacion cacheAutenticacion;
 
-    public JwtAuthenticationFilter(JwtUtil jwtUtil, CustomUserDetailsService userDetailsService) {
+    public JwtAuthenticationFilter(JwtUtil jwtUtil, CustomUserDetailsService userDetailsService,
+                                   CacheAutenticacion cacheAutenticacion) {
         this.jwtUtil = jwtUtil;
         this.userDetailsService = userDetailsService;
+        this.cacheAutenticacion = cacheAutenticacion;
     }
 
     @Override
@@ -43,22 +46,26 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         if (header != null && header.startsWith("Bearer ")) {
             String token = header.substring(7);
             try {
-                String username = jwtUtil.getUsernameFromToken(token);
+                // La firma solo se verifica la primera vez que se ve el token
+                CacheAutenticacion.TokenVerificado verificado =
+                        cacheAutenticacion.obtenerToken(token, jwtUtil::verificarToken);
+                String username = verificado.nombreUsuario();
+
+                if (verificado.expiracionMs() <= System.currentTimeMillis()) {
+                    logger.warn("Expired JWT token for user: {}", username);
+                    response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Invalid JWT token");
+                    return;
+                }
 
                 if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                    UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+                    UserDetails userDetails = cacheAutenticacion.obtenerUsuario(username,
+                            nombre -> (CustomUserDetails) userDetailsService.loadUserByUsername(nombre));
 
-                    if (jwtUtil.validateToken(token)) {
-                        UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
-                                userDetails, null, userDetails.getAuthorities());
-                        authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                        SecurityContextHolder.getContext().setAuthentication(authentication);
-                        logger.debug("Authenticated user: {}", username);
-                    } else {
-                        logger.warn("Invalid JWT token for user: {}", username);
-                        response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Invalid JWT token");
-                        return;
-                    }
+                    UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
+                            userDetails, null, userDetails.getAuthorities());
+                    authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                    SecurityContextHolder.getContext().setAuthentication(authentication);
+                    logger.debug("Authenticated user: {}", username);
                 }
             } catch (Exception e) {
                 logger.error("Error processing JWT token: {}", e.getMessage());
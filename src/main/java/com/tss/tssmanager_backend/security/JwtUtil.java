@@ -72,6 +72,18 @@ public class JwtUtil {
         return null;
     }
 
+    /**
+     * Verifica la firma y la expiración del token en una sola lectura; lanza una excepción si
+     * el token no es válido.
+     */
+    public CacheAutenticacion.TokenVerificado verificarToken(String token) {
+        Claims claims = getClaims(token);
+        long expiracionMs = claims.getExpiration() != null
+                ? claims.getExpiration().getTime()
+                : System.currentTimeMillis() + expiration;
+        return new CacheAutenticacion.TokenVerificado(claims.getSubject(), expiracionMs);
+    }
+
     private Claims getClaims(String token) {
         return Jwts.parser()
                 .verifyWith(getSigningKey())
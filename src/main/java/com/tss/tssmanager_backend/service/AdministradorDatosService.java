@@ -17,18 +17,34 @@ import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
 import org.apache.poi.xssf.usermodel.XSSFFont;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 import org.springframework.web.multipart.MultipartFile;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 import java.awt.Color;
 import java.io.*;
@@ -46,6 +62,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
@@ -64,10 +81,12 @@ public class AdministradorDatosService {
     private final SectorRepository sectorRepository;
     private final SimRepository simRepository;
     private final HistorialSaldosSimRepository historialSaldoRepository;
+    private final IndiceSaldosSim indiceSaldosSim;
     private final UsuarioRepository usuarioRepository;
     private final AuditoriaRepository auditoriaRepository;
     private final ResourceLoader resourceLoader;
-    private final PlataformaService plataformaService;
+    private final PlataformaRepository plataformaRepository;
+    private final SimpMessagingTemplate messagingTemplate;
 
     @Value("${app.archivos.exportaciones:/exportaciones}")
     private String rutaExportaciones;
@@ -75,6 +94,16 @@ public class AdministradorDatosService {
     @Value("${app.archivos.importaciones:/importaciones}")
     private String rutaImportaciones;
 
+    @Value("${app.importacion.tamano-lote:500}")
+    private int tamanoLoteImportacion;
+
+    private static final int MAX_LONGITUD_ERRORES_IMPORTACION = 200_000;
+
+    private static final int TAMANO_BLOQUE_EXPORTACION = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
     private final org.springframework.context.ApplicationContext applicationContext;
 
     public Resource descargarPlantilla(String tipoDatos) {
@@ -182,47 +211,63 @@ public class AdministradorDatosService {
             Path rutaArchivo = directorioImportaciones.resolve(nombreArchivo);
             Files.copy(archivo.getInputStream(), rutaArchivo);
 
-            String contenidoCSV;
+            // El XLSX se convierte fila por fila a un CSV temporal en disco, nunca se carga completo en memoria
+            Path rutaCSV = rutaArchivo;
             if (esXLSX) {
-                contenidoCSV = convertirXLSXaCSV(rutaArchivo);
-            } else {
-                contenidoCSV = new String(Files.readAllBytes(rutaArchivo), java.nio.charset.StandardCharsets.UTF_8);
-                contenidoCSV = limpiarBOM(contenidoCSV);
+                rutaCSV = directorioImportaciones.resolve(nombreArchivo.replace(".xlsx", ".csv"));
+                convertirXLSXaCSV(rutaArchivo, rutaCSV);
             }
 
-            try (Reader reader = new StringReader(contenidoCSV);
+            try (Reader reader = abrirLectorSinBOM(rutaCSV);
                  CSVParser csvParser = new CSVParser(reader,
                          CSVFormat.DEFAULT
                                  .withFirstRecordAsHeader()
                                  .withIgnoreEmptyLines(true)
                                  .withTrim())) {
 
-                List<CSVRecord> records = csvParser.getRecords();
-                resultado.setRegistrosProcesados(records.size());
+                int procesados = 0;
                 int exitosos = 0;
                 int fallidos = 0;
+                int erroresOmitidos = 0;
                 AdministradorDatosService proxy = applicationContext.getBean(AdministradorDatosService.class);
-                for (CSVRecord record : records) {
-                    try {
-                        boolean procesado = proxy.procesarRegistro(record, tipoDatos, usuarioId);
+                List<CSVRecord> lote = new ArrayList<>(tamanoLoteImportacion);
+                IndiceReferenciasImportacion indice = crearIndiceReferencias();
+                Iterator<CSVRecord> iterator = csvParser.iterator();
+
+                while (iterator.hasNext()) {
+                    lote.add(iterator.next());
+                    if (lote.size() < tamanoLoteImportacion && iterator.hasNext()) {
+                        continue;
+                    }
 
-                        if (procesado) {
-                            exitosos++;
-                        } else {
-                            fallidos++;
-                            String error = "Fila " + record.getRecordNumber() + ": No se pudo procesar\n";
+                    indice.precargar(lote, tipoDatos, usuarioId);
+                    ResultadoLoteImportacion resultadoLote = procesarLoteAislado(proxy, lote, tipoDatos, usuarioId, indice);
+                    // El lote ya está confirmado: los saldos importados se ven sin esperar la expiración del índice
+                    if (resultadoLote.exitosos > 0 && ("historialSaldos".equals(tipoDatos) || "sims".equals(tipoDatos))) {
+                        indiceSaldosSim.invalidarTodo();
+                    }
+                    procesados += lote.size();
+                    exitosos += resultadoLote.exitosos;
+                    fallidos += resultadoLote.errores.size();
+                    for (String error : resultadoLote.errores) {
+                        if (errores.length() < MAX_LONGITUD_ERRORES_IMPORTACION) {
                             errores.append(error);
-                            System.err.println(error);
+                        } else {
+                            erroresOmitidos++;
                         }
-                    } catch (Exception e) {
-                        fallidos++;
-                        String error = "Fila " + record.getRecordNumber() + ": " + e.getMessage() + "\n";
-                        errores.append(error);
-                        System.err.println("ERROR en fila " + record.getRecordNumber() + ": " + e.getMessage());
-                        e.printStackTrace();
                     }
+                    lote.clear();
+
+                    notificarProgresoImportacion(usuarioId, tipoDatos, procesados, exitosos, fallidos);
+                }
+
+                System.out.println("Índice de referencias de importación " + tipoDatos + ": " + indice.resumen());
+
+                if (erroresOmitidos > 0) {
+                    errores.append("... y ").append(erroresOmitidos).append(" errores más\n");
                 }
 
+                resultado.setRegistrosProcesados(procesados);
                 resultado.setRegistrosExitosos(exitosos);
                 resultado.setRegistrosFallidos(fallidos);
                 resultado.setErrores(errores.toString());
@@ -244,8 +289,9 @@ public class AdministradorDatosService {
                 historialImportacionRepository.save(historial);
             }
 
-            // Limpiar archivo temporal
+            // Limpiar archivos temporales
             Files.deleteIfExists(rutaArchivo);
+            Files.deleteIfExists(rutaCSV);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -256,44 +302,122 @@ public class AdministradorDatosService {
         return resultado;
     }
 
+    /**
+     * Intenta guardar el lote completo en una sola transacción. Si la transacción del lote
+     * falla (por ejemplo, por una violación de unicidad), se reprocesa fila por fila para
+     * aislar los registros con error sin perder los válidos.
+     */
+    private ResultadoLoteImportacion procesarLoteAislado(AdministradorDatosService proxy, List<CSVRecord> lote,
+                                                         String tipoDatos, Integer usuarioId,
+                                                         IndiceReferenciasImportacion indice) {
+        try {
+            ResultadoLoteImportacion resultadoLote = proxy.procesarLote(lote, tipoDatos, usuarioId, indice);
+            indice.confirmarLote();
+            return resultadoLote;
+        } catch (Exception e) {
+            indice.revertirLote();
+            System.err.println("Lote con error en importación de " + tipoDatos + ", reprocesando fila por fila: " + e.getMessage());
+        }
+
+        ResultadoLoteImportacion resultadoLote = new ResultadoLoteImportacion();
+        for (CSVRecord record : lote) {
+            try {
+                if (proxy.procesarRegistro(record, tipoDatos, usuarioId, indice)) {
+                    resultadoLote.exitosos++;
+                } else {
+                    resultadoLote.errores.add("Fila " + record.getRecordNumber() + ": No se pudo procesar\n");
+                }
+                indice.confirmarLote();
+            } catch (Exception e) {
+                indice.revertirLote();
+                resultadoLote.errores.add("Fila " + record.getRecordNumber() + ": " + e.getMessage() + "\n");
+                System.err.println("ERROR en fila " + record.getRecordNumber() + ": " + e.getMessage());
+            }
+        }
+        return resultadoLote;
+    }
+
+    private IndiceReferenciasImportacion crearIndiceReferencias() {
+        return new IndiceReferenciasImportacion(contactosRepository, empresasRepository, usuarioRepository,
+                sectorRepository, modeloRepository, proveedorRepository, plataformaRepository,
+                equipoRepository, simRepository);
+    }
+
     @Transactional(propagation = org.springframework.transaction.annotation.Propagation.REQUIRES_NEW,
             rollbackFor = Exception.class)
-    public boolean procesarRegistro(CSVRecord record, String tipoDatos, Integer usuarioId) {
+    public ResultadoLoteImportacion procesarLote(List<CSVRecord> lote, String tipoDatos, Integer usuarioId,
+                                                 IndiceReferenciasImportacion indice) {
+        ResultadoLoteImportacion resultadoLote = new ResultadoLoteImportacion();
+        for (CSVRecord record : lote) {
+            try {
+                if (procesarRegistro(record, tipoDatos, usuarioId, indice)) {
+                    resultadoLote.exitosos++;
+                } else {
+                    resultadoLote.errores.add("Fila " + record.getRecordNumber() + ": No se pudo procesar\n");
+                }
+            } catch (Exception e) {
+                resultadoLote.errores.add("Fila " + record.getRecordNumber() + ": " + e.getMessage() + "\n");
+            }
+        }
+        return resultadoLote;
+    }
+
+    private void notificarProgresoImportacion(Integer usuarioId, String tipoDatos, int procesados, int exitosos, int fallidos) {
+        try {
+            Map<String, Object> progreso = new HashMap<>();
+            progreso.put("tipoDatos", tipoDatos);
+            progreso.put("registrosProcesados", procesados);
+            progreso.put("registrosExitosos", exitosos);
+            progreso.put("registrosFallidos", fallidos);
+            messagingTemplate.convertAndSend("/topic/importaciones/" + usuarioId, progreso);
+        } catch (Exception e) {
+            System.err.println("No se pudo notificar el progreso de la importación: " + e.getMessage());
+        }
+    }
+
+    public static class ResultadoLoteImportacion {
+        private int exitosos;
+        private final List<String> errores = new ArrayList<>();
+    }
+
+    @Transactional(propagation = org.springframework.transaction.annotation.Propagation.REQUIRES_NEW,
+            rollbackFor = Exception.class)
+    public boolean procesarRegistro(CSVRecord record, String tipoDatos, Integer usuarioId,
+                                    IndiceReferenciasImportacion indice) {
         switch (tipoDatos) {
             case "tratos":
-                return procesarTrato(record, usuarioId);
+                return procesarTrato(record, usuarioId, indice);
             case "empresas":
-                return procesarEmpresa(record, usuarioId);
+                return procesarEmpresa(record, usuarioId, indice);
             case "contactos":
-                return procesarContacto(record, usuarioId);
+                return procesarContacto(record, usuarioId, indice);
             case "correoContactos":
-                return procesarCorreoContacto(record);
+                return procesarCorreoContacto(record, indice);
             case "modelos":
                 return procesarModelo(record);
             case "proveedores":
                 return procesarProveedor(record);
             case "equipos":
-                return procesarEquipo(record);
+                return procesarEquipo(record, indice);
             case "sims":
-                return procesarSim(record);
+                return procesarSim(record, indice);
             case "historialSaldos":
-                return procesarHistorialSaldo(record);
+                return procesarHistorialSaldo(record, indice);
             default:
                 return false;
         }
     }
 
-    private boolean procesarCorreoContacto(CSVRecord record) {
+    private boolean procesarCorreoContacto(CSVRecord record, IndiceReferenciasImportacion indice) {
         try {
             CorreoContacto correo = new CorreoContacto();
 
             Integer contactoId = Integer.parseInt(record.get("contacto_id"));
-            Optional<Contacto> contactoOpt = contactosRepository.findById(contactoId);
-            if (contactoOpt.isEmpty()) {
+            if (!indice.existeContacto(contactoId)) {
                 throw new RuntimeException("Contacto no encontrado con ID: " + contactoId);
             }
 
-            correo.setContacto(contactoOpt.get());
+            correo.setContacto(contactosRepository.getReferenceById(contactoId));
             correo.setCorreo(record.get("correo"));
 
             correoContactoRepository.save(correo);
@@ -333,12 +457,16 @@ public class AdministradorDatosService {
         }
     }
 
-    private boolean procesarEquipo(CSVRecord record) {
+    private boolean procesarEquipo(CSVRecord record, IndiceReferenciasImportacion indice) {
         try {
             Equipo equipo = new Equipo();
             equipo.setImei(record.get("imei"));
             equipo.setNombre(record.get("nombre"));
-            equipo.setModeloId(Integer.parseInt(record.get("modelo_id")));
+            Integer modeloId = Integer.parseInt(record.get("modelo_id"));
+            if (!indice.existeModelo(modeloId)) {
+                return false;
+            }
+            equipo.setModeloId(modeloId);
 
             String clienteIdStr = record.get("cliente_id");
             if (clienteIdStr != null && !clienteIdStr.isEmpty()) {
@@ -346,7 +474,11 @@ public class AdministradorDatosService {
             }
 
             equipo.setClienteDefault(record.get("cliente_default"));
-            equipo.setProveedorId(Integer.parseInt(record.get("proveedor_id")));
+            Integer proveedorId = Integer.parseInt(record.get("proveedor_id"));
+            if (!indice.existeProveedor(proveedorId)) {
+                return false;
+            }
+            equipo.setProveedorId(proveedorId);
             equipo.setTipo(TipoEquipoEnum.valueOf(record.get("tipo")));
             equipo.setEstatus(EstatusEquipoEnum.valueOf(record.get("estatus")));
 
@@ -374,15 +506,7 @@ public class AdministradorDatosService {
                 }
 
                 if (nombrePlataforma != null) {
-                    List<Plataforma> plataformas = plataformaService.obtenerTodasLasPlataformas();
-                    Plataforma plataforma = null;
-                    for (Plataforma p : plataformas) {
-                        if (nombrePlataforma.equals(p.getNombrePlataforma())) {
-                            plataforma = p;
-                            break;
-                        }
-                    }
-                    equipo.setPlataforma(plataforma);
+                    equipo.setPlataforma(indice.obtenerPlataforma(nombrePlataforma));
                 }
             }
 
@@ -403,7 +527,7 @@ public class AdministradorDatosService {
         }
     }
 
-    private boolean procesarSim(CSVRecord record) {
+    private boolean procesarSim(CSVRecord record, IndiceReferenciasImportacion indice) {
         try {
             Sim sim = new Sim();
             sim.setNumero(record.get("numero"));
@@ -429,7 +553,7 @@ public class AdministradorDatosService {
 
             String equipoImeiStr = record.get("equipo_imei");
             if (equipoImeiStr != null && !equipoImeiStr.isEmpty()) {
-                Optional<Equipo> equipoOpt = equipoRepository.findByImei(equipoImeiStr);
+                Optional<Equipo> equipoOpt = indice.obtenerEquipoPorImei(equipoImeiStr);
                 if (equipoOpt.isPresent()) {
                     sim.setEquipo(equipoOpt.get());
                 }
@@ -444,13 +568,13 @@ public class AdministradorDatosService {
         }
     }
 
-    private boolean procesarHistorialSaldo(CSVRecord record) {
+    private boolean procesarHistorialSaldo(CSVRecord record, IndiceReferenciasImportacion indice) {
         try {
             HistorialSaldosSim historial = new HistorialSaldosSim();
 
             // Buscar SIM por número en lugar de ID
             String simNumero = record.get("sim_numero");
-            Optional<Sim> simOpt = simRepository.findByNumero(simNumero);
+            Optional<Sim> simOpt = indice.obtenerSimPorNumero(simNumero);
             if (simOpt.isEmpty()) {
                 throw new RuntimeException("SIM no encontrada con número: " + simNumero);
             }
@@ -482,7 +606,7 @@ public class AdministradorDatosService {
     }
 
 
-    private boolean procesarTrato(CSVRecord record, Integer usuarioId) {
+    private boolean procesarTrato(CSVRecord record, Integer usuarioId, IndiceReferenciasImportacion indice) {
         try {
             Trato trato = new Trato();
 
@@ -498,11 +622,16 @@ public class AdministradorDatosService {
             if (empresaIdStr == null || empresaIdStr.trim().isEmpty()) {
                 throw new RuntimeException("El campo 'empresa_id' es obligatorio y está vacío");
             }
+            Integer empresaId;
             try {
-                trato.setEmpresaId(Integer.parseInt(empresaIdStr.trim()));
+                empresaId = Integer.parseInt(empresaIdStr.trim());
             } catch (NumberFormatException e) {
                 throw new RuntimeException("'empresa_id' debe ser un número entero, valor recibido: '" + empresaIdStr + "'");
             }
+            if (!indice.existeEmpresa(empresaId)) {
+                throw new RuntimeException("No existe una empresa con ID: " + empresaId);
+            }
+            trato.setEmpresaId(empresaId);
 
             // contacto_id
             String contactoIdStr = record.get("contacto_id");
@@ -515,11 +644,10 @@ public class AdministradorDatosService {
             } catch (NumberFormatException e) {
                 throw new RuntimeException("'contacto_id' debe ser un número entero, valor recibido: '" + contactoIdStr + "'");
             }
-            Optional<Contacto> contactoOpt = contactosRepository.findById(contactoId);
-            if (contactoOpt.isEmpty()) {
+            if (!indice.existeContacto(contactoId)) {
                 throw new RuntimeException("No existe un contacto con ID: " + contactoId);
             }
-            trato.setContacto(contactoOpt.get());
+            trato.setContacto(contactosRepository.getReferenceById(contactoId));
 
             // propietario_id (opcional, usa usuarioId por defecto)
             Integer propietarioId = usuarioId;
@@ -531,8 +659,7 @@ public class AdministradorDatosService {
             } catch (NumberFormatException e) {
                 throw new RuntimeException("'propietario_id' debe ser un número entero o estar vacío");
             }
-            Optional<Usuario> propietarioOpt = usuarioRepository.findById(propietarioId);
-            if (propietarioOpt.isEmpty()) {
+            if (!indice.existeUsuario(propietarioId)) {
                 throw new RuntimeException("No existe un usuario con ID: " + propietarioId);
             }
             trato.setPropietarioId(propietarioId);
@@ -648,18 +775,17 @@ public class AdministradorDatosService {
         }
     }
 
-    private boolean procesarContacto(CSVRecord record, Integer usuarioId) {
+    private boolean procesarContacto(CSVRecord record, Integer usuarioId, IndiceReferenciasImportacion indice) {
         try {
             Contacto contacto = new Contacto();
             contacto.setNombre(record.get("nombre"));
 
             // Buscar empresa por ID
             Integer empresaId = Integer.parseInt(record.get("empresa_id"));
-            Optional<Empresa> empresaOpt = empresasRepository.findById(empresaId);
-            if (empresaOpt.isEmpty()) {
+            if (!indice.existeEmpresa(empresaId)) {
                 throw new RuntimeException("Empresa no encontrada con ID: " + empresaId);
             }
-            contacto.setEmpresa(empresaOpt.get());
+            contacto.setEmpresa(empresasRepository.getReferenceById(empresaId));
 
             contacto.setRol(RolContactoEnum.valueOf(record.get("rol")));
             contacto.setCelular(record.get("celular"));
@@ -672,9 +798,8 @@ public class AdministradorDatosService {
                 }
             }
 
-            Optional<Usuario> propietarioOpt = usuarioRepository.findById(propietarioId);
-            if (propietarioOpt.isEmpty()) throw new RuntimeException("Usuario propietario no encontrado");
-            contacto.setPropietario(propietarioOpt.get());
+            if (!indice.existeUsuario(propietarioId)) throw new RuntimeException("Usuario propietario no encontrado");
+            contacto.setPropietario(usuarioRepository.getReferenceById(propietarioId));
 
             contacto.setCreadoPor(record.get("creado_por"));
 
@@ -703,7 +828,7 @@ public class AdministradorDatosService {
     }
 
 
-    private boolean procesarEmpresa(CSVRecord record, Integer usuarioId) {
+    private boolean procesarEmpresa(CSVRecord record, Integer usuarioId, IndiceReferenciasImportacion indice) {
         try {
             Empresa empresa = new Empresa();
             empresa.setNombre(record.get("nombre"));
@@ -718,9 +843,8 @@ public class AdministradorDatosService {
                     propietarioId = Integer.parseInt(propStr);
                 }
             }
-            Optional<Usuario> propietarioOpt = usuarioRepository.findById(propietarioId);
-            if (propietarioOpt.isEmpty()) throw new RuntimeException("Propietario no encontrado");
-            empresa.setPropietario(propietarioOpt.get());
+            if (!indice.existeUsuario(propietarioId)) throw new RuntimeException("Propietario no encontrado");
+            empresa.setPropietario(usuarioRepository.getReferenceById(propietarioId));
 
             empresa.setCreadoPor(record.get("creado_por"));
 
@@ -741,9 +865,9 @@ public class AdministradorDatosService {
 
             String sectorStr = record.get("sector");
             if (sectorStr != null && !sectorStr.trim().isEmpty()) {
-                Optional<Sector> sectorOpt = sectorRepository.findByNombreSectorIgnoreCase(sectorStr.trim());
-                if (sectorOpt.isPresent()) {
-                    empresa.setSector(sectorOpt.get());
+                Integer sectorId = indice.obtenerSectorId(sectorStr);
+                if (sectorId != null) {
+                    empresa.setSector(sectorRepository.getReferenceById(sectorId));
                 } else {
                     // Crear el sector si no existe
                     Sector nuevoSector = new Sector();
@@ -751,6 +875,7 @@ public class AdministradorDatosService {
                     nuevoSector.setCreadoPor("SISTEMA_IMPORTACION");
                     nuevoSector.setModificadoPor("SISTEMA_IMPORTACION");
                     Sector sectorGuardado = sectorRepository.save(nuevoSector);
+                    indice.registrarSectorCreado(sectorGuardado.getNombreSector(), sectorGuardado.getId());
                     empresa.setSector(sectorGuardado);
                 }
             }
@@ -788,12 +913,15 @@ public class AdministradorDatosService {
         }
     }
 
-    @Transactional
+    @Transactional(timeoutString = "${descargas.streaming.timeout-segundos:900}")
     public ResultadoExportacionDTO exportarDatos(SolicitudExportacionDTO solicitud, Integer usuarioId) {
         ResultadoExportacionDTO resultado = new ResultadoExportacionDTO();
+        Path rutaArchivo = null;
 
         try {
-            long conteoRegistros = contarRegistros(solicitud.getTipoDatos());
+            // CSV y XLSX se escriben en streaming; el límite solo aplica al PDF, que se arma como documento
+            long conteoRegistros = "pdf".equalsIgnoreCase(solicitud.getFormatoExportacion())
+                    ? contarRegistros(solicitud.getTipoDatos()) : 0;
             final int LIMITE_MAXIMO = 100000;
 
             if (conteoRegistros > LIMITE_MAXIMO) {
@@ -811,19 +939,20 @@ public class AdministradorDatosService {
             // Generar nombre de archivo
             String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
             String nombreArchivo = "exportacion_" + solicitud.getTipoDatos() + "_" + timestamp + "." + solicitud.getFormatoExportacion();
-            Path rutaArchivo = directorioExportaciones.resolve(nombreArchivo);
-
-            // Obtener datos según el tipo
-            List<Object> datos = obtenerDatosParaExportacion(solicitud.getTipoDatos(),
-                    solicitud.getFechaInicio(),
-                    solicitud.getFechaFin());
+            rutaArchivo = directorioExportaciones.resolve(nombreArchivo);
 
-            // Exportar según el formato
+            // Recorrer los datos con un cursor y exportar según el formato
             int totalRegistros = 0;
-            if ("csv".equalsIgnoreCase(solicitud.getFormatoExportacion())) {
-                totalRegistros = exportarCSV(datos, rutaArchivo, solicitud.getTipoDatos());
-            } else if ("pdf".equalsIgnoreCase(solicitud.getFormatoExportacion())) {
-                totalRegistros = exportarPDF(datos, rutaArchivo, solicitud.getTipoDatos());
+            try (Stream<?> datos = abrirDatosParaExportacion(solicitud.getTipoDatos(),
+                    solicitud.getFechaInicio(),
+                    solicitud.getFechaFin())) {
+                if ("csv".equalsIgnoreCase(solicitud.getFormatoExportacion())) {
+                    totalRegistros = exportarCSV(datos, rutaArchivo, solicitud.getTipoDatos());
+                } else if ("xlsx".equalsIgnoreCase(solicitud.getFormatoExportacion())) {
+                    totalRegistros = exportarXLSX(datos, rutaArchivo, solicitud.getTipoDatos());
+                } else if ("pdf".equalsIgnoreCase(solicitud.getFormatoExportacion())) {
+                    totalRegistros = exportarPDF(datos, rutaArchivo, solicitud.getTipoDatos());
+                }
             }
 
             // Calcular tamaño del archivo
@@ -861,13 +990,40 @@ public class AdministradorDatosService {
         } catch (Exception e) {
             resultado.setExito(false);
             resultado.setMensaje("Error al exportar datos: " + e.getMessage());
+            // El historial no se confirma y el archivo a medias no se queda en el directorio
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            if (rutaArchivo != null) {
+                try {
+                    Files.deleteIfExists(rutaArchivo);
+                } catch (IOException ignored) {}
+            }
         }
 
         return resultado;
     }
 
-    private List<Object> obtenerDatosParaExportacion(String tipoDatos, String fechaInicio, String fechaFin) {
-        List<Object> datos;
+    /**
+     * Escribe la exportación directamente en el flujo de salida (por ejemplo, la respuesta HTTP)
+     * sin generar un archivo intermedio. Solo admite formatos de streaming: csv y xlsx. La
+     * transacción dura lo mismo que la descarga y no el límite general de 60 segundos.
+     */
+    @Transactional(readOnly = true, timeoutString = "${descargas.streaming.timeout-segundos:900}")
+    public int escribirExportacion(SolicitudExportacionDTO solicitud, OutputStream salida) throws IOException {
+        try (Stream<?> datos = abrirDatosParaExportacion(solicitud.getTipoDatos(),
+                solicitud.getFechaInicio(),
+                solicitud.getFechaFin())) {
+            if ("xlsx".equalsIgnoreCase(solicitud.getFormatoExportacion())) {
+                return escribirXLSX(datos, salida, solicitud.getTipoDatos());
+            }
+            return escribirCSV(datos, salida, solicitud.getTipoDatos());
+        }
+    }
+
+    /**
+     * Abre un cursor de solo lectura sobre los datos a exportar. El stream debe cerrarse y
+     * consumirse dentro de la transacción que lo abrió.
+     */
+    private Stream<?> abrirDatosParaExportacion(String tipoDatos, String fechaInicio, String fechaFin) {
         boolean filtrar = fechaInicio != null && !fechaInicio.isEmpty()
                 && fechaFin != null && !fechaFin.isEmpty();
 
@@ -893,85 +1049,48 @@ public class AdministradorDatosService {
         }
         switch (tipoDatos) {
             case "tratos":
-                if (filtrar) {
-                    datos = tratosRepository.findByFechaCreacionBetween(startInstant, endInstant)
-                            .stream().map(Object.class::cast).collect(Collectors.toList());
-                } else {
-                    datos = tratosRepository.findAll()
-                            .stream().map(Object.class::cast).collect(Collectors.toList());
-                }
-                break;
+                return filtrar
+                        ? tratosRepository.streamByFechaCreacionBetween(startInstant, endInstant)
+                        : tratosRepository.streamAllForExport();
 
             case "empresas":
-                if (filtrar) {
-                    datos = empresasRepository.findByFechaCreacionBetween(startInstant, endInstant)
-                            .stream().map(Object.class::cast).collect(Collectors.toList());
-                } else {
-                    datos = empresasRepository.findAll()
-                            .stream().map(Object.class::cast).collect(Collectors.toList());
-                }
-                break;
+                return filtrar
+                        ? empresasRepository.streamByFechaCreacionBetween(startInstant, endInstant)
+                        : empresasRepository.streamAllForExport();
 
             case "contactos":
-                if (filtrar) {
-                    datos = contactosRepository.findByFechaCreacionBetween(startInstant, endInstant)
-                            .stream().map(Object.class::cast).collect(Collectors.toList());
-                } else {
-                    datos = contactosRepository.findAll()
-                            .stream().map(Object.class::cast).collect(Collectors.toList());
-                }
-                break;
+                return filtrar
+                        ? contactosRepository.streamByFechaCreacionBetween(startInstant, endInstant)
+                        : contactosRepository.streamAllForExport();
 
             case "historialSaldos":
-                if (filtrar) {
-                    datos = historialSaldoRepository.findByFechaBetween(startDateSql, endDateSql)
-                            .stream().map(Object.class::cast).collect(Collectors.toList());
-                } else {
-                    datos = historialSaldoRepository.findAll()
-                            .stream().map(Object.class::cast).collect(Collectors.toList());
-                }
-                break;
+                return filtrar
+                        ? historialSaldoRepository.streamByFechaBetween(startDateSql, endDateSql)
+                        : historialSaldoRepository.streamAllForExport();
 
             case "auditoria":
-                if (filtrar) {
-                    datos = auditoriaRepository.findByFechaBetween(startInstant, endInstant)
-                            .stream().map(Object.class::cast).collect(Collectors.toList());
-                } else {
-                    datos = auditoriaRepository.findAll()
-                            .stream().map(Object.class::cast).collect(Collectors.toList());
-                }
-                break;
+                return filtrar
+                        ? auditoriaRepository.streamByFechaBetween(startInstant, endInstant)
+                        : auditoriaRepository.streamAllForExport();
 
             case "equipos":
-                datos = equipoRepository.findAll().stream()
-                        .map(Object.class::cast).collect(Collectors.toList());
-                break;
+                return equipoRepository.streamAllForExport();
 
             case "correoContactos":
-                datos = correoContactoRepository.findAll().stream()
-                        .map(Object.class::cast).collect(Collectors.toList());
-                break;
+                return correoContactoRepository.streamAllForExport();
 
             case "modelos":
-                datos = modeloRepository.findAll().stream()
-                        .map(Object.class::cast).collect(Collectors.toList());
-                break;
+                return modeloRepository.streamAllForExport();
 
             case "proveedores":
-                datos = proveedorRepository.findAll().stream()
-                        .map(Object.class::cast).collect(Collectors.toList());
-                break;
+                return proveedorRepository.streamAllForExport();
 
             case "sims":
-                datos = simRepository.findAllWithEquipo().stream()
-                        .map(Object.class::cast).collect(Collectors.toList());
-                break;
+                return simRepository.streamAllWithEquipo();
 
             default:
-                datos = new ArrayList<>();
+                return Stream.empty();
         }
-
-        return datos;
     }
 
     private long contarRegistros(String tipoDatos) {
@@ -1001,32 +1120,93 @@ public class AdministradorDatosService {
         }
     }
 
-    private int exportarCSV(List<Object> datos, Path rutaArchivo, String tipoDatos) throws IOException {
-        Optional<PlantillaImportacion> plantillaOpt = plantillaRepository.findByTipoDatosAndActivoTrue(tipoDatos);
-        if (plantillaOpt.isEmpty()) {
-            throw new RuntimeException("Plantilla no encontrada para el tipo: " + tipoDatos);
+    private int exportarCSV(Stream<?> datos, Path rutaArchivo, String tipoDatos) throws IOException {
+        try (OutputStream fos = new BufferedOutputStream(new FileOutputStream(rutaArchivo.toFile()))) {
+            return escribirCSV(datos, fos, tipoDatos);
+        }
+    }
+
+    private int escribirCSV(Stream<?> datos, OutputStream salida, String tipoDatos) throws IOException {
+        String[] columnas = obtenerColumnasPlantilla(tipoDatos);
+
+        OutputStreamWriter osw = new OutputStreamWriter(salida, StandardCharsets.UTF_8);
+        PrintWriter writer = new PrintWriter(osw);
+        writer.write('\ufeff');
+
+        int total = 0;
+        CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader(columnas));
+        Iterator<?> iterator = datos.iterator();
+        while (iterator.hasNext()) {
+            csvPrinter.printRecord(extraerValores(iterator.next(), tipoDatos));
+            if (++total % TAMANO_BLOQUE_EXPORTACION == 0) {
+                csvPrinter.flush();
+                liberarEntidadesExportadas();
+            }
+        }
+        // Se vacía sin cerrar: el flujo de salida lo cierra quien lo abrió
+        csvPrinter.flush();
+        return total;
+    }
+
+    private int exportarXLSX(Stream<?> datos, Path rutaArchivo, String tipoDatos) throws IOException {
+        try (OutputStream fos = new BufferedOutputStream(new FileOutputStream(rutaArchivo.toFile()))) {
+            return escribirXLSX(datos, fos, tipoDatos);
         }
+    }
+
+    private int escribirXLSX(Stream<?> datos, OutputStream salida, String tipoDatos) throws IOException {
+        String[] columnas = obtenerColumnasPlantilla(tipoDatos);
 
-        String[] columnas = plantillaOpt.get().getCamposCsv().split(",");
+        // SXSSF mantiene en memoria solo una ventana de filas; el resto se vuelca a disco
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook(TAMANO_BLOQUE_EXPORTACION)) {
+            workbook.setCompressTempFiles(true);
+            Sheet sheet = workbook.createSheet(tipoDatos);
 
-        try (FileOutputStream fos = new FileOutputStream(rutaArchivo.toFile());
-             OutputStreamWriter osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-             PrintWriter writer = new PrintWriter(osw)) {
+            CellStyle headerStyle = workbook.createCellStyle();
+            org.apache.poi.ss.usermodel.Font headerFont = workbook.createFont();
+            headerFont.setBold(true);
+            headerStyle.setFont(headerFont);
 
-            writer.write('\ufeff');
+            Row headerRow = sheet.createRow(0);
+            for (int i = 0; i < columnas.length; i++) {
+                Cell cell = headerRow.createCell(i);
+                cell.setCellValue(columnas[i].trim());
+                cell.setCellStyle(headerStyle);
+            }
 
-            try (CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader(columnas))) {
-                for (Object dato : datos) {
-                    List<String> valores = extraerValores(dato, tipoDatos);
-                    csvPrinter.printRecord(valores);
+            int total = 0;
+            Iterator<?> iterator = datos.iterator();
+            while (iterator.hasNext()) {
+                List<String> valores = extraerValores(iterator.next(), tipoDatos);
+                Row row = sheet.createRow(++total);
+                for (int i = 0; i < valores.size(); i++) {
+                    row.createCell(i).setCellValue(valores.get(i) != null ? valores.get(i) : "");
+                }
+                if (total % TAMANO_BLOQUE_EXPORTACION == 0) {
+                    liberarEntidadesExportadas();
                 }
             }
+
+            workbook.write(salida);
+            salida.flush();
+            return total;
+        }
+    }
+
+    private String[] obtenerColumnasPlantilla(String tipoDatos) {
+        Optional<PlantillaImportacion> plantillaOpt = plantillaRepository.findByTipoDatosAndActivoTrue(tipoDatos);
+        if (plantillaOpt.isEmpty()) {
+            throw new RuntimeException("Plantilla no encontrada para el tipo: " + tipoDatos);
         }
+        return plantillaOpt.get().getCamposCsv().split(",");
+    }
 
-        return datos.size();
+    // Desvincula del contexto de persistencia las entidades ya escritas para que la memoria no crezca con el cursor
+    private void liberarEntidadesExportadas() {
+        entityManager.clear();
     }
 
-    private int exportarPDF(List<Object> datos, Path rutaArchivo, String tipoDatos) throws IOException {
+    private int exportarPDF(Stream<?> datos, Path rutaArchivo, String tipoDatos) throws IOException {
         try {
             // Obtener configuración desde la base de datos
             Optional<PlantillaImportacion> plantillaOpt = plantillaRepository.findByTipoDatosAndActivoTrue(tipoDatos);
@@ -1038,7 +1218,8 @@ public class AdministradorDatosService {
             String[] columnas = plantilla.getCamposCsv().split(",");
 
             Document document = new Document(PageSize.A4, 36, 36, 54, 54);
-            PdfWriter writer = PdfWriter.getInstance(document, new FileOutputStream(rutaArchivo.toFile()));
+            PdfWriter writer = PdfWriter.getInstance(document,
+                    new BufferedOutputStream(new FileOutputStream(rutaArchivo.toFile())));
             document.open();
 
             // Título
@@ -1060,6 +1241,9 @@ public class AdministradorDatosService {
             PdfPTable table = new PdfPTable(columnas.length);
             table.setWidthPercentage(100);
             table.setSpacingBefore(10);
+            table.setHeaderRows(1);
+            // Tabla incompleta: cada bloque de filas se escribe al documento y se libera de memoria
+            table.setComplete(false);
 
             // Configurar fuentes
             Font headerFont = FontFactory.getFont(FontFactory.HELVETICA, 10, Font.BOLD);
@@ -1075,20 +1259,27 @@ public class AdministradorDatosService {
             }
 
             // Agregar datos
-            for (Object dato : datos) {
-                List<String> valores = extraerValores(dato, tipoDatos);
+            int total = 0;
+            Iterator<?> iterator = datos.iterator();
+            while (iterator.hasNext()) {
+                List<String> valores = extraerValores(iterator.next(), tipoDatos);
                 for (String valor : valores) {
                     PdfPCell cell = new PdfPCell(new Phrase(valor != null ? valor : "", cellFont));
                     cell.setPadding(5);
                     cell.setVerticalAlignment(Element.ALIGN_MIDDLE);
                     table.addCell(cell);
                 }
+                if (++total % TAMANO_BLOQUE_EXPORTACION == 0) {
+                    document.add(table);
+                    liberarEntidadesExportadas();
+                }
             }
 
+            table.setComplete(true);
             document.add(table);
 
             // Pie de página con total de registros
-            Paragraph footer = new Paragraph("Total de registros: " + datos.size(), infoFont);
+            Paragraph footer = new Paragraph("Total de registros: " + total, infoFont);
             footer.setAlignment(Element.ALIGN_RIGHT);
             footer.setSpacingBefore(20);
             document.add(footer);
@@ -1096,7 +1287,7 @@ public class AdministradorDatosService {
             document.close();
             writer.close();
 
-            return datos.size();
+            return total;
         } catch (Exception e) {
             throw new IOException("Error al generar PDF: " + e.getMessage(), e);
         }
@@ -1322,54 +1513,97 @@ public class AdministradorDatosService {
         return dto;
     }
 
-    private String limpiarBOM(String texto) {
-        if (texto == null) return null;
+    private Reader abrirLectorSinBOM(Path rutaCSV) throws IOException {
+        PushbackReader reader = new PushbackReader(Files.newBufferedReader(rutaCSV, StandardCharsets.UTF_8));
+        int primerCaracter = reader.read();
         // Eliminar BOM UTF-8 (EF BB BF)
-        if (texto.startsWith("\uFEFF")) {
-            return texto.substring(1);
+        if (primerCaracter != -1 && primerCaracter != '\uFEFF') {
+            reader.unread(primerCaracter);
         }
-        return texto;
+        return reader;
     }
 
-    private String convertirXLSXaCSV(Path rutaXLSX) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        try (InputStream is = Files.newInputStream(rutaXLSX);
-             XSSFWorkbook workbook = new XSSFWorkbook(is)) {
-            Sheet sheet = workbook.getSheetAt(0);
-            for (Row row : sheet) {
-                List<String> celdas = new ArrayList<>();
-                for (Cell cell : row) {
-                    String valor = "";
-                    switch (cell.getCellType()) {
-                        case STRING:
-                            valor = cell.getStringCellValue()
-                                    .replace("\r\n", " ")
-                                    .replace("\n", " ")
-                                    .replace("\r", " ")
-                                    .trim();
-                            break;
-                        case NUMERIC:
-                            if (org.apache.poi.ss.usermodel.DateUtil.isCellDateFormatted(cell)) {
-                                valor = cell.getLocalDateTimeCellValue().toLocalDate().toString();
-                            } else {
-                                double d = cell.getNumericCellValue();
-                                valor = (d == Math.floor(d)) ? String.valueOf((long) d) : String.valueOf(d);
-                            }
-                            break;
-                        case BOOLEAN:
-                            valor = String.valueOf(cell.getBooleanCellValue());
-                            break;
-                        default:
-                            valor = "";
-                    }
-                    if (valor.contains(",") || valor.contains("\"") || valor.contains("\n")) {
-                        valor = "\"" + valor.replace("\"", "\"\"") + "\"";
-                    }
-                    celdas.add(valor);
-                }
-                sb.append(String.join(",", celdas)).append("\n");
+    /**
+     * Convierte la primera hoja del XLSX a CSV usando el API de eventos (SAX) de POI,
+     * escribiendo cada fila al archivo destino conforme se lee.
+     */
+    private void convertirXLSXaCSV(Path rutaXLSX, Path rutaCSV) throws IOException {
+        try (OPCPackage paquete = OPCPackage.open(rutaXLSX.toFile(), PackageAccess.READ);
+             Writer writer = Files.newBufferedWriter(rutaCSV, StandardCharsets.UTF_8);
+             CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT)) {
+
+            XSSFReader xssfReader = new XSSFReader(paquete);
+            ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(paquete);
+            StylesTable estilos = xssfReader.getStylesTable();
+
+            Iterator<InputStream> hojas = xssfReader.getSheetsData();
+            if (!hojas.hasNext()) {
+                return;
+            }
+
+            try (InputStream hoja = hojas.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(estilos, sharedStrings,
+                        new FilaXLSXaCSVHandler(csvPrinter), new FormateadorCeldasImportacion(), false));
+                parser.parse(new InputSource(hoja));
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Error al leer el archivo XLSX: " + e.getMessage(), e);
+        }
+    }
+
+    private static class FilaXLSXaCSVHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+
+        private final CSVPrinter csvPrinter;
+        private final List<String> celdas = new ArrayList<>();
+
+        FilaXLSXaCSVHandler(CSVPrinter csvPrinter) {
+            this.csvPrinter = csvPrinter;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            celdas.clear();
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            try {
+                csvPrinter.printRecord(celdas);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            // Las celdas vacías no generan evento; se rellenan para conservar la posición de la columna
+            int columna = new CellReference(cellReference).getCol();
+            while (celdas.size() < columna) {
+                celdas.add("");
+            }
+            String valor = formattedValue == null ? "" : formattedValue
+                    .replace("\r\n", " ")
+                    .replace("\n", " ")
+                    .replace("\r", " ")
+                    .trim();
+            celdas.add(valor);
+        }
+    }
+
+    // Mantiene el formato que espera la importación: fechas yyyy-MM-dd y enteros sin decimales
+    private static class FormateadorCeldasImportacion extends DataFormatter {
+
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString) {
+            if (DateUtil.isADateFormat(formatIndex, formatString) && DateUtil.isValidExcelDate(value)) {
+                return DateUtil.getLocalDateTime(value).toLocalDate().toString();
             }
+            return (value == Math.floor(value) && !Double.isInfinite(value))
+                    ? String.valueOf((long) value)
+                    : String.valueOf(value);
         }
-        return sb.toString();
     }
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+package com.tss.tssmanager_backend.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Almacén de contenido binario fuera de las filas de la base de datos. Las entidades guardan solo
+ * la referencia devuelta por {@link #guardar} junto con el tamaño y el hash del contenido.
+ */
+public interface AlmacenArchivos {
+
+    /**
+     * Guarda el contenido leyéndolo por partes y devuelve su referencia. {@code espacio} agrupa
+     * los archivos de un mismo tipo (p. ej. "cotizaciones").
+     */
+    ArchivoAlmacenado guardar(String espacio, InputStream contenido) throws IOException;
+
+    InputStream abrir(String referencia) throws IOException;
+
+    // Ruta en el disco local cuando el almacén la tiene, para lecturas de acceso aleatorio
+    default Optional<Path> rutaLocal(String referencia) {
+        return Optional.empty();
+    }
+
+    void eliminar(String referencia) throws IOException;
+
+    record ArchivoAlmacenado(String referencia, long tamano, String hash) {
+    }
+}
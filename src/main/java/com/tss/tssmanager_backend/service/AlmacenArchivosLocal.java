@@ -0,0 +1,85 @@
+package com.tss.tssmanager_backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Almacén de archivos en un directorio local (o un volumen montado). Cada archivo se guarda con
+ * un nombre aleatorio dentro de su espacio, {@code <espacio>/<2 primeros caracteres>/<uuid>},
+ * y se escribe primero en un temporal para no dejar archivos a medias.
+ */
+@Component
+public class AlmacenArchivosLocal implements AlmacenArchivos {
+
+    private static final Logger logger = LoggerFactory.getLogger(AlmacenArchivosLocal.class);
+
+    private final Path raiz;
+
+    public AlmacenArchivosLocal(@Value("${archivos.storage.path}") String raiz) {
+        this.raiz = Path.of(raiz).toAbsolutePath().normalize();
+    }
+
+    @Override
+    public ArchivoAlmacenado guardar(String espacio, InputStream contenido) throws IOException {
+        String nombre = UUID.randomUUID().toString();
+        String referencia = espacio + "/" + nombre.substring(0, 2) + "/" + nombre;
+        Path destino = resolver(referencia);
+        Files.createDirectories(destino.getParent());
+
+        Path temporal = Files.createTempFile(destino.getParent(), nombre, ".tmp");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long tamano;
+            try (OutputStream salida = new DigestOutputStream(Files.newOutputStream(temporal), digest)) {
+                tamano = contenido.transferTo(salida);
+            }
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE);
+            return new ArchivoAlmacenado(referencia, tamano, HexFormat.of().formatHex(digest.digest()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    @Override
+    public InputStream abrir(String referencia) throws IOException {
+        return Files.newInputStream(resolver(referencia));
+    }
+
+    @Override
+    public Optional<Path> rutaLocal(String referencia) {
+        Path ruta = resolver(referencia);
+        return Files.exists(ruta) ? Optional.of(ruta) : Optional.empty();
+    }
+
+    @Override
+    public void eliminar(String referencia) throws IOException {
+        if (Files.deleteIfExists(resolver(referencia))) {
+            logger.debug("Archivo {} eliminado del almacén", referencia);
+        }
+    }
+
+    private Path resolver(String referencia) {
+        Path ruta = raiz.resolve(referencia).normalize();
+        if (!ruta.startsWith(raiz)) {
+            throw new IllegalArgumentException("Referencia de archivo inválida: " + referencia);
+        }
+        return ruta;
+    }
+}
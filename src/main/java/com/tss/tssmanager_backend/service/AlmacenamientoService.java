@@ -6,19 +6,23 @@ import com.tss.tssmanager_backend.entity.HistorialLimpieza;
 import com.tss.tssmanager_backend.repository.AlmacenamientoRepository;
 import com.tss.tssmanager_backend.repository.ConfiguracionAlmacenamientoRepository;
 import com.tss.tssmanager_backend.repository.HistorialLimpiezaRepository;
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.PersistenceContext;
-import jakarta.persistence.Query;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Service
@@ -35,8 +39,73 @@ public class AlmacenamientoService {
     @Autowired
     private HistorialLimpiezaRepository historialRepository;
 
-    @PersistenceContext
-    private EntityManager entityManager;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private LimpiezaPorLotesService limpiezaPorLotesService;
+
+    @Value("${almacenamiento.limpieza.vacuum:false}")
+    private boolean vacuumTrasLimpieza;
+
+    private static final int DIAS_RETENCION_DEFAULT = 180;
+    private static final int SEGUNDOS_MAXIMOS_CONTEO = 120;
+
+    // Condición de "registro antiguo" por tabla; :fechaLimite es hoy menos los días de retención
+    private static final Map<String, String> CONSULTAS_ANTIGUOS = Map.ofEntries(
+            Map.entry("Facturas", "SELECT COUNT(*) FROM \"Facturas\" f WHERE EXISTS (" +
+                    "SELECT 1 FROM \"Solicitudes_Factura_Nota\" sfn WHERE sfn.id = f.solicitud_id " +
+                    "AND sfn.fecha_emision < :fechaLimite)"),
+            Map.entry("Solicitudes_Factura_Nota", "SELECT COUNT(*) FROM \"Solicitudes_Factura_Nota\" WHERE fecha_emision < :fechaLimite"),
+            Map.entry("Unidades_Cotizacion", "SELECT COUNT(*) FROM \"Unidades_Cotizacion\" u WHERE EXISTS (" +
+                    "SELECT 1 FROM \"Cotizaciones\" c WHERE c.id = u.cotizacion_id AND c.fecha_creacion < :fechaLimite)"),
+            Map.entry("Cotizaciones", "SELECT COUNT(*) FROM \"Cotizaciones\" WHERE fecha_creacion < :fechaLimite"),
+            Map.entry("Cuentas_por_Cobrar", "SELECT COUNT(*) FROM \"Cuentas_por_Cobrar\" WHERE fecha_pago < :fechaLimite AND estatus = 'PAGADA'"),
+            Map.entry("Emisores", "SELECT COUNT(*) FROM \"Emisores\" e WHERE NOT EXISTS (" +
+                    "SELECT 1 FROM \"Solicitudes_Factura_Nota\" sfn WHERE sfn.emisor_id = e.id)"),
+            Map.entry("Cuentas_por_Pagar", "SELECT COUNT(*) FROM \"Cuentas_por_Pagar\" WHERE fecha_pago < :fechaLimite AND estatus = 'PAGADA'"),
+            Map.entry("Transacciones", "SELECT COUNT(*) FROM \"Transacciones\" WHERE fecha_creacion < :fechaLimite"),
+            Map.entry("Cuentas_Transacciones", "SELECT COUNT(*) FROM \"Cuentas_Transacciones\" ct WHERE NOT EXISTS (" +
+                    "SELECT 1 FROM \"Transacciones\" t WHERE t.cuenta_id = ct.id)"),
+            Map.entry("Categorias_Transacciones", "SELECT COUNT(*) FROM \"Categorias_Transacciones\" cat WHERE NOT EXISTS (" +
+                    "SELECT 1 FROM \"Cuentas_Transacciones\" ct WHERE ct.categoria_id = cat.id)"),
+            Map.entry("Historial_Saldos_SIMs", "SELECT COUNT(*) FROM \"Historial_Saldos_SIMs\" WHERE fecha < :fechaLimite"),
+            Map.entry("Equipos_Estatus", "SELECT COUNT(*) FROM \"Equipos_Estatus\" WHERE fecha_check < :fechaLimite"),
+            Map.entry("Equipos", "SELECT COUNT(*) FROM \"Equipos\" WHERE fecha_activacion < :fechaLimite"),
+            Map.entry("SIMs", "SELECT COUNT(*) FROM \"SIMs\" WHERE vigencia < :fechaLimite"),
+            Map.entry("Modelos_Equipos", "SELECT COUNT(*) FROM \"Modelos_Equipos\" m WHERE NOT EXISTS (" +
+                    "SELECT 1 FROM \"Equipos\" e WHERE e.modelo_id = m.id)"),
+            Map.entry("Proveedores", "SELECT COUNT(*) FROM \"Proveedores\" p WHERE NOT EXISTS (" +
+                    "SELECT 1 FROM \"Equipos\" e WHERE e.proveedor_id = p.id)"),
+            Map.entry("Actividades", "SELECT COUNT(*) FROM \"Actividades\" WHERE fecha_creacion < :fechaLimite"),
+            Map.entry("Notas_Tratos", "SELECT COUNT(*) FROM \"Notas_Tratos\" WHERE fecha_creacion < :fechaLimite"),
+            Map.entry("Tratos", "SELECT COUNT(*) FROM \"Tratos\" WHERE fecha_creacion < :fechaLimite AND fase = 'CERRADO_PERDIDO'"),
+            Map.entry("Secuencias_Tratos", "SELECT COUNT(*) FROM \"Secuencias_Tratos\" st WHERE NOT EXISTS (" +
+                    "SELECT 1 FROM \"Tratos\" t WHERE t.empresa_id = st.empresa_id)"),
+            Map.entry("Telefonos_Contactos", "SELECT COUNT(*) FROM \"Telefonos_Contactos\" tc WHERE EXISTS (" +
+                    "SELECT 1 FROM \"Contactos\" c WHERE c.id = tc.contacto_id AND c.fecha_creacion < :fechaLimite)"),
+            Map.entry("Contactos", "SELECT COUNT(*) FROM \"Contactos\" WHERE fecha_creacion < :fechaLimite"),
+            Map.entry("Correos_Contactos", "SELECT COUNT(*) FROM \"Correos_Contactos\" WHERE fecha_creacion < :fechaLimite"),
+            Map.entry("Notificaciones", "SELECT COUNT(*) FROM \"Notificaciones\" WHERE fecha_creacion < :fechaLimite"),
+            Map.entry("Empresas", "SELECT COUNT(*) FROM \"Empresas\" WHERE fecha_creacion < :fechaLimite"),
+            Map.entry("Usuarios", "SELECT COUNT(*) FROM \"Usuarios\" WHERE fecha_creacion < :fechaLimite AND estatus = 'INACTIVO'"),
+            Map.entry("Auditoria", "SELECT COUNT(*) FROM \"Auditoria\" WHERE fecha < :fechaLimite"),
+            Map.entry("Plantillas_Correos", "SELECT COUNT(*) FROM \"Plantillas_Correos\" WHERE fecha_creacion < :fechaLimite"),
+            Map.entry("Plantillas_Correos_Adjuntos", "SELECT COUNT(*) FROM \"Plantillas_Correos_Adjuntos\" pa WHERE EXISTS (" +
+                    "SELECT 1 FROM \"Plantillas_Correos\" pc WHERE pc.id = pa.plantilla_id AND pc.fecha_creacion < :fechaLimite)"),
+            Map.entry("Configuracion_Empresa", "SELECT COUNT(*) FROM \"Configuracion_Empresa\" WHERE fecha_creacion < :fechaLimite"),
+            Map.entry("Copias_Seguridad", "SELECT COUNT(*) FROM \"Copias_Seguridad\" WHERE fecha_creacion < :fechaLimite"),
+            Map.entry("Email_records", "SELECT COUNT(*) FROM \"Email_records\" WHERE fecha_envio < :fechaLimite"),
+            Map.entry("Plantillas_Importacion", "SELECT COUNT(*) FROM \"Plantillas_Importacion\" WHERE fecha_creacion < :fechaLimite"),
+            Map.entry("Historial_Exportaciones", "SELECT COUNT(*) FROM \"Historial_Exportaciones\" WHERE fecha_creacion < :fechaLimite"),
+            Map.entry("Historial_Importaciones", "SELECT COUNT(*) FROM \"Historial_Importaciones\" WHERE fecha_creacion < :fechaLimite")
+    );
+
+    // Último conteo de registros antiguos por tabla, calculado en segundo plano
+    private final Map<String, Long> registrosAntiguos = new ConcurrentHashMap<>();
+
+    private TransactionTemplate transaccionLectura;
+    private TransactionTemplate transaccionEscritura;
 
     // Mapeo de nombres de tablas a nombres de módulos más amigables
     private final Map<String, String> tablaToModulo = Map.of(
@@ -52,9 +121,21 @@ public class AlmacenamientoService {
             "Cotizaciones", "Cotizaciones"
     );
 
+    @PostConstruct
+    public void inicializar() {
+        transaccionLectura = new TransactionTemplate(transactionManager);
+        transaccionLectura.setReadOnly(true);
+        transaccionEscritura = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Estadísticas del tablero: filas y tamaño estimados desde los catálogos de PostgreSQL y
+     * registros antiguos del último cálculo en segundo plano, sin contar filas en la petición.
+     */
+    @Transactional(readOnly = true)
     public List<EstadisticasAlmacenamientoDTO> obtenerEstadisticasAlmacenamiento() {
         try {
-            List<Object[]> resultados = almacenamientoRepository.obtenerEstadisticasAlmacenamiento();
+            List<Object[]> resultados = almacenamientoRepository.obtenerEstadisticasCatalogo(tablasMonitoreadas().keySet());
 
             return resultados.stream()
                     .map(this::mapearEstadisticas)
@@ -65,6 +146,44 @@ public class AlmacenamientoService {
         }
     }
 
+    // Recalcula los registros antiguos de cada tabla con sus días de retención, una tabla por transacción
+    @Scheduled(fixedDelayString = "${almacenamiento.estadisticas.intervalo-ms:21600000}", initialDelay = 120000)
+    public void refrescarRegistrosAntiguos() {
+        long inicio = System.currentTimeMillis();
+        int actualizadas = 0;
+
+        for (Map.Entry<String, Integer> tabla : tablasMonitoreadas().entrySet()) {
+            try {
+                Long antiguos = transaccionLectura.execute(status -> {
+                    almacenamientoRepository.limitarDuracionConsultas(SEGUNDOS_MAXIMOS_CONTEO);
+                    return contarRegistrosAntiguos(tabla.getKey(), tabla.getValue());
+                });
+                registrosAntiguos.put(tabla.getKey(), antiguos);
+                actualizadas++;
+            } catch (Exception e) {
+                // Se conserva el último valor conocido
+                log.warn("No se pudieron contar registros antiguos de {}: {}", tabla.getKey(), e.getMessage());
+            }
+        }
+
+        log.info("Registros antiguos recalculados para {} tablas en {} ms", actualizadas, System.currentTimeMillis() - inicio);
+    }
+
+    // Tablas configuradas con sus días de retención; solo se aceptan las que tienen consulta definida
+    private Map<String, Integer> tablasMonitoreadas() {
+        Map<String, Integer> tablas = new TreeMap<>();
+        for (ConfiguracionAlmacenamiento config : configuracionRepository.findAll()) {
+            if (CONSULTAS_ANTIGUOS.containsKey(config.getTablaNombre())) {
+                tablas.put(config.getTablaNombre(),
+                        config.getDiasRetencion() != null ? config.getDiasRetencion() : DIAS_RETENCION_DEFAULT);
+            }
+        }
+        if (tablas.isEmpty()) {
+            CONSULTAS_ANTIGUOS.keySet().forEach(tabla -> tablas.put(tabla, DIAS_RETENCION_DEFAULT));
+        }
+        return tablas;
+    }
+
     public ResumenAlmacenamientoDTO obtenerResumenAlmacenamiento() {
         try {
             List<EstadisticasAlmacenamientoDTO> estadisticas = obtenerEstadisticasAlmacenamiento();
@@ -111,6 +230,7 @@ public class AlmacenamientoService {
         }
     }
 
+    // Conteo exacto bajo demanda (validación previa a una limpieza)
     public EstadisticasAlmacenamientoDTO obtenerEstadisticasTablaEspecifica(String tablaNombre, Integer diasAntiguedad) {
         try {
             // Obtener estadísticas básicas
@@ -121,7 +241,7 @@ public class AlmacenamientoService {
             // Calcular espacio recuperable estimado
             BigDecimal espacioRecuperable = BigDecimal.valueOf(tamanoMb != null ? tamanoMb : 0.0)
                     .multiply(BigDecimal.valueOf(registrosAntiguos))
-                    .divide(BigDecimal.valueOf(Math.max(totalRegistros, 1)), 2, BigDecimal.ROUND_HALF_UP);
+                    .divide(BigDecimal.valueOf(Math.max(totalRegistros, 1)), 2, RoundingMode.HALF_UP);
 
             return new EstadisticasAlmacenamientoDTO(
                     tablaNombre,
@@ -136,7 +256,7 @@ public class AlmacenamientoService {
         }
     }
 
-    @Transactional
+    // Sin transacción envolvente: las tablas grandes se limpian por lotes, cada uno en su propia transacción
     public ResultadoLimpiezaDTO ejecutarLimpiezaManual(SolicitudLimpiezaDTO solicitud, Integer usuarioId) {
         try {
             log.info("Iniciando limpieza manual para tabla: {}", solicitud.getTablaNombre());
@@ -145,7 +265,8 @@ public class AlmacenamientoService {
             Double tamanoAntes = almacenamientoRepository.calcularTamanoTabla(solicitud.getTablaNombre());
 
             // Ejecutar limpieza según el tipo de tabla
-            Integer registrosEliminados = ejecutarLimpiezaEspecifica(solicitud);
+            HistorialLimpieza historial = ejecutarLimpiezaEspecifica(solicitud, usuarioId);
+            Integer registrosEliminados = historial.getRegistrosEliminados();
 
             // Calcular tamaño después de la limpieza
             Double tamanoDesues = almacenamientoRepository.calcularTamanoTabla(solicitud.getTablaNombre());
@@ -154,14 +275,13 @@ public class AlmacenamientoService {
             );
 
             // Registrar en historial
-            HistorialLimpieza historial = new HistorialLimpieza();
-            historial.setTablaNombre(solicitud.getTablaNombre());
-            historial.setRegistrosEliminados(registrosEliminados);
             historial.setEspacioLiberadoMb(espacioLiberado);
-            historial.setTipoLimpieza("MANUAL");
-            historial.setUsuarioId(usuarioId);
             historial.setDescripcion("Limpieza manual - " + solicitud.getCriterioEliminacion());
-            historialRepository.save(historial);
+            transaccionEscritura.executeWithoutResult(status -> historialRepository.save(historial));
+
+            // Los registros eliminados ya no cuentan como antiguos en el tablero
+            registrosAntiguos.computeIfPresent(solicitud.getTablaNombre(),
+                    (tabla, antiguos) -> Math.max(0, antiguos - registrosEliminados));
 
             log.info("Limpieza completada. Registros eliminados: {}, Espacio liberado: {} MB",
                     registrosEliminados, espacioLiberado);
@@ -186,7 +306,6 @@ public class AlmacenamientoService {
         }
     }
 
-    @Transactional
     public Integer ejecutarLimpiezaAutomatica() {
         try {
             log.info("Iniciando limpieza automática de todas las tablas");
@@ -198,7 +317,9 @@ public class AlmacenamientoService {
                 return 0;
             }
 
-            Integer totalEliminados = almacenamientoRepository.limpiarRegistrosAntiguos(tablaObjetivo, null, "AUTOMATICA");
+            // Transacción explícita: la llamada desde la tarea programada no pasa por el proxy
+            Integer totalEliminados = transaccionEscritura.execute(status ->
+                    almacenamientoRepository.limpiarRegistrosAntiguos(tablaObjetivo, null, "AUTOMATICA"));
             log.info("Limpieza automática completada. Registros eliminados: {}", totalEliminados);
 
             return totalEliminados;
@@ -220,13 +341,17 @@ public class AlmacenamientoService {
     }
 
     private EstadisticasAlmacenamientoDTO mapearEstadisticas(Object[] resultado) {
-        return new EstadisticasAlmacenamientoDTO(
-                (String) resultado[0],
-                resultado[1] != null ? ((Number) resultado[1]).longValue() : 0L,
-                resultado[2] != null ? (BigDecimal) resultado[2] : BigDecimal.ZERO,
-                resultado[3] != null ? ((Number) resultado[3]).longValue() : 0L,
-                resultado[4] != null ? (BigDecimal) resultado[4] : BigDecimal.ZERO
-        );
+        String tablaNombre = (String) resultado[0];
+        long totalRegistros = resultado[1] != null ? ((Number) resultado[1]).longValue() : 0L;
+        BigDecimal tamanoMb = resultado[2] != null ? (BigDecimal) resultado[2] : BigDecimal.ZERO;
+        // El total es una estimación: los antiguos nunca se muestran por encima de él
+        long antiguos = Math.min(registrosAntiguos.getOrDefault(tablaNombre, 0L), totalRegistros);
+
+        BigDecimal espacioRecuperable = tamanoMb
+                .multiply(BigDecimal.valueOf(antiguos))
+                .divide(BigDecimal.valueOf(Math.max(totalRegistros, 1)), 2, RoundingMode.HALF_UP);
+
+        return new EstadisticasAlmacenamientoDTO(tablaNombre, totalRegistros, tamanoMb, antiguos, espacioRecuperable);
     }
 
     private ConfiguracionAlmacenamientoDTO mapearConfiguracion(ConfiguracionAlmacenamiento config) {
@@ -240,9 +365,10 @@ public class AlmacenamientoService {
 
     private Long contarRegistrosTabla(String tablaNombre) {
         try {
-            String sql = "SELECT COUNT(*) FROM \"" + tablaNombre + "\"";
-            Query query = entityManager.createNativeQuery(sql);
-            return ((Number) query.getSingleResult()).longValue();
+            if (!CONSULTAS_ANTIGUOS.containsKey(tablaNombre)) {
+                return 0L;
+            }
+            return almacenamientoRepository.contarRegistros("SELECT COUNT(*) FROM \"" + tablaNombre + "\"", null);
         } catch (Exception e) {
             log.error("Error al contar registros de tabla: " + tablaNombre, e);
             return 0L;
@@ -250,141 +376,41 @@ public class AlmacenamientoService {
     }
 
     private Long contarRegistrosAntiguos(String tablaNombre, Integer dias) {
-        try {
-            String sql;
-            switch (tablaNombre) {
-                case "Facturas":
-                    sql = "SELECT COUNT(*) FROM \"Facturas\" f WHERE EXISTS (" +
-                            "SELECT 1 FROM \"Solicitudes_Factura_Nota\" sfn WHERE sfn.id = f.solicitud_id " +
-                            "AND sfn.fecha_emision < CURRENT_DATE - INTERVAL '" + dias + " days')";
-                    break;
-                case "Solicitudes_Factura_Nota":
-                    sql = "SELECT COUNT(*) FROM \"Solicitudes_Factura_Nota\" WHERE fecha_emision < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Unidades_Cotizacion":
-                    sql = "SELECT COUNT(*) FROM \"Unidades_Cotizacion\" WHERE EXISTS (" +
-                            "SELECT 1 FROM \"Cotizaciones\" c WHERE c.id = cotizacion_id " +
-                            "AND c.fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days')";
-                    break;
-                case "Cotizaciones":
-                    sql = "SELECT COUNT(*) FROM \"Cotizaciones\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Cuentas_por_Cobrar":
-                    sql = "SELECT COUNT(*) FROM \"Cuentas_por_Cobrar\" WHERE fecha_pago < CURRENT_DATE - INTERVAL '" + dias + " days' AND estatus = 'PAGADA'";
-                    break;
-                case "Emisores":
-                    sql = "SELECT COUNT(*) FROM \"Emisores\" WHERE (SELECT COUNT(*) FROM \"Solicitudes_Factura_Nota\" sfn WHERE sfn.emisor_id = id) = 0";
-                    break;
-                case "Cuentas_por_Pagar":
-                    sql = "SELECT COUNT(*) FROM \"Cuentas_por_Pagar\" WHERE fecha_pago < CURRENT_DATE - INTERVAL '" + dias + " days' AND estatus = 'PAGADA'";
-                    break;
-                case "Transacciones":
-                    sql = "SELECT COUNT(*) FROM \"Transacciones\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Cuentas_Transacciones":
-                    sql = "SELECT COUNT(*) FROM \"Cuentas_Transacciones\" WHERE (SELECT COUNT(*) FROM \"Transacciones\" t WHERE t.cuenta_id = id) = 0";
-                    break;
-                case "Categorias_Transacciones":
-                    sql = "SELECT COUNT(*) FROM \"Categorias_Transacciones\" WHERE (SELECT COUNT(*) FROM \"Cuentas_Transacciones\" ct WHERE ct.categoria_id = id) = 0";
-                    break;
-                case "Historial_Saldos_SIMs":
-                    sql = "SELECT COUNT(*) FROM \"Historial_Saldos_SIMs\" WHERE fecha < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Equipos_Estatus":
-                    sql = "SELECT COUNT(*) FROM \"Equipos_Estatus\" WHERE fecha_check < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Equipos":
-                    sql = "SELECT COUNT(*) FROM \"Equipos\" WHERE fecha_activacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "SIMs":
-                    sql = "SELECT COUNT(*) FROM \"SIMs\" WHERE vigencia < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Modelos_Equipos":
-                    sql = "SELECT COUNT(*) FROM \"Modelos_Equipos\" WHERE (SELECT COUNT(*) FROM \"Equipos\" e WHERE e.modelo_id = id) = 0";
-                    break;
-                case "Proveedores":
-                    sql = "SELECT COUNT(*) FROM \"Proveedores\" WHERE (SELECT COUNT(*) FROM \"Equipos\" e WHERE e.proveedor_id = id) = 0";
-                    break;
-                case "Actividades":
-                    sql = "SELECT COUNT(*) FROM \"Actividades\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Notas_Tratos":
-                    sql = "SELECT COUNT(*) FROM \"Notas_Tratos\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Tratos":
-                    sql = "SELECT COUNT(*) FROM \"Tratos\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days' AND fase = 'CERRADO_PERDIDO'";
-                    break;
-                case "Secuencias_Tratos":
-                    sql = "SELECT COUNT(*) FROM \"Secuencias_Tratos\" WHERE (SELECT COUNT(*) FROM \"Tratos\" t WHERE t.empresa_id = empresa_id) = 0";
-                    break;
-                case "Telefonos_Contactos":
-                    sql = "SELECT COUNT(*) FROM \"Telefonos_Contactos\" WHERE EXISTS (" +
-                            "SELECT 1 FROM \"Contactos\" c WHERE c.id = contacto_id " +
-                            "AND c.fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days')";
-                    break;
-                case "Contactos":
-                    sql = "SELECT COUNT(*) FROM \"Contactos\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Correos_Contactos":
-                    sql = "SELECT COUNT(*) FROM \"Correos_Contactos\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Notificaciones":
-                    sql = "SELECT COUNT(*) FROM \"Notificaciones\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Empresas":
-                    sql = "SELECT COUNT(*) FROM \"Empresas\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Usuarios":
-                    sql = "SELECT COUNT(*) FROM \"Usuarios\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days' AND estatus = 'INACTIVO'";
-                    break;
-                case "Auditoria":
-                    sql = "SELECT COUNT(*) FROM \"Auditoria\" WHERE fecha < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Plantillas_Correos":
-                    sql = "SELECT COUNT(*) FROM \"Plantillas_Correos\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Plantillas_Correos_Adjuntos":
-                    sql = "SELECT COUNT(*) FROM \"Plantillas_Correos_Adjuntos\" WHERE EXISTS (" +
-                            "SELECT 1 FROM \"Plantillas_Correos\" pc WHERE pc.id = plantilla_id " +
-                            "AND pc.fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days')";
-                    break;
-                case "Configuracion_Empresa":
-                    sql = "SELECT COUNT(*) FROM \"Configuracion_Empresa\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Copias_Seguridad":
-                    sql = "SELECT COUNT(*) FROM \"Copias_Seguridad\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Email_records":
-                    sql = "SELECT COUNT(*) FROM \"Email_records\" WHERE fecha_envio < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Plantillas_Importacion":
-                    sql = "SELECT COUNT(*) FROM \"Plantillas_Importacion\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Historial_Exportaciones":
-                    sql = "SELECT COUNT(*) FROM \"Historial_Exportaciones\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                case "Historial_Importaciones":
-                    sql = "SELECT COUNT(*) FROM \"Historial_Importaciones\" WHERE fecha_creacion < CURRENT_DATE - INTERVAL '" + dias + " days'";
-                    break;
-                default:
-                    return 0L;
-            }
-            Query query = entityManager.createNativeQuery(sql);
-            return ((Number) query.getSingleResult()).longValue();
-        } catch (Exception e) {
-            log.error("Error al contar registros antiguos de tabla: " + tablaNombre, e);
+        String sql = CONSULTAS_ANTIGUOS.get(tablaNombre);
+        if (sql == null) {
             return 0L;
         }
+        return almacenamientoRepository.contarRegistros(sql, LocalDate.now().minusDays(dias));
+    }
+
+    public List<ProgresoLimpiezaDTO> obtenerProgresoLimpieza() {
+        return limpiezaPorLotesService.obtenerProgreso();
     }
 
-    private Integer ejecutarLimpiezaEspecifica(SolicitudLimpiezaDTO solicitud) {
+    // Las tablas grandes sin dependientes se borran por lotes reanudables; el resto con la función de la base
+    private HistorialLimpieza ejecutarLimpiezaEspecifica(SolicitudLimpiezaDTO solicitud, Integer usuarioId) {
+        String tablaNombre = solicitud.getTablaNombre();
+        if (limpiezaPorLotesService.admiteTabla(tablaNombre)) {
+            boolean vacuum = solicitud.getEjecutarVacuum() != null ? solicitud.getEjecutarVacuum() : vacuumTrasLimpieza;
+            return limpiezaPorLotesService.limpiar(tablaNombre, solicitud.getDiasAntiguedad(), "MANUAL", usuarioId, vacuum);
+        }
+
+        Integer registrosEliminados;
         try {
-            String tablaNombre = solicitud.getTablaNombre();
-            return almacenamientoRepository.limpiarRegistrosAntiguos(tablaNombre, null, "MANUAL");
+            registrosEliminados = transaccionEscritura.execute(status ->
+                    almacenamientoRepository.limpiarRegistrosAntiguos(tablaNombre, null, "MANUAL"));
         } catch (Exception e) {
-            log.error("Error al ejecutar limpieza específica para tabla: " + solicitud.getTablaNombre(), e);
-            return 0;
+            log.error("Error al ejecutar limpieza específica para tabla: " + tablaNombre, e);
+            registrosEliminados = 0;
         }
+
+        HistorialLimpieza historial = new HistorialLimpieza();
+        historial.setTablaNombre(tablaNombre);
+        historial.setRegistrosEliminados(registrosEliminados);
+        historial.setTipoLimpieza("MANUAL");
+        historial.setUsuarioId(usuarioId);
+        historial.setEstado(HistorialLimpieza.ESTADO_COMPLETADA);
+        return historial;
     }
 
     @Scheduled(cron = "0 0 2 * * *") // Ejecutar diariamente a las 2:00 AM
@@ -403,6 +429,15 @@ public class AlmacenamientoService {
         } catch (Exception e) {
             log.error("Error durante la limpieza automática programada", e);
         }
+
+        try {
+            int reanudadas = limpiezaPorLotesService.reanudarPendientes(vacuumTrasLimpieza);
+            if (reanudadas > 0) {
+                log.info("Limpiezas por lotes pendientes reanudadas: {}", reanudadas);
+            }
+        } catch (Exception e) {
+            log.error("Error al reanudar limpiezas por lotes pendientes", e);
+        }
     }
 
 
@@ -0,0 +1,235 @@
+package com.tss.tssmanager_backend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Formato de archivo de las copias de seguridad. El CSV se escribe en bloques GZIP
+ * independientes y concatenados (el archivo sigue siendo un .gz válido para cualquier
+ * herramienta) y junto a él se guarda un manifiesto JSON con la posición, el tamaño, las filas
+ * y el SHA-256 de cada bloque, que se verifica antes de leer la copia.
+ */
+public final class ArchivoCopiaComprimida {
+
+    public static final String EXTENSION = ".csv.gz";
+    public static final String EXTENSION_MANIFIESTO = ".manifest.json";
+    public static final String FORMATO = "TSS-CSV-GZ/1";
+
+    private static final int TAMANO_BLOQUE = 1024 * 1024;
+    private static final int TAMANO_BUFFER_LECTURA = 64 * 1024;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private ArchivoCopiaComprimida() {
+    }
+
+    public static boolean esArchivoComprimido(Path archivo) {
+        return archivo.getFileName().toString().endsWith(EXTENSION);
+    }
+
+    public static Path rutaManifiesto(Path archivo) {
+        return archivo.resolveSibling(archivo.getFileName().toString() + EXTENSION_MANIFIESTO);
+    }
+
+    public static Escritor crearEscritor(Path archivo) throws IOException {
+        return new Escritor(archivo);
+    }
+
+    public static Manifiesto leerManifiesto(Path archivo) throws IOException {
+        Path manifiesto = rutaManifiesto(archivo);
+        if (!Files.exists(manifiesto)) {
+            throw new FileNotFoundException("Manifiesto no encontrado para " + archivo.getFileName());
+        }
+        return MAPPER.readValue(manifiesto.toFile(), Manifiesto.class);
+    }
+
+    /**
+     * Abre el contenido descomprimido de la copia después de comprobar todos sus bloques.
+     */
+    public static InputStream abrirVerificado(Path archivo) throws IOException {
+        verificar(archivo);
+        return new GZIPInputStream(new BufferedInputStream(Files.newInputStream(archivo), TAMANO_BUFFER_LECTURA),
+                TAMANO_BUFFER_LECTURA);
+    }
+
+    public static void verificar(Path archivo) throws IOException {
+        Manifiesto manifiesto = leerManifiesto(archivo);
+
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            if (canal.size() != manifiesto.getTamanoComprimido()) {
+                throw new IOException("El tamaño de " + archivo.getFileName() + " no coincide con su manifiesto");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(TAMANO_BUFFER_LECTURA);
+            for (Bloque bloque : manifiesto.getBloques()) {
+                MessageDigest digest = sha256();
+                canal.position(bloque.getPosicion());
+                long restante = bloque.getLongitud();
+                while (restante > 0) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), restante));
+                    int leidos = canal.read(buffer);
+                    if (leidos < 0) {
+                        throw new EOFException("Bloque " + bloque.getIndice() + " incompleto en " + archivo.getFileName());
+                    }
+                    buffer.flip();
+                    digest.update(buffer);
+                    restante -= leidos;
+                }
+                if (!HexFormat.of().formatHex(digest.digest()).equals(bloque.getSha256())) {
+                    throw new IOException("Bloque " + bloque.getIndice() + " corrupto en " + archivo.getFileName());
+                }
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Acumula el CSV sin comprimir y lo vuelca como un bloque GZIP cada vez que una fila
+     * completa supera el tamaño de bloque. Al cerrarse escribe el manifiesto solo si antes se
+     * llamó a {@link #terminar()}; si no, la escritura se interrumpió y el archivo se elimina para
+     * que una copia a medias no pase la verificación como completa.
+     */
+    public static class Escritor extends OutputStream {
+
+        private final Path archivo;
+        private final OutputStream destino;
+        private final ByteArrayOutputStream pendiente = new ByteArrayOutputStream(TAMANO_BLOQUE + 8192);
+        private final ByteArrayOutputStream comprimido = new ByteArrayOutputStream(TAMANO_BLOQUE / 4);
+        private final List<Bloque> bloques = new ArrayList<>();
+        private long posicion;
+        private long tamanoOriginal;
+        private long filasBloque;
+        private long filasTotales;
+        private boolean terminado;
+        private boolean cerrado;
+
+        private Escritor(Path archivo) throws IOException {
+            this.archivo = archivo;
+            this.destino = new BufferedOutputStream(Files.newOutputStream(archivo), TAMANO_BUFFER_LECTURA);
+        }
+
+        @Override
+        public void write(int b) {
+            pendiente.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            pendiente.write(b, off, len);
+        }
+
+        /**
+         * Marca el final de una fila; los bloques solo se cortan entre filas.
+         */
+        public void finFila() throws IOException {
+            filasBloque++;
+            if (pendiente.size() >= TAMANO_BLOQUE) {
+                cerrarBloque();
+            }
+        }
+
+        private void cerrarBloque() throws IOException {
+            if (pendiente.size() == 0) {
+                return;
+            }
+
+            comprimido.reset();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(comprimido)) {
+                pendiente.writeTo(gzip);
+            }
+            byte[] datos = comprimido.toByteArray();
+            destino.write(datos);
+
+            bloques.add(new Bloque(bloques.size(), posicion, datos.length, pendiente.size(), filasBloque,
+                    HexFormat.of().formatHex(sha256().digest(datos))));
+
+            posicion += datos.length;
+            tamanoOriginal += pendiente.size();
+            filasTotales += filasBloque;
+            filasBloque = 0;
+            pendiente.reset();
+        }
+
+        /**
+         * Confirma que se escribieron todas las filas. Debe llamarse antes de cerrar.
+         */
+        public void terminar() throws IOException {
+            cerrarBloque();
+            terminado = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (cerrado) {
+                return;
+            }
+            cerrado = true;
+
+            try {
+                if (terminado) {
+                    cerrarBloque();
+                }
+            } finally {
+                destino.close();
+            }
+
+            if (!terminado) {
+                Files.deleteIfExists(archivo);
+                Files.deleteIfExists(rutaManifiesto(archivo));
+                return;
+            }
+
+            Manifiesto manifiesto = new Manifiesto(FORMATO, LocalDateTime.now().toString(),
+                    filasTotales, tamanoOriginal, posicion, bloques);
+            MAPPER.writerWithDefaultPrettyPrinter().writeValue(rutaManifiesto(archivo).toFile(), manifiesto);
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Manifiesto {
+        private String formato;
+        private String fechaCreacion;
+        private long filas;
+        private long tamanoOriginal;
+        private long tamanoComprimido;
+        private List<Bloque> bloques;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Bloque {
+        private int indice;
+        private long posicion;
+        private long longitud;
+        private long longitudOriginal;
+        private long filas;
+        private String sha256;
+    }
+}
@@ -0,0 +1,303 @@
+package com.tss.tssmanager_backend.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Caché en disco de los adjuntos de correo ya codificados en base64. Una campaña de seguimiento
+ * envía los mismos archivos de la plantilla a cientos de contactos; con la caché cada URL se
+ * descarga y codifica una vez y después solo se revalida con su ETag.
+ *
+ * <p>El contenido se guarda por hash SHA-256 ({@code <hash>.b64}), así que dos URLs con el
+ * mismo archivo comparten el payload. Cada ruta tiene además un archivo de índice
+ * ({@code <hash de la ruta>.properties}) con el hash del contenido y los datos de validación,
+ * lo que permite recuperar la caché al reiniciar. Cuando el total supera el máximo configurado
+ * se descartan los adjuntos menos usados.</p>
+ */
+@Component
+public class CacheAdjuntos {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheAdjuntos.class);
+
+    private static final long TAMANO_MAXIMO_ARCHIVO = 10 * 1024 * 1024;
+    private static final String EXTENSION_CONTENIDO = ".b64";
+    private static final String EXTENSION_INDICE = ".properties";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Path directorio;
+    private final Duration revalidacion;
+    private final Cache<String, Entrada> entradas;
+
+    public CacheAdjuntos(@Value("${correo.adjuntos.cache.directorio:${java.io.tmpdir}/tss-adjuntos}") String directorio,
+                         @Value("${correo.adjuntos.cache.maximo-mb:512}") long maximoMb,
+                         @Value("${correo.adjuntos.cache.revalidar-minutos:60}") long revalidarMinutos) {
+        this.directorio = Path.of(directorio);
+        this.revalidacion = Duration.ofMinutes(revalidarMinutos);
+        this.entradas = Caffeine.newBuilder()
+                .maximumWeight(maximoMb * 1024 * 1024)
+                .weigher((String clave, Entrada entrada) -> (int) Math.min(Integer.MAX_VALUE, entrada.tamano()))
+                .executor(Runnable::run)
+                .removalListener((String clave, Entrada entrada, RemovalCause causa) -> {
+                    if (clave != null && entrada != null) {
+                        eliminarArchivos(clave, entrada);
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    @PostConstruct
+    public void inicializar() {
+        CaffeineCacheMetrics.monitor(meterRegistry, entradas, "correo-adjuntos");
+        Gauge.builder("correo.adjuntos.cache.bytes", entradas,
+                        cache -> cache.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L))
+                .description("Bytes de adjuntos codificados guardados en disco")
+                .register(meterRegistry);
+
+        try {
+            Files.createDirectories(directorio);
+            cargarIndice();
+        } catch (IOException e) {
+            logger.warn("No se pudo preparar el directorio de adjuntos {}: {}", directorio, e.getMessage());
+        }
+    }
+
+    /**
+     * Contenido en base64 de una URL o de un archivo local. Si la ruta no se puede cachear
+     * (disco lleno, sin permisos) se lee y codifica directamente.
+     */
+    public String obtenerBase64(String ruta, boolean esUrl) throws IOException {
+        String clave = esUrl ? ruta : "archivo:" + Path.of(ruta).toAbsolutePath().normalize();
+        Entrada entrada = entradas.getIfPresent(clave);
+
+        if (entrada != null) {
+            String contenido = esUrl ? contenidoUrl(clave, ruta, entrada) : contenidoArchivo(ruta, entrada);
+            if (contenido != null) {
+                return contenido;
+            }
+            entradas.invalidate(clave);
+        }
+
+        return esUrl ? descargarUrl(clave, ruta, null) : leerArchivo(clave, ruta);
+    }
+
+    private String contenidoUrl(String clave, String url, Entrada entrada) throws IOException {
+        if (System.currentTimeMillis() - entrada.validadoEn() < revalidacion.toMillis()) {
+            return leerContenido(entrada);
+        }
+        if (entrada.etag() == null && entrada.ultimaModificacion() == null) {
+            return null;
+        }
+        // Descarga condicional: con un 304 solo se renueva la marca de validación
+        return descargarUrl(clave, url, entrada);
+    }
+
+    private String contenidoArchivo(String ruta, Entrada entrada) throws IOException {
+        Path archivo = Path.of(ruta);
+        long tamano = Files.size(archivo);
+        long modificado = Files.getLastModifiedTime(archivo).toMillis();
+        return tamano == entrada.tamanoOrigen() && modificado == entrada.modificadoOrigen() ? leerContenido(entrada) : null;
+    }
+
+    private String descargarUrl(String clave, String url, Entrada anterior) throws IOException {
+        URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(15000);
+
+        if (anterior != null && connection instanceof HttpURLConnection) {
+            if (anterior.etag() != null) {
+                connection.setRequestProperty("If-None-Match", anterior.etag());
+            }
+            if (anterior.ultimaModificacion() != null) {
+                connection.setRequestProperty("If-Modified-Since", anterior.ultimaModificacion());
+            }
+        }
+
+        if (anterior != null && connection instanceof HttpURLConnection http
+                && http.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            Entrada renovada = anterior.renovada(System.currentTimeMillis());
+            guardar(clave, renovada);
+            return leerContenido(renovada);
+        }
+
+        long contentLength = connection.getContentLengthLong();
+        if (contentLength > TAMANO_MAXIMO_ARCHIVO) {
+            throw new IOException("Archivo demasiado grande para procesar: " + contentLength + " bytes");
+        }
+
+        byte[] bytes;
+        try (InputStream inputStream = connection.getInputStream()) {
+            bytes = inputStream.readAllBytes();
+        }
+
+        return almacenar(clave, bytes, connection.getHeaderField("ETag"),
+                connection.getHeaderField("Last-Modified"), bytes.length, 0);
+    }
+
+    private String leerArchivo(String clave, String ruta) throws IOException {
+        Path archivo = Path.of(ruta);
+        long modificado = Files.getLastModifiedTime(archivo).toMillis();
+        byte[] bytes = Files.readAllBytes(archivo);
+        return almacenar(clave, bytes, null, null, bytes.length, modificado);
+    }
+
+    private String almacenar(String clave, byte[] bytes, String etag, String ultimaModificacion,
+                             long tamanoOrigen, long modificadoOrigen) {
+        String contenido = Base64.getEncoder().encodeToString(bytes);
+        String hash = sha256(bytes);
+        Path destino = directorio.resolve(hash + EXTENSION_CONTENIDO);
+
+        try {
+            if (!Files.exists(destino)) {
+                escribirAtomico(destino, contenido.getBytes(StandardCharsets.US_ASCII));
+            }
+            guardar(clave, new Entrada(hash, contenido.length(), etag, ultimaModificacion,
+                    tamanoOrigen, modificadoOrigen, System.currentTimeMillis()));
+        } catch (IOException e) {
+            logger.warn("No se pudo guardar en caché el adjunto {}: {}", clave, e.getMessage());
+        }
+        return contenido;
+    }
+
+    private void guardar(String clave, Entrada entrada) throws IOException {
+        Properties indice = new Properties();
+        indice.setProperty("clave", clave);
+        indice.setProperty("hash", entrada.hash());
+        indice.setProperty("tamano", String.valueOf(entrada.tamano()));
+        indice.setProperty("tamanoOrigen", String.valueOf(entrada.tamanoOrigen()));
+        indice.setProperty("modificadoOrigen", String.valueOf(entrada.modificadoOrigen()));
+        indice.setProperty("validadoEn", String.valueOf(entrada.validadoEn()));
+        if (entrada.etag() != null) {
+            indice.setProperty("etag", entrada.etag());
+        }
+        if (entrada.ultimaModificacion() != null) {
+            indice.setProperty("ultimaModificacion", entrada.ultimaModificacion());
+        }
+
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        indice.store(salida, null);
+        escribirAtomico(directorio.resolve(sha256(clave.getBytes(StandardCharsets.UTF_8)) + EXTENSION_INDICE),
+                salida.toByteArray());
+        entradas.asMap().put(clave, entrada);
+    }
+
+    private String leerContenido(Entrada entrada) {
+        try {
+            return Files.readString(directorio.resolve(entrada.hash() + EXTENSION_CONTENIDO), StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void cargarIndice() throws IOException {
+        int cargadas = 0;
+        try (Stream<Path> archivos = Files.list(directorio)) {
+            for (Path archivo : (Iterable<Path>) archivos::iterator) {
+                if (!archivo.getFileName().toString().endsWith(EXTENSION_INDICE)) {
+                    continue;
+                }
+                try (InputStream entrada = Files.newInputStream(archivo)) {
+                    Properties indice = new Properties();
+                    indice.load(entrada);
+                    String hash = indice.getProperty("hash");
+                    if (hash == null || !Files.exists(directorio.resolve(hash + EXTENSION_CONTENIDO))) {
+                        Files.deleteIfExists(archivo);
+                        continue;
+                    }
+                    entradas.put(indice.getProperty("clave"), new Entrada(hash,
+                            Long.parseLong(indice.getProperty("tamano")),
+                            indice.getProperty("etag"),
+                            indice.getProperty("ultimaModificacion"),
+                            Long.parseLong(indice.getProperty("tamanoOrigen", "0")),
+                            Long.parseLong(indice.getProperty("modificadoOrigen", "0")),
+                            Long.parseLong(indice.getProperty("validadoEn", "0"))));
+                    cargadas++;
+                } catch (Exception e) {
+                    Files.deleteIfExists(archivo);
+                }
+            }
+        }
+
+        // Contenido sin ninguna ruta que lo use (índice perdido o descartado)
+        try (Stream<Path> archivos = Files.list(directorio)) {
+            for (Path archivo : (Iterable<Path>) archivos::iterator) {
+                String nombre = archivo.getFileName().toString();
+                if (nombre.endsWith(EXTENSION_CONTENIDO)
+                        && !hashEnUso(nombre.substring(0, nombre.length() - EXTENSION_CONTENIDO.length()))) {
+                    Files.deleteIfExists(archivo);
+                }
+            }
+        }
+        logger.info("Caché de adjuntos cargada: {} rutas en {}", cargadas, directorio);
+    }
+
+    private void eliminarArchivos(String clave, Entrada entrada) {
+        try {
+            Entrada actual = entradas.asMap().get(clave);
+            if (actual == null) {
+                Files.deleteIfExists(directorio.resolve(sha256(clave.getBytes(StandardCharsets.UTF_8)) + EXTENSION_INDICE));
+            }
+            if (!hashEnUso(entrada.hash())) {
+                Files.deleteIfExists(directorio.resolve(entrada.hash() + EXTENSION_CONTENIDO));
+            }
+        } catch (IOException e) {
+            logger.warn("No se pudo eliminar el adjunto {} de la caché: {}", clave, e.getMessage());
+        }
+    }
+
+    private boolean hashEnUso(String hash) {
+        return entradas.asMap().values().stream().anyMatch(entrada -> entrada.hash().equals(hash));
+    }
+
+    private void escribirAtomico(Path destino, byte[] contenido) throws IOException {
+        Path temporal = Files.createTempFile(directorio, "adjunto", ".tmp");
+        try {
+            Files.write(temporal, contenido);
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    private record Entrada(String hash, long tamano, String etag, String ultimaModificacion,
+                           long tamanoOrigen, long modificadoOrigen, long validadoEn) {
+
+        Entrada renovada(long ahora) {
+            return new Entrada(hash, tamano, etag, ultimaModificacion, tamanoOrigen, modificadoOrigen, ahora);
+        }
+    }
+}
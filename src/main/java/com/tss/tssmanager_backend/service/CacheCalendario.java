@@ -0,0 +1,202 @@
+package com.tss.tssmanager_backend.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.tss.tssmanager_backend.dto.EventoCalendarioDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caché de eventos del calendario organizada en cubetas por (fuente, alcance, mes). El alcance
+ * de las actividades es el usuario asignado o {@link #TODOS}; las cuentas y los equipos son
+ * globales. Cada vista se arma con las cubetas de los meses que cubre y cada cubeta recuerda las
+ * entidades que usó (actividad, trato, usuario, cuenta, empresa...), de modo que un cambio solo
+ * descarta las cubetas que lo contienen más la del mes en el que queda la entidad modificada.
+ */
+@Component
+public class CacheCalendario {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheCalendario.class);
+
+    public static final Integer TODOS = 0;
+
+    private static final long MAXIMO_CUBETAS = 5_000;
+    // Respaldo para cambios que no pasan por los repositorios (SQL directo)
+    private static final long MINUTOS_VIGENCIA = 30;
+
+    public enum Fuente {
+        ACTIVIDADES, CUENTAS_POR_COBRAR, CUENTAS_POR_PAGAR, EQUIPOS
+    }
+
+    private final Map<String, Set<Clave>> dependientes = new ConcurrentHashMap<>();
+
+    private final Cache<Clave, Cubeta> cubetas = Caffeine.newBuilder()
+            .maximumSize(MAXIMO_CUBETAS)
+            .expireAfterWrite(MINUTOS_VIGENCIA, TimeUnit.MINUTES)
+            .executor(Runnable::run)
+            .removalListener((Clave clave, Cubeta cubeta, RemovalCause causa) -> {
+                if (clave != null && cubeta != null) {
+                    olvidarDependencias(clave, cubeta);
+                }
+            })
+            .build();
+
+    /**
+     * Eventos de una fuente con fecha entre {@code desde} y {@code hasta} (inclusive). Los meses
+     * que faltan en la caché se cargan juntos con una sola llamada al cargador.
+     */
+    public List<EventoCalendarioDTO> obtenerEventos(Fuente fuente, Integer alcance, LocalDate desde, LocalDate hasta,
+                                                    CargadorEventos cargador) {
+        List<Clave> claves = new ArrayList<>();
+        for (YearMonth mes = YearMonth.from(desde); !mes.isAfter(YearMonth.from(hasta)); mes = mes.plusMonths(1)) {
+            claves.add(new Clave(fuente, alcance, mes));
+        }
+
+        Map<Clave, Cubeta> encontradas = cubetas.getAll(claves, faltantes -> cargar(faltantes, alcance, cargador));
+
+        List<EventoCalendarioDTO> eventos = new ArrayList<>();
+        for (Clave clave : claves) {
+            Cubeta cubeta = encontradas.get(clave);
+            if (cubeta == null) {
+                continue;
+            }
+            for (EventoFechado evento : cubeta.eventos) {
+                if (!evento.fecha().isBefore(desde) && !evento.fecha().isAfter(hasta)) {
+                    eventos.add(evento.evento());
+                }
+            }
+        }
+        return eventos;
+    }
+
+    /**
+     * Una entidad de la fuente cambió o se creó con fecha {@code fecha}: se descartan las cubetas
+     * que ya la contenían (su fecha o alcance anterior) y las de su nueva ubicación.
+     */
+    public void entidadCambiada(Fuente fuente, Class<?> tipo, Object id, Integer alcance, LocalDate fecha) {
+        alConfirmar(() -> {
+            descartarDependientes(referencia(tipo, id));
+            if (fecha != null) {
+                YearMonth mes = YearMonth.from(fecha);
+                if (alcance != null && !TODOS.equals(alcance)) {
+                    cubetas.invalidate(new Clave(fuente, alcance, mes));
+                }
+                cubetas.invalidate(new Clave(fuente, TODOS, mes));
+            }
+        });
+    }
+
+    /**
+     * Una entidad referenciada por los eventos (trato, usuario, empresa) o una eliminada.
+     */
+    public void referenciaCambiada(Class<?> tipo, Object id) {
+        alConfirmar(() -> descartarDependientes(referencia(tipo, id)));
+    }
+
+    // Para actualizaciones masivas de las que no se conocen las filas afectadas
+    public void invalidarFuente(Fuente fuente) {
+        alConfirmar(() -> cubetas.invalidateAll(cubetas.asMap().keySet().stream()
+                .filter(clave -> clave.fuente() == fuente)
+                .toList()));
+        logger.debug("Cubetas de {} descartadas del calendario", fuente);
+    }
+
+    public void invalidarTodo() {
+        alConfirmar(cubetas::invalidateAll);
+    }
+
+    public static String referencia(Class<?> tipo, Object id) {
+        return tipo.getSimpleName() + ":" + id;
+    }
+
+    private Map<Clave, Cubeta> cargar(Set<? extends Clave> faltantes, Integer alcance, CargadorEventos cargador) {
+        Map<YearMonth, Cubeta> porMes = new HashMap<>();
+        for (Clave clave : faltantes) {
+            porMes.put(clave.mes(), new Cubeta());
+        }
+
+        YearMonth primero = Collections.min(porMes.keySet());
+        YearMonth ultimo = Collections.max(porMes.keySet());
+        cargador.cargar(alcance, primero.atDay(1), ultimo.atEndOfMonth(), (fecha, evento, referencias) -> {
+            // Los meses intermedios que ya estaban en caché no se reemplazan
+            Cubeta cubeta = fecha != null ? porMes.get(YearMonth.from(fecha)) : null;
+            if (cubeta != null) {
+                cubeta.eventos.add(new EventoFechado(fecha, evento));
+                cubeta.referencias.addAll(Arrays.asList(referencias));
+            }
+        });
+
+        Map<Clave, Cubeta> resultado = new HashMap<>();
+        for (Clave clave : faltantes) {
+            Cubeta cubeta = porMes.get(clave.mes());
+            resultado.put(clave, cubeta);
+            for (String referencia : cubeta.referencias) {
+                dependientes.computeIfAbsent(referencia, r -> ConcurrentHashMap.newKeySet()).add(clave);
+            }
+        }
+        return resultado;
+    }
+
+    private void descartarDependientes(String referencia) {
+        Set<Clave> claves = dependientes.remove(referencia);
+        if (claves != null && !claves.isEmpty()) {
+            cubetas.invalidateAll(new ArrayList<>(claves));
+        }
+    }
+
+    private void olvidarDependencias(Clave clave, Cubeta cubeta) {
+        for (String referencia : cubeta.referencias) {
+            dependientes.computeIfPresent(referencia, (r, claves) -> {
+                claves.remove(clave);
+                return claves.isEmpty() ? null : claves;
+            });
+        }
+    }
+
+    /**
+     * Descarta en cuanto se llama y otra vez al terminar la transacción, para que una consulta
+     * concurrente no deje en caché los datos anteriores al cambio.
+     */
+    private void alConfirmar(Runnable descarte) {
+        descarte.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    descarte.run();
+                }
+            });
+        }
+    }
+
+    @FunctionalInterface
+    public interface CargadorEventos {
+        void cargar(Integer alcance, LocalDate desde, LocalDate hasta, Destino destino);
+    }
+
+    @FunctionalInterface
+    public interface Destino {
+        void agregar(LocalDate fecha, EventoCalendarioDTO evento, String... referencias);
+    }
+
+    public record Clave(Fuente fuente, Integer alcance, YearMonth mes) {
+    }
+
+    private record EventoFechado(LocalDate fecha, EventoCalendarioDTO evento) {
+    }
+
+    private static final class Cubeta {
+        private final List<EventoFechado> eventos = new ArrayList<>();
+        private final Set<String> referencias = new HashSet<>();
+    }
+}
@@ -0,0 +1,151 @@
+package com.tss.tssmanager_backend.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+/**
+ * Caché en disco de los PDF de cotizaciones ya generados. La clave lleva el id de la cotización
+ * y una huella de todo lo que se imprime (cliente, conceptos, importes y archivos adjuntos), así
+ * que una cotización modificada produce otra clave y nunca se sirve un PDF desactualizado. Al
+ * guardar una versión nueva se borran las anteriores de la misma cotización.
+ */
+@Component
+public class CachePdfCotizaciones {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachePdfCotizaciones.class);
+
+    private static final String EXTENSION = ".pdf";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Path directorio;
+    private final Cache<String, Long> archivos;
+
+    public CachePdfCotizaciones(@Value("${cotizaciones.pdf.cache.directorio:${java.io.tmpdir}/tss-cotizaciones}") String directorio,
+                                @Value("${cotizaciones.pdf.cache.maximo-mb:256}") long maximoMb) {
+        this.directorio = Path.of(directorio);
+        this.archivos = Caffeine.newBuilder()
+                .maximumWeight(maximoMb * 1024 * 1024)
+                .weigher((String clave, Long tamano) -> (int) Math.min(Integer.MAX_VALUE, tamano))
+                .executor(Runnable::run)
+                .removalListener((String clave, Long tamano, RemovalCause causa) -> {
+                    if (clave != null && causa != RemovalCause.REPLACED) {
+                        eliminarArchivo(clave);
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    @PostConstruct
+    public void inicializar() {
+        CaffeineCacheMetrics.monitor(meterRegistry, archivos, "cotizaciones-pdf");
+        try {
+            Files.createDirectories(directorio);
+            try (Stream<Path> existentes = Files.list(directorio)) {
+                for (Path archivo : (Iterable<Path>) existentes::iterator) {
+                    String nombre = archivo.getFileName().toString();
+                    if (nombre.endsWith(EXTENSION)) {
+                        archivos.put(nombre.substring(0, nombre.length() - EXTENSION.length()), Files.size(archivo));
+                    } else {
+                        Files.deleteIfExists(archivo);
+                    }
+                }
+            }
+            logger.info("Caché de PDF de cotizaciones cargada: {} archivos en {}", archivos.estimatedSize(), directorio);
+        } catch (IOException e) {
+            logger.warn("No se pudo preparar el directorio de PDF de cotizaciones {}: {}", directorio, e.getMessage());
+        }
+    }
+
+    /**
+     * Archivo del PDF de la cotización en la versión indicada. Si no está en caché se genera una
+     * sola vez (las peticiones simultáneas de la misma versión esperan a esa generación) y se
+     * escribe directo al disco, sin pasar el documento completo por memoria.
+     */
+    public Path obtener(Integer cotizacionId, String version, EscritorPdf escritor) throws IOException {
+        String clave = cotizacionId + "-" + version;
+        Path archivo = directorio.resolve(clave + EXTENSION);
+
+        if (archivos.getIfPresent(clave) != null && Files.exists(archivo)) {
+            return archivo;
+        }
+        archivos.invalidate(clave);
+
+        try {
+            archivos.get(clave, k -> {
+                try {
+                    return generar(archivo, escritor);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        descartarVersionesAnteriores(cotizacionId, clave);
+        return archivo;
+    }
+
+    public void descartar(Integer cotizacionId) {
+        descartarVersionesAnteriores(cotizacionId, null);
+    }
+
+    private long generar(Path archivo, EscritorPdf escritor) throws IOException {
+        Files.createDirectories(directorio);
+        Path temporal = Files.createTempFile(directorio, "cotizacion", ".tmp");
+        try {
+            try (OutputStream salida = new BufferedOutputStream(Files.newOutputStream(temporal))) {
+                escritor.escribir(salida);
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return Files.size(archivo);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    private void descartarVersionesAnteriores(Integer cotizacionId, String vigente) {
+        String prefijo = cotizacionId + "-";
+        archivos.invalidateAll(archivos.asMap().keySet().stream()
+                .filter(clave -> clave.startsWith(prefijo) && !clave.equals(vigente))
+                .toList());
+    }
+
+    private void eliminarArchivo(String clave) {
+        try {
+            Files.deleteIfExists(directorio.resolve(clave + EXTENSION));
+        } catch (IOException e) {
+            logger.warn("No se pudo eliminar el PDF {} de la caché: {}", clave, e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    public interface EscritorPdf {
+        void escribir(OutputStream salida) throws Exception;
+    }
+}
@@ -10,8 +10,6 @@ import com.tss.tssmanager_backend.security.CustomUserDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -25,6 +23,7 @@ import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -48,11 +47,12 @@ public class CalendarioService {
     private TratoRepository tratoRepository;
     @Autowired
     private NotificacionService notificacionService;
+    @Autowired
+    private CacheCalendario cacheCalendario;
 
     private static final Logger logger = LoggerFactory.getLogger(CalendarioService.class);
     private static final ZoneId MEXICO_ZONE = ZoneId.of("America/Mexico_City");
 
-    @Cacheable(value = "calendario-eventos", key = "'eventos_' + #startDate + '_' + #endDate + '_' + #usuario + '_' + T(org.springframework.security.core.context.SecurityContextHolder).context.authentication.authorities.iterator().next().authority")
     @Transactional(readOnly = true)
     public List<EventoCalendarioDTO> obtenerEventos(Instant startDate, Instant endDate, String usuario) {
         String userRol = SecurityContextHolder.getContext().getAuthentication().getAuthorities().stream()
@@ -62,10 +62,45 @@ public class CalendarioService {
         LocalDate start = startDate != null ? startDate.atZone(ZoneId.systemDefault()).toLocalDate() : LocalDate.now().minusMonths(1);
         LocalDate end = endDate != null ? endDate.atZone(ZoneId.systemDefault()).toLocalDate() : LocalDate.now().plusMonths(1);
 
-        List<EventoCalendarioDTO> eventos = new ArrayList<>();
+        boolean esAdminOGestor = "ROLE_ADMINISTRADOR".equals(userRol) || "ROLE_GESTOR".equals(userRol);
+        boolean todosLosUsuarios = usuario == null || usuario.equals("Todos los usuarios");
+
+        // Alcance de las actividades: el propio usuario, el usuario filtrado o todos
+        Integer alcanceActividades = userId;
+        boolean shouldShowCuentas = false;
+        if (esAdminOGestor && todosLosUsuarios) {
+            alcanceActividades = CacheCalendario.TODOS;
+            shouldShowCuentas = true;
+        } else if (esAdminOGestor) {
+            Usuario assignedUser = usuarioRepository.findByNombre(usuario);
+            if (assignedUser == null) {
+                throw new RuntimeException("Usuario no encontrado: " + usuario);
+            }
+            alcanceActividades = assignedUser.getId();
+            // Solo se muestran cuentas si el usuario filtrado es administrador o gestor
+            shouldShowCuentas = assignedUser.getRol() == RolUsuarioEnum.ADMINISTRADOR ||
+                    assignedUser.getRol() == RolUsuarioEnum.GESTOR;
+        }
+
+        List<EventoCalendarioDTO> eventos = new ArrayList<>(cacheCalendario.obtenerEventos(
+                CacheCalendario.Fuente.ACTIVIDADES, alcanceActividades, start, end, this::cargarActividades));
 
-        // Obtener actividades con una sola consulta optimizada
-        List<Actividad> actividades = obtenerActividadesOptimizada(userRol, userId, usuario, start, end);
+        if (shouldShowCuentas) {
+            eventos.addAll(cacheCalendario.obtenerEventos(CacheCalendario.Fuente.CUENTAS_POR_COBRAR,
+                    CacheCalendario.TODOS, start, end, this::cargarCuentasPorCobrar));
+            eventos.addAll(cacheCalendario.obtenerEventos(CacheCalendario.Fuente.CUENTAS_POR_PAGAR,
+                    CacheCalendario.TODOS, start, end, this::cargarCuentasPorPagar));
+            eventos.addAll(cacheCalendario.obtenerEventos(CacheCalendario.Fuente.EQUIPOS,
+                    CacheCalendario.TODOS, start, end, this::cargarEquiposProximosExpirar));
+        }
+
+        return eventos;
+    }
+
+    private void cargarActividades(Integer alcance, LocalDate start, LocalDate end, CacheCalendario.Destino destino) {
+        List<Actividad> actividades = CacheCalendario.TODOS.equals(alcance)
+                ? actividadRepository.findByFechaLimiteBetweenAndEstatusNot(start, end, EstatusActividadEnum.CERRADA)
+                : actividadRepository.findByAsignadoAIdAndFechaLimiteBetweenAndEstatusNot(alcance, start, end, EstatusActividadEnum.CERRADA);
 
         // Cargar usuarios y tratos en batch para evitar N+1
         Set<Integer> userIds = actividades.stream().map(Actividad::getAsignadoAId).collect(Collectors.toSet());
@@ -76,55 +111,15 @@ public class CalendarioService {
         Map<Integer, Trato> tratosMap = tratoRepository.findAllById(tratoIds).stream()
                 .collect(Collectors.toMap(Trato::getId, Function.identity()));
 
-        // Convertir actividades a eventos
-        eventos.addAll(actividades.stream()
-                .map(actividad -> convertActividadToEventoOptimizada(actividad, usuariosMap, tratosMap))
-                .filter(evento -> evento != null)
-                .collect(Collectors.toList()));
-
-        // Solo cargar cuentas para administradores o usuarios específicos
-        boolean shouldShowCuentas = determinarSiMostrarCuentas(userRol, usuario);
-        if (shouldShowCuentas) {
-            // Cargar cuentas con consultas optimizadas
-            eventos.addAll(obtenerCuentasPorCobrarOptimizada(start, end));
-            eventos.addAll(obtenerCuentasPorPagarOptimizada(start, end));
-            eventos.addAll(obtenerEquiposProximosExpirar(start, end));
-        }
-
-        return eventos;
-    }
-
-    private List<Actividad> obtenerActividadesOptimizada(String userRol, Integer userId, String usuario, LocalDate start, LocalDate end) {
-        if ("ROLE_EMPLEADO".equals(userRol)) {
-            return actividadRepository.findByAsignadoAIdAndFechaLimiteBetweenAndEstatusNot(userId, start, end, EstatusActividadEnum.CERRADA);
-        } else if ("ROLE_ADMINISTRADOR".equals(userRol) || "ROLE_GESTOR".equals(userRol))  {
-            if (usuario == null || usuario.equals("Todos los usuarios")) {
-                return actividadRepository.findByFechaLimiteBetweenAndEstatusNot(start, end, EstatusActividadEnum.CERRADA);
-            } else {
-                Usuario assignedUser = usuarioRepository.findByNombre(usuario);
-                if (assignedUser == null) {
-                    throw new RuntimeException("Usuario no encontrado: " + usuario);
-                }
-                return actividadRepository.findByAsignadoAIdAndFechaLimiteBetweenAndEstatusNot(assignedUser.getId(), start, end, EstatusActividadEnum.CERRADA);
+        for (Actividad actividad : actividades) {
+            EventoCalendarioDTO evento = convertActividadToEventoOptimizada(actividad, usuariosMap, tratosMap);
+            if (evento != null) {
+                destino.agregar(actividad.getFechaLimite(), evento,
+                        CacheCalendario.referencia(Actividad.class, actividad.getId()),
+                        CacheCalendario.referencia(Usuario.class, actividad.getAsignadoAId()),
+                        CacheCalendario.referencia(Trato.class, actividad.getTratoId()));
             }
         }
-        return actividadRepository.findByAsignadoAIdAndFechaLimiteBetweenAndEstatusNot(userId, start, end, EstatusActividadEnum.CERRADA);
-    }
-
-    private boolean determinarSiMostrarCuentas(String userRol, String usuario) {
-        if ("ROLE_EMPLEADO".equals(userRol)) {
-            return false;
-        } else if ("ROLE_ADMINISTRADOR".equals(userRol) || "ROLE_GESTOR".equals(userRol)) {
-            if (usuario == null || usuario.equals("Todos los usuarios")) {
-                return true;
-            } else {
-                Usuario assignedUser = usuarioRepository.findByNombre(usuario);
-                return assignedUser != null &&
-                        (assignedUser.getRol() == RolUsuarioEnum.ADMINISTRADOR ||
-                                assignedUser.getRol() == RolUsuarioEnum.GESTOR);
-            }
-        }
-        return false;
     }
 
     private EventoCalendarioDTO convertActividadToEventoOptimizada(Actividad actividad, Map<Integer, Usuario> usuariosMap, Map<Integer, Trato> tratosMap) {
@@ -179,89 +174,99 @@ public class CalendarioService {
                 .build();
     }
 
-    private List<EventoCalendarioDTO> obtenerCuentasPorCobrarOptimizada(LocalDate start, LocalDate end) {
-        return cuentaPorCobrarRepository.findByFechaPagoBetweenAndEstatusNot(start, end, EstatusPagoEnum.PAGADO)
-                .stream()
-                .map(cuenta -> EventoCalendarioDTO.builder()
-                        .titulo("Cuenta por Cobrar - " + cuenta.getFolio() + " - " + cuenta.getCliente().getNombre())
-                        .inicio(cuenta.getFechaPago().atStartOfDay().atZone(MEXICO_ZONE).toInstant())
-                        .allDay(true)
-                        .color("#ef4444")
-                        .tipo("Cuenta por Cobrar")
-                        .categoria("ADMON")
-                        .numeroCuenta(cuenta.getFolio())
-                        .cliente(cuenta.getCliente().getNombre())
-                        .estado(cuenta.getEstatus().name())
-                        .esquema(cuenta.getEsquema().name())
-                        .build())
-                .collect(Collectors.toList());
+    private void cargarCuentasPorCobrar(Integer alcance, LocalDate start, LocalDate end, CacheCalendario.Destino destino) {
+        for (CuentaPorCobrar cuenta : cuentaPorCobrarRepository.findByFechaPagoBetweenAndEstatusNot(start, end, EstatusPagoEnum.PAGADO)) {
+            EventoCalendarioDTO evento = EventoCalendarioDTO.builder()
+                    .titulo("Cuenta por Cobrar - " + cuenta.getFolio() + " - " + cuenta.getCliente().getNombre())
+                    .inicio(cuenta.getFechaPago().atStartOfDay().atZone(MEXICO_ZONE).toInstant())
+                    .allDay(true)
+                    .color("#ef4444")
+                    .tipo("Cuenta por Cobrar")
+                    .categoria("ADMON")
+                    .numeroCuenta(cuenta.getFolio())
+                    .cliente(cuenta.getCliente().getNombre())
+                    .estado(cuenta.getEstatus().name())
+                    .esquema(cuenta.getEsquema().name())
+                    .build();
+            destino.agregar(cuenta.getFechaPago(), evento,
+                    CacheCalendario.referencia(CuentaPorCobrar.class, cuenta.getId()),
+                    CacheCalendario.referencia(Empresa.class, cuenta.getCliente().getId()));
+        }
     }
 
-    private List<EventoCalendarioDTO> obtenerCuentasPorPagarOptimizada(LocalDate start, LocalDate end) {
-        return cuentaPorPagarRepository.findByFechaPagoBetweenAndEstatusNot(start, end, "Pagado")
-                .stream()
-                .map(cuenta -> {
-                    EventoCalendarioDTO.EventoCalendarioDTOBuilder builder = EventoCalendarioDTO.builder()
-                            .titulo(cuenta.getCuenta().getCategoria().getDescripcion() + " - " + cuenta.getCuenta().getNombre() +
-                                    (cuenta.getSim() != null ? " - " + cuenta.getSim().getId() : ""))
-                            .inicio(cuenta.getFechaPago().atStartOfDay().atZone(MEXICO_ZONE).toInstant())
-                            .allDay(true)
-                            .color("#8b5cf6")
-                            .tipo("Cuenta por Pagar")
-                            .categoria("ADMON")
-                            .numeroCuenta(cuenta.getFolio())
-                            .cliente(cuenta.getCuenta().getNombre())
-                            .estado(cuenta.getEstatus())
-                            .monto(cuenta.getMonto())
-                            .nota(cuenta.getNota())
-                            .id(cuenta.getId().toString());
-
-                    if (cuenta.getSim() != null) {
-                        builder.numeroSim(cuenta.getSim().getNumero());
-                    }
-                    return builder.build();
-                })
-                .collect(Collectors.toList());
+    private void cargarCuentasPorPagar(Integer alcance, LocalDate start, LocalDate end, CacheCalendario.Destino destino) {
+        for (CuentaPorPagar cuenta : cuentaPorPagarRepository.findByFechaPagoBetweenAndEstatusNot(start, end, "Pagado")) {
+            EventoCalendarioDTO.EventoCalendarioDTOBuilder builder = EventoCalendarioDTO.builder()
+                    .titulo(cuenta.getCuenta().getCategoria().getDescripcion() + " - " + cuenta.getCuenta().getNombre() +
+                            (cuenta.getSim() != null ? " - " + cuenta.getSim().getId() : ""))
+                    .inicio(cuenta.getFechaPago().atStartOfDay().atZone(MEXICO_ZONE).toInstant())
+                    .allDay(true)
+                    .color("#8b5cf6")
+                    .tipo("Cuenta por Pagar")
+                    .categoria("ADMON")
+                    .numeroCuenta(cuenta.getFolio())
+                    .cliente(cuenta.getCuenta().getNombre())
+                    .estado(cuenta.getEstatus())
+                    .monto(cuenta.getMonto())
+                    .nota(cuenta.getNota())
+                    .id(cuenta.getId().toString());
+
+            if (cuenta.getSim() != null) {
+                builder.numeroSim(cuenta.getSim().getNumero());
+            }
+            // El evento muestra la cuenta y la SIM: cambiar cualquiera de las dos descarta la cubeta
+            destino.agregar(cuenta.getFechaPago(), builder.build(),
+                    CacheCalendario.referencia(CuentaPorPagar.class, cuenta.getId()),
+                    CacheCalendario.referencia(CuentasTransacciones.class, cuenta.getCuenta().getId()),
+                    CacheCalendario.referencia(Sim.class, cuenta.getSim() != null ? cuenta.getSim().getId() : null));
+        }
     }
 
-    private List<EventoCalendarioDTO> obtenerEquiposProximosExpirar(LocalDate start, LocalDate end) {
+    private void cargarEquiposProximosExpirar(Integer alcance, LocalDate start, LocalDate end, CacheCalendario.Destino destino) {
         java.sql.Date sqlStart = java.sql.Date.valueOf(start);
         java.sql.Date sqlEnd = java.sql.Date.valueOf(end);
 
         List<Equipo> equiposExpirando = equipoRepository.findByFechaExpiracionBetween(sqlStart, sqlEnd);
 
-        return equiposExpirando.stream()
-                .map(equipo -> {
-                    String clienteNombre = "Sin Cliente";
-                    if (equipo.getClienteId() != null) {
-                        clienteNombre = empresaRepository.findById(equipo.getClienteId())
-                                .map(Empresa::getNombre)
-                                .orElse("Cliente ID: " + equipo.getClienteId());
-                    } else if (equipo.getClienteDefault() != null) {
-                        clienteNombre = equipo.getClienteDefault();
-                    }
-
-                    String plataformaNombre = equipo.getPlataforma() != null
-                            ? equipo.getPlataforma().getNombrePlataforma()
-                            : "Sin Plataforma";
-
-                    return EventoCalendarioDTO.builder()
-                            .titulo("Expiración - " + equipo.getNombre())
-                            .inicio(equipo.getFechaExpiracion().toLocalDate()
-                                    .atStartOfDay()
-                                    .atZone(MEXICO_ZONE)
-                                    .toInstant())
-                            .allDay(true)
-                            .color("#facc15")
-                            .tipo("Expiración de Equipo")
-                            .categoria("EQUIPOS")
-                            .imei(equipo.getImei())
-                            .plataformaNombre(plataformaNombre)
-                            .clienteEquipo(clienteNombre)
-                            .id(equipo.getId().toString())
-                            .build();
-                })
-                .collect(Collectors.toList());
+        // Nombres de clientes en una sola consulta
+        Set<Integer> clienteIds = equiposExpirando.stream().map(Equipo::getClienteId)
+                .filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<Integer, String> clientesMap = empresaRepository.findAllById(clienteIds).stream()
+                .collect(Collectors.toMap(Empresa::getId, Empresa::getNombre));
+
+        for (Equipo equipo : equiposExpirando) {
+            String clienteNombre = "Sin Cliente";
+            if (equipo.getClienteId() != null) {
+                clienteNombre = clientesMap.getOrDefault(equipo.getClienteId(), "Cliente ID: " + equipo.getClienteId());
+            } else if (equipo.getClienteDefault() != null) {
+                clienteNombre = equipo.getClienteDefault();
+            }
+
+            String plataformaNombre = equipo.getPlataforma() != null
+                    ? equipo.getPlataforma().getNombrePlataforma()
+                    : "Sin Plataforma";
+
+            LocalDate fechaExpiracion = equipo.getFechaExpiracion().toLocalDate();
+            EventoCalendarioDTO evento = EventoCalendarioDTO.builder()
+                    .titulo("Expiración - " + equipo.getNombre())
+                    .inicio(fechaExpiracion
+                            .atStartOfDay()
+                            .atZone(MEXICO_ZONE)
+                            .toInstant())
+                    .allDay(true)
+                    .color("#facc15")
+                    .tipo("Expiración de Equipo")
+                    .categoria("EQUIPOS")
+                    .imei(equipo.getImei())
+                    .plataformaNombre(plataformaNombre)
+                    .clienteEquipo(clienteNombre)
+                    .id(equipo.getId().toString())
+                    .build();
+
+            destino.agregar(fechaExpiracion, evento,
+                    CacheCalendario.referencia(Equipo.class, equipo.getId()),
+                    CacheCalendario.referencia(Empresa.class, equipo.getClienteId()));
+        }
     }
 
     private EventoCalendarioDTO convertActividadToEvento(Actividad actividad) {
@@ -319,8 +324,8 @@ public class CalendarioService {
         };
     }
 
-    @CacheEvict(value = "calendario-eventos", allEntries = true)
     public void invalidarCacheCalendario() {
+        cacheCalendario.invalidarTodo();
         logger.info("Cache del calendario invalidado");
     }
 }
\ No newline at end of file
@@ -0,0 +1,182 @@
+package com.tss.tssmanager_backend.service;
+
+import com.tss.tssmanager_backend.entity.CorreoSaliente;
+import com.tss.tssmanager_backend.entity.EmailRecord;
+import com.tss.tssmanager_backend.repository.CorreoSalienteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Cola persistente de correos salientes. Los procesos programados solo encolan y confirman su
+ * transacción; el envío ocurre después, fuera de cualquier transacción, agrupando hasta 100
+ * correos por solicitud a Resend y respetando un límite de solicitudes por segundo. Los envíos
+ * fallidos se reintentan con espera exponencial.
+ */
+@Service
+public class ColaCorreoService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ColaCorreoService.class);
+
+    private static final int TAMANO_LOTE_RESEND = 100;
+    private static final Duration ESPERA_MAXIMA = Duration.ofHours(1);
+    private static final Duration ENVIO_ABANDONADO = Duration.ofMinutes(10);
+
+    @Autowired
+    private CorreoSalienteRepository correoSalienteRepository;
+    @Autowired
+    private EmailService emailService;
+    @Autowired
+    private LimitadorEnvioCorreo limitador;
+
+    private final TransactionTemplate transactionTemplate;
+    private final int maximoIntentos;
+    private final Duration esperaBase;
+
+    public ColaCorreoService(PlatformTransactionManager transactionManager,
+                             @Value("${correo.cola.maximo-intentos:6}") int maximoIntentos,
+                             @Value("${correo.cola.espera-base-segundos:30}") long esperaBaseSegundos) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maximoIntentos = maximoIntentos;
+        this.esperaBase = Duration.ofSeconds(esperaBaseSegundos);
+    }
+
+    /**
+     * Encola un mismo correo para varios destinatarios dentro de la transacción del llamador.
+     */
+    @Transactional
+    public int encolar(Collection<String> destinatarios, String asunto, String cuerpo, String tipoCorreo) {
+        List<CorreoSaliente> correos = new ArrayList<>();
+        for (String destinatario : new LinkedHashSet<>(destinatarios)) {
+            if (destinatario == null || destinatario.isBlank()) {
+                continue;
+            }
+            CorreoSaliente correo = new CorreoSaliente();
+            correo.setDestinatario(destinatario);
+            correo.setAsunto(asunto);
+            correo.setCuerpo(cuerpo);
+            correo.setTipoCorreoConsolidado(tipoCorreo);
+            correos.add(correo);
+        }
+
+        correoSalienteRepository.saveAll(correos);
+        logger.info("Correos {} encolados: {}", tipoCorreo, correos.size());
+        return correos.size();
+    }
+
+    @Transactional(readOnly = true)
+    public boolean existeEncoladoDesde(String tipoCorreo, Instant desde) {
+        return correoSalienteRepository.existeEncoladoDesde(tipoCorreo, desde);
+    }
+
+    @Scheduled(fixedDelayString = "${correo.cola.intervalo-ms:10000}", initialDelay = 30000)
+    public void procesarCola() {
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    correoSalienteRepository.liberarEnviosAbandonados(Instant.now().minus(ENVIO_ABANDONADO)));
+
+            List<CorreoSaliente> lote;
+            while (!(lote = tomarLote()).isEmpty()) {
+                enviarLote(lote);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Procesamiento de la cola de correos interrumpido");
+        } catch (Exception e) {
+            logger.error("Error al procesar la cola de correos: {}", e.getMessage(), e);
+        }
+    }
+
+    private List<CorreoSaliente> tomarLote() {
+        return transactionTemplate.execute(status -> {
+            Instant ahora = Instant.now();
+            List<CorreoSaliente> lote = correoSalienteRepository.findPendientesParaEnvio(ahora, TAMANO_LOTE_RESEND);
+            if (!lote.isEmpty()) {
+                correoSalienteRepository.marcarEnviando(lote.stream().map(CorreoSaliente::getId).toList(), ahora);
+            }
+            return lote;
+        });
+    }
+
+    private void enviarLote(List<CorreoSaliente> lote) throws InterruptedException {
+        limitador.adquirir();
+
+        List<String> ids;
+        try {
+            ids = lote.size() == 1
+                    ? Collections.singletonList(emailService.enviarCorreoSinRegistro(
+                    lote.get(0).getDestinatario(), lote.get(0).getAsunto(), lote.get(0).getCuerpo()))
+                    : emailService.enviarLoteSinRegistro(lote);
+        } catch (Exception e) {
+            logger.warn("Error al enviar lote de {} correos: {}", lote.size(), e.getMessage());
+            if (LimitadorEnvioCorreo.esLimiteDeTasa(e)) {
+                limitador.vaciar();
+            }
+            transactionTemplate.executeWithoutResult(status -> lote.forEach(correo -> registrarFallo(correo, e.getMessage())));
+            return;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < lote.size(); i++) {
+                String resendEmailId = i < ids.size() ? ids.get(i) : null;
+                if (resendEmailId != null) {
+                    registrarExito(lote.get(i), resendEmailId);
+                } else {
+                    registrarFallo(lote.get(i), "Resend no devolvió id para el correo");
+                }
+            }
+        });
+    }
+
+    private void registrarExito(CorreoSaliente correo, String resendEmailId) {
+        EmailRecord registro = emailService.registrarEnvio(correo.getDestinatario(), correo.getAsunto(),
+                correo.getCuerpo(), true, resendEmailId, correo.getTipoCorreoConsolidado());
+
+        correo.setEstado(CorreoSaliente.ESTADO_ENVIADO);
+        correo.setIntentos(correo.getIntentos() + 1);
+        correo.setFechaEnvio(Instant.now());
+        correo.setEmailRecordId(registro.getId());
+        correo.setUltimoError(null);
+        correoSalienteRepository.save(correo);
+        logger.info("Correo {} enviado a: {}", correo.getTipoCorreoConsolidado(), correo.getDestinatario());
+    }
+
+    private void registrarFallo(CorreoSaliente correo, String error) {
+        int intentos = correo.getIntentos() + 1;
+        correo.setIntentos(intentos);
+        correo.setUltimoError(error);
+
+        if (intentos >= maximoIntentos) {
+            // El registro fallido queda en el historial de correos igual que un envío directo
+            EmailRecord registro = emailService.registrarEnvio(correo.getDestinatario(), correo.getAsunto(),
+                    correo.getCuerpo(), false, null, correo.getTipoCorreoConsolidado());
+            correo.setEstado(CorreoSaliente.ESTADO_FALLIDO);
+            correo.setEmailRecordId(registro.getId());
+            logger.error("Correo {} a {} descartado tras {} intentos: {}",
+                    correo.getTipoCorreoConsolidado(), correo.getDestinatario(), intentos, error);
+        } else {
+            correo.setEstado(CorreoSaliente.ESTADO_PENDIENTE);
+            correo.setProximoIntento(Instant.now().plus(calcularEspera(intentos)));
+        }
+        correoSalienteRepository.save(correo);
+    }
+
+    private Duration calcularEspera(int intentos) {
+        long segundos = esperaBase.getSeconds() << Math.min(intentos - 1, 16);
+        Duration espera = Duration.ofSeconds(Math.min(segundos, ESPERA_MAXIMA.getSeconds()));
+        // Hasta 20% de variación para que los reintentos no coincidan
+        long variacionMs = (long) (espera.toMillis() * 0.2 * ThreadLocalRandom.current().nextDouble());
+        return espera.plusMillis(variacionMs);
+    }
+}
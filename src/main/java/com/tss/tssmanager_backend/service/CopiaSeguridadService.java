@@ -4,12 +4,16 @@ import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.googleapis.media.MediaHttpUploader;
 import com.google.api.client.http.FileContent;
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
 import com.google.api.client.http.javanet.NetHttpTransport;
-import com.tss.tssmanager_backend.entity.Sector;
-import com.tss.tssmanager_backend.repository.SectorRepository;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.ExponentialBackOff;
 import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.DriveScopes;
 import com.google.api.services.drive.model.File;
@@ -21,23 +25,24 @@ import com.tss.tssmanager_backend.enums.*;
 import org.apache.commons.csv.*;
 import com.tss.tssmanager_backend.dto.CopiaSeguridadDTO;
 import com.tss.tssmanager_backend.dto.ConfiguracionCopiasDTO;
+import com.tss.tssmanager_backend.dto.ResultadoRestauracionDTO;
 import com.tss.tssmanager_backend.entity.*;
 import com.tss.tssmanager_backend.repository.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.awt.Color;
 import java.io.*;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -45,9 +50,11 @@ import java.security.GeneralSecurityException;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -57,18 +64,17 @@ public class CopiaSeguridadService {
 
     private final CopiaSeguridadRepository copiaSeguridadRepository;
     private final ConfiguracionCopiasRepository configuracionCopiasRepository;
-    private final CotizacionRepository cotizacionRepository;
     private final CuentaPorCobrarRepository cuentaPorCobrarRepository;
     private final TratoRepository tratosRepository;
     private final EmpresaRepository empresasRepository;
     private final SolicitudFacturaNotaRepository solicitudFacturaNotaRepository;
     private final ContactoRepository contactosRepository;
-    private final SectorRepository sectorRepository;
     private final EquipoRepository equiposRepository;
     private final ComisionRepository comisionRepository;
     private final SimRepository simsRepository;
     private final UsuarioRepository usuarioRepository;
-    private final PlataformaService plataformaService;
+    private final RestauracionCopiaService restauracionCopiaService;
+    private final CotizacionService cotizacionService;
 
     @Value("${google.drive.client.id}")
     private String clientId;
@@ -82,9 +88,18 @@ public class CopiaSeguridadService {
     @Value("${copias.storage.path}")
     private String storagePath;
 
+    // Incrementales que se encadenan sobre una copia completa antes de generar una nueva base
+    @Value("${copias.incremental.max-incrementales:6}")
+    private int maxIncrementales;
+
     private static final String APPLICATION_NAME = "TSS Manager 3";
     private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
     private static final String FOLDER_NAME = "TSS_Copias";
+    private static final int TAMANO_FRAGMENTO_DRIVE = 20 * MediaHttpUploader.MINIMUM_CHUNK_SIZE; // 5 MB
+    private static final String MODALIDAD_COMPLETA = "COMPLETA";
+    private static final String MODALIDAD_INCREMENTAL = "INCREMENTAL";
+    private static final String OPERACION_GUARDAR = "GUARDAR";
+    private static final String OPERACION_ELIMINAR = "ELIMINAR";
 
     // Configuración
     public ConfiguracionCopiasDTO obtenerConfiguracion(Integer usuarioId) {
@@ -313,6 +328,26 @@ public class CopiaSeguridadService {
     }
 
     private void generarCopia(ConfiguracionCopias config, TipoCopiaSeguridadEnum tipo, String frecuencia) throws Exception {
+        // Las copias programadas se encadenan como incrementales sobre la última copia completa vigente;
+        // las manuales siempre son completas y abren una cadena nueva
+        if (!"MANUAL".equals(frecuencia)) {
+            CopiasSeguridad base = obtenerCopiaBaseVigente(config.getUsuarioId(), tipo);
+            if (base != null) {
+                List<CopiasSeguridad> incrementales =
+                        copiaSeguridadRepository.findByCopiaBaseIdOrderByFechaCreacionAsc(base.getId());
+                if (incrementales.size() < maxIncrementales) {
+                    try {
+                        generarCopiaIncremental(config, tipo, frecuencia, base, incrementales);
+                        return;
+                    } catch (Exception e) {
+                        log.warn("No se pudo generar la copia incremental de tipo {} sobre la copia {}, se genera una completa",
+                                tipo, base.getId(), e);
+                    }
+                }
+            }
+        }
+
+        LocalDateTime marcaAgua = LocalDateTime.now();
         List<Object> datos = obtenerDatos(config.getUsuarioId(), tipo);
 
         if (datos.isEmpty()) {
@@ -342,6 +377,8 @@ public class CopiaSeguridadService {
                 .tamanoArchivo(tamañoTotal)
                 .archivoPdfUrl(pdfPath.toString())
                 .archivoCsvUrl(csvPath.toString())
+                .modalidad(MODALIDAD_COMPLETA)
+                .marcaAgua(marcaAgua)
                 .build();
 
         copia = copiaSeguridadRepository.save(copia);
@@ -353,6 +390,113 @@ public class CopiaSeguridadService {
         }
     }
 
+    private void generarCopiaIncremental(ConfiguracionCopias config, TipoCopiaSeguridadEnum tipo, String frecuencia,
+                                         CopiasSeguridad base, List<CopiasSeguridad> incrementales) throws Exception {
+        Integer usuarioId = config.getUsuarioId();
+        LocalDateTime marcaAgua = LocalDateTime.now();
+        CopiasSeguridad ultima = incrementales.isEmpty() ? base : incrementales.get(incrementales.size() - 1);
+        LocalDateTime desde = ultima.getMarcaAgua() != null ? ultima.getMarcaAgua() : ultima.getFechaCreacion();
+
+        // Estado respaldado hasta ahora: la copia base con sus incrementales aplicadas
+        Map<String, String[]> respaldado = reproducirCadena(base, incrementales);
+
+        Map<String, Object> candidatos = new LinkedHashMap<>();
+        Set<String> idsActuales = new HashSet<>();
+        if (tieneFechaModificacion(tipo)) {
+            Instant desdeInstant = desde.atZone(ZoneId.systemDefault()).toInstant();
+            for (Object dato : obtenerDatosModificados(usuarioId, tipo, desdeInstant)) {
+                candidatos.put(convertirObjetoAFila(dato, tipo)[0], dato);
+            }
+            List<Integer> nuevos = new ArrayList<>();
+            for (Integer id : obtenerIdsActuales(usuarioId, tipo)) {
+                String llave = id.toString();
+                idsActuales.add(llave);
+                if (!respaldado.containsKey(llave) && !candidatos.containsKey(llave)) {
+                    nuevos.add(id);
+                }
+            }
+            for (Object dato : obtenerDatosPorIds(tipo, nuevos)) {
+                candidatos.put(convertirObjetoAFila(dato, tipo)[0], dato);
+            }
+        } else {
+            // Equipos y SIMs no registran fecha de modificación: se comparan contra lo respaldado
+            for (Object dato : obtenerDatos(usuarioId, tipo)) {
+                String llave = convertirObjetoAFila(dato, tipo)[0];
+                idsActuales.add(llave);
+                candidatos.put(llave, dato);
+            }
+        }
+
+        List<Object> modificados = new ArrayList<>();
+        List<String[]> filasModificadas = new ArrayList<>();
+        for (Object dato : candidatos.values()) {
+            String[] fila = convertirObjetoAFila(dato, tipo);
+            if (!Arrays.equals(fila, respaldado.get(fila[0]))) {
+                modificados.add(dato);
+                filasModificadas.add(fila);
+            }
+        }
+        List<String> eliminados = respaldado.keySet().stream()
+                .filter(id -> !idsActuales.contains(id))
+                .collect(Collectors.toList());
+
+        if (filasModificadas.isEmpty() && eliminados.isEmpty()) {
+            log.info("Sin cambios de tipo {} para usuario {} desde la copia {}", tipo, usuarioId, ultima.getId());
+            return;
+        }
+
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy_MM_dd_HH_mm_ss"));
+        String baseName = tipo.name().toLowerCase() + "_" + timestamp + "_incremental";
+        String nota = "Copia incremental sobre la copia del " +
+                base.getFechaCreacion().format(DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss")) +
+                ": " + filasModificadas.size() + " registros nuevos o modificados, " + eliminados.size() + " eliminados";
+
+        Path pdfPath = generarPDF(modificados, tipo, baseName, nota);
+        Path csvPath = generarCSVIncremental(filasModificadas, eliminados, tipo, baseName);
+
+        long sizePdf = Files.size(pdfPath);
+        long sizeCsv = Files.size(csvPath);
+        LocalDateTime fechaEliminacion = LocalDateTime.now().plusMonths(3);
+
+        CopiasSeguridad copia = CopiasSeguridad.builder()
+                .usuarioId(usuarioId)
+                .tipoDatos(tipo)
+                .fechaCreacion(LocalDateTime.now())
+                .fechaEliminacion(fechaEliminacion)
+                .frecuencia(frecuencia)
+                .estado("COMPLETADA")
+                .tamanoArchivo(formatearTamaño(sizePdf + sizeCsv))
+                .archivoPdfUrl(pdfPath.toString())
+                .archivoCsvUrl(csvPath.toString())
+                .modalidad(MODALIDAD_INCREMENTAL)
+                .copiaBaseId(base.getId())
+                .marcaAgua(marcaAgua)
+                .build();
+
+        copia = copiaSeguridadRepository.save(copia);
+
+        // La cadena completa debe vivir tanto como su última incremental para poder restaurarla
+        List<CopiasSeguridad> cadena = new ArrayList<>(incrementales);
+        cadena.add(base);
+        cadena.forEach(c -> c.setFechaEliminacion(fechaEliminacion));
+        copiaSeguridadRepository.saveAll(cadena);
+
+        log.info("Copia incremental {} de tipo {} generada: {} modificados, {} eliminados",
+                copia.getId(), tipo, filasModificadas.size(), eliminados.size());
+
+        final Integer copiaId = copia.getId();
+        if (config.getGoogleDriveVinculada()) {
+            subirAGoogleDriveAsync(config, pdfPath, csvPath, copiaId);
+        }
+    }
+
+    private CopiasSeguridad obtenerCopiaBaseVigente(Integer usuarioId, TipoCopiaSeguridadEnum tipo) {
+        return copiaSeguridadRepository.findCopiasCompletasActivas(usuarioId, tipo, LocalDateTime.now()).stream()
+                .filter(c -> c.getArchivoCsvUrl() != null && Files.exists(Paths.get(c.getArchivoCsvUrl())))
+                .findFirst()
+                .orElse(null);
+    }
+
     @Async
     public void subirAGoogleDriveAsync(ConfiguracionCopias config, Path pdfPath, Path csvPath, Integer copiaId) {
         int intentos = 0;
@@ -364,23 +508,7 @@ public class CopiaSeguridadService {
                 Drive driveService = crearDriveService(config);
                 String folderId = config.getGoogleDriveFolderId();
 
-                // Subir PDF
-                File pdfMetadata = new File();
-                pdfMetadata.setName(pdfPath.getFileName().toString());
-                pdfMetadata.setParents(Collections.singletonList(folderId));
-                FileContent pdfContent = new FileContent("application/pdf", pdfPath.toFile());
-                driveService.files().create(pdfMetadata, pdfContent)
-                        .setFields("id")
-                        .execute();
-
-                // Subir CSV
-                File csvMetadata = new File();
-                csvMetadata.setName(csvPath.getFileName().toString());
-                csvMetadata.setParents(Collections.singletonList(folderId));
-                FileContent csvContent = new FileContent("text/csv", csvPath.toFile());
-                driveService.files().create(csvMetadata, csvContent)
-                        .setFields("id")
-                        .execute();
+                subirArchivosCopia(driveService, folderId, pdfPath, csvPath);
 
                 log.info("Archivos subidos exitosamente a Google Drive para copia: {}", copiaId);
                 return; // Éxito, salir del método
@@ -430,8 +558,60 @@ public class CopiaSeguridadService {
         }
     }
 
+    private boolean tieneFechaModificacion(TipoCopiaSeguridadEnum tipo) {
+        return tipo == TipoCopiaSeguridadEnum.TRATOS
+                || tipo == TipoCopiaSeguridadEnum.EMPRESAS
+                || tipo == TipoCopiaSeguridadEnum.CONTACTOS;
+    }
+
+    private List<Object> obtenerDatosModificados(Integer usuarioId, TipoCopiaSeguridadEnum tipo, Instant desde) {
+        switch (tipo) {
+            case TRATOS:
+                return new ArrayList<>(tratosRepository.findByPropietarioIdAndFechaModificacionAfter(usuarioId, desde));
+            case EMPRESAS:
+                return new ArrayList<>(empresasRepository.findByPropietario_IdAndFechaModificacionAfter(usuarioId, desde));
+            case CONTACTOS:
+                return new ArrayList<>(contactosRepository.findByPropietario_IdAndFechaModificacionAfter(usuarioId, desde));
+            default:
+                return new ArrayList<>();
+        }
+    }
+
+    private List<Integer> obtenerIdsActuales(Integer usuarioId, TipoCopiaSeguridadEnum tipo) {
+        switch (tipo) {
+            case TRATOS:
+                return tratosRepository.findIdsByPropietarioId(usuarioId);
+            case EMPRESAS:
+                return empresasRepository.findIdsByPropietarioId(usuarioId);
+            case CONTACTOS:
+                return contactosRepository.findIdsByPropietarioId(usuarioId);
+            default:
+                return new ArrayList<>();
+        }
+    }
+
+    private List<Object> obtenerDatosPorIds(TipoCopiaSeguridadEnum tipo, List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        switch (tipo) {
+            case TRATOS:
+                return new ArrayList<>(tratosRepository.findAllById(ids));
+            case EMPRESAS:
+                return new ArrayList<>(empresasRepository.findAllById(ids));
+            case CONTACTOS:
+                return new ArrayList<>(contactosRepository.findAllById(ids));
+            default:
+                return new ArrayList<>();
+        }
+    }
+
     // Generación de archivos
     private Path generarPDF(List<Object> datos, TipoCopiaSeguridadEnum tipo, String baseName) throws Exception {
+        return generarPDF(datos, tipo, baseName, null);
+    }
+
+    private Path generarPDF(List<Object> datos, TipoCopiaSeguridadEnum tipo, String baseName, String nota) throws Exception {
         Path filePath = Paths.get(storagePath, baseName + ".pdf");
         Files.createDirectories(filePath.getParent());
 
@@ -453,6 +633,12 @@ public class CopiaSeguridadService {
         info.setSpacingAfter(20);
         document.add(info);
 
+        if (nota != null) {
+            Paragraph parrafoNota = new Paragraph(nota, infoFont);
+            parrafoNota.setSpacingAfter(20);
+            document.add(parrafoNota);
+        }
+
         // Tabla con datos
         if (!datos.isEmpty()) {
             PdfPTable table = crearTablaParaTipo(tipo, datos);
@@ -466,11 +652,11 @@ public class CopiaSeguridadService {
     }
 
     private Path generarCSV(List<Object> datos, TipoCopiaSeguridadEnum tipo, String baseName) throws Exception {
-        Path filePath = Paths.get(storagePath, baseName + ".csv");
+        Path filePath = Paths.get(storagePath, baseName + ArchivoCopiaComprimida.EXTENSION);
         Files.createDirectories(filePath.getParent());
 
-        try (FileWriter fileWriter = new FileWriter(filePath.toFile());
-             CSVPrinter csvPrinter = new CSVPrinter(fileWriter, CSVFormat.DEFAULT)) {
+        try (ArchivoCopiaComprimida.Escritor escritor = ArchivoCopiaComprimida.crearEscritor(filePath);
+             CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(escritor, StandardCharsets.UTF_8), CSVFormat.DEFAULT)) {
 
             // Headers
             String[] headers = obtenerHeadersParaTipo(tipo);
@@ -480,7 +666,49 @@ public class CopiaSeguridadService {
             for (Object dato : datos) {
                 String[] fila = convertirObjetoAFila(dato, tipo);
                 csvPrinter.printRecord((Object[]) fila);
+                csvPrinter.flush();
+                escritor.finFila();
+            }
+            csvPrinter.flush();
+            escritor.terminar();
+        }
+
+        return filePath;
+    }
+
+    /**
+     * Escribe una copia incremental: la primera columna indica si la fila se guarda (alta o
+     * modificación) o se elimina; el resto conserva las columnas de la copia completa.
+     */
+    private Path generarCSVIncremental(List<String[]> filasModificadas, List<String> idsEliminados,
+                                       TipoCopiaSeguridadEnum tipo, String baseName) throws Exception {
+        Path filePath = Paths.get(storagePath, baseName + ArchivoCopiaComprimida.EXTENSION);
+        Files.createDirectories(filePath.getParent());
+
+        String[] headers = obtenerHeadersParaTipo(tipo);
+        try (ArchivoCopiaComprimida.Escritor escritor = ArchivoCopiaComprimida.crearEscritor(filePath);
+             CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(escritor, StandardCharsets.UTF_8), CSVFormat.DEFAULT)) {
+
+            List<String> encabezado = new ArrayList<>();
+            encabezado.add("Operacion");
+            encabezado.addAll(Arrays.asList(headers));
+            csvPrinter.printRecord(encabezado);
+
+            for (String[] fila : filasModificadas) {
+                List<String> registro = new ArrayList<>(fila.length + 1);
+                registro.add(OPERACION_GUARDAR);
+                registro.addAll(Arrays.asList(fila));
+                csvPrinter.printRecord(registro);
+                csvPrinter.flush();
+                escritor.finFila();
+            }
+            for (String id : idsEliminados) {
+                csvPrinter.printRecord(OPERACION_ELIMINAR, id);
+                csvPrinter.flush();
+                escritor.finFila();
             }
+            csvPrinter.flush();
+            escritor.terminar();
         }
 
         return filePath;
@@ -641,11 +869,56 @@ public class CopiaSeguridadService {
         credential.setAccessToken(config.getGoogleDriveToken());
         credential.setRefreshToken(config.getGoogleDriveRefreshToken());
 
-        return new Drive.Builder(HTTP_TRANSPORT, JSON_FACTORY, credential)
+        // Cada petición (incluido cada fragmento de una subida reanudable) se reintenta con
+        // backoff exponencial sin perder el refresco de token que hace la credencial
+        HttpRequestInitializer inicializador = request -> {
+            credential.initialize(request);
+            HttpUnsuccessfulResponseHandler reintento =
+                    new HttpBackOffUnsuccessfulResponseHandler(new ExponentialBackOff());
+            request.setUnsuccessfulResponseHandler((req, response, supportsRetry) ->
+                    credential.handleResponse(req, response, supportsRetry)
+                            || reintento.handleResponse(req, response, supportsRetry));
+            request.setIOExceptionHandler(new HttpBackOffIOExceptionHandler(new ExponentialBackOff()));
+        };
+
+        return new Drive.Builder(HTTP_TRANSPORT, JSON_FACTORY, inicializador)
                 .setApplicationName(APPLICATION_NAME)
                 .build();
     }
 
+    private void subirArchivosCopia(Drive driveService, String folderId, Path pdfPath, Path csvPath) throws IOException {
+        subirArchivoReanudable(driveService, folderId, pdfPath, "application/pdf");
+
+        if (ArchivoCopiaComprimida.esArchivoComprimido(csvPath)) {
+            subirArchivoReanudable(driveService, folderId, csvPath, "application/gzip");
+            subirArchivoReanudable(driveService, folderId, ArchivoCopiaComprimida.rutaManifiesto(csvPath), "application/json");
+        } else {
+            subirArchivoReanudable(driveService, folderId, csvPath, "text/csv");
+        }
+    }
+
+    /**
+     * Sube el archivo con el protocolo reanudable de Drive en fragmentos; si un fragmento falla
+     * la subida continúa desde el último byte confirmado en lugar de empezar de nuevo.
+     */
+    private void subirArchivoReanudable(Drive driveService, String folderId, Path archivo, String mimeType) throws IOException {
+        File metadata = new File();
+        metadata.setName(archivo.getFileName().toString());
+        metadata.setParents(Collections.singletonList(folderId));
+
+        Drive.Files.Create solicitud = driveService.files()
+                .create(metadata, new FileContent(mimeType, archivo.toFile()))
+                .setFields("id");
+
+        MediaHttpUploader uploader = solicitud.getMediaHttpUploader();
+        uploader.setDirectUploadEnabled(false);
+        uploader.setChunkSize(TAMANO_FRAGMENTO_DRIVE);
+        uploader.setProgressListener(progreso -> log.debug("Subida de {} a Google Drive: {} ({} bytes)",
+                archivo.getFileName(), progreso.getUploadState(), progreso.getNumBytesUploaded()));
+
+        solicitud.execute();
+    }
+
     private String crearCarpetaSiNoExiste(Drive driveService) throws IOException {
         // Buscar si ya existe la carpeta
         String query = "name='" + FOLDER_NAME + "' and mimeType='application/vnd.google-apps.folder'";
@@ -669,21 +942,7 @@ public class CopiaSeguridadService {
             Drive driveService = crearDriveService(config);
             String folderId = config.getGoogleDriveFolderId();
 
-            // Subir PDF
-            File pdfMetadata = new File();
-            pdfMetadata.setName(pdfPath.getFileName().toString());
-            pdfMetadata.setParents(Collections.singletonList(folderId));
-
-            FileContent pdfContent = new FileContent("application/pdf", pdfPath.toFile());
-            driveService.files().create(pdfMetadata, pdfContent).execute();
-
-            // Subir CSV
-            File csvMetadata = new File();
-            csvMetadata.setName(csvPath.getFileName().toString());
-            csvMetadata.setParents(Collections.singletonList(folderId));
-
-            FileContent csvContent = new FileContent("text/csv", csvPath.toFile());
-            driveService.files().create(csvMetadata, csvContent).execute();
+            subirArchivosCopia(driveService, folderId, pdfPath, csvPath);
 
             log.info("Archivos subidos a Google Drive correctamente");
 
@@ -704,7 +963,7 @@ public class CopiaSeguridadService {
     }
 
     @Transactional(timeout = 600)
-    public void restaurarCopia(Integer copiaId) {
+    public ResultadoRestauracionDTO restaurarCopia(Integer copiaId) {
         CopiasSeguridad copia = copiaSeguridadRepository.findById(copiaId)
                 .orElseThrow(() -> new RuntimeException("Copia no encontrada"));
 
@@ -713,15 +972,33 @@ public class CopiaSeguridadService {
         }
 
         try {
-            Path csvPath = Paths.get(copia.getArchivoCsvUrl());
-            if (!Files.exists(csvPath)) {
-                throw new RuntimeException("Archivo de copia no encontrado");
+            long inicioLectura = System.nanoTime();
+            List<String[]> datos;
+            if (MODALIDAD_INCREMENTAL.equals(copia.getModalidad())) {
+                CopiasSeguridad base = copiaSeguridadRepository.findById(copia.getCopiaBaseId())
+                        .orElseThrow(() -> new RuntimeException("Copia base no encontrada"));
+                List<CopiasSeguridad> incrementales = copiaSeguridadRepository
+                        .findByCopiaBaseIdOrderByFechaCreacionAsc(base.getId()).stream()
+                        .filter(c -> !c.getFechaCreacion().isAfter(copia.getFechaCreacion()))
+                        .collect(Collectors.toList());
+                datos = new ArrayList<>(reproducirCadena(base, incrementales).values());
+            } else {
+                datos = leerCSV(obtenerRutaCSV(copia));
             }
 
-            List<String[]> datos = leerCSV(csvPath);
-            restaurarDatos(copia.getUsuarioId(), copia.getTipoDatos(), datos);
+            long lecturaMs = (System.nanoTime() - inicioLectura) / 1_000_000;
 
-            log.info("Datos restaurados correctamente desde copia: " + copiaId);
+            ResultadoRestauracionDTO resultado = new ResultadoRestauracionDTO(copia.getTipoDatos());
+            resultado.getTiemposPorFaseMs().put("lectura", lecturaMs);
+            resultado.setTiempoTotalMs(lecturaMs);
+            resultado.setRegistrosLeidos(datos.size());
+
+            restaurarDatos(copia.getUsuarioId(), copia.getTipoDatos(), datos, resultado);
+
+            log.info("Datos restaurados correctamente desde copia {}: {} de {} registros en {} ms, fases {}",
+                    copiaId, resultado.getRegistrosRestaurados(), resultado.getRegistrosLeidos(),
+                    resultado.getTiempoTotalMs(), resultado.getTiemposPorFaseMs());
+            return resultado;
 
         } catch (Exception e) {
             log.error("Error al restaurar copia: " + copiaId, e);
@@ -735,6 +1012,13 @@ public class CopiaSeguridadService {
                 .orElseThrow(() -> new RuntimeException("Copia no encontrada"));
 
         try {
+            // Las incrementales posteriores dependen de esta copia y ya no podrían restaurarse
+            List<CopiasSeguridad> dependientes = obtenerCopiasDependientes(copia);
+            for (CopiasSeguridad dependiente : dependientes) {
+                eliminarArchivos(dependiente);
+            }
+            copiaSeguridadRepository.deleteAll(dependientes);
+
             // Eliminar archivos físicos
             eliminarArchivos(copia);
 
@@ -763,8 +1047,8 @@ public class CopiaSeguridadService {
                 throw new RuntimeException("Archivo no encontrado");
             }
 
-            byte[] data = Files.readAllBytes(archivePath);
-            return new ByteArrayResource(data);
+            // Se sirve directamente desde disco; el controlador atiende las peticiones Range sobre él
+            return new FileSystemResource(archivePath);
 
         } catch (Exception e) {
             log.error("Error al descargar archivo", e);
@@ -862,12 +1146,18 @@ public class CopiaSeguridadService {
                 .frecuencia(entity.getFrecuencia())
                 .archivoPdfUrl(entity.getArchivoPdfUrl())
                 .archivoCsvUrl(entity.getArchivoCsvUrl())
+                .modalidad(entity.getModalidad() != null ? entity.getModalidad() : MODALIDAD_COMPLETA)
+                .copiaBaseId(entity.getCopiaBaseId())
                 .build();
     }
 
     private List<String[]> leerCSV(Path csvPath) throws Exception {
         List<String[]> datos = new ArrayList<>();
-        try (FileReader fileReader = new FileReader(csvPath.toFile());
+        // Las copias anteriores al formato comprimido se guardaron como CSV plano
+        Reader lector = ArchivoCopiaComprimida.esArchivoComprimido(csvPath)
+                ? new InputStreamReader(ArchivoCopiaComprimida.abrirVerificado(csvPath), StandardCharsets.UTF_8)
+                : new FileReader(csvPath.toFile());
+        try (Reader fileReader = lector;
              CSVParser csvParser = new CSVParser(fileReader, CSVFormat.DEFAULT.withFirstRecordAsHeader())) {
 
             for (CSVRecord record : csvParser) {
@@ -881,27 +1171,67 @@ public class CopiaSeguridadService {
         return datos;
     }
 
+    /**
+     * Reconstruye el contenido respaldado aplicando en orden las incrementales sobre la copia
+     * base. Las filas quedan indexadas por su ID (primera columna de la copia completa).
+     */
+    private LinkedHashMap<String, String[]> reproducirCadena(CopiasSeguridad base,
+                                                             List<CopiasSeguridad> incrementales) throws Exception {
+        LinkedHashMap<String, String[]> filas = new LinkedHashMap<>();
+        for (String[] fila : leerCSV(obtenerRutaCSV(base))) {
+            filas.put(fila[0], fila);
+        }
+
+        for (CopiasSeguridad incremental : incrementales) {
+            for (String[] fila : leerCSV(obtenerRutaCSV(incremental))) {
+                if (OPERACION_ELIMINAR.equals(fila[0])) {
+                    filas.remove(fila[1]);
+                } else {
+                    filas.put(fila[1], Arrays.copyOfRange(fila, 1, fila.length));
+                }
+            }
+        }
+        return filas;
+    }
+
+    private Path obtenerRutaCSV(CopiasSeguridad copia) {
+        Path csvPath = Paths.get(copia.getArchivoCsvUrl());
+        if (!Files.exists(csvPath)) {
+            throw new RuntimeException("Archivo de copia no encontrado: " + copia.getId());
+        }
+        return csvPath;
+    }
+
+    private List<CopiasSeguridad> obtenerCopiasDependientes(CopiasSeguridad copia) {
+        if (MODALIDAD_INCREMENTAL.equals(copia.getModalidad())) {
+            return copiaSeguridadRepository.findByCopiaBaseIdOrderByFechaCreacionAsc(copia.getCopiaBaseId()).stream()
+                    .filter(c -> c.getFechaCreacion().isAfter(copia.getFechaCreacion()))
+                    .collect(Collectors.toList());
+        }
+        return copiaSeguridadRepository.findByCopiaBaseIdOrderByFechaCreacionAsc(copia.getId());
+    }
+
     // Método principal que distribuye la restauración
-    @Transactional(propagation = Propagation.REQUIRES_NEW, timeout = 300)
-    private void restaurarDatos(Integer usuarioId, TipoCopiaSeguridadEnum tipo, List<String[]> datos) {
+    private void restaurarDatos(Integer usuarioId, TipoCopiaSeguridadEnum tipo, List<String[]> datos,
+                                ResultadoRestauracionDTO resultado) {
         log.info("Iniciando restauración de {} registros de tipo {} para usuario {}",
                 datos.size(), tipo, usuarioId);
 
         switch (tipo) {
             case TRATOS:
-                restaurarTratos(usuarioId, datos);
+                restaurarTratos(usuarioId, datos, resultado);
                 break;
             case EMPRESAS:
-                restaurarEmpresas(usuarioId, datos);
+                restaurarEmpresas(usuarioId, datos, resultado);
                 break;
             case CONTACTOS:
-                restaurarContactos(usuarioId, datos);
+                restaurarContactos(usuarioId, datos, resultado);
                 break;
             case EQUIPOS:
-                restaurarEquipos(usuarioId, datos);
+                restaurarEquipos(datos, resultado);
                 break;
             case SIMS:
-                restaurarSims(usuarioId, datos);
+                restaurarSims(datos, resultado);
                 break;
             default:
                 throw new IllegalArgumentException("Tipo de datos no soportado: " + tipo);
@@ -911,71 +1241,31 @@ public class CopiaSeguridadService {
     }
 
     // 1. RESTAURAR TRATOS
-    @Transactional(propagation = Propagation.REQUIRES_NEW, timeout = 300)
-    private void restaurarTratos(Integer usuarioId, List<String[]> datos) {
+    private void restaurarTratos(Integer usuarioId, List<String[]> datos, ResultadoRestauracionDTO resultado) {
         try {
-            log.info("Eliminando comisiones relacionadas a tratos del usuario {}", usuarioId);
-            comisionRepository.deleteByTratoPropietarioId(usuarioId);
-            comisionRepository.flush();
-
-            log.info("Eliminando tratos existentes para usuario {}", usuarioId);
-            tratosRepository.deleteByPropietarioId(usuarioId);
-            tratosRepository.flush();
-
-            int batchSize = 50;
-            List<Trato> batch = new ArrayList<>();
-            int procesados = 0;
-
-            for (int i = 0; i < datos.size(); i++) {
-                String[] fila = datos.get(i);
-                if (fila.length < 13) {
-                    log.warn("Fila {} tiene menos columnas de las esperadas, saltando", i);
-                    continue;
-                }
-
-                try {
-                    Trato trato = new Trato();
-                    trato.setNombre(validarString(fila[1]));
-                    trato.setEmpresaId(validarInteger(fila[2]));
-
-                    if (!validarString(fila[3]).isEmpty()) {
-                        List<Contacto> contactos = contactosRepository
-                                .findByNombreAndPropietario_Id(fila[3], usuarioId);
-                        trato.setContacto(contactos.isEmpty() ? null : contactos.get(0));
-                    }
-
-                    trato.setNumeroUnidades(validarInteger(fila[4]));
-                    trato.setIngresosEsperados(validarBigDecimal(fila[5]));
-                    trato.setDescripcion(validarString(fila[6]));
-                    trato.setPropietarioId(usuarioId);
-                    trato.setFechaCierre(validarLocalDateTime(fila[8]));
-                    trato.setNoTrato(validarString(fila[9]));
-                    trato.setProbabilidad(validarInteger(fila[10]));
-                    trato.setFase(validarString(fila[11]));
-
-                    Instant ahora = Instant.now();
-                    trato.setFechaCreacion(ahora);
-                    trato.setFechaModificacion(ahora);
-                    trato.setFechaUltimaActividad(ahora);
-                    trato.setCorreosAutomaticosActivos(false);
-                    trato.setCorreosSeguimientoActivo(false);
-                    trato.setCorreosSeguimientoEnviados(0);
-
-                    batch.add(trato);
-
-                    if (batch.size() >= batchSize || i == datos.size() - 1) {
-                        tratosRepository.saveAll(batch);
-                        tratosRepository.flush();
-                        procesados += batch.size();
-                        log.info("Procesados {}/{} tratos", procesados, datos.size());
-                        batch.clear();
-                    }
-                } catch (Exception e) {
-                    log.error("Error procesando fila {} de tratos: {}", i, e.getMessage());
-                }
-            }
-
-            log.info("Restaurados {} tratos exitosamente para usuario {}", procesados, usuarioId);
+            restauracionCopiaService.medir(resultado, "eliminacion", () -> {
+                log.info("Eliminando comisiones y tratos existentes para usuario {}", usuarioId);
+                comisionRepository.deleteByTratoPropietarioId(usuarioId);
+                tratosRepository.deleteByPropietarioId(usuarioId);
+                return null;
+            });
+
+            List<String[]> filas = restauracionCopiaService.medir(resultado, "preparacion",
+                    () -> normalizarFilas(datos, 13, "tratos", fila -> new String[]{
+                            validarString(fila[1]),
+                            texto(validarInteger(fila[2])),
+                            validarString(fila[3]),
+                            texto(validarInteger(fila[4])),
+                            texto(validarBigDecimal(fila[5])),
+                            validarString(fila[6]),
+                            texto(validarLocalDateTime(fila[8])),
+                            validarString(fila[9]),
+                            texto(validarInteger(fila[10])),
+                            validarString(fila[11])
+                    }, resultado));
+
+            int restaurados = restauracionCopiaService.insertarTratos(usuarioId, filas, resultado);
+            log.info("Restaurados {} tratos exitosamente para usuario {}", restaurados, usuarioId);
         } catch (Exception e) {
             log.error("Error crítico al restaurar tratos", e);
             throw new RuntimeException("Error al restaurar tratos: " + e.getMessage());
@@ -983,87 +1273,39 @@ public class CopiaSeguridadService {
     }
 
     // 2. RESTAURAR EMPRESAS
-    @Transactional(propagation = Propagation.REQUIRES_NEW, timeout = 300)
-    private void restaurarEmpresas(Integer usuarioId, List<String[]> datos) {
+    private void restaurarEmpresas(Integer usuarioId, List<String[]> datos, ResultadoRestauracionDTO resultado) {
         try {
-            log.info("Eliminando comisiones para usuario {}", usuarioId);
-            comisionRepository.deleteByTratoPropietarioId(usuarioId);
-            comisionRepository.flush();
-
-            log.info("Eliminando solicitudes de factura/nota para usuario {}", usuarioId);
-            solicitudFacturaNotaRepository.deleteByEmpresaPropietarioId(usuarioId);
-            solicitudFacturaNotaRepository.flush();
-
-            log.info("Eliminando cuentas por cobrar para usuario {}", usuarioId);
-            cuentaPorCobrarRepository.deleteByEmpresaPropietarioId(usuarioId);
-            cuentaPorCobrarRepository.flush();
-
-            log.info("Eliminando cotizaciones para usuario {}", usuarioId);
-            cotizacionRepository.deleteByEmpresaPropietarioId(usuarioId);
-            cotizacionRepository.flush();
-
-            log.info("Eliminando tratos para usuario {}", usuarioId);
-            tratosRepository.deleteByPropietarioId(usuarioId);
-            tratosRepository.flush();
-
-            log.info("Eliminando contactos para usuario {}", usuarioId);
-            contactosRepository.deleteByPropietario_Id(usuarioId);
-            contactosRepository.flush();
-
-            log.info("Eliminando empresas para usuario {}", usuarioId);
-            empresasRepository.deleteByPropietario_Id(usuarioId);
-            empresasRepository.flush();
-
-            Usuario usuario = usuarioRepository.findById(usuarioId)
+            usuarioRepository.findById(usuarioId)
                     .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
 
-            int batchSize = 50;
-            List<Empresa> batch = new ArrayList<>();
-            int procesados = 0;
-
-            for (int i = 0; i < datos.size(); i++) {
-                String[] fila = datos.get(i);
-                if (fila.length < 12) {
-                    log.warn("Fila {} tiene menos columnas de las esperadas, saltando", i);
-                    continue;
-                }
-
-                try {
-                    Empresa empresa = new Empresa();
-                    empresa.setNombre(validarString(fila[1]));
-                    empresa.setPropietario(usuario);
-                    empresa.setEstatus(validarEstatusEmpresa(fila[3]));
-                    empresa.setSitioWeb(validarString(fila[4]));
-                    empresa.setSector(validarSectorEmpresa(fila[5]));
-                    empresa.setDomicilioFisico(validarString(fila[6]));
-                    empresa.setDomicilioFiscal(validarString(fila[7]));
-                    empresa.setRfc(validarString(fila[8]));
-                    empresa.setRazonSocial(validarString(fila[9]));
-                    empresa.setRegimenFiscal(validarString(fila[10]));
-
-                    empresa.setCreadoPor("SISTEMA_RESTAURACION");
-                    empresa.setModificadoPor("SISTEMA_RESTAURACION");
-
-                    Instant ahora = Instant.now();
-                    empresa.setFechaCreacion(ahora);
-                    empresa.setFechaModificacion(ahora);
-                    empresa.setFechaUltimaActividad(ahora);
-
-                    batch.add(empresa);
-
-                    if (batch.size() >= batchSize || i == datos.size() - 1) {
-                        empresasRepository.saveAll(batch);
-                        empresasRepository.flush();
-                        procesados += batch.size();
-                        log.info("Procesadas {}/{} empresas", procesados, datos.size());
-                        batch.clear();
-                    }
-                } catch (Exception e) {
-                    log.error("Error procesando fila {} de empresas: {}", i, e.getMessage());
-                }
-            }
-
-            log.info("Restauradas {} empresas exitosamente para usuario {}", procesados, usuarioId);
+            restauracionCopiaService.medir(resultado, "eliminacion", () -> {
+                log.info("Eliminando comisiones, facturas, cuentas por cobrar, cotizaciones, tratos, contactos y empresas para usuario {}",
+                        usuarioId);
+                comisionRepository.deleteByTratoPropietarioId(usuarioId);
+                solicitudFacturaNotaRepository.deleteByEmpresaPropietarioId(usuarioId);
+                cuentaPorCobrarRepository.deleteByEmpresaPropietarioId(usuarioId);
+                cotizacionService.eliminarCotizacionesDePropietario(usuarioId);
+                tratosRepository.deleteByPropietarioId(usuarioId);
+                contactosRepository.deleteByPropietario_Id(usuarioId);
+                empresasRepository.deleteByPropietario_Id(usuarioId);
+                return null;
+            });
+
+            List<String[]> filas = restauracionCopiaService.medir(resultado, "preparacion",
+                    () -> normalizarFilas(datos, 12, "empresas", fila -> new String[]{
+                            validarString(fila[1]),
+                            validarEstatusEmpresa(fila[3]).name(),
+                            validarString(fila[4]),
+                            validarString(fila[5]),
+                            validarString(fila[6]),
+                            validarString(fila[7]),
+                            validarString(fila[8]),
+                            validarString(fila[9]),
+                            validarString(fila[10])
+                    }, resultado));
+
+            int restauradas = restauracionCopiaService.insertarEmpresas(usuarioId, filas, resultado);
+            log.info("Restauradas {} empresas exitosamente para usuario {}", restauradas, usuarioId);
         } catch (Exception e) {
             log.error("Error crítico al restaurar empresas", e);
             throw new RuntimeException("Error al restaurar empresas: " + e.getMessage());
@@ -1071,72 +1313,29 @@ public class CopiaSeguridadService {
     }
 
     // 3. RESTAURAR CONTACTOS
-    @Transactional(propagation = Propagation.REQUIRES_NEW, timeout = 300)
-    private void restaurarContactos(Integer usuarioId, List<String[]> datos) {
+    private void restaurarContactos(Integer usuarioId, List<String[]> datos, ResultadoRestauracionDTO resultado) {
         try {
-            log.info("Eliminando comisiones relacionadas para usuario {}", usuarioId);
-            comisionRepository.deleteByTratoPropietarioId(usuarioId);
-            comisionRepository.flush();
-
-            log.info("Eliminando tratos relacionados para usuario {}", usuarioId);
-            tratosRepository.deleteByPropietarioId(usuarioId);
-            tratosRepository.flush();
-
-            log.info("Eliminando contactos existentes para usuario {}", usuarioId);
-            contactosRepository.deleteByPropietario_Id(usuarioId);
-            contactosRepository.flush();
-
-            Usuario usuario = usuarioRepository.findById(usuarioId)
+            usuarioRepository.findById(usuarioId)
                     .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
 
-            int batchSize = 50;
-            List<Contacto> batch = new ArrayList<>();
-            int procesados = 0;
-
-            for (int i = 0; i < datos.size(); i++) {
-                String[] fila = datos.get(i);
-                if (fila.length < 8) {
-                    log.warn("Fila {} tiene menos columnas de las esperadas, saltando", i);
-                    continue;
-                }
-
-                try {
-                    Contacto contacto = new Contacto();
-                    contacto.setNombre(validarString(fila[1]));
-
-                    if (!validarString(fila[2]).isEmpty()) {
-                        Empresa empresa = empresasRepository
-                                .findByNombreAndPropietario_Id(fila[2], usuarioId)
-                                .orElse(null);
-                        contacto.setEmpresa(empresa);
-                    }
-
-                    contacto.setRol(validarRolContacto(fila[3]));
-                    contacto.setCelular(validarString(fila[4]));
-                    contacto.setPropietario(usuario);
-
-                    Instant ahora = Instant.now();
-                    contacto.setFechaCreacion(ahora);
-                    contacto.setFechaModificacion(ahora);
-                    contacto.setFechaUltimaActividad(ahora);
-                    contacto.setCreadoPor("SISTEMA_RESTAURACION");
-                    contacto.setModificadoPor("SISTEMA_RESTAURACION");
-
-                    batch.add(contacto);
-
-                    if (batch.size() >= batchSize || i == datos.size() - 1) {
-                        contactosRepository.saveAll(batch);
-                        contactosRepository.flush();
-                        procesados += batch.size();
-                        log.info("Procesados {}/{} contactos", procesados, datos.size());
-                        batch.clear();
-                    }
-                } catch (Exception e) {
-                    log.error("Error procesando fila {} de contactos: {}", i, e.getMessage());
-                }
-            }
-
-            log.info("Restaurados {} contactos exitosamente para usuario {}", procesados, usuarioId);
+            restauracionCopiaService.medir(resultado, "eliminacion", () -> {
+                log.info("Eliminando comisiones, tratos y contactos existentes para usuario {}", usuarioId);
+                comisionRepository.deleteByTratoPropietarioId(usuarioId);
+                tratosRepository.deleteByPropietarioId(usuarioId);
+                contactosRepository.deleteByPropietario_Id(usuarioId);
+                return null;
+            });
+
+            List<String[]> filas = restauracionCopiaService.medir(resultado, "preparacion",
+                    () -> normalizarFilas(datos, 8, "contactos", fila -> new String[]{
+                            validarString(fila[1]),
+                            validarString(fila[2]),
+                            validarRolContacto(fila[3]).name(),
+                            validarString(fila[4])
+                    }, resultado));
+
+            int restaurados = restauracionCopiaService.insertarContactos(usuarioId, filas, resultado);
+            log.info("Restaurados {} contactos exitosamente para usuario {}", restaurados, usuarioId);
         } catch (Exception e) {
             log.error("Error crítico al restaurar contactos", e);
             throw new RuntimeException("Error al restaurar contactos: " + e.getMessage());
@@ -1144,54 +1343,31 @@ public class CopiaSeguridadService {
     }
 
     // 4. RESTAURAR EQUIPOS
-    @Transactional(propagation = Propagation.REQUIRES_NEW, timeout = 300)
-    private void restaurarEquipos(Integer usuarioId, List<String[]> datos) {
+    private void restaurarEquipos(List<String[]> datos, ResultadoRestauracionDTO resultado) {
         try {
-            log.info("Eliminando equipos existentes (SIMs se borran en cascada)");
-            equiposRepository.deleteAll();
-            equiposRepository.flush();
-            log.info("Iniciando restauración de {} equipos", datos.size());
-
-            int batchSize = 50;
-            List<Equipo> batch = new ArrayList<>();
-            int procesados = 0;
-
-            for (int i = 0; i < datos.size(); i++) {
-                String[] fila = datos.get(i);
-                if (fila.length < 12) {
-                    log.warn("Fila {} tiene menos columnas de las esperadas, saltando", i);
-                    continue;
-                }
-
-                try {
-                    Equipo equipo = new Equipo();
-                    equipo.setImei(validarString(fila[1]));
-                    equipo.setNombre(validarString(fila[2]));
-                    equipo.setModeloId(validarInteger(fila[3]));
-                    equipo.setClienteId(validarInteger(fila[4]));
-                    equipo.setProveedorId(validarInteger(fila[5]));
-                    equipo.setTipo(validarTipoEquipo(fila[6]));
-                    equipo.setEstatus(validarEstatusEquipo(fila[7]));
-                    equipo.setTipoActivacion(validarTipoActivacion(fila[8]));
-                    equipo.setPlataforma(validarPlataforma(fila[9]));
-                    equipo.setFechaActivacion(validarSqlDate(fila[10]));
-                    equipo.setFechaExpiracion(validarSqlDate(fila[11]));
-
-                    batch.add(equipo);
-
-                    if (batch.size() >= batchSize || i == datos.size() - 1) {
-                        equiposRepository.saveAll(batch);
-                        equiposRepository.flush();
-                        procesados += batch.size();
-                        log.info("Procesados {}/{} equipos", procesados, datos.size());
-                        batch.clear();
-                    }
-                } catch (Exception e) {
-                    log.error("Error procesando fila {} de equipos: {}", i, e.getMessage());
-                }
-            }
-
-            log.info("Restaurados {} equipos exitosamente", procesados);
+            restauracionCopiaService.medir(resultado, "eliminacion", () -> {
+                log.info("Eliminando equipos existentes y sus SIMs");
+                restauracionCopiaService.eliminarEquipos();
+                return null;
+            });
+
+            List<String[]> filas = restauracionCopiaService.medir(resultado, "preparacion",
+                    () -> normalizarFilas(datos, 12, "equipos", fila -> new String[]{
+                            validarString(fila[1]),
+                            validarString(fila[2]),
+                            texto(validarInteger(fila[3])),
+                            texto(validarInteger(fila[4])),
+                            texto(validarInteger(fila[5])),
+                            texto(validarTipoEquipo(fila[6])),
+                            texto(validarEstatusEquipo(fila[7])),
+                            texto(validarTipoActivacion(fila[8])),
+                            validarNombrePlataforma(fila[9]),
+                            texto(validarSqlDate(fila[10])),
+                            texto(validarSqlDate(fila[11]))
+                    }, resultado));
+
+            int restaurados = restauracionCopiaService.insertarEquipos(filas, resultado);
+            log.info("Restaurados {} equipos exitosamente", restaurados);
         } catch (Exception e) {
             log.error("Error crítico al restaurar equipos", e);
             throw new RuntimeException("Error al restaurar equipos: " + e.getMessage());
@@ -1199,63 +1375,59 @@ public class CopiaSeguridadService {
     }
 
     // 5. RESTAURAR SIMS
-    @Transactional(propagation = Propagation.REQUIRES_NEW, timeout = 300)
-    private void restaurarSims(Integer usuarioId, List<String[]> datos) {
+    private void restaurarSims(List<String[]> datos, ResultadoRestauracionDTO resultado) {
         try {
-            log.info("Eliminando SIMs existentes");
-            simsRepository.deleteAll();
-            simsRepository.flush();
-            log.info("Iniciando restauración de {} SIMs", datos.size());
-
-            int batchSize = 50;
-            List<Sim> batch = new ArrayList<>();
-            int procesados = 0;
-
-            for (int i = 0; i < datos.size(); i++) {
-                String[] fila = datos.get(i);
-                if (fila.length < 10) {
-                    log.warn("Fila {} tiene menos columnas de las esperadas, saltando", i);
-                    continue;
-                }
-
-                try {
-                    Sim sim = new Sim();
-                    sim.setNumero(validarString(fila[1]));
-                    sim.setTarifa(validarTarifaSim(fila[2]));
-                    sim.setVigencia(validarSqlDate(fila[3]));
-                    sim.setRecarga(validarBigDecimal(fila[4]));
-                    sim.setResponsable(validarResponsableSim(fila[5]));
-                    sim.setPrincipal(validarPrincipalSim(fila[6]));
-                    sim.setGrupo(validarInteger(fila[7]));
-                    sim.setContrasena(validarString(fila[9]));
-
-                    String equipoImei = validarString(fila[8]);
-                    if (!equipoImei.isEmpty()) {
-                        Equipo equipo = equiposRepository.findByImei(equipoImei).orElse(null);
-                        sim.setEquipo(equipo);
-                    }
-
-                    batch.add(sim);
-
-                    if (batch.size() >= batchSize || i == datos.size() - 1) {
-                        simsRepository.saveAll(batch);
-                        simsRepository.flush();
-                        procesados += batch.size();
-                        log.info("Procesados {}/{} SIMs", procesados, datos.size());
-                        batch.clear();
-                    }
-                } catch (Exception e) {
-                    log.error("Error procesando fila {} de SIMs: {}", i, e.getMessage());
-                }
-            }
-
-            log.info("Restaurados {} SIMs exitosamente", procesados);
+            restauracionCopiaService.medir(resultado, "eliminacion", () -> {
+                log.info("Eliminando SIMs existentes");
+                restauracionCopiaService.eliminarSims();
+                return null;
+            });
+
+            List<String[]> filas = restauracionCopiaService.medir(resultado, "preparacion",
+                    () -> normalizarFilas(datos, 10, "SIMs", fila -> new String[]{
+                            validarString(fila[1]),
+                            texto(validarTarifaSim(fila[2])),
+                            texto(validarSqlDate(fila[3])),
+                            texto(validarBigDecimal(fila[4])),
+                            texto(validarResponsableSim(fila[5])),
+                            texto(validarPrincipalSim(fila[6])),
+                            texto(validarInteger(fila[7])),
+                            validarString(fila[8]),
+                            validarString(fila[9])
+                    }, resultado));
+
+            int restaurados = restauracionCopiaService.insertarSims(filas, resultado);
+            log.info("Restaurados {} SIMs exitosamente", restaurados);
         } catch (Exception e) {
             log.error("Error crítico al restaurar SIMs", e);
             throw new RuntimeException("Error al restaurar SIMs: " + e.getMessage());
         }
     }
 
+    /**
+     * Convierte las filas del CSV al texto normalizado que se carga en la tabla temporal;
+     * las filas incompletas se omiten.
+     */
+    private List<String[]> normalizarFilas(List<String[]> datos, int columnasMinimas, String descripcion,
+                                           Function<String[], String[]> conversion,
+                                           ResultadoRestauracionDTO resultado) {
+        List<String[]> filas = new ArrayList<>(datos.size());
+        for (int i = 0; i < datos.size(); i++) {
+            String[] fila = datos.get(i);
+            if (fila.length < columnasMinimas) {
+                log.warn("Fila {} de {} tiene menos columnas de las esperadas, saltando", i, descripcion);
+                resultado.setRegistrosOmitidos(resultado.getRegistrosOmitidos() + 1);
+                continue;
+            }
+            filas.add(conversion.apply(fila));
+        }
+        return filas;
+    }
+
+    private String texto(Object valor) {
+        return valor != null ? valor.toString() : null;
+    }
+
     // Métodos auxiliares para validar y convertir tipos de datos
     private String validarString(String valor) {
         return valor != null && !valor.trim().isEmpty() ? valor.trim() : "";
@@ -1307,27 +1479,6 @@ public class CopiaSeguridadService {
         }
     }
 
-    private Sector validarSectorEmpresa(String valor) {
-        try {
-            if (valor != null && !valor.trim().isEmpty()) {
-                Optional<Sector> sectorOpt = sectorRepository.findByNombreSectorIgnoreCase(valor.trim());
-                if (sectorOpt.isPresent()) {
-                    return sectorOpt.get();
-                } else {
-                    // Crear sector si no existe durante restauración
-                    Sector nuevoSector = new Sector();
-                    nuevoSector.setNombreSector(valor.trim());
-                    nuevoSector.setCreadoPor("SISTEMA_RESTAURACION");
-                    nuevoSector.setModificadoPor("SISTEMA_RESTAURACION");
-                    return sectorRepository.save(nuevoSector);
-                }
-            }
-            return null;
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
     private RolContactoEnum validarRolContacto(String valor) {
         try {
             return valor != null && !valor.trim().isEmpty() ?
@@ -1364,38 +1515,22 @@ public class CopiaSeguridadService {
         }
     }
 
-    private Plataforma validarPlataforma(String valor) {
+    // Las copias guardan el código de la plataforma; la restauración la resuelve por nombre
+    private String validarNombrePlataforma(String valor) {
         if (valor == null || valor.trim().isEmpty()) {
             return null;
         }
-        try {
-            String nombrePlataforma = null;
-            switch (valor.trim()) {
-                case "TRACK_SOLID":
-                    nombrePlataforma = "Track Solid";
-                    break;
-                case "WHATSGPS":
-                    nombrePlataforma = "WhatsGPS";
-                    break;
-                case "TRACKERKING":
-                    nombrePlataforma = "TrackerKing";
-                    break;
-                case "JOINTCLOUD":
-                    nombrePlataforma = "Joint Cloud";
-                    break;
-            }
-
-            if (nombrePlataforma != null) {
-                List<Plataforma> plataformas = plataformaService.obtenerTodasLasPlataformas();
-                for (Plataforma p : plataformas) {
-                    if (nombrePlataforma.equals(p.getNombrePlataforma())) {
-                        return p;
-                    }
-                }
-            }
-            return null;
-        } catch (Exception e) {
-            return null;
+        switch (valor.trim()) {
+            case "TRACK_SOLID":
+                return "Track Solid";
+            case "WHATSGPS":
+                return "WhatsGPS";
+            case "TRACKERKING":
+                return "TrackerKing";
+            case "JOINTCLOUD":
+                return "Joint Cloud";
+            default:
+                return null;
         }
     }
 
@@ -1432,7 +1567,9 @@ public class CopiaSeguridadService {
                 Files.deleteIfExists(Paths.get(copia.getArchivoPdfUrl()));
             }
             if (copia.getArchivoCsvUrl() != null) {
-                Files.deleteIfExists(Paths.get(copia.getArchivoCsvUrl()));
+                Path csvPath = Paths.get(copia.getArchivoCsvUrl());
+                Files.deleteIfExists(csvPath);
+                Files.deleteIfExists(ArchivoCopiaComprimida.rutaManifiesto(csvPath));
             }
         } catch (Exception e) {
             log.warn("Error al eliminar archivos físicos para copia: " + copia.getId(), e);
@@ -3,21 +3,59 @@ package com.tss.tssmanager_backend.service;
 import com.tss.tssmanager_backend.entity.*;
 import com.tss.tssmanager_backend.repository.ProcesoAutomaticoRepository;
 import com.tss.tssmanager_backend.repository.TratoRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.Date;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Arrays;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
+/**
+ * Campañas de correos de seguimiento. Cada proceso automático se compila una sola vez en un
+ * programa (pasos ordenados con sus días acumulados y el contenido de la plantilla) y cada trato
+ * guarda en {@code procesoProximaFecha} la fecha de su siguiente correo, así que la ejecución
+ * diaria solo carga los tratos vencidos. Los envíos se hacen en paralelo con hilos virtuales,
+ * respetando el límite de solicitudes de Resend, y los avances de paso se guardan en una sola
+ * actualización.
+ */
 @Service
 public class CorreosSeguimientoService {
 
+    private static final Logger logger = LoggerFactory.getLogger(CorreosSeguimientoService.class);
+
+    private static final ZoneId ZONE_ID = ZoneId.of("America/Mexico_City");
+
+    // Avanza el paso solo si nadie lo cambió desde que se leyó el trato
+    private static final String SQL_AVANZAR = """
+            UPDATE "Tratos" t
+            SET proceso_paso_actual = v.paso_nuevo,
+                proceso_proxima_fecha = v.proxima_fecha,
+                correos_seguimiento_activo = v.activo
+            FROM unnest(?::int[], ?::int[], ?::int[], ?::date[], ?::boolean[])
+                AS v(trato_id, paso_anterior, paso_nuevo, proxima_fecha, activo)
+            WHERE t.id = v.trato_id
+              AND COALESCE(t.proceso_paso_actual, 0) = v.paso_anterior
+            """;
+
     @Autowired
     private TratoRepository tratoRepository;
 
@@ -27,8 +65,25 @@ public class CorreosSeguimientoService {
     @Autowired
     private ProcesoAutomaticoRepository procesoRepository;
 
+    @Autowired
+    private LimitadorEnvioCorreo limitador;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     private final List<String> FASES_SEGUIMIENTO = Arrays.asList("ENVIO_DE_INFORMACION", "RESPUESTA_POR_CORREO");
 
+    private final Map<Integer, Programa> programas = new ConcurrentHashMap<>();
+    private final AtomicBoolean enEjecucion = new AtomicBoolean(false);
+    private final TransactionTemplate transactionTemplate;
+    private final int enviosConcurrentes;
+
+    public CorreosSeguimientoService(PlatformTransactionManager transactionManager,
+                                     @Value("${correo.seguimiento.envios-concurrentes:4}") int enviosConcurrentes) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enviosConcurrentes = enviosConcurrentes;
+    }
+
     @Transactional
     public void activarCorreosSeguimiento(Integer tratoId, Integer procesoId) {
         Trato trato = tratoRepository.findById(tratoId)
@@ -57,6 +112,9 @@ public class CorreosSeguimientoService {
         trato.setProcesoAutomaticoId(procesoId);
         trato.setProcesoPasoActual(0);
         trato.setProcesoFechaInicio(LocalDateTime.now());
+        Programa programa = obtenerPrograma(procesoId);
+        trato.setProcesoProximaFecha(programa != null
+                ? programa.fechaEnvio(trato.getFechaActivacionSeguimiento(), 0) : null);
         tratoRepository.save(trato);
     }
 
@@ -67,75 +125,224 @@ public class CorreosSeguimientoService {
 
         trato.setCorreosSeguimientoActivo(false);
         trato.setFechaActivacionSeguimiento(null);
+        trato.setProcesoProximaFecha(null);
         tratoRepository.save(trato);
     }
 
-    @Transactional
     public void procesarCorreosSeguimiento() {
-        List<Trato> tratosActivos = tratoRepository
-                .findByCorreosSeguimientoActivoTrueAndFaseInWithContacto(FASES_SEGUIMIENTO);
+        // El arranque, el cron y el endpoint manual pueden coincidir
+        if (!enEjecucion.compareAndSet(false, true)) {
+            logger.info("Procesamiento de correos de seguimiento ya en curso, se omite");
+            return;
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> programarTratos(null));
 
-        for (Trato trato : tratosActivos) {
-            if (debeEnviarCorreo(trato)) {
-                enviarCorreoSeguimiento(trato);
+            LocalDate hoy = LocalDate.now(ZONE_ID);
+            List<EnvioSeguimiento> envios = transactionTemplate.execute(status -> prepararEnvios(hoy));
+            if (envios.isEmpty()) {
+                return;
             }
+
+            List<EnvioSeguimiento> enviados = enviar(envios);
+            int avanzados = transactionTemplate.execute(status -> avanzarPasos(enviados));
+            logger.info("Correos de seguimiento: {} vencidos, {} enviados, {} tratos avanzados",
+                    envios.size(), enviados.size(), avanzados);
+        } finally {
+            enEjecucion.set(false);
         }
     }
 
-    private boolean debeEnviarCorreo(Trato trato) {
-        if (trato.getFechaActivacionSeguimiento() == null || trato.getProcesoAutomaticoId() == null) return false;
+    /**
+     * Descarta el programa compilado de un proceso (o de todos si es null) al confirmar la
+     * transacción, y recalcula la próxima fecha de los tratos que lo siguen.
+     */
+    public void procesoModificado(Integer procesoId) {
+        Runnable descartar = () -> {
+            if (procesoId == null) {
+                programas.clear();
+            } else {
+                programas.remove(procesoId);
+            }
+        };
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            descartar.run();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    if (procesoId != null) {
+                        programarTratos(procesoId);
+                    }
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    descartar.run();
+                }
+            });
+        } else {
+            descartar.run();
+            if (procesoId != null) {
+                transactionTemplate.executeWithoutResult(status -> programarTratos(procesoId));
+            }
+        }
+    }
 
-        ProcesoAutomatico proceso = procesoRepository.findByIdWithPasos(trato.getProcesoAutomaticoId()).orElse(null);
-        if (proceso == null || proceso.getPasos().isEmpty()) return false;
+    // Calcula la próxima fecha de los tratos activos que no la tienen (o que siguen el proceso indicado)
+    private void programarTratos(Integer procesoId) {
+        List<Trato> tratos = tratoRepository.findSeguimientosPorProgramar(procesoId);
+        if (tratos.isEmpty()) {
+            return;
+        }
 
-        List<ProcesoPaso> pasos = proceso.getPasos().stream()
-                .sorted(Comparator.comparingInt(ProcesoPaso::getOrden))
-                .collect(Collectors.toList());
+        // Los tratos quedan administrados: la fecha se guarda al confirmar la transacción
+        for (Trato trato : tratos) {
+            Programa programa = obtenerPrograma(trato.getProcesoAutomaticoId());
+            trato.setProcesoProximaFecha(programa != null
+                    ? programa.fechaEnvio(trato.getFechaActivacionSeguimiento(), pasoActual(trato)) : null);
+        }
+        logger.info("Próxima fecha de seguimiento calculada para {} tratos", tratos.size());
+    }
 
-        int pasoActual = trato.getProcesoPasoActual() != null ? trato.getProcesoPasoActual() : 0;
-        if (pasoActual >= pasos.size()) return false;
+    private List<EnvioSeguimiento> prepararEnvios(LocalDate hoy) {
+        List<EnvioSeguimiento> envios = new ArrayList<>();
+        for (Trato trato : tratoRepository.findSeguimientosVencidos(FASES_SEGUIMIENTO, hoy)) {
+            Programa programa = obtenerPrograma(trato.getProcesoAutomaticoId());
+            int pasoActual = pasoActual(trato);
+            if (programa == null || trato.getFechaActivacionSeguimiento() == null
+                    || pasoActual >= programa.pasos().size()) {
+                continue;
+            }
 
-        LocalDate fechaActivacion = trato.getFechaActivacionSeguimiento().toLocalDate();
-        LocalDate hoy = LocalDate.now();
+            String correoDestinatario = obtenerCorreoPrincipalContacto(trato.getContacto());
+            if (correoDestinatario == null) {
+                continue;
+            }
 
-        int diasAcumulados = 0;
-        for (int i = 0; i <= pasoActual; i++) {
-            diasAcumulados += pasos.get(i).getDias();
+            envios.add(new EnvioSeguimiento(trato.getId(), correoDestinatario, pasoActual,
+                    trato.getFechaActivacionSeguimiento(), programa));
         }
+        return envios;
+    }
 
-        LocalDate fechaEnvio = fechaActivacion.plusDays(diasAcumulados);
+    private List<EnvioSeguimiento> enviar(List<EnvioSeguimiento> envios) {
+        Semaphore permisos = new Semaphore(enviosConcurrentes);
+        List<Future<EnvioSeguimiento>> resultados = new ArrayList<>();
+
+        try (ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (EnvioSeguimiento envio : envios) {
+                resultados.add(ejecutor.submit(() -> {
+                    permisos.acquire();
+                    try {
+                        limitador.adquirir();
+                        PasoProgramado paso = envio.programa().pasos().get(envio.pasoActual());
+                        EmailRecord registro;
+                        try {
+                            registro = emailService.enviarCorreoPropagandoError(envio.correo(), paso.asunto(),
+                                    paso.mensaje(), paso.adjuntos(), envio.tratoId());
+                        } catch (Exception e) {
+                            // Ante un 429 el resto del lote espera a que se recargue el límite
+                            if (LimitadorEnvioCorreo.esLimiteDeTasa(e)) {
+                                limitador.vaciar();
+                            }
+                            throw e;
+                        }
+                        // Si no se envió, el trato conserva su paso y se reintenta en la próxima ejecución
+                        if (!registro.isExito()) {
+                            throw new IllegalStateException("Resend no devolvió id para el trato " + envio.tratoId());
+                        }
+                        return envio;
+                    } finally {
+                        permisos.release();
+                    }
+                }));
+            }
+        }
 
-        return !hoy.isBefore(fechaEnvio);
+        List<EnvioSeguimiento> enviados = new ArrayList<>();
+        for (Future<EnvioSeguimiento> resultado : resultados) {
+            try {
+                enviados.add(resultado.get());
+            } catch (Exception e) {
+                logger.error("Error al enviar correo de seguimiento: {}", e.getMessage(), e);
+            }
+        }
+        return enviados;
     }
 
-    private void enviarCorreoSeguimiento(Trato trato) {
-        ProcesoAutomatico proceso = procesoRepository.findByIdWithPasos(trato.getProcesoAutomaticoId()).orElse(null);
-        if (proceso == null) return;
-
-        List<ProcesoPaso> pasos = proceso.getPasos().stream()
-                .sorted(Comparator.comparingInt(ProcesoPaso::getOrden))
-                .collect(Collectors.toList());
+    private int avanzarPasos(List<EnvioSeguimiento> enviados) {
+        if (enviados.isEmpty()) {
+            return 0;
+        }
 
-        int pasoActual = trato.getProcesoPasoActual() != null ? trato.getProcesoPasoActual() : 0;
-        if (pasoActual >= pasos.size()) return;
+        int total = enviados.size();
+        Integer[] ids = new Integer[total];
+        Integer[] pasosAnteriores = new Integer[total];
+        Integer[] pasosNuevos = new Integer[total];
+        Date[] proximasFechas = new Date[total];
+        Boolean[] activos = new Boolean[total];
+
+        for (int i = 0; i < total; i++) {
+            EnvioSeguimiento envio = enviados.get(i);
+            int pasoNuevo = envio.pasoActual() + 1;
+            LocalDate proximaFecha = envio.programa().fechaEnvio(envio.fechaActivacion(), pasoNuevo);
+            ids[i] = envio.tratoId();
+            pasosAnteriores[i] = envio.pasoActual();
+            pasosNuevos[i] = pasoNuevo;
+            proximasFechas[i] = proximaFecha != null ? Date.valueOf(proximaFecha) : null;
+            activos[i] = pasoNuevo < envio.programa().pasos().size();
+        }
 
-        ProcesoPaso paso = pasos.get(pasoActual);
-        PlantillaCorreo plantilla = paso.getPlantilla();
+        return jdbcTemplate.update(SQL_AVANZAR, ps -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("integer", ids));
+            ps.setArray(2, ps.getConnection().createArrayOf("integer", pasosAnteriores));
+            ps.setArray(3, ps.getConnection().createArrayOf("integer", pasosNuevos));
+            ps.setArray(4, ps.getConnection().createArrayOf("date", proximasFechas));
+            ps.setArray(5, ps.getConnection().createArrayOf("boolean", activos));
+        });
+    }
 
-        String correoDestinatario = obtenerCorreoPrincipalContacto(trato.getContacto());
-        if (correoDestinatario == null) return;
+    private Programa obtenerPrograma(Integer procesoId) {
+        if (procesoId == null) {
+            return null;
+        }
+        Programa programa = programas.get(procesoId);
+        if (programa == null) {
+            programa = compilar(procesoId);
+            if (programa != null) {
+                programas.put(procesoId, programa);
+            }
+        }
+        return programa;
+    }
 
-        List<String> rutasAdjuntos = plantilla.getAdjuntos().stream()
-                .map(Adjunto::getAdjuntoUrl).collect(Collectors.toList());
+    private Programa compilar(Integer procesoId) {
+        ProcesoAutomatico proceso = procesoRepository.findByIdWithPasos(procesoId).orElse(null);
+        if (proceso == null || proceso.getPasos().isEmpty()) {
+            return null;
+        }
 
-        emailService.enviarCorreo(correoDestinatario, plantilla.getAsunto(), plantilla.getMensaje(),
-                rutasAdjuntos, null, trato.getId());
+        List<ProcesoPaso> pasos = proceso.getPasos().stream()
+                .sorted(Comparator.comparingInt(ProcesoPaso::getOrden))
+                .collect(Collectors.toList());
 
-        trato.setProcesoPasoActual(pasoActual + 1);
-        if (pasoActual + 1 >= pasos.size()) {
-            trato.setCorreosSeguimientoActivo(false);
+        List<PasoProgramado> programados = new ArrayList<>(pasos.size());
+        int diasAcumulados = 0;
+        for (ProcesoPaso paso : pasos) {
+            diasAcumulados += paso.getDias() != null ? paso.getDias() : 0;
+            PlantillaCorreo plantilla = paso.getPlantilla();
+            List<String> rutasAdjuntos = plantilla.getAdjuntos().stream()
+                    .map(Adjunto::getAdjuntoUrl).collect(Collectors.toList());
+            programados.add(new PasoProgramado(diasAcumulados, plantilla.getAsunto(), plantilla.getMensaje(),
+                    List.copyOf(rutasAdjuntos)));
         }
-        tratoRepository.save(trato);
+        return new Programa(procesoId, List.copyOf(programados));
+    }
+
+    private int pasoActual(Trato trato) {
+        return trato.getProcesoPasoActual() != null ? trato.getProcesoPasoActual() : 0;
     }
 
     private String obtenerCorreoPrincipalContacto(Contacto contacto) {
@@ -153,21 +360,31 @@ public class CorreosSeguimientoService {
                 .orElse(false);
     }
 
-    @Transactional
     public void verificarCorreosPendientes() {
-        List<Trato> tratosActivos = tratoRepository
-                .findByCorreosSeguimientoActivoTrueAndFaseInWithContacto(FASES_SEGUIMIENTO);
-        for (Trato trato : tratosActivos) {
-            if (debeEnviarCorreo(trato)) {
-                enviarCorreoSeguimiento(trato);
-            }
-        }
+        procesarCorreosSeguimiento();
     }
 
     @Scheduled(cron = "0 0 8 * * *", zone = "America/Mexico_City")
-    @Transactional
     public void procesarCorreosSeguimientoAutomatico() {
         System.out.println("Procesando correos de seguimiento automáticos...");
         procesarCorreosSeguimiento();
     }
-}
\ No newline at end of file
+
+    private record Programa(Integer procesoId, List<PasoProgramado> pasos) {
+
+        // El correo del paso i sale a los días acumulados hasta ese paso desde la activación
+        LocalDate fechaEnvio(LocalDateTime fechaActivacion, int paso) {
+            if (fechaActivacion == null || paso >= pasos.size()) {
+                return null;
+            }
+            return fechaActivacion.toLocalDate().plusDays(pasos.get(paso).diasAcumulados());
+        }
+    }
+
+    private record PasoProgramado(int diasAcumulados, String asunto, String mensaje, List<String> adjuntos) {
+    }
+
+    private record EnvioSeguimiento(Integer tratoId, String correo, int pasoActual,
+                                    LocalDateTime fechaActivacion, Programa programa) {
+    }
+}
@@ -7,7 +7,11 @@ import com.lowagie.text.pdf.*;
 import com.lowagie.text.Image;
 
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import com.tss.tssmanager_backend.dto.CotizacionDTO;
 import com.tss.tssmanager_backend.dto.UnidadCotizacionDTO;
 import com.tss.tssmanager_backend.entity.*;
@@ -20,22 +24,36 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.NumberFormat;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @Service
@@ -64,6 +82,17 @@ public class CotizacionService {
     @Autowired
     private TratoRepository tratoRepository;
 
+    @Autowired
+    private CachePdfCotizaciones cachePdfCotizaciones;
+
+    @Autowired
+    private AlmacenArchivos almacenArchivos;
+
+    private static final String ESPACIO_ARCHIVOS = "cotizaciones";
+
+    // Cambiarlo cuando cambie el diseño del PDF para no servir versiones cacheadas con el anterior
+    private static final String VERSION_FORMATO_PDF = "1";
+
     private byte[] membreteCache = null;
     private final Object membreteLock = new Object();
 
@@ -242,9 +271,31 @@ public class CotizacionService {
             throw new IllegalStateException("No se puede eliminar la cotización porque está vinculada a una o más cuentas por cobrar");
         }
         cotizacionRepository.delete(cotizacion);
+        cachePdfCotizaciones.descartar(id);
+        eliminarArchivosAl(TransactionSynchronization.STATUS_COMMITTED,
+                cotizacion.getNotasComercialesArchivo(), cotizacion.getFichaTecnicaArchivo());
     }
 
 
+    /**
+     * Borrado masivo de las cotizaciones de las empresas de un propietario (restauración de
+     * copias). Descarta sus PDF en caché y, al confirmarse, sus archivos del almacén.
+     */
+    @Transactional
+    public void eliminarCotizacionesDePropietario(Integer propietarioId) {
+        List<Object[]> archivos = cotizacionRepository.findArchivosByEmpresaPropietarioId(propietarioId);
+        cotizacionRepository.deleteByEmpresaPropietarioId(propietarioId);
+
+        List<String> referencias = new ArrayList<>();
+        for (Object[] fila : archivos) {
+            cachePdfCotizaciones.descartar((Integer) fila[0]);
+            referencias.add((String) fila[1]);
+            referencias.add((String) fila[2]);
+        }
+        eliminarArchivosAl(TransactionSynchronization.STATUS_COMMITTED, referencias.toArray(String[]::new));
+        logger.info("Eliminadas {} cotizaciones del propietario {}", archivos.size(), propietarioId);
+    }
+
     @Transactional(readOnly = true)
     public List<CotizacionDTO> listarCotizaciones() {
         logger.info("Listando todas las cotizaciones");
@@ -457,7 +508,6 @@ public class CotizacionService {
 
             bufferedImage.flush();
             bufferedImage = null;
-            System.gc();
 
             logger.info("Membrete procesado y cacheado: {} bytes", result.length);
             return result;
@@ -476,158 +526,125 @@ public class CotizacionService {
         }
     }
 
+    /**
+     * PDF de la cotización, opcionalmente seguido de sus notas comerciales y ficha técnica. Se
+     * sirve desde la caché en disco mientras la cotización no cambie.
+     */
     @Transactional(readOnly = true)
-    public ByteArrayResource generateCotizacionPDF(Integer id, boolean incluirArchivos) throws Exception {
+    public Resource generateCotizacionPDF(Integer id, boolean incluirArchivos) throws Exception {
         logger.info("Generando PDF para cotización con ID: {}", id);
 
         Cotizacion cotizacion = cotizacionRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Cotización no encontrada con id: " + id));
 
-        if (!incluirArchivos || (cotizacion.getNotasComercialesContenido() == null && cotizacion.getFichaTecnicaContenido() == null)) {
-            return generarPDFCotizacion(id);
-        }
+        boolean combinar = incluirArchivos
+                && (cotizacion.getNotasComercialesArchivo() != null || cotizacion.getFichaTecnicaArchivo() != null);
 
-        return combinarPDFsOptimizado(id, cotizacion);
+        Path archivo = cachePdfCotizaciones.obtener(id, versionPdf(cotizacion, combinar), salida -> {
+            if (combinar) {
+                combinarPDFs(cotizacion, salida);
+            } else {
+                escribirPDFCotizacion(cotizacion, salida);
+            }
+        });
+        return new FileSystemResource(archivo);
     }
 
-    private ByteArrayResource combinarPDFsOptimizado(Integer id, Cotizacion cotizacion) throws Exception {
-        ByteArrayOutputStream combined = new ByteArrayOutputStream();
-        PdfCopy copy = null;
-        com.lowagie.text.Document document = null;
+    // Huella de todo lo que aparece en el PDF; cambia en cuanto cambia cualquiera de esos datos
+    private String versionPdf(Cotizacion cotizacion, boolean combinar) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder datos = new StringBuilder(VERSION_FORMATO_PDF)
+                    .append('|').append(cotizacion.getCliente().getNombre())
+                    .append('|').append(cotizacion.getFechaCreacion())
+                    .append('|').append(cotizacion.getSubtotal())
+                    .append('|').append(cotizacion.getIva())
+                    .append('|').append(cotizacion.getTotal())
+                    .append('|').append(cotizacion.getImporteLetra());
+            for (UnidadCotizacion unidad : cotizacion.getUnidades()) {
+                datos.append('|').append(unidad.getCantidad())
+                        .append(';').append(unidad.getUnidad())
+                        .append(';').append(unidad.getConcepto())
+                        .append(';').append(unidad.getPrecioUnitario())
+                        .append(';').append(unidad.getDescuento())
+                        .append(';').append(unidad.getImporteTotal());
+            }
+            if (combinar) {
+                datos.append("|notas:").append(cotizacion.getNotasComercialesHash())
+                        .append("|ficha:").append(cotizacion.getFichaTecnicaHash());
+            }
+            digest.update(datos.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest(), 0, 16) + (combinar ? "-completo" : "");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
 
-        java.util.ArrayList<PdfReader> readers = new java.util.ArrayList<>();
+    /**
+     * Copia página por página la cotización y sus archivos adicionales al destino. La cotización
+     * se genera en un archivo temporal y, como los adjuntos del almacén, se lee por acceso
+     * aleatorio; cada lector se libera al
+     * terminar de copiar sus páginas, así que en memoria solo queda el documento que se está copiando.
+     */
+    private void combinarPDFs(Cotizacion cotizacion, OutputStream salida) throws Exception {
+        Path principal = Files.createTempFile("cotizacion-" + cotizacion.getId() + "-", ".pdf");
+        com.lowagie.text.Document document = null;
 
         try {
-            // 1. Generar PDF principal
-            ByteArrayResource cotizacionPDF = generarPDFCotizacion(id);
-            byte[] mainPdfBytes = cotizacionPDF.getByteArray();
-
-            PdfReader mainReader = new PdfReader(mainPdfBytes);
-            readers.add(mainReader);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(principal))) {
+                escribirPDFCotizacion(cotizacion, out);
+            }
 
+            PdfReader mainReader = new PdfReader(new RandomAccessFileOrArray(principal.toString(), false, true), null);
             document = new com.lowagie.text.Document(mainReader.getPageSizeWithRotation(1));
-            copy = new PdfCopy(document, combined);
+            PdfCopy copy = new PdfCopy(document, salida);
             document.open();
 
-            int mainPages = mainReader.getNumberOfPages();
-            for (int i = 1; i <= mainPages; i++) {
-                PdfImportedPage page = copy.getImportedPage(mainReader, i);
-                copy.addPage(page);
-                page = null;
-
-                if (i % 2 == 0) {
-                    copy.freeReader(mainReader);
-                    System.gc();
-                    try {
-                        Thread.sleep(10);
-                    } catch (InterruptedException ignored) {}
-                }
-            }
-
-            mainPdfBytes = null;
-            cotizacionPDF = null;
-            copy.freeReader(mainReader);
-            System.gc();
-
-            // 2. Procesar Notas Comerciales
-            if (cotizacion.getNotasComercialesContenido() != null) {
-                byte[] notasBytes = cotizacion.getNotasComercialesContenido();
-                PdfReader notasReader = new PdfReader(notasBytes);
-                readers.add(notasReader);
-
-                int notasPages = notasReader.getNumberOfPages();
-                for (int i = 1; i <= notasPages; i++) {
-                    PdfImportedPage page = copy.getImportedPage(notasReader, i);
-                    copy.addPage(page);
-                    page = null;
-
-                    if (i % 2 == 0) {
-                        copy.freeReader(notasReader);
-                        System.gc();
-                        try {
-                            Thread.sleep(10);
-                        } catch (InterruptedException ignored) {}
-                    }
-                }
+            copiarPaginas(copy, mainReader);
 
-                notasBytes = null;
-                copy.freeReader(notasReader);
-                System.gc();
+            if (cotizacion.getNotasComercialesArchivo() != null) {
+                copiarPaginas(copy, abrirPdf(cotizacion.getNotasComercialesArchivo()));
             }
 
-            // 3. Procesar Ficha Técnica
-            if (cotizacion.getFichaTecnicaContenido() != null) {
-                byte[] fichaBytes = cotizacion.getFichaTecnicaContenido();
-                PdfReader fichaReader = new PdfReader(fichaBytes);
-                readers.add(fichaReader);
-
-                int fichaPages = fichaReader.getNumberOfPages();
-                for (int i = 1; i <= fichaPages; i++) {
-                    PdfImportedPage page = copy.getImportedPage(fichaReader, i);
-                    copy.addPage(page);
-                    page = null;
-
-                    if (i % 2 == 0) {
-                        copy.freeReader(fichaReader);
-                        System.gc();
-                        try {
-                            Thread.sleep(10);
-                        } catch (InterruptedException ignored) {}
-                    }
-                }
-
-                fichaBytes = null;
-                copy.freeReader(fichaReader);
-                System.gc();
+            if (cotizacion.getFichaTecnicaArchivo() != null) {
+                copiarPaginas(copy, abrirPdf(cotizacion.getFichaTecnicaArchivo()));
             }
 
             document.close();
-            copy.close();
-
-            for (PdfReader reader : readers) {
-                if (reader != null) {
-                    reader.close();
-                }
-            }
-            readers.clear();
-            readers = null;
-
-            byte[] result = combined.toByteArray();
-            combined.close();
-
-            document = null;
-            copy = null;
-            System.gc();
-
-            return new ByteArrayResource(result);
-
-        } catch (OutOfMemoryError oom) {
-            logger.error("OutOfMemoryError en combinarPDFsOptimizado: {}", oom.getMessage());
-            throw new Exception("Memoria insuficiente para generar el PDF combinado", oom);
 
         } catch (Exception e) {
             logger.error("Error combinando PDFs: {}", e.getMessage());
             throw new Exception("Error al combinar los archivos PDF", e);
 
         } finally {
-            try {
-                if (copy != null) {
-                    copy.close();
-                }
-                if (document != null && document.isOpen()) {
+            if (document != null && document.isOpen()) {
+                try {
                     document.close();
-                }
-                if (combined != null) {
-                    combined.close();
-                }
-                for (PdfReader reader : readers) {
-                    if (reader != null) {
-                        reader.close();
-                    }
-                }
-            } catch (Exception ignored) {}
+                } catch (Exception ignored) {}
+            }
+            Files.deleteIfExists(principal);
+        }
+    }
 
-            System.gc();
+    // Los archivos del almacén local se leen por acceso aleatorio, sin cargarlos completos
+    private PdfReader abrirPdf(String referencia) throws Exception {
+        Optional<Path> ruta = almacenArchivos.rutaLocal(referencia);
+        if (ruta.isPresent()) {
+            return new PdfReader(new RandomAccessFileOrArray(ruta.get().toString(), false, true), null);
+        }
+        try (InputStream contenido = almacenArchivos.abrir(referencia)) {
+            return new PdfReader(contenido);
+        }
+    }
+
+    private void copiarPaginas(PdfCopy copy, PdfReader reader) throws Exception {
+        try {
+            for (int i = 1; i <= reader.getNumberOfPages(); i++) {
+                copy.addPage(copy.getImportedPage(reader, i));
+            }
+            copy.freeReader(reader);
+        } finally {
+            reader.close();
         }
     }
 
@@ -639,6 +656,11 @@ public class CotizacionService {
                 .orElseThrow(() -> new ResourceNotFoundException("Cotización no encontrada con id: " + id));
 
         ByteArrayOutputStream out = new ByteArrayOutputStream();
+        escribirPDFCotizacion(cotizacion, out);
+        return new ByteArrayResource(out.toByteArray());
+    }
+
+    private void escribirPDFCotizacion(Cotizacion cotizacion, OutputStream out) throws Exception {
         Document document = null;
         PdfWriter writer = null;
 
@@ -862,23 +884,12 @@ public class CotizacionService {
 
             document.close();
 
-            byte[] pdfBytes = out.toByteArray();
-            out.close();
-
-            writer = null;
-            document = null;
-
-            return new ByteArrayResource(pdfBytes);
-
         } catch (Exception e) {
             logger.error("Error generando PDF: {}", e.getMessage());
 
             if (document != null && document.isOpen()) {
                 document.close();
             }
-            if (out != null) {
-                out.close();
-            }
 
             throw e;
         }
@@ -947,41 +958,53 @@ public class CotizacionService {
         // Procesar Notas Comerciales
         if (notasComerciales != null && !notasComerciales.isEmpty()) {
             String tipoNotas = notasComerciales.getContentType();
-            byte[] contenidoNotas;
+            AlmacenArchivos.ArchivoAlmacenado archivoNotas;
 
             if ("image/png".equals(tipoNotas)) {
-                contenidoNotas = convertImageToPdf(notasComerciales.getBytes(), notasComerciales.getOriginalFilename());
+                byte[] contenidoNotas = convertImageToPdf(notasComerciales.getBytes(), notasComerciales.getOriginalFilename());
+                archivoNotas = guardarArchivo(new ByteArrayInputStream(contenidoNotas));
                 tipoNotas = "application/pdf";
                 cotizacion.setNotasComercialesNombre(notasComerciales.getOriginalFilename().replace(".png", ".pdf"));
             } else if ("application/pdf".equals(tipoNotas)) {
-                contenidoNotas = notasComerciales.getBytes();
+                try (InputStream contenidoNotas = notasComerciales.getInputStream()) {
+                    archivoNotas = guardarArchivo(contenidoNotas);
+                }
                 cotizacion.setNotasComercialesNombre(notasComerciales.getOriginalFilename());
             } else {
                 throw new IllegalArgumentException("Formato no soportado para Notas Comerciales. Solo PDF y PNG");
             }
 
-            cotizacion.setNotasComercialesContenido(contenidoNotas);
+            eliminarArchivosAl(TransactionSynchronization.STATUS_COMMITTED, cotizacion.getNotasComercialesArchivo());
+            cotizacion.setNotasComercialesArchivo(archivoNotas.referencia());
+            cotizacion.setNotasComercialesTamano(archivoNotas.tamano());
+            cotizacion.setNotasComercialesHash(archivoNotas.hash());
             cotizacion.setNotasComercialesTopo(tipoNotas);
         }
 
         // Procesar Ficha Técnica
         if (fichaTecnica != null && !fichaTecnica.isEmpty()) {
             String tipoFicha = fichaTecnica.getContentType();
-            byte[] contenidoFicha;
+            AlmacenArchivos.ArchivoAlmacenado archivoFicha;
 
             if ("image/png".equals(tipoFicha)) {
                 // Convertir PNG a PDF
-                contenidoFicha = convertImageToPdf(fichaTecnica.getBytes(), fichaTecnica.getOriginalFilename());
+                byte[] contenidoFicha = convertImageToPdf(fichaTecnica.getBytes(), fichaTecnica.getOriginalFilename());
+                archivoFicha = guardarArchivo(new ByteArrayInputStream(contenidoFicha));
                 tipoFicha = "application/pdf";
                 cotizacion.setFichaTecnicaNombre(fichaTecnica.getOriginalFilename().replace(".png", ".pdf"));
             } else if ("application/pdf".equals(tipoFicha)) {
-                contenidoFicha = fichaTecnica.getBytes();
+                try (InputStream contenidoFicha = fichaTecnica.getInputStream()) {
+                    archivoFicha = guardarArchivo(contenidoFicha);
+                }
                 cotizacion.setFichaTecnicaNombre(fichaTecnica.getOriginalFilename());
             } else {
                 throw new IllegalArgumentException("Formato no soportado para Ficha Técnica. Solo PDF y PNG");
             }
 
-            cotizacion.setFichaTecnicaContenido(contenidoFicha);
+            eliminarArchivosAl(TransactionSynchronization.STATUS_COMMITTED, cotizacion.getFichaTecnicaArchivo());
+            cotizacion.setFichaTecnicaArchivo(archivoFicha.referencia());
+            cotizacion.setFichaTecnicaTamano(archivoFicha.tamano());
+            cotizacion.setFichaTecnicaHash(archivoFicha.hash());
             cotizacion.setFichaTecnicaTipo(tipoFicha);
         }
 
@@ -989,6 +1012,36 @@ public class CotizacionService {
         logger.info("Archivos adicionales guardados para cotización ID: {}", cotizacionId);
     }
 
+    // Si la transacción se revierte, el archivo recién guardado no queda huérfano en el almacén
+    private AlmacenArchivos.ArchivoAlmacenado guardarArchivo(InputStream contenido) throws IOException {
+        AlmacenArchivos.ArchivoAlmacenado archivo = almacenArchivos.guardar(ESPACIO_ARCHIVOS, contenido);
+        eliminarArchivosAl(TransactionSynchronization.STATUS_ROLLED_BACK, archivo.referencia());
+        return archivo;
+    }
+
+    // Elimina los archivos del almacén solo cuando la transacción termina con el estado indicado
+    private void eliminarArchivosAl(int estado, String... referencias) {
+        List<String> pendientes = Arrays.stream(referencias).filter(Objects::nonNull).toList();
+        if (pendientes.isEmpty() || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != estado) {
+                    return;
+                }
+                for (String referencia : pendientes) {
+                    try {
+                        almacenArchivos.eliminar(referencia);
+                    } catch (IOException e) {
+                        logger.warn("No se pudo eliminar el archivo {} del almacén: {}", referencia, e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
     private byte[] convertImageToPdf(byte[] imageBytes, String originalFileName) throws Exception {
         ByteArrayOutputStream pdfOut = null;
         Document document = null;
@@ -1076,7 +1129,6 @@ public class CotizacionService {
             pdfOut.close();
             compressedImageBytes = null;
             bufferedImage = null;
-            System.gc();
 
             return result;
 
@@ -1095,7 +1147,6 @@ public class CotizacionService {
                 bufferedImage.flush();
                 bufferedImage = null;
             }
-            System.gc();
         }
     }
 
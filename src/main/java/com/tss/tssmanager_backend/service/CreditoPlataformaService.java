@@ -34,6 +34,9 @@ public class CreditoPlataformaService {
     @Autowired
     private PlataformaService plataformaService;
 
+    @Autowired
+    private SaldosDiariosPlataforma saldosDiarios;
+
     @Transactional(readOnly = true)
     public DashboardCreditosDTO getDashboardData(LocalDate fechaInicio, LocalDate fechaFin, String filtroPlataforma) {
         LocalDateTime fechaInicioDateTime = fechaInicio.atStartOfDay();
@@ -60,12 +63,21 @@ public class CreditoPlataformaService {
 
         Map<String, BigDecimal> saldos = calcularSaldos();
 
-        List<Map<String, Object>> historial = calcularHistorialSaldos(fechaInicioDateTime, fechaFinDateTime);
+        List<Map<String, Object>> historial = calcularHistorialSaldos(fechaInicio, fechaFin);
 
         return new DashboardCreditosDTO(saldos, estadoCuenta, historial);
     }
 
     private List<CreditoPlataformaDTO> convertToDTO(List<CreditoPlataforma> creditos) {
+        Set<Integer> equipoIds = creditos.stream()
+                .map(CreditoPlataforma::getEquipoId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<Integer, String> nombresEquipos = equipoIds.isEmpty() ? Collections.emptyMap() :
+                equipoRepository.findAllById(equipoIds).stream()
+                        .filter(equipo -> equipo.getNombre() != null)
+                        .collect(Collectors.toMap(Equipo::getId, Equipo::getNombre));
+
         return creditos.stream().map(credito -> {
             CreditoPlataformaDTO dto = new CreditoPlataformaDTO();
             dto.setId(credito.getId());
@@ -78,8 +90,7 @@ public class CreditoPlataformaService {
             dto.setEquipoId(credito.getEquipoId());
 
             if (credito.getEquipoId() != null) {
-                equipoRepository.findById(credito.getEquipoId())
-                        .ifPresent(equipo -> dto.setEquipoNombre(equipo.getNombre()));
+                dto.setEquipoNombre(nombresEquipos.get(credito.getEquipoId()));
             }
 
             return dto;
@@ -103,7 +114,7 @@ public class CreditoPlataformaService {
         credito.setCuentaPorPagarId(cuentaPorPagarId);
         credito.setSubtipo(subtipo);
 
-        repository.save(credito);
+        guardar(credito);
     }
 
     @Transactional
@@ -127,7 +138,7 @@ public class CreditoPlataformaService {
         credito.setEquipoId(equipoId);
         credito.setSubtipo(subtipo);
 
-        repository.save(credito);
+        guardar(credito);
     }
 
     private Map<String, BigDecimal> calcularSaldos() {
@@ -192,70 +203,27 @@ public class CreditoPlataformaService {
         return saldos;
     }
 
-    private List<Map<String, Object>> calcularHistorialSaldos(LocalDateTime fechaInicio, LocalDateTime fechaFin) {
-        List<CreditoPlataforma> todosLosCreditos = repository.findByFechaLessThanEqualOrderByFecha(fechaFin);
-
-        Map<LocalDate, Map<String, BigDecimal>> saldosPorFechaYPlataforma = new TreeMap<>();
-
-        for (CreditoPlataforma credito : todosLosCreditos) {
-            LocalDate fecha = credito.getFecha().toLocalDate();
-
-            String plataformaKey;
-            if ("WhatsGPS".equals(credito.getPlataforma().getNombrePlataforma()) && credito.getSubtipo() != null) {
-                plataformaKey = "WHATSGPS_" + credito.getSubtipo();
-            } else {
-                // Mapear nombres de BD a formato esperado por frontend para gráfica
-                String nombrePlataforma = credito.getPlataforma().getNombrePlataforma();
-                plataformaKey = mapearNombrePlataformaParaFrontend(nombrePlataforma);
-            }
-
-            saldosPorFechaYPlataforma.computeIfAbsent(fecha, k -> new HashMap<>());
-
-            BigDecimal montoActual = saldosPorFechaYPlataforma.get(fecha).getOrDefault(plataformaKey, BigDecimal.ZERO);
+    private static final List<String> PLATAFORMAS_HISTORIAL =
+            List.of("TRACK_SOLID", "WHATSGPS_ANUAL", "WHATSGPS_VITALICIA", "FULLTRACK", "F_BASIC");
 
-            if (credito.getTipo() == TipoCreditoEnum.ABONO) {
-                montoActual = montoActual.add(credito.getMonto());
-            } else { // CARGO
-                montoActual = montoActual.subtract(credito.getMonto());
-            }
-
-            saldosPorFechaYPlataforma.get(fecha).put(plataformaKey, montoActual);
+    // Historial a partir de los cierres diarios: el último cierre previo al rango y los del rango
+    private List<Map<String, Object>> calcularHistorialSaldos(LocalDate fechaInicio, LocalDate fechaFin) {
+        Map<String, BigDecimal> saldosAcumulados = new HashMap<>();
+        for (String plataforma : PLATAFORMAS_HISTORIAL) {
+            saldosAcumulados.put(plataforma, BigDecimal.ZERO);
         }
 
-        // Calcular saldos acumulados
-        Map<String, BigDecimal> saldosAcumulados = new HashMap<>();
-        saldosAcumulados.put("TRACK_SOLID", BigDecimal.ZERO);
-        saldosAcumulados.put("WHATSGPS_ANUAL", BigDecimal.ZERO);
-        saldosAcumulados.put("WHATSGPS_VITALICIA", BigDecimal.ZERO);
-        saldosAcumulados.put("FULLTRACK", BigDecimal.ZERO);
-        saldosAcumulados.put("F_BASIC", BigDecimal.ZERO);
+        SortedMap<LocalDate, Map<String, BigDecimal>> cierres =
+                saldosDiarios.obtenerCierres(fechaInicio, fechaFin, saldosAcumulados);
 
         List<Map<String, Object>> resultado = new ArrayList<>();
 
-        for (Map.Entry<LocalDate, Map<String, BigDecimal>> entry : saldosPorFechaYPlataforma.entrySet()) {
+        for (Map.Entry<LocalDate, Map<String, BigDecimal>> entry : cierres.entrySet()) {
             LocalDate fecha = entry.getKey();
-
-            // Solo incluir fechas dentro del rango solicitado
-            if (fecha.isBefore(fechaInicio.toLocalDate()) || fecha.isAfter(fechaFin.toLocalDate())) {
-                // Actualizar saldos acumulados pero no incluir en resultado si está fuera del rango
-                for (Map.Entry<String, BigDecimal> plataformaEntry : entry.getValue().entrySet()) {
-                    String plataforma = plataformaEntry.getKey();
-                    BigDecimal cambio = plataformaEntry.getValue();
-                    saldosAcumulados.put(plataforma, saldosAcumulados.getOrDefault(plataforma, BigDecimal.ZERO).add(cambio));
-                }
-                continue;
-            }
-
-            // Actualizar saldos acumulados con los cambios del día
-            for (Map.Entry<String, BigDecimal> plataformaEntry : entry.getValue().entrySet()) {
-                String plataforma = plataformaEntry.getKey();
-                BigDecimal cambio = plataformaEntry.getValue();
-                saldosAcumulados.put(plataforma, saldosAcumulados.getOrDefault(plataforma, BigDecimal.ZERO).add(cambio));
-            }
+            saldosAcumulados.putAll(entry.getValue());
 
             // Crear entradas para cada plataforma en esta fecha con su saldo acumulado
-            // Crear entradas para cada plataforma en esta fecha con su saldo acumulado
-            for (String plataforma : Arrays.asList("TRACK_SOLID", "WHATSGPS_ANUAL", "WHATSGPS_VITALICIA", "FULLTRACK", "F_BASIC")) {
+            for (String plataforma : PLATAFORMAS_HISTORIAL) {
                 Map<String, Object> item = new HashMap<>();
                 item.put("fecha", fecha.toString());
                 item.put("plataforma", plataforma);
@@ -267,6 +235,24 @@ public class CreditoPlataformaService {
         return resultado;
     }
 
+    // Todo movimiento del libro pasa por aquí para mantener los cierres diarios en la misma transacción
+    private void guardar(CreditoPlataforma credito) {
+        repository.save(credito);
+        BigDecimal movimiento = credito.getTipo() == TipoCreditoEnum.ABONO
+                ? credito.getMonto() : credito.getMonto().negate();
+        saldosDiarios.registrarMovimiento(
+                claveHistorial(credito.getPlataforma().getNombrePlataforma(), credito.getSubtipo()),
+                credito.getFecha().toLocalDate(), movimiento);
+    }
+
+    // Clave de la gráfica de historial: WhatsGPS se separa por subtipo, el resto por plataforma
+    static String claveHistorial(String nombrePlataforma, String subtipo) {
+        if ("WhatsGPS".equals(nombrePlataforma) && subtipo != null) {
+            return "WHATSGPS_" + subtipo;
+        }
+        return mapearNombrePlataformaParaFrontend(nombrePlataforma);
+    }
+
     private String mapearNombrePlataforma(String nombreBD) {
         switch (nombreBD) {
             case "Track Solid":
@@ -282,7 +268,7 @@ public class CreditoPlataformaService {
         }
     }
 
-    private String mapearNombrePlataformaParaFrontend(String nombreBD) {
+    private static String mapearNombrePlataformaParaFrontend(String nombreBD) {
         switch (nombreBD) {
             case "Track Solid":
                 return "TRACK_SOLID";
@@ -313,7 +299,7 @@ public class CreditoPlataformaService {
         credito.setNota(nota);
         credito.setEquipoId(equipoId);
 
-        repository.save(credito);
+        guardar(credito);
     }
 
     @Transactional
@@ -329,7 +315,7 @@ public class CreditoPlataformaService {
         credito.setTransaccionId(transaccionId);
         credito.setCuentaPorPagarId(cuentaPorPagarId);
 
-        repository.save(credito);
+        guardar(credito);
     }
 
     @Transactional
@@ -348,7 +334,7 @@ public class CreditoPlataformaService {
         credito.setEsLicencia(true);
         credito.setSubtipo(null);
 
-        repository.save(credito);
+        guardar(credito);
     }
 
     @Transactional
@@ -363,7 +349,7 @@ public class CreditoPlataformaService {
         credito.setEquipoId(equipoId);
         credito.setEsLicencia(true);
 
-        repository.save(credito);
+        guardar(credito);
     }
 
     @Transactional
@@ -378,6 +364,6 @@ public class CreditoPlataformaService {
         credito.setEquipoId(equipoId);
         credito.setEsLicencia(true);
 
-        repository.save(credito);
+        guardar(credito);
     }
 }
\ No newline at end of file
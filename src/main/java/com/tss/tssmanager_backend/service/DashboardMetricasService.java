@@ -9,9 +9,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.Instant;
 import java.time.LocalDate;
-import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
@@ -28,14 +26,10 @@ public class DashboardMetricasService {
         // Aplicar filtro de empleado si es necesario
         Integer usuarioFiltrado = aplicarFiltroEmpleado(usuarioId);
 
-        // Convertir fechas a Instant
-        Instant startInstant = startDate.atStartOfDay(ZoneId.systemDefault()).toInstant();
-        Instant endInstant = endDate.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant();
-
-        // Obtener datos de las consultas
-        List<EmpresasCreadasDTO> empresasCreadas = obtenerEmpresasCreadas(startInstant, endInstant, usuarioFiltrado);
-        List<TasaRespuestaDTO> tasaRespuesta = obtenerTasaRespuesta(startInstant, endInstant, usuarioFiltrado);
-        List<TasaConversionDTO> tasaConversion = obtenerTasaConversion(startInstant, endInstant, usuarioFiltrado);
+        // Obtener datos de las consultas (sobre los agregados diarios, por día inclusive)
+        List<EmpresasCreadasDTO> empresasCreadas = obtenerEmpresasCreadas(startDate, endDate, usuarioFiltrado);
+        List<TasaRespuestaDTO> tasaRespuesta = obtenerTasaRespuesta(startDate, endDate, usuarioFiltrado);
+        List<TasaConversionDTO> tasaConversion = obtenerTasaConversion(startDate, endDate, usuarioFiltrado);
         ResumenEjecutivoDTO resumenEjecutivo = obtenerResumenEjecutivo(startDate, endDate);
 
         return new DashboardMetricasDTO(resumenEjecutivo, empresasCreadas, tasaRespuesta, tasaConversion);
@@ -54,7 +48,7 @@ public class DashboardMetricasService {
         return usuarioId;
     }
 
-    private List<EmpresasCreadasDTO> obtenerEmpresasCreadas(Instant startDate, Instant endDate, Integer usuarioId) {
+    private List<EmpresasCreadasDTO> obtenerEmpresasCreadas(LocalDate startDate, LocalDate endDate, Integer usuarioId) {
         List<Object[]> results = dashboardMetricasRepository.findEmpresasCreadasPorUsuario(startDate, endDate, usuarioId);
 
         if (results == null) {
@@ -78,7 +72,7 @@ public class DashboardMetricasService {
         }).collect(Collectors.toList());
     }
 
-    private List<TasaRespuestaDTO> obtenerTasaRespuesta(Instant startDate, Instant endDate, Integer usuarioId) {
+    private List<TasaRespuestaDTO> obtenerTasaRespuesta(LocalDate startDate, LocalDate endDate, Integer usuarioId) {
         List<Object[]> results = dashboardMetricasRepository.findTasaRespuestaPorUsuario(startDate, endDate, usuarioId);
 
         if (results == null) {
@@ -103,7 +97,7 @@ public class DashboardMetricasService {
         }).collect(Collectors.toList());
     }
 
-    private List<TasaConversionDTO> obtenerTasaConversion(Instant startDate, Instant endDate, Integer usuarioId) {
+    private List<TasaConversionDTO> obtenerTasaConversion(LocalDate startDate, LocalDate endDate, Integer usuarioId) {
         List<Object[]> results = dashboardMetricasRepository.findTasaConversionPorUsuario(startDate, endDate, usuarioId);
 
         if (results == null) {
@@ -138,22 +132,16 @@ public class DashboardMetricasService {
     }
 
     private ResumenEjecutivoDTO obtenerResumenEjecutivo(LocalDate startDate, LocalDate endDate) {
-        Instant startInstant = startDate.atStartOfDay(ZoneId.systemDefault()).toInstant();
-        Instant endInstant = endDate.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant();
-
         // Obtener métricas actuales
-        List<Object[]> currentResultsList = dashboardMetricasRepository.findResumenEjecutivo(startInstant, endInstant);
+        List<Object[]> currentResultsList = dashboardMetricasRepository.findResumenEjecutivo(startDate, endDate);
 
         // Calcular período anterior equivalente
         long daysBetween = ChronoUnit.DAYS.between(startDate, endDate) + 1;
         LocalDate startDatePrev = startDate.minusDays(daysBetween);
         LocalDate endDatePrev = endDate.minusDays(daysBetween);
 
-        Instant startInstantPrev = startDatePrev.atStartOfDay(ZoneId.systemDefault()).toInstant();
-        Instant endInstantPrev = endDatePrev.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant();
-
         // Obtener métricas del período anterior
-        List<Object[]> previousResultsList = dashboardMetricasRepository.findResumenEjecutivoPeriodoAnterior(startInstantPrev, endInstantPrev);
+        List<Object[]> previousResultsList = dashboardMetricasRepository.findResumenEjecutivo(startDatePrev, endDatePrev);
 
         // Verificar que las listas no estén vacías y obtener el primer (y único) elemento
         Object[] currentResults = (currentResultsList != null && !currentResultsList.isEmpty()) ? currentResultsList.get(0) : new Object[4];
@@ -4,9 +4,11 @@ import com.cloudinary.Cloudinary;
 import com.cloudinary.utils.ObjectUtils;
 import com.resend.Resend;
 import com.resend.core.exception.ResendException;
+import com.resend.services.batch.model.CreateBatchEmailsResponse;
 import com.resend.services.emails.model.CreateEmailOptions;
 import com.resend.services.emails.model.CreateEmailResponse;
 import com.tss.tssmanager_backend.dto.EmailRecordDTO;
+import com.tss.tssmanager_backend.entity.CorreoSaliente;
 import com.tss.tssmanager_backend.entity.EmailDestinarioEstado;
 import com.tss.tssmanager_backend.entity.EmailRecord;
 import com.tss.tssmanager_backend.repository.EmailDestinarioEstadoRepository;
@@ -41,6 +43,8 @@ public class EmailService {
     private SimpMessagingTemplate messagingTemplate;
     @Autowired
     private EmailDestinarioEstadoRepository destinatarioEstadoRepository;
+    @Autowired
+    private CacheAdjuntos cacheAdjuntos;
 
     private final Resend resendClient;
     private final String fromEmail;
@@ -122,91 +126,158 @@ public class EmailService {
         }
 
         try {
-            String[] emailArray = new String[]{normalizarEmail(destinatario)};
-            if (destinatario.contains(",")) {
-                String[] rawEmails = destinatario.split(",");
-                emailArray = new String[rawEmails.length];
-                for (int i = 0; i < rawEmails.length; i++) {
-                    emailArray[i] = normalizarEmail(rawEmails[i]);
-                }
-            }
-
-            CreateEmailOptions.Builder emailBuilder = CreateEmailOptions.builder()
-                    .from(fromEmail)
-                    .to(emailArray)
-                    .subject(asunto)
-                    .html(procesarImagenesEmbebidas(cuerpo));
+            resendEmailId = enviarConAdjuntos(destinatario, asunto, cuerpo, rutasArchivosAdjuntos,
+                    adjuntosDirectos, logNombresArchivos);
+            exito = resendEmailId != null;
+            System.out.println("Correo enviado con éxito. ID de Resend: " + resendEmailId);
 
-            List<com.resend.services.emails.model.Attachment> attachments = new ArrayList<>();
+        } catch (ResendException e) {
+            System.err.println("Error enviando correo con Resend: " + e.getMessage());
+            e.printStackTrace();
+        } catch (Exception e) {
+            System.err.println("Error inesperado al enviar correo: " + e.getMessage());
+            e.printStackTrace();
+        }
 
-            if (adjuntosDirectos != null && adjuntosDirectos.length > 0) {
-                for (MultipartFile file : adjuntosDirectos) {
-                    if (!file.isEmpty()) {
-                        try {
-                            String base64Content = Base64.getEncoder().encodeToString(file.getBytes());
+        return guardarEmailRecord(destinatario, asunto, cuerpo, logNombresArchivos,
+                tratoId, exito, resendEmailId, tipoCorreoConsolidado);
+    }
 
-                            attachments.add(com.resend.services.emails.model.Attachment.builder()
-                                    .fileName(file.getOriginalFilename())
-                                    .content(base64Content)
-                                    .build());
+    /**
+     * Igual que {@link #enviarCorreo}, registra el envío aunque falle, pero propaga el error de
+     * Resend para que los envíos masivos puedan detectar un límite de tasa y no dar el correo
+     * por enviado.
+     */
+    public EmailRecord enviarCorreoPropagandoError(String destinatario, String asunto, String cuerpo,
+                                                   List<String> rutasArchivosAdjuntos,
+                                                   Integer tratoId) throws ResendException {
+        List<String> logNombresArchivos = new ArrayList<>();
+        if (rutasArchivosAdjuntos != null) {
+            logNombresArchivos.addAll(rutasArchivosAdjuntos);
+        }
 
-                            logNombresArchivos.add("Archivo: " + file.getOriginalFilename());
+        String resendEmailId;
+        try {
+            resendEmailId = enviarConAdjuntos(destinatario, asunto, cuerpo, rutasArchivosAdjuntos,
+                    null, logNombresArchivos);
+        } catch (Exception e) {
+            guardarEmailRecord(destinatario, asunto, cuerpo, logNombresArchivos, tratoId, false, null, null);
+            throw e;
+        }
+        return guardarEmailRecord(destinatario, asunto, cuerpo, logNombresArchivos,
+                tratoId, resendEmailId != null, resendEmailId, null);
+    }
 
-                        } catch (IOException e) {
-                            System.err.println("Error procesando adjunto directo: " + e.getMessage());
-                        }
-                    }
-                }
+    private String enviarConAdjuntos(String destinatario, String asunto, String cuerpo,
+                                     List<String> rutasArchivosAdjuntos, MultipartFile[] adjuntosDirectos,
+                                     List<String> logNombresArchivos) throws ResendException {
+        String[] emailArray = new String[]{normalizarEmail(destinatario)};
+        if (destinatario.contains(",")) {
+            String[] rawEmails = destinatario.split(",");
+            emailArray = new String[rawEmails.length];
+            for (int i = 0; i < rawEmails.length; i++) {
+                emailArray[i] = normalizarEmail(rawEmails[i]);
             }
+        }
 
-            if (rutasArchivosAdjuntos != null && !rutasArchivosAdjuntos.isEmpty()) {
-                for (String ruta : rutasArchivosAdjuntos) {
-                    try {
-                        byte[] fileContent;
-                        String fileName;
-
-                        if (isUrl(ruta)) {
-                            fileContent = downloadFileFromUrl(ruta);
-                            fileName = extractFileNameFromUrl(ruta);
-                        } else {
-                            Path filePath = Path.of(ruta);
-                            fileContent = Files.readAllBytes(filePath);
-                            fileName = filePath.getFileName().toString();
-                        }
+        CreateEmailOptions.Builder emailBuilder = CreateEmailOptions.builder()
+                .from(fromEmail)
+                .to(emailArray)
+                .subject(asunto)
+                .html(procesarImagenesEmbebidas(cuerpo));
 
-                        String base64Content = Base64.getEncoder().encodeToString(fileContent);
+        List<com.resend.services.emails.model.Attachment> attachments = new ArrayList<>();
+
+        if (adjuntosDirectos != null && adjuntosDirectos.length > 0) {
+            for (MultipartFile file : adjuntosDirectos) {
+                if (!file.isEmpty()) {
+                    try {
+                        String base64Content = Base64.getEncoder().encodeToString(file.getBytes());
 
                         attachments.add(com.resend.services.emails.model.Attachment.builder()
-                                .fileName(fileName)
+                                .fileName(file.getOriginalFilename())
                                 .content(base64Content)
                                 .build());
 
-                    } catch (Exception e) {
-                        System.err.println("Error procesando adjunto de URL " + ruta + ": " + e.getMessage());
+                        logNombresArchivos.add("Archivo: " + file.getOriginalFilename());
+
+                    } catch (IOException e) {
+                        System.err.println("Error procesando adjunto directo: " + e.getMessage());
                     }
                 }
             }
+        }
 
-            // Agregar todos los adjuntos al correo
-            emailBuilder.attachments(attachments);
+        if (rutasArchivosAdjuntos != null && !rutasArchivosAdjuntos.isEmpty()) {
+            for (String ruta : rutasArchivosAdjuntos) {
+                try {
+                    boolean esUrl = isUrl(ruta);
+                    String fileName = esUrl ? extractFileNameFromUrl(ruta) : Path.of(ruta).getFileName().toString();
 
-            // Enviar a Resend
-            CreateEmailResponse response = resendClient.emails().send(emailBuilder.build());
+                    // Los adjuntos de plantillas se repiten en cada correo: se descargan y codifican una vez
+                    String base64Content = cacheAdjuntos.obtenerBase64(ruta, esUrl);
 
-            exito = response.getId() != null;
-            resendEmailId = response.getId();
-            System.out.println("Correo enviado con éxito. ID de Resend: " + resendEmailId);
+                    attachments.add(com.resend.services.emails.model.Attachment.builder()
+                            .fileName(fileName)
+                            .content(base64Content)
+                            .build());
 
-        } catch (ResendException e) {
-            System.err.println("Error enviando correo con Resend: " + e.getMessage());
-            e.printStackTrace();
-        } catch (Exception e) {
-            System.err.println("Error inesperado al enviar correo: " + e.getMessage());
-            e.printStackTrace();
+                } catch (Exception e) {
+                    System.err.println("Error procesando adjunto de URL " + ruta + ": " + e.getMessage());
+                }
+            }
         }
 
-        return guardarEmailRecord(destinatario, asunto, cuerpo, logNombresArchivos,
-                tratoId, exito, resendEmailId, tipoCorreoConsolidado);
+        // Agregar todos los adjuntos al correo
+        emailBuilder.attachments(attachments);
+
+        // Enviar a Resend
+        CreateEmailResponse response = resendClient.emails().send(emailBuilder.build());
+        return response.getId();
+    }
+
+    /**
+     * Envía un correo HTML sin adjuntos y devuelve el id de Resend. A diferencia de
+     * {@link #enviarCorreo}, no registra el envío y propaga el error para que la cola de
+     * salida decida si reintentar.
+     */
+    public String enviarCorreoSinRegistro(String destinatario, String asunto, String cuerpo) throws ResendException {
+        CreateEmailResponse response = resendClient.emails().send(construirCorreoSimple(destinatario, asunto, cuerpo));
+        return response.getId();
+    }
+
+    /**
+     * Envía varios correos sin adjuntos en una sola solicitud a Resend (máximo 100). Los ids
+     * devueltos siguen el orden de la lista recibida.
+     */
+    public List<String> enviarLoteSinRegistro(List<CorreoSaliente> correos) throws ResendException {
+        List<CreateEmailOptions> opciones = new ArrayList<>(correos.size());
+        for (CorreoSaliente correo : correos) {
+            opciones.add(construirCorreoSimple(correo.getDestinatario(), correo.getAsunto(), correo.getCuerpo()));
+        }
+
+        CreateBatchEmailsResponse response = resendClient.batch().send(opciones);
+        List<String> ids = new ArrayList<>(correos.size());
+        if (response.getData() != null) {
+            for (CreateEmailResponse enviado : response.getData()) {
+                ids.add(enviado.getId());
+            }
+        }
+        return ids;
+    }
+
+    public EmailRecord registrarEnvio(String destinatario, String asunto, String cuerpo,
+                                      boolean exito, String resendEmailId, String tipoCorreoConsolidado) {
+        return guardarEmailRecord(destinatario, asunto, cuerpo, null, null, exito, resendEmailId, tipoCorreoConsolidado);
+    }
+
+    private CreateEmailOptions construirCorreoSimple(String destinatario, String asunto, String cuerpo) {
+        return CreateEmailOptions.builder()
+                .from(fromEmail)
+                .to(new String[]{normalizarEmail(destinatario)})
+                .subject(asunto)
+                .html(procesarImagenesEmbebidas(cuerpo))
+                .build();
     }
 
     @Transactional
@@ -245,22 +316,6 @@ public class EmailService {
         return path.startsWith("http://") || path.startsWith("https://");
     }
 
-    private byte[] downloadFileFromUrl(String url) throws IOException {
-        URL fileUrl = new URL(url);
-        URLConnection connection = fileUrl.openConnection();
-        connection.setConnectTimeout(10000);
-        connection.setReadTimeout(15000);
-
-        int contentLength = connection.getContentLength();
-        if (contentLength > 10 * 1024 * 1024) {
-            throw new IOException("Archivo demasiado grande para procesar: " + contentLength + " bytes");
-        }
-
-        try (InputStream inputStream = connection.getInputStream()) {
-            return inputStream.readAllBytes();
-        }
-    }
-
     private String extractFileNameFromUrl(String url) {
         try {
             String[] parts = url.split("/");
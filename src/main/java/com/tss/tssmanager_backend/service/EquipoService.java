@@ -1,6 +1,7 @@
 package com.tss.tssmanager_backend.service;
 
 import com.tss.tssmanager_backend.dto.EquiposEstatusDTO;
+import com.tss.tssmanager_backend.entity.CuentaPorPagar;
 import com.tss.tssmanager_backend.entity.Equipo;
 import com.tss.tssmanager_backend.entity.EquiposEstatus;
 import com.tss.tssmanager_backend.entity.Plataforma;
@@ -12,6 +13,8 @@ import jakarta.persistence.EntityNotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Page;
@@ -19,7 +22,10 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 
@@ -46,7 +52,49 @@ public class EquipoService {
     @Autowired
     private SimService simService;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private CacheCalendario cacheCalendario;
+
     private static final Logger logger = LoggerFactory.getLogger(EquipoService.class);
+
+    private static final BigDecimal RECARGA_SIM_EXPIRADA = new BigDecimal("10.00");
+
+    private static final String SQL_EXPIRAR_EQUIPOS = """
+            UPDATE "Equipos" SET estatus = 'EXPIRADO'
+            WHERE estatus = 'ACTIVO' AND fecha_expiracion < ?
+            RETURNING id, imei, cliente_id, tipo, fecha_expiracion
+            """;
+
+    // SIMs POR_SEGUNDO de cualquier equipo expirado cuya recarga aún no es la de equipo expirado
+    private static final String SQL_RECARGA_SIMS_EXPIRADAS = """
+            UPDATE "SIMs" s SET recarga = ?
+            FROM "Equipos" e
+            WHERE s.equipo_imei = e.imei
+              AND e.estatus = 'EXPIRADO'
+              AND s.tarifa = 'POR_SEGUNDO'
+              AND (s.recarga IS NULL OR s.recarga <> ?)
+            RETURNING s.id
+            """;
+
+    // Mismo ajuste que SimService.actualizarRecargaPorCambioEstatusEquipo, para todas las SIMs a la vez
+    private static final String SQL_CUENTAS_SIMS_EXPIRADAS = """
+            UPDATE "Cuentas_por_Pagar" c SET
+                monto = ?,
+                saldo_pendiente = ? - COALESCE(c.monto_pagado, 0),
+                estatus = CASE
+                    WHEN ? - COALESCE(c.monto_pagado, 0) <= 0 THEN 'Pagado'
+                    WHEN COALESCE(c.monto_pagado, 0) > 0 THEN 'En proceso'
+                    ELSE c.estatus
+                END
+            WHERE c.sim_id = ANY(?) AND c.estatus IN ('Pendiente', 'En proceso')
+            RETURNING c.id, c.fecha_pago
+            """;
     public Iterable<Equipo> obtenerTodosLosEquipos() {
         return repository.findAllWithSimsOrderedByExpiration();
     }
@@ -398,24 +446,16 @@ public class EquipoService {
         return equipo.getFechaExpiracion().toLocalDate().isBefore(today);
     }
 
+    @Transactional
     public void checkExpiredEquipos() {
-        List<Equipo> equipos = repository.findAll();
-        LocalDate today = LocalDate.now();
-        for (Equipo equipo : equipos) {
-            if (equipo.getFechaExpiracion() != null &&
-                    equipo.getFechaExpiracion().toLocalDate().isBefore(today) &&
-                    equipo.getEstatus() == EstatusEquipoEnum.ACTIVO) {
-                equipo.setEstatus(EstatusEquipoEnum.EXPIRADO);
-                repository.save(equipo);
-            }
-        }
+        expirarEquipos(LocalDate.now());
     }
 
     public Map<Integer, Long> contarEquiposPorModelo() {
         Map<Integer, Long> conteoPorModelo = new HashMap<>();
-        repository.findAll().forEach(equipo -> {
-            conteoPorModelo.merge(equipo.getModeloId(), 1L, Long::sum);
-        });
+        for (Object[] fila : repository.contarPorModelo()) {
+            conteoPorModelo.put((Integer) fila[0], ((Number) fila[1]).longValue());
+        }
         return conteoPorModelo;
     }
 
@@ -665,40 +705,96 @@ public class EquipoService {
         }
     }
 
+    /**
+     * Expira en bloque los equipos activos con fecha de expiración vencida y ajusta la recarga de
+     * las SIM POR_SEGUNDO de los equipos expirados, junto con sus cuentas por pagar pendientes.
+     * Solo se descartan de la caché los equipos y cuentas que cambiaron.
+     */
     @Scheduled(cron = "0 0 0 * * ?")
     @Transactional
-    @CacheEvict(value = {"equipos", "dashboard-stats"}, allEntries = true)
     public void actualizarEquiposExpirados() {
-        List<Equipo> equipos = repository.findAllWithSims();
-        LocalDate today = LocalDate.now();
-
-        for (Equipo equipo : equipos) {
-            if (equipo.getFechaExpiracion() != null &&
-                    equipo.getFechaExpiracion().toLocalDate().isBefore(today) &&
-                    equipo.getEstatus() == EstatusEquipoEnum.ACTIVO) {
-                equipo.setEstatus(EstatusEquipoEnum.EXPIRADO);
-                repository.save(equipo);
+        long inicio = System.currentTimeMillis();
+        int expirados = expirarEquipos(LocalDate.now());
+
+        List<Integer> simIds = jdbcTemplate.queryForList(SQL_RECARGA_SIMS_EXPIRADAS, Integer.class,
+                RECARGA_SIM_EXPIRADA, RECARGA_SIM_EXPIRADA);
+
+        int cuentas = 0;
+        if (!simIds.isEmpty()) {
+            Integer[] ids = simIds.toArray(new Integer[0]);
+            List<Object[]> cuentasActualizadas = jdbcTemplate.query(SQL_CUENTAS_SIMS_EXPIRADAS,
+                    ps -> {
+                        ps.setBigDecimal(1, RECARGA_SIM_EXPIRADA);
+                        ps.setBigDecimal(2, RECARGA_SIM_EXPIRADA);
+                        ps.setBigDecimal(3, RECARGA_SIM_EXPIRADA);
+                        ps.setArray(4, ps.getConnection().createArrayOf("integer", ids));
+                    },
+                    (rs, n) -> new Object[]{rs.getInt(1), rs.getObject(2, LocalDate.class)});
+            for (Object[] cuenta : cuentasActualizadas) {
+                cacheCalendario.entidadCambiada(CacheCalendario.Fuente.CUENTAS_POR_PAGAR, CuentaPorPagar.class,
+                        cuenta[0], CacheCalendario.TODOS, (LocalDate) cuenta[1]);
             }
+            cuentas = cuentasActualizadas.size();
         }
 
-        for (Equipo equipo : equipos) {
-            if (equipo.getEstatus() == EstatusEquipoEnum.EXPIRADO &&
-                    equipo.getSimReferenciada() != null &&
-                    equipo.getSimReferenciada().getTarifa() == TarifaSimEnum.POR_SEGUNDO) {
+        logger.info("Expiración de equipos: {} equipos expirados, {} SIMs con recarga ajustada, {} cuentas por pagar actualizadas en {} ms",
+                expirados, simIds.size(), cuentas, System.currentTimeMillis() - inicio);
+    }
 
-                BigDecimal precioActual = equipo.getSimReferenciada().getRecarga();
+    // UPDATE ... RETURNING: solo se tocan (y se descartan de la caché) los equipos que expiran hoy
+    private int expirarEquipos(LocalDate hoy) {
+        List<Object[]> expirados = jdbcTemplate.query(SQL_EXPIRAR_EQUIPOS,
+                (rs, n) -> new Object[]{rs.getInt("id"), rs.getString("imei"), rs.getObject("cliente_id"),
+                        rs.getString("tipo"), rs.getObject("fecha_expiracion", LocalDate.class)},
+                Date.valueOf(hoy));
+        if (expirados.isEmpty()) {
+            return 0;
+        }
 
-                if (precioActual == null || precioActual.compareTo(new BigDecimal("10.00")) != 0) {
-                    try {
-                        simService.actualizarRecargaPorCambioEstatusEquipo(
-                                equipo.getSimReferenciada().getId(),
-                                new BigDecimal("10.00")
-                        );
-                    } catch (Exception e) {
-                        System.err.println("Error al actualizar recarga de SIM: " + e.getMessage());
-                    }
-                }
+        List<Object> claves = new ArrayList<>();
+        Set<String> tipos = new HashSet<>();
+        for (Object[] equipo : expirados) {
+            claves.add(equipo[0]);
+            claves.add(equipo[1]);
+            if (equipo[2] != null) {
+                claves.add("cliente_" + equipo[2]);
+            }
+            tipos.add((String) equipo[3]);
+            cacheCalendario.entidadCambiada(CacheCalendario.Fuente.EQUIPOS, Equipo.class, equipo[0],
+                    CacheCalendario.TODOS, (LocalDate) equipo[4]);
+        }
+        for (String tipo : tipos) {
+            claves.add("tipo_" + tipo + "_estatus_" + EstatusEquipoEnum.ACTIVO);
+            claves.add("tipo_" + tipo + "_estatus_" + EstatusEquipoEnum.EXPIRADO);
+        }
+        descartarDeCache(claves);
+        return expirados.size();
+    }
+
+    /**
+     * Descarta las claves de la caché de equipos y las estadísticas del tablero en cuanto se
+     * llama y otra vez al terminar la transacción, para que una lectura concurrente no vuelva a
+     * guardar los datos anteriores a la actualización.
+     */
+    private void descartarDeCache(Collection<Object> claves) {
+        Runnable descarte = () -> {
+            Cache equipos = cacheManager.getCache("equipos");
+            if (equipos != null) {
+                claves.forEach(equipos::evict);
             }
+            Cache estadisticas = cacheManager.getCache("dashboard-stats");
+            if (estadisticas != null) {
+                estadisticas.clear();
+            }
+        };
+        descarte.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    descarte.run();
+                }
+            });
         }
     }
 
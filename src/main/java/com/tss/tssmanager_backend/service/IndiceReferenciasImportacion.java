@@ -0,0 +1,307 @@
+package com.tss.tssmanager_backend.service;
+
+import com.tss.tssmanager_backend.entity.Equipo;
+import com.tss.tssmanager_backend.entity.Plataforma;
+import com.tss.tssmanager_backend.entity.Sim;
+import com.tss.tssmanager_backend.repository.*;
+import org.apache.commons.csv.CSVRecord;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Índice de referencias con alcance de una importación. Antes de procesar cada lote se
+ * resuelven en bloque (consultas IN) las llaves foráneas distintas que aparecen en él, de
+ * modo que el procesamiento fila por fila resuelve contactos, empresas, usuarios, sectores,
+ * modelos, proveedores, plataformas, equipos y SIMs en memoria.
+ */
+public class IndiceReferenciasImportacion {
+
+    private static final int TAMANO_BLOQUE_IN = 1000;
+
+    private final ContactoRepository contactoRepository;
+    private final EmpresaRepository empresaRepository;
+    private final UsuarioRepository usuarioRepository;
+    private final SectorRepository sectorRepository;
+    private final ModeloEquipoRepository modeloRepository;
+    private final ProveedorEquipoRepository proveedorRepository;
+    private final PlataformaRepository plataformaRepository;
+    private final EquipoRepository equipoRepository;
+    private final SimRepository simRepository;
+
+    // Ids conocidos durante toda la importación: true si existe, false si no existe
+    private final Map<Integer, Boolean> contactos = new HashMap<>();
+    private final Map<Integer, Boolean> empresas = new HashMap<>();
+    private final Map<Integer, Boolean> usuarios = new HashMap<>();
+    private final Map<Integer, Boolean> modelos = new HashMap<>();
+    private final Map<Integer, Boolean> proveedores = new HashMap<>();
+    private final Map<String, Integer> sectores = new HashMap<>();
+    private final Set<String> sectoresInexistentes = new HashSet<>();
+    private final List<String> sectoresCreadosEnLote = new ArrayList<>();
+    private Map<String, Plataforma> plataformas;
+
+    // Entidades referenciadas por llave natural; solo se conservan las del lote actual
+    private final Map<String, Equipo> equiposPorImei = new HashMap<>();
+    private final Map<String, Sim> simsPorNumero = new HashMap<>();
+
+    private long consultas;
+    private long aciertos;
+    private long fallos;
+
+    public IndiceReferenciasImportacion(ContactoRepository contactoRepository,
+                                        EmpresaRepository empresaRepository,
+                                        UsuarioRepository usuarioRepository,
+                                        SectorRepository sectorRepository,
+                                        ModeloEquipoRepository modeloRepository,
+                                        ProveedorEquipoRepository proveedorRepository,
+                                        PlataformaRepository plataformaRepository,
+                                        EquipoRepository equipoRepository,
+                                        SimRepository simRepository) {
+        this.contactoRepository = contactoRepository;
+        this.empresaRepository = empresaRepository;
+        this.usuarioRepository = usuarioRepository;
+        this.sectorRepository = sectorRepository;
+        this.modeloRepository = modeloRepository;
+        this.proveedorRepository = proveedorRepository;
+        this.plataformaRepository = plataformaRepository;
+        this.equipoRepository = equipoRepository;
+        this.simRepository = simRepository;
+    }
+
+    /**
+     * Resuelve en bloque las referencias del lote que todavía no están en el índice.
+     */
+    public void precargar(List<CSVRecord> lote, String tipoDatos, Integer usuarioId) {
+        equiposPorImei.clear();
+        simsPorNumero.clear();
+
+        switch (tipoDatos) {
+            case "tratos":
+                precargarIds(contactos, columnaEntera(lote, "contacto_id"), contactoRepository::findIdsByIdIn);
+                precargarIds(empresas, columnaEntera(lote, "empresa_id"), empresaRepository::findIdsByIdIn);
+                precargarIds(usuarios, propietarios(lote, usuarioId), usuarioRepository::findIdsByIdIn);
+                break;
+            case "empresas":
+                precargarIds(usuarios, propietarios(lote, usuarioId), usuarioRepository::findIdsByIdIn);
+                precargarSectores(lote);
+                break;
+            case "contactos":
+                precargarIds(empresas, columnaEntera(lote, "empresa_id"), empresaRepository::findIdsByIdIn);
+                precargarIds(usuarios, propietarios(lote, usuarioId), usuarioRepository::findIdsByIdIn);
+                break;
+            case "correoContactos":
+                precargarIds(contactos, columnaEntera(lote, "contacto_id"), contactoRepository::findIdsByIdIn);
+                break;
+            case "equipos":
+                precargarIds(modelos, columnaEntera(lote, "modelo_id"), modeloRepository::findIdsByIdIn);
+                precargarIds(proveedores, columnaEntera(lote, "proveedor_id"), proveedorRepository::findIdsByIdIn);
+                if (plataformas == null) {
+                    plataformas = new HashMap<>();
+                    for (Plataforma plataforma : plataformaRepository.findAll()) {
+                        plataformas.put(plataforma.getNombrePlataforma(), plataforma);
+                    }
+                    consultas++;
+                }
+                break;
+            case "sims":
+                Set<String> imeis = columnaTexto(lote, "equipo_imei");
+                for (List<String> bloque : enBloques(imeis)) {
+                    for (Equipo equipo : equipoRepository.findByImeiIn(bloque)) {
+                        equiposPorImei.put(equipo.getImei(), equipo);
+                    }
+                    consultas++;
+                }
+                break;
+            case "historialSaldos":
+                Set<String> numeros = columnaTexto(lote, "sim_numero");
+                for (List<String> bloque : enBloques(numeros)) {
+                    for (Sim sim : simRepository.findByNumeroIn(bloque)) {
+                        simsPorNumero.put(sim.getNumero(), sim);
+                    }
+                    consultas++;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    public boolean existeContacto(Integer id) {
+        return resolverId(contactos, id);
+    }
+
+    public boolean existeEmpresa(Integer id) {
+        return resolverId(empresas, id);
+    }
+
+    public boolean existeUsuario(Integer id) {
+        return resolverId(usuarios, id);
+    }
+
+    public boolean existeModelo(Integer id) {
+        return resolverId(modelos, id);
+    }
+
+    public boolean existeProveedor(Integer id) {
+        return resolverId(proveedores, id);
+    }
+
+    public Integer obtenerSectorId(String nombreSector) {
+        Integer id = sectores.get(nombreSector.trim().toLowerCase());
+        contar(id != null);
+        return id;
+    }
+
+    public Plataforma obtenerPlataforma(String nombrePlataforma) {
+        Plataforma plataforma = plataformas != null ? plataformas.get(nombrePlataforma) : null;
+        contar(plataforma != null);
+        return plataforma;
+    }
+
+    public Optional<Equipo> obtenerEquipoPorImei(String imei) {
+        Equipo equipo = equiposPorImei.get(imei);
+        contar(equipo != null);
+        return Optional.ofNullable(equipo);
+    }
+
+    public Optional<Sim> obtenerSimPorNumero(String numero) {
+        Sim sim = simsPorNumero.get(numero);
+        contar(sim != null);
+        return Optional.ofNullable(sim);
+    }
+
+    /**
+     * Registra un sector creado dentro de la transacción del lote en curso. Se descarta con
+     * {@link #revertirLote()} si esa transacción no llega a confirmarse.
+     */
+    public void registrarSectorCreado(String nombreSector, Integer sectorId) {
+        String llave = nombreSector.trim().toLowerCase();
+        sectores.put(llave, sectorId);
+        sectoresInexistentes.remove(llave);
+        sectoresCreadosEnLote.add(llave);
+    }
+
+    public void confirmarLote() {
+        sectoresCreadosEnLote.clear();
+    }
+
+    public void revertirLote() {
+        for (String llave : sectoresCreadosEnLote) {
+            sectores.remove(llave);
+            sectoresInexistentes.add(llave);
+        }
+        sectoresCreadosEnLote.clear();
+    }
+
+    public String resumen() {
+        return "consultas=" + consultas + ", aciertos=" + aciertos + ", fallos=" + fallos;
+    }
+
+    public long getConsultas() {
+        return consultas;
+    }
+
+    public long getAciertos() {
+        return aciertos;
+    }
+
+    public long getFallos() {
+        return fallos;
+    }
+
+    private boolean resolverId(Map<Integer, Boolean> catalogo, Integer id) {
+        boolean existe = id != null && Boolean.TRUE.equals(catalogo.get(id));
+        contar(existe);
+        return existe;
+    }
+
+    private void contar(boolean acierto) {
+        if (acierto) {
+            aciertos++;
+        } else {
+            fallos++;
+        }
+    }
+
+    private void precargarIds(Map<Integer, Boolean> catalogo, Set<Integer> ids,
+                              Function<Collection<Integer>, List<Integer>> consulta) {
+        ids.removeAll(catalogo.keySet());
+        for (List<Integer> bloque : enBloques(ids)) {
+            Set<Integer> encontrados = new HashSet<>(consulta.apply(bloque));
+            consultas++;
+            for (Integer id : bloque) {
+                catalogo.put(id, encontrados.contains(id));
+            }
+        }
+    }
+
+    private void precargarSectores(List<CSVRecord> lote) {
+        Set<String> nombres = new HashSet<>();
+        for (String nombre : columnaTexto(lote, "sector")) {
+            String llave = nombre.trim().toLowerCase();
+            if (!sectores.containsKey(llave) && !sectoresInexistentes.contains(llave)) {
+                nombres.add(llave);
+            }
+        }
+        for (List<String> bloque : enBloques(nombres)) {
+            for (Object[] fila : sectorRepository.findIdAndNombreByNombreLowerIn(bloque)) {
+                sectores.put(((String) fila[1]).toLowerCase(), (Integer) fila[0]);
+            }
+            consultas++;
+            for (String llave : bloque) {
+                if (!sectores.containsKey(llave)) {
+                    sectoresInexistentes.add(llave);
+                }
+            }
+        }
+    }
+
+    private Set<Integer> propietarios(List<CSVRecord> lote, Integer usuarioId) {
+        Set<Integer> ids = columnaEntera(lote, "propietario_id");
+        if (usuarioId != null) {
+            ids.add(usuarioId);
+        }
+        return ids;
+    }
+
+    private Set<Integer> columnaEntera(List<CSVRecord> lote, String columna) {
+        Set<Integer> valores = new HashSet<>();
+        for (String valor : columnaTexto(lote, columna)) {
+            try {
+                valores.add(Integer.parseInt(valor.trim()));
+            } catch (NumberFormatException e) {
+                // El error de formato se reporta al procesar la fila
+            }
+        }
+        return valores;
+    }
+
+    private Set<String> columnaTexto(List<CSVRecord> lote, String columna) {
+        Set<String> valores = new HashSet<>();
+        for (CSVRecord record : lote) {
+            if (record.isMapped(columna) && record.isSet(columna)) {
+                String valor = record.get(columna);
+                if (valor != null && !valor.trim().isEmpty()) {
+                    valores.add(valor);
+                }
+            }
+        }
+        return valores;
+    }
+
+    private <T> List<List<T>> enBloques(Collection<T> valores) {
+        List<List<T>> bloques = new ArrayList<>();
+        List<T> bloque = new ArrayList<>(Math.min(valores.size(), TAMANO_BLOQUE_IN));
+        for (T valor : valores) {
+            bloque.add(valor);
+            if (bloque.size() == TAMANO_BLOQUE_IN) {
+                bloques.add(bloque);
+                bloque = new ArrayList<>(TAMANO_BLOQUE_IN);
+            }
+        }
+        if (!bloque.isEmpty()) {
+            bloques.add(bloque);
+        }
+        return bloques;
+    }
+}
@@ -0,0 +1,126 @@
+package com.tss.tssmanager_backend.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tss.tssmanager_backend.enums.TarifaSimEnum;
+import com.tss.tssmanager_backend.repository.HistorialSaldosSimRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Índice en memoria del último saldo registrado de cada SIM. Los faltantes se resuelven con una
+ * sola consulta (LATERAL ... LIMIT 1 por SIM) en lugar de cargar el historial completo de cada
+ * una. Se invalida la SIM al guardar, editar, aprobar o eliminar registros de su historial; la
+ * expiración cubre los cambios hechos fuera de la aplicación (limpiezas, importaciones).
+ */
+@Component
+public class IndiceSaldosSim {
+
+    @Autowired
+    private HistorialSaldosSimRepository historialSaldosSimRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Cache<Integer, UltimoSaldo> saldos;
+
+    public IndiceSaldosSim(@Value("${sims.saldos.cache.maximo:20000}") long maximo,
+                           @Value("${sims.saldos.cache.expiracion-minutos:30}") long expiracionMinutos) {
+        this.saldos = Caffeine.newBuilder()
+                .maximumSize(maximo)
+                .expireAfterWrite(Duration.ofMinutes(expiracionMinutos))
+                .recordStats()
+                .build();
+    }
+
+    @PostConstruct
+    public void inicializar() {
+        CaffeineCacheMetrics.monitor(meterRegistry, saldos, "sims-ultimo-saldo");
+    }
+
+    /**
+     * Último saldo de cada SIM indicada. Las SIM que no existen no aparecen en el resultado; las
+     * que existen sin historial aparecen con {@link UltimoSaldo#tieneRegistro()} en falso.
+     */
+    public Map<Integer, UltimoSaldo> obtener(Collection<Integer> simIds) {
+        if (simIds == null || simIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Set<Integer> ids = new HashSet<>(simIds);
+        ids.remove(null);
+        return saldos.getAll(ids, this::cargar);
+    }
+
+    public Optional<UltimoSaldo> obtener(Integer simId) {
+        return simId == null ? Optional.empty() : Optional.ofNullable(obtener(List.of(simId)).get(simId));
+    }
+
+    // Se descarta ya y otra vez al terminar la transacción, para que una lectura concurrente no
+    // vuelva a guardar el saldo anterior al commit
+    public void invalidar(Integer simId) {
+        if (simId == null) {
+            return;
+        }
+        saldos.invalidate(simId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    saldos.invalidate(simId);
+                }
+            });
+        }
+    }
+
+    public void invalidarTodo() {
+        saldos.invalidateAll();
+    }
+
+    private Map<Integer, UltimoSaldo> cargar(Set<? extends Integer> simIds) {
+        Map<Integer, UltimoSaldo> resultado = new HashMap<>();
+        for (Object[] row : historialSaldosSimRepository.findUltimosSaldosBySimIds(new ArrayList<>(simIds))) {
+            Integer simId = ((Number) row[0]).intValue();
+            resultado.put(simId, new UltimoSaldo(
+                    simId,
+                    row[1] != null ? TarifaSimEnum.valueOf(row[1].toString()) : null,
+                    row[2] != null ? ((Number) row[2]).intValue() : null,
+                    (BigDecimal) row[3],
+                    (BigDecimal) row[4],
+                    (Date) row[5],
+                    Boolean.TRUE.equals(row[6])));
+        }
+        return resultado;
+    }
+
+    public record UltimoSaldo(Integer simId, TarifaSimEnum tarifa, Integer historialId,
+                              BigDecimal saldoActual, BigDecimal datos, Date fecha, boolean revisado) {
+
+        public boolean tieneRegistro() {
+            return historialId != null;
+        }
+
+        // Texto que muestra la lista de SIMs según la tarifa
+        public String descripcion() {
+            if (!tieneRegistro()) {
+                return "Sin registros";
+            }
+            if (tarifa == TarifaSimEnum.POR_SEGUNDO && saldoActual != null) {
+                return "$" + saldoActual;
+            } else if ((tarifa == TarifaSimEnum.SIN_LIMITE || tarifa == TarifaSimEnum.M2M_GLOBAL_15) && datos != null) {
+                return datos.intValue() + " MB";
+            }
+            return "N/A";
+        }
+    }
+}
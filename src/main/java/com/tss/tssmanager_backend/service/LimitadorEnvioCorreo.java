@@ -0,0 +1,61 @@
+package com.tss.tssmanager_backend.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Límite de solicitudes por segundo a Resend, compartido por todos los procesos que envían
+ * correo (cola de salida, campañas de seguimiento) porque el límite es de la cuenta y no de
+ * cada proceso. Es una cubeta de tokens que se recarga continuamente a la tasa configurada y
+ * admite una ráfaga de hasta un segundo de solicitudes.
+ */
+@Component
+public class LimitadorEnvioCorreo {
+
+    private final double capacidad;
+    private final double tokensPorNano;
+    private double tokens;
+    private long ultimaRecarga;
+
+    public LimitadorEnvioCorreo(@Value("${correo.cola.solicitudes-por-segundo:2}") double solicitudesPorSegundo) {
+        this.capacidad = Math.max(1, solicitudesPorSegundo);
+        this.tokensPorNano = solicitudesPorSegundo / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = capacidad;
+        this.ultimaRecarga = System.nanoTime();
+    }
+
+    public void adquirir() throws InterruptedException {
+        long espera;
+        while ((espera = reservar()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(espera);
+        }
+    }
+
+    // Tras una respuesta 429 se deja de enviar hasta que la cubeta se recargue
+    public synchronized void vaciar() {
+        recargar();
+        tokens = 0;
+    }
+
+    public static boolean esLimiteDeTasa(Exception e) {
+        String mensaje = e.getMessage();
+        return mensaje != null && (mensaje.contains("429") || mensaje.toLowerCase().contains("rate limit"));
+    }
+
+    private synchronized long reservar() {
+        recargar();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPorNano);
+    }
+
+    private void recargar() {
+        long ahora = System.nanoTime();
+        tokens = Math.min(capacidad, tokens + (ahora - ultimaRecarga) * tokensPorNano);
+        ultimaRecarga = ahora;
+    }
+}
@@ -0,0 +1,268 @@
+package com.tss.tssmanager_backend.service;
+
+import com.tss.tssmanager_backend.dto.ProgresoLimpiezaDTO;
+import com.tss.tssmanager_backend.entity.HistorialLimpieza;
+import com.tss.tssmanager_backend.repository.HistorialLimpiezaRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Borra los registros antiguos de tablas grandes en lotes acotados por rango de id, cada lote en
+ * su propia transacción y con una pausa entre lotes, para no retener bloqueos ni generar un pico
+ * de WAL. Tras cada lote se guarda el último id procesado en el historial de limpieza, de modo
+ * que una limpieza interrumpida (reinicio, error) continúa desde ese punto con la misma fecha de
+ * corte. Solo admite tablas sin dependientes; el resto sigue usando limpiar_registros_antiguos.
+ */
+@Service
+@Slf4j
+public class LimpiezaPorLotesService {
+
+    // Tabla -> columna de fecha que decide la antigüedad del registro
+    private static final Map<String, String> COLUMNAS_FECHA = Map.of(
+            "Auditoria", "fecha",
+            "Notificaciones", "fecha_creacion",
+            "Historial_Saldos_SIMs", "fecha",
+            "Equipos_Estatus", "fecha_check"
+    );
+
+    private static final List<String> ESTADOS_REANUDABLES =
+            List.of(HistorialLimpieza.ESTADO_EN_PROCESO, HistorialLimpieza.ESTADO_INTERRUMPIDA);
+
+    private static final String SQL_LOTE = """
+            WITH lote AS (
+                SELECT id FROM "%1$s"
+                WHERE %2$s < ? AND id > ?
+                ORDER BY id
+                LIMIT ?
+            ), borrados AS (
+                DELETE FROM "%1$s" t USING lote WHERE t.id = lote.id
+                RETURNING t.id
+            )
+            SELECT COUNT(*), COALESCE(MAX(id), 0) FROM borrados
+            """;
+
+    private static final int LOTES_POR_REPORTE = 20;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSource dataSource;
+    private final HistorialLimpiezaRepository historialRepository;
+    private final IndiceSaldosSim indiceSaldosSim;
+    private final TransactionTemplate transactionTemplate;
+    private final int tamanoLote;
+    private final long pausaMs;
+
+    private final Map<String, ProgresoLimpiezaDTO> enCurso = new ConcurrentHashMap<>();
+    private volatile boolean detenido;
+
+    public LimpiezaPorLotesService(JdbcTemplate jdbcTemplate, DataSource dataSource,
+                                   HistorialLimpiezaRepository historialRepository,
+                                   IndiceSaldosSim indiceSaldosSim,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${almacenamiento.limpieza.tamano-lote:5000}") int tamanoLote,
+                                   @Value("${almacenamiento.limpieza.pausa-ms:200}") long pausaMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSource = dataSource;
+        this.historialRepository = historialRepository;
+        this.indiceSaldosSim = indiceSaldosSim;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.tamanoLote = Math.max(1, tamanoLote);
+        this.pausaMs = Math.max(0, pausaMs);
+    }
+
+    public boolean admiteTabla(String tablaNombre) {
+        return COLUMNAS_FECHA.containsKey(tablaNombre);
+    }
+
+    public List<ProgresoLimpiezaDTO> obtenerProgreso() {
+        return new ArrayList<>(enCurso.values());
+    }
+
+    /**
+     * Elimina los registros de la tabla anteriores a hoy menos {@code diasRetencion}. Si la tabla
+     * tiene una limpieza pendiente con la misma fecha de corte, la continúa; una pendiente con
+     * otro corte se descarta y se empieza de nuevo.
+     */
+    public HistorialLimpieza limpiar(String tablaNombre, int diasRetencion, String tipoLimpieza,
+                                     Integer usuarioId, boolean vacuum) {
+        if (!admiteTabla(tablaNombre)) {
+            throw new IllegalArgumentException("La tabla " + tablaNombre + " no admite limpieza por lotes");
+        }
+
+        LocalDate fechaCorte = LocalDate.now().minusDays(diasRetencion);
+        HistorialLimpieza puntoControl = transactionTemplate.execute(status -> {
+            Optional<HistorialLimpieza> pendiente = historialRepository
+                    .findFirstByTablaNombreAndEstadoInOrderByFechaLimpiezaDesc(tablaNombre, ESTADOS_REANUDABLES);
+            if (pendiente.isPresent() && fechaCorte.equals(pendiente.get().getFechaCorte())) {
+                return pendiente.get();
+            }
+            pendiente.ifPresent(anterior -> {
+                anterior.setEstado(HistorialLimpieza.ESTADO_DESCARTADA);
+                anterior.setFechaFinalizacion(LocalDateTime.now());
+                historialRepository.save(anterior);
+            });
+
+            HistorialLimpieza nuevo = new HistorialLimpieza();
+            nuevo.setTablaNombre(tablaNombre);
+            nuevo.setRegistrosEliminados(0);
+            nuevo.setTipoLimpieza(tipoLimpieza);
+            nuevo.setUsuarioId(usuarioId);
+            nuevo.setEstado(HistorialLimpieza.ESTADO_EN_PROCESO);
+            nuevo.setFechaCorte(fechaCorte);
+            nuevo.setUltimoIdProcesado(0L);
+            nuevo.setDescripcion("Limpieza por lotes de registros anteriores a " + fechaCorte);
+            return historialRepository.save(nuevo);
+        });
+
+        return ejecutar(puntoControl, vacuum);
+    }
+
+    // Continúa las limpiezas que quedaron a medias (p. ej. por un reinicio de la aplicación)
+    public int reanudarPendientes(boolean vacuum) {
+        int reanudadas = 0;
+        for (HistorialLimpieza pendiente : historialRepository.findByEstadoIn(ESTADOS_REANUDABLES)) {
+            if (!admiteTabla(pendiente.getTablaNombre()) || enCurso.containsKey(pendiente.getTablaNombre())) {
+                continue;
+            }
+            try {
+                ejecutar(pendiente, vacuum);
+                reanudadas++;
+            } catch (Exception e) {
+                log.error("No se pudo reanudar la limpieza de {}: {}", pendiente.getTablaNombre(), e.getMessage(), e);
+            }
+        }
+        return reanudadas;
+    }
+
+    @PreDestroy
+    public void detener() {
+        detenido = true;
+    }
+
+    private HistorialLimpieza ejecutar(HistorialLimpieza puntoControl, boolean vacuum) {
+        String tabla = puntoControl.getTablaNombre();
+        String sql = String.format(SQL_LOTE, tabla, COLUMNAS_FECHA.get(tabla));
+        long eliminadosPrevios = puntoControl.getRegistrosEliminados() != null ? puntoControl.getRegistrosEliminados() : 0;
+        long ultimoIdInicial = puntoControl.getUltimoIdProcesado() != null ? puntoControl.getUltimoIdProcesado() : 0L;
+
+        ProgresoLimpiezaDTO progreso = new ProgresoLimpiezaDTO(tabla, puntoControl.getId(), puntoControl.getFechaCorte(),
+                eliminadosPrevios, ultimoIdInicial, 0, 0.0, LocalDateTime.now());
+        if (enCurso.putIfAbsent(tabla, progreso) != null) {
+            throw new IllegalStateException("Ya hay una limpieza en curso para la tabla " + tabla);
+        }
+
+        log.info("Limpieza por lotes de {}: registros anteriores a {}, desde el id {}, lotes de {}",
+                tabla, puntoControl.getFechaCorte(), ultimoIdInicial, tamanoLote);
+        long inicio = System.nanoTime();
+        long eliminadosEnEstaEjecucion = 0;
+
+        try {
+            while (true) {
+                if (detenido || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException("Aplicación deteniéndose");
+                }
+
+                long[] lote = transactionTemplate.execute(status -> {
+                    long[] resultado = jdbcTemplate.queryForObject(sql,
+                            (rs, n) -> new long[]{rs.getLong(1), rs.getLong(2)},
+                            puntoControl.getFechaCorte(), puntoControl.getUltimoIdProcesado(), tamanoLote);
+                    if (resultado[0] > 0) {
+                        // El punto de control se confirma junto con el lote que registra
+                        puntoControl.setRegistrosEliminados(Math.toIntExact(
+                                puntoControl.getRegistrosEliminados() + resultado[0]));
+                        puntoControl.setUltimoIdProcesado(resultado[1]);
+                        historialRepository.save(puntoControl);
+                    }
+                    return resultado;
+                });
+
+                eliminadosEnEstaEjecucion += lote[0];
+                double segundos = Math.max((System.nanoTime() - inicio) / 1_000_000_000.0, 0.001);
+                progreso.setRegistrosEliminados(puntoControl.getRegistrosEliminados().longValue());
+                progreso.setUltimoIdProcesado(puntoControl.getUltimoIdProcesado());
+                progreso.setLotesProcesados(progreso.getLotesProcesados() + 1);
+                progreso.setRegistrosPorSegundo(eliminadosEnEstaEjecucion / segundos);
+
+                if (progreso.getLotesProcesados() % LOTES_POR_REPORTE == 0) {
+                    log.info("Limpieza de {}: {} registros eliminados, último id {}, {} registros/s",
+                            tabla, progreso.getRegistrosEliminados(), progreso.getUltimoIdProcesado(),
+                            Math.round(progreso.getRegistrosPorSegundo()));
+                }
+
+                if (lote[0] < tamanoLote) {
+                    break;
+                }
+                if (pausaMs > 0) {
+                    Thread.sleep(pausaMs);
+                }
+            }
+
+            puntoControl.setEstado(HistorialLimpieza.ESTADO_COMPLETADA);
+            puntoControl.setFechaFinalizacion(LocalDateTime.now());
+            HistorialLimpieza completada = transactionTemplate.execute(status -> historialRepository.save(puntoControl));
+
+            log.info("Limpieza por lotes de {} completada: {} registros en {} lotes, {} ms ({} registros/s)",
+                    tabla, completada.getRegistrosEliminados(), progreso.getLotesProcesados(),
+                    (System.nanoTime() - inicio) / 1_000_000, Math.round(progreso.getRegistrosPorSegundo()));
+
+            if ("Historial_Saldos_SIMs".equals(tabla) && completada.getRegistrosEliminados() > 0) {
+                indiceSaldosSim.invalidarTodo();
+            }
+            if (vacuum) {
+                vacuumAnalyze(tabla);
+            }
+            return completada;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            marcarInterrumpida(puntoControl);
+            throw new IllegalStateException("Limpieza de " + tabla + " interrumpida en el id " +
+                    puntoControl.getUltimoIdProcesado(), e);
+        } catch (RuntimeException e) {
+            marcarInterrumpida(puntoControl);
+            throw e;
+        } finally {
+            enCurso.remove(tabla);
+        }
+    }
+
+    private void marcarInterrumpida(HistorialLimpieza puntoControl) {
+        try {
+            puntoControl.setEstado(HistorialLimpieza.ESTADO_INTERRUMPIDA);
+            transactionTemplate.executeWithoutResult(status -> historialRepository.save(puntoControl));
+            log.warn("Limpieza de {} interrumpida tras {} registros; se reanudará desde el id {}",
+                    puntoControl.getTablaNombre(), puntoControl.getRegistrosEliminados(), puntoControl.getUltimoIdProcesado());
+        } catch (Exception e) {
+            log.error("No se pudo guardar el punto de control de {}", puntoControl.getTablaNombre(), e);
+        }
+    }
+
+    // VACUUM no puede ejecutarse dentro de una transacción: se usa una conexión en autocommit
+    private void vacuumAnalyze(String tabla) {
+        long inicio = System.currentTimeMillis();
+        try (Connection conexion = dataSource.getConnection()) {
+            conexion.setAutoCommit(true);
+            try (Statement statement = conexion.createStatement()) {
+                statement.execute("VACUUM (ANALYZE) \"" + tabla + "\"");
+            }
+            log.info("VACUUM ANALYZE de {} completado en {} ms", tabla, System.currentTimeMillis() - inicio);
+        } catch (Exception e) {
+            log.warn("No se pudo ejecutar VACUUM ANALYZE sobre {}: {}", tabla, e.getMessage());
+        }
+    }
+}
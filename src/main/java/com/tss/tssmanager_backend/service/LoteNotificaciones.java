@@ -0,0 +1,54 @@
+package com.tss.tssmanager_backend.service;
+
+import com.tss.tssmanager_backend.entity.Usuario;
+
+import java.util.*;
+
+/**
+ * Notificaciones acumuladas durante una ejecución (por ejemplo, la revisión de cuentas) para
+ * guardarlas juntas con {@link NotificacionService#guardarLote(LoteNotificaciones)}. Las
+ * repetidas dentro del lote se descartan al agregarlas.
+ */
+public class LoteNotificaciones {
+
+    private final Set<Clave> claves = new LinkedHashSet<>();
+
+    public void agregar(Usuario usuario, String tipo, String mensaje) {
+        if (usuario != null && usuario.getId() != null) {
+            claves.add(new Clave(usuario.getId(), tipo, mensaje));
+        }
+    }
+
+    public void agregar(Collection<Usuario> usuarios, String tipo, String mensaje) {
+        for (Usuario usuario : usuarios) {
+            agregar(usuario, tipo, mensaje);
+        }
+    }
+
+    public boolean isEmpty() {
+        return claves.isEmpty();
+    }
+
+    public int size() {
+        return claves.size();
+    }
+
+    Set<Clave> getClaves() {
+        return claves;
+    }
+
+    Set<Integer> getUsuarioIds() {
+        Set<Integer> ids = new HashSet<>();
+        claves.forEach(clave -> ids.add(clave.usuarioId()));
+        return ids;
+    }
+
+    Set<String> getTipos() {
+        Set<String> tipos = new HashSet<>();
+        claves.forEach(clave -> tipos.add(clave.tipo()));
+        return tipos;
+    }
+
+    record Clave(Integer usuarioId, String tipo, String mensaje) {
+    }
+}
@@ -0,0 +1,191 @@
+package com.tss.tssmanager_backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pasa al {@link AlmacenArchivos} los adjuntos de cotizaciones que todavía están en las columnas
+ * LOB antiguas (notas_comerciales_contenido, ficha_tecnica_contenido). Se hace en dos pasos:
+ * <ol>
+ *     <li>Copia: cada archivo sin referencia se copia leyendo la columna como flujo y se guardan
+ *     referencia, tamaño y hash. La columna original se conserva.</li>
+ *     <li>Liberación, solo con {@code archivos.migracion.liberar-contenido=true}: se vacía la
+ *     columna (liberando el large object cuando es de tipo oid) de las filas cuyo archivo existe
+ *     en el almacén con el tamaño y el hash registrados.</li>
+ * </ol>
+ * Cada archivo va en su propia transacción. Si las columnas ya no existen no hace nada.
+ */
+@Service
+@Slf4j
+public class MigracionArchivosCotizacion {
+
+    private static final List<String> COLUMNAS = List.of("notas_comerciales", "ficha_tecnica");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final AlmacenArchivos almacenArchivos;
+    private final boolean liberarContenido;
+
+    public MigracionArchivosCotizacion(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                       AlmacenArchivos almacenArchivos,
+                                       @Value("${archivos.migracion.liberar-contenido:false}") boolean liberarContenido) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.almacenArchivos = almacenArchivos;
+        this.liberarContenido = liberarContenido;
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrar() {
+        for (String columna : COLUMNAS) {
+            try {
+                migrarColumna(columna);
+            } catch (Exception e) {
+                log.error("Error al migrar los archivos {} de cotizaciones: {}", columna, e.getMessage(), e);
+            }
+        }
+    }
+
+    private void migrarColumna(String columna) {
+        List<String> tipos = jdbcTemplate.queryForList(
+                "SELECT data_type FROM information_schema.columns WHERE table_name = 'Cotizaciones' AND column_name = ?",
+                String.class, columna + "_contenido");
+        if (tipos.isEmpty()) {
+            return;
+        }
+        boolean esOid = "oid".equalsIgnoreCase(tipos.get(0));
+
+        List<Integer> pendientes = buscar(columna, columna + "_archivo IS NULL");
+        if (!pendientes.isEmpty()) {
+            log.info("Copiando {} archivos {} de cotizaciones al almacén", pendientes.size(), columna);
+            int copiados = 0;
+            for (Integer id : pendientes) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> copiarArchivo(id, columna, esOid));
+                    copiados++;
+                } catch (Exception e) {
+                    log.error("No se pudo copiar el archivo {} de la cotización {}: {}", columna, id, e.getMessage());
+                }
+            }
+            log.info("Archivos {} de cotizaciones copiados: {} de {}", columna, copiados, pendientes.size());
+        }
+
+        List<Integer> copiados = buscar(columna, columna + "_archivo IS NOT NULL");
+        if (copiados.isEmpty()) {
+            return;
+        }
+        if (!liberarContenido) {
+            log.info("{} archivos {} de cotizaciones conservan su columna original; se liberan con archivos.migracion.liberar-contenido=true",
+                    copiados.size(), columna);
+            return;
+        }
+
+        int liberados = 0;
+        for (Integer id : copiados) {
+            try {
+                Boolean liberado = transactionTemplate.execute(status -> liberarArchivo(id, columna, esOid));
+                if (Boolean.TRUE.equals(liberado)) {
+                    liberados++;
+                }
+            } catch (Exception e) {
+                log.error("No se pudo liberar el archivo {} de la cotización {}: {}", columna, id, e.getMessage());
+            }
+        }
+        log.info("Columnas {} de cotizaciones liberadas: {} de {}", columna, liberados, copiados.size());
+    }
+
+    private List<Integer> buscar(String columna, String condicion) {
+        return transactionTemplate.execute(status -> jdbcTemplate.queryForList(
+                "SELECT id FROM \"Cotizaciones\" WHERE " + columna + "_contenido IS NOT NULL AND " + condicion + " ORDER BY id",
+                Integer.class));
+    }
+
+    private void copiarArchivo(Integer id, String columna, boolean esOid) {
+        AlmacenArchivos.ArchivoAlmacenado archivo = jdbcTemplate.query(
+                "SELECT " + columna + "_contenido FROM \"Cotizaciones\" WHERE id = ? AND " + columna + "_contenido IS NOT NULL AND "
+                        + columna + "_archivo IS NULL FOR UPDATE",
+                rs -> {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    try (InputStream contenido = esOid ? rs.getBlob(1).getBinaryStream() : rs.getBinaryStream(1)) {
+                        return almacenArchivos.guardar("cotizaciones", contenido);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("No se pudo guardar el archivo en el almacén", e);
+                    }
+                }, id);
+        if (archivo == null) {
+            return;
+        }
+
+        try {
+            jdbcTemplate.update("UPDATE \"Cotizaciones\" SET " + columna + "_archivo = ?, " + columna + "_tamano = ?, "
+                            + columna + "_hash = ? WHERE id = ?",
+                    archivo.referencia(), archivo.tamano(), archivo.hash(), id);
+        } catch (RuntimeException e) {
+            try {
+                almacenArchivos.eliminar(archivo.referencia());
+            } catch (Exception ignored) {}
+            throw e;
+        }
+    }
+
+    // Solo vacía la columna si el archivo del almacén coincide con el tamaño y hash registrados
+    private boolean liberarArchivo(Integer id, String columna, boolean esOid) {
+        List<Map<String, Object>> filas = jdbcTemplate.queryForList(
+                "SELECT " + columna + "_archivo AS archivo, " + columna + "_tamano AS tamano, " + columna + "_hash AS hash "
+                        + "FROM \"Cotizaciones\" WHERE id = ? AND " + columna + "_contenido IS NOT NULL AND "
+                        + columna + "_archivo IS NOT NULL FOR UPDATE", id);
+        if (filas.isEmpty()) {
+            return false;
+        }
+        String referencia = (String) filas.get(0).get("archivo");
+        Number tamano = (Number) filas.get(0).get("tamano");
+        String hash = (String) filas.get(0).get("hash");
+
+        if (!archivoIntegro(referencia, tamano, hash)) {
+            log.warn("El archivo {} de la cotización {} no coincide con el almacén ({}); se conserva la columna",
+                    columna, id, referencia);
+            return false;
+        }
+
+        if (esOid) {
+            jdbcTemplate.queryForList("SELECT lo_unlink(" + columna + "_contenido) FROM \"Cotizaciones\" WHERE id = ?", id);
+        }
+        jdbcTemplate.update("UPDATE \"Cotizaciones\" SET " + columna + "_contenido = NULL WHERE id = ?", id);
+        return true;
+    }
+
+    private boolean archivoIntegro(String referencia, Number tamano, String hash) {
+        if (tamano == null || hash == null) {
+            return false;
+        }
+        try (InputStream contenido = almacenArchivos.abrir(referencia)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long leidos = new DigestInputStream(contenido, digest).transferTo(OutputStream.nullOutputStream());
+            return leidos == tamano.longValue() && hash.equalsIgnoreCase(HexFormat.of().formatHex(digest.digest()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -20,11 +20,15 @@ import java.util.stream.Collectors;
 
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.math.BigDecimal;
@@ -63,6 +67,14 @@ public class NotificacionService {
     private EquipoService equipoService;
     @Autowired
     private NotificacionPopupMostradaRepository notificacionPopupMostradaRepository;
+    @Autowired
+    private RecordatorioActividadService recordatorioActividadService;
+    @Autowired
+    private ColaCorreoService colaCorreoService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
 
 /*
     @PostConstruct
@@ -256,8 +268,15 @@ public class NotificacionService {
             List<CuentaPorCobrar> cuentasCobrarVencidas = obtenerCuentasPorCobrarVencidas();
             List<CuentaPorPagar> cuentasPagarVencidas = obtenerCuentasPorPagarVencidas();
 
-            procesarCuentasPorCobrar(hoy, manana, cuentasVencenHoy, cuentasVencenManana, cuentasCobrarVencidas);
-            procesarCuentasPorPagar(hoy, manana, cuentasPagarHoy, cuentasPagarManana, cuentasPagarVencidas);
+            List<Usuario> adminsYGestores = obtenerAdminsYGestoresActivos();
+            LoteNotificaciones lote = new LoteNotificaciones();
+
+            procesarCuentasPorCobrar(hoy, manana, cuentasVencenHoy, cuentasVencenManana, cuentasCobrarVencidas,
+                    adminsYGestores, lote);
+            procesarCuentasPorPagar(hoy, manana, cuentasPagarHoy, cuentasPagarManana, cuentasPagarVencidas,
+                    adminsYGestores, lote);
+
+            guardarLote(lote);
 
         } catch (Exception e) {
             logger.error("Error al generar notificaciones de cuentas y SIMs: {}", e.getMessage());
@@ -273,7 +292,9 @@ public class NotificacionService {
     private void procesarCuentasPorCobrar(LocalDate hoy, LocalDate manana,
                                           List<CuentaPorCobrar> cuentasVencenHoy,
                                           List<CuentaPorCobrar> cuentasVencenManana,
-                                          List<CuentaPorCobrar> cuentasVencidas) {
+                                          List<CuentaPorCobrar> cuentasVencidas,
+                                          List<Usuario> adminsYGestores,
+                                          LoteNotificaciones lote) {
 
         // Consolidar cuentas que vencen HOY (pendientes + en proceso que vencen hoy + vencidas)
         List<CuentaPorCobrar> cuentasConsolidadasHoy = new ArrayList<>();
@@ -286,7 +307,7 @@ public class NotificacionService {
                         cuenta.getEstatus() == EstatusPagoEnum.VENCIDA ? "VENCIDA" : "vence hoy",
                         cuenta.getFolio(), cuenta.getCliente().getNombre(), cuenta.getFechaPago());
 
-                notificarAdministradores("CUENTA_COBRAR", mensaje);
+                lote.agregar(adminsYGestores, "CUENTA_COBRAR", mensaje);
             });
 
             if (!yaSeEnvioCorreoConsolidadoHoy("CUENTAS_COBRAR_HOY", hoy)) {
@@ -302,7 +323,7 @@ public class NotificacionService {
                 String mensaje = String.format("Cuenta por cobrar vence mañana: %s, Cliente: %s, Fecha: %s",
                         cuenta.getFolio(), cuenta.getCliente().getNombre(), cuenta.getFechaPago());
 
-                notificarAdministradores("CUENTA_COBRAR", mensaje);
+                lote.agregar(adminsYGestores, "CUENTA_COBRAR", mensaje);
             });
 
             if (!yaSeEnvioCorreoConsolidadoHoy("CUENTAS_COBRAR_MANANA", manana)) {
@@ -317,7 +338,9 @@ public class NotificacionService {
     private void procesarCuentasPorPagar(LocalDate hoy, LocalDate manana,
                                          List<CuentaPorPagar> cuentasVencenHoy,
                                          List<CuentaPorPagar> cuentasVencenManana,
-                                         List<CuentaPorPagar> cuentasVencidas) {
+                                         List<CuentaPorPagar> cuentasVencidas,
+                                         List<Usuario> adminsYGestores,
+                                         LoteNotificaciones lote) {
 
         // Consolidar cuentas que vencen HOY (pendientes + en proceso que vencen hoy + vencidas)
         List<CuentaPorPagar> cuentasConsolidadasHoy = new ArrayList<>();
@@ -330,7 +353,7 @@ public class NotificacionService {
                         "Vencida".equals(cuenta.getEstatus()) ? "VENCIDA" : "vence hoy",
                         cuenta.getFolio(), cuenta.getCuenta().getNombre(), cuenta.getFechaPago());
 
-                notificarAdministradores("CUENTA_PAGAR", mensaje);
+                lote.agregar(adminsYGestores, "CUENTA_PAGAR", mensaje);
             });
 
             if (!yaSeEnvioCorreoConsolidadoHoy("CUENTAS_PAGAR_HOY", hoy)) {
@@ -346,7 +369,7 @@ public class NotificacionService {
                 String mensaje = String.format("Cuenta por pagar vence mañana: %s, Cuenta: %s, Fecha: %s",
                         cuenta.getFolio(), cuenta.getCuenta().getNombre(), cuenta.getFechaPago());
 
-                notificarAdministradores("CUENTA_PAGAR", mensaje);
+                lote.agregar(adminsYGestores, "CUENTA_PAGAR", mensaje);
             });
 
             if (!yaSeEnvioCorreoConsolidadoHoy("CUENTAS_PAGAR_MANANA", manana)) {
@@ -371,25 +394,12 @@ public class NotificacionService {
             String cuerpo = construirCuerpoCorreoConsolidadoCuentasPorCobrar(cuentas, cuandoVence);
             String tipoCorreo = "CUENTAS_COBRAR_" + cuandoVence;
 
-            for (Usuario admin : adminsYGestores) {
-                try {
-                    emailService.enviarCorreo(
-                            admin.getCorreoElectronico(),
-                            asunto,
-                            cuerpo,
-                            null,
-                            null,
-                            null,
-                            tipoCorreo
-                    );
-                    Thread.sleep(1000);
-                    logger.info("Correo consolidado de cuentas por cobrar (vencen {}, fecha {}) enviado a: {}",
-                            cuandoVence, fechaVencimiento, admin.getCorreoElectronico());
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    logger.error("Envío de correo interrumpido: {}", e.getMessage());
-                }
-            }
+            // El envío lo hace ColaCorreoService al confirmarse esta transacción
+            int encolados = colaCorreoService.encolar(
+                    adminsYGestores.stream().map(Usuario::getCorreoElectronico).toList(),
+                    asunto, cuerpo, tipoCorreo);
+            logger.info("Correo consolidado de cuentas por cobrar (vencen {}, fecha {}) encolado para {} destinatarios",
+                    cuandoVence, fechaVencimiento, encolados);
         } catch (Exception e) {
             logger.error("Error al enviar correo consolidado de cuentas por cobrar: {}", e.getMessage());
         }
@@ -410,25 +420,12 @@ public class NotificacionService {
             String cuerpo = construirCuerpoCorreoConsolidadoCuentasPorPagar(cuentas, cuandoVence);
             String tipoCorreo = "CUENTAS_PAGAR_" + cuandoVence;
 
-            for (Usuario admin : adminsYGestores) {
-                try {
-                    emailService.enviarCorreo(
-                            admin.getCorreoElectronico(),
-                            asunto,
-                            cuerpo,
-                            null,
-                            null,
-                            null,
-                            tipoCorreo
-                    );
-                    Thread.sleep(1000);
-                    logger.info("Correo consolidado de cuentas por pagar (vencen {}, fecha {}) enviado a: {}",
-                            cuandoVence, fechaVencimiento, admin.getCorreoElectronico());
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    logger.error("Envío de correo interrumpido: {}", e.getMessage());
-                }
-            }
+            // El envío lo hace ColaCorreoService al confirmarse esta transacción
+            int encolados = colaCorreoService.encolar(
+                    adminsYGestores.stream().map(Usuario::getCorreoElectronico).toList(),
+                    asunto, cuerpo, tipoCorreo);
+            logger.info("Correo consolidado de cuentas por pagar (vencen {}, fecha {}) encolado para {} destinatarios",
+                    cuandoVence, fechaVencimiento, encolados);
         } catch (Exception e) {
             logger.error("Error al enviar correo consolidado de cuentas por pagar: {}", e.getMessage());
         }
@@ -675,23 +672,94 @@ public class NotificacionService {
 
     // Nuevo método helper para notificar a todos los usuarios activos
     private void notificarTodosLosUsuarios(String tipo, String mensaje) {
-        List<Usuario> todosUsuarios = usuarioRepository.findByEstatusOrderById(EstatusUsuarioEnum.ACTIVO);
-        todosUsuarios.forEach(usuario -> {
-            if (!existeNotificacionReciente(usuario.getId(), tipo, mensaje)) {
-                crearNotificacion(usuario, tipo, mensaje);
-            }
-        });
+        LoteNotificaciones lote = new LoteNotificaciones();
+        lote.agregar(usuarioRepository.findByEstatusOrderById(EstatusUsuarioEnum.ACTIVO), tipo, mensaje);
+        guardarLote(lote);
     }
 
     @Transactional
     public void notificarAdministradores(String tipo, String mensaje) {
-        List<Usuario> adminsYGestores = obtenerAdminsYGestoresActivos();
+        LoteNotificaciones lote = new LoteNotificaciones();
+        lote.agregar(obtenerAdminsYGestoresActivos(), tipo, mensaje);
+        guardarLote(lote);
+    }
+
+    /**
+     * Guarda las notificaciones del lote que no tengan una igual en las últimas 24 horas con
+     * un solo INSERT de varias filas y publica a cada usuario cuántas no leídas se agregaron.
+     */
+    @Transactional
+    public int guardarLote(LoteNotificaciones lote) {
+        if (lote.isEmpty()) {
+            return 0;
+        }
 
-        adminsYGestores.forEach(admin -> {
-            if (!existeNotificacionReciente(admin.getId(), tipo, mensaje)) {
-                crearNotificacion(admin, tipo, mensaje);
+        Instant hace24Horas = obtenerInstantLocal().minusSeconds(24 * 60 * 60);
+        Set<LoteNotificaciones.Clave> existentes = new HashSet<>();
+        for (Object[] fila : notificacionRepository.findClavesRecientes(
+                lote.getUsuarioIds(), lote.getTipos(), hace24Horas)) {
+            existentes.add(new LoteNotificaciones.Clave((Integer) fila[0], (String) fila[1], (String) fila[2]));
+        }
+
+        List<LoteNotificaciones.Clave> nuevas = lote.getClaves().stream()
+                .filter(clave -> !existentes.contains(clave))
+                .toList();
+        if (nuevas.isEmpty()) {
+            return 0;
+        }
+
+        Integer[] usuarioIds = new Integer[nuevas.size()];
+        String[] tipos = new String[nuevas.size()];
+        String[] mensajes = new String[nuevas.size()];
+        Map<Integer, Integer> deltas = new HashMap<>();
+        for (int i = 0; i < nuevas.size(); i++) {
+            LoteNotificaciones.Clave clave = nuevas.get(i);
+            usuarioIds[i] = clave.usuarioId();
+            tipos[i] = clave.tipo();
+            mensajes[i] = clave.mensaje();
+            deltas.merge(clave.usuarioId(), 1, Integer::sum);
+        }
+
+        OffsetDateTime fechaCreacion = obtenerInstantLocal().atOffset(ZoneOffset.UTC);
+        int insertadas = jdbcTemplate.update(
+                "INSERT INTO \"Notificaciones\" (usuario_id, tipo_notificacion, mensaje, fecha_creacion, estatus) " +
+                        "SELECT x.usuario_id, x.tipo, x.mensaje, ?, 'NO_LEIDA' " +
+                        "FROM unnest(?::integer[], ?::text[], ?::text[]) AS x(usuario_id, tipo, mensaje)",
+                ps -> {
+                    ps.setObject(1, fechaCreacion);
+                    ps.setArray(2, ps.getConnection().createArrayOf("integer", usuarioIds));
+                    ps.setArray(3, ps.getConnection().createArrayOf("text", tipos));
+                    ps.setArray(4, ps.getConnection().createArrayOf("text", mensajes));
+                });
+
+        publicarCambioNoLeidas(deltas);
+        logger.info("Lote de notificaciones guardado: {} nuevas de {} ({} duplicadas)",
+                insertadas, lote.size(), lote.size() - nuevas.size());
+        return insertadas;
+    }
+
+    // Envía a cada usuario el cambio en su contador de no leídas cuando se confirma la transacción
+    private void publicarCambioNoLeidas(Map<Integer, Integer> deltas) {
+        Runnable publicar = () -> deltas.forEach((usuarioId, delta) -> {
+            try {
+                messagingTemplate.convertAndSend("/topic/notificaciones/" + usuarioId + "/no-leidas",
+                        Map.of("delta", delta));
+            } catch (Exception e) {
+                logger.warn("No se pudo publicar el contador de notificaciones del usuario {}: {}",
+                        usuarioId, e.getMessage());
             }
         });
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publicar.run();
+                }
+            });
+        } else {
+            publicar.run();
+        }
     }
 
     // Método para verificar si existe una notificación reciente similar
@@ -711,6 +779,7 @@ public class NotificacionService {
         notificacion.setFechaCreacion(obtenerInstantLocal());
         notificacion.setEstatus(EstatusNotificacionEnum.NO_LEIDA);
         notificacionRepository.save(notificacion);
+        publicarCambioNoLeidas(Map.of(usuario.getId(), 1));
     }
 
     @Transactional(readOnly = true)
@@ -737,9 +806,13 @@ public class NotificacionService {
         try {
             Notificacion notificacion = notificacionRepository.findById(notificacionId)
                     .orElseThrow(() -> new RuntimeException("Notificación no encontrada"));
+            boolean estabaNoLeida = notificacion.getEstatus() == EstatusNotificacionEnum.NO_LEIDA;
             notificacion.setEstatus(EstatusNotificacionEnum.LEIDA);
             notificacion.setFechaLeida(obtenerInstantLocal()); // Corregido: usar hora local
             notificacionRepository.save(notificacion);
+            if (estabaNoLeida) {
+                publicarCambioNoLeidas(Map.of(notificacion.getUsuario().getId(), -1));
+            }
             logger.info("Notificación {} marcada como leída", notificacionId);
         } catch (Exception e) {
             logger.error("Error al marcar notificación como leída: {}", e.getMessage());
@@ -750,16 +823,13 @@ public class NotificacionService {
     @Transactional
     public void marcarTodasComoLeidas() {
         Integer userId = ((CustomUserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal()).getId();
-        List<Notificacion> notificacionesNoLeidas = notificacionRepository.findByUsuarioIdAndEstatus(userId, EstatusNotificacionEnum.NO_LEIDA);
+        int marcadas = notificacionRepository.marcarTodasComoLeidas(userId,
+                EstatusNotificacionEnum.NO_LEIDA, EstatusNotificacionEnum.LEIDA, obtenerInstantLocal());
 
-        Instant ahora = obtenerInstantLocal();
-        notificacionesNoLeidas.forEach(notificacion -> {
-            notificacion.setEstatus(EstatusNotificacionEnum.LEIDA);
-            notificacion.setFechaLeida(ahora);
-            notificacionRepository.save(notificacion);
-        });
-
-        logger.info("Todas las notificaciones del usuario {} marcadas como leídas", userId);
+        if (marcadas > 0) {
+            publicarCambioNoLeidas(Map.of(userId, -marcadas));
+        }
+        logger.info("Todas las notificaciones del usuario {} marcadas como leídas ({})", userId, marcadas);
     }
 
     @Scheduled(cron = "0 0 */12 * * *", zone = "America/Mexico_City")
@@ -843,25 +913,10 @@ public class NotificacionService {
 
             String cuerpo = construirCuerpoAlertaExpiracion(equipos);
 
-            for (Usuario admin : adminsYGestores) {
-                try {
-                    String tipoCorreo = "ALERTA_EQUIPOS_SEMANAL";
-                    emailService.enviarCorreo(
-                            admin.getCorreoElectronico(),
-                            asunto,
-                            cuerpo,
-                            null,
-                            null,
-                            null,
-                            tipoCorreo
-                    );
-                    Thread.sleep(1000);
-                    logger.info("Alerta de expiración enviada a: {}", admin.getCorreoElectronico());
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    logger.error("Envío de alerta de expiración interrumpido: {}", e.getMessage());
-                }
-            }
+            int encolados = colaCorreoService.encolar(
+                    adminsYGestores.stream().map(Usuario::getCorreoElectronico).toList(),
+                    asunto, cuerpo, "ALERTA_EQUIPOS_SEMANAL");
+            logger.info("Alerta de expiración encolada para {} destinatarios", encolados);
         } catch (Exception e) {
             logger.error("Error al enviar alerta de expiración de equipos: {}", e.getMessage(), e);
         }
@@ -1331,8 +1386,10 @@ public class NotificacionService {
         try {
             ZonedDateTime inicioDelDia = LocalDate.now(ZONE_ID).atStartOfDay(ZONE_ID);
 
+            // Un correo encolado hoy cuenta como enviado aunque la cola aún no lo entregue
             boolean yaEnviado = emailRecordRepository.existsByTipoCorreoConsolidadoAndExitoTrueAndFechaEnvioAfter(
-                    tipoCorreo, inicioDelDia);
+                    tipoCorreo, inicioDelDia)
+                    || colaCorreoService.existeEncoladoDesde(tipoCorreo, inicioDelDia.toInstant());
 
             if (yaEnviado) {
                 logger.info("✓ Correo {} YA ENVIADO HOY. (Verificado en BD)", tipoCorreo);
@@ -1460,6 +1517,8 @@ public class NotificacionService {
                 .collect(Collectors.toList());
     }
 
+    // Respaldo para clientes sin WebSocket; RecordatorioActividadService envía los mismos
+    // recordatorios por /topic/actividades-proximas/{usuarioId} y comparte el registro de popups
     @Transactional
     public List<Map<String, Object>> obtenerActividadesProximasUsuario() {
         try {
@@ -1501,31 +1560,8 @@ public class NotificacionService {
                     }
 
                     if (mostrarNotificacion) {
-                        Map<String, Object> actividadMap = new HashMap<>();
-                        actividadMap.put("id", actividad.getId());
-                        actividadMap.put("tratoId", actividad.getTratoId());
-                        actividadMap.put("tipo", actividad.getTipo().name());
-                        actividadMap.put("horaInicio", actividad.getHoraInicio().toString());
-                        actividadMap.put("duracion", actividad.getDuracion());
-                        actividadMap.put("modalidad", actividad.getModalidad() != null ?
-                                actividad.getModalidad().name() : null);
-                        actividadMap.put("enlaceReunion", actividad.getEnlaceReunion());
-                        actividadMap.put("lugarReunion", actividad.getLugarReunion());
-
-                        // Obtener nombre del trato
-                        if (actividad.getTratoId() != null) {
-                            tratoRepository.findById(actividad.getTratoId()).ifPresent(trato -> {
-                                actividadMap.put("tratoNombre", trato.getNombre());
-                                // Obtener nombre de la empresa
-                                if (trato.getEmpresaId() != null) {
-                                    empresaRepository.findById(trato.getEmpresaId()).ifPresent(empresa -> {
-                                        actividadMap.put("empresaNombre", empresa.getNombre());
-                                    });
-                                }
-                            });
-                        }
-
-                        actividadMap.put("minutosRestantes", minutosRestantes);
+                        Map<String, Object> actividadMap = recordatorioActividadService
+                                .construirRecordatorio(actividad, minutosRestantes);
 
                         // VERIFICAR si ya se mostró este popup
                         if (!notificacionPopupMostradaRepository.existsByActividadIdAndUsuarioId(
@@ -31,6 +31,9 @@ public class PlantillaCorreoService {
     @Autowired
     private ProcesoAutomaticoService procesoAutomaticoService;
 
+    @Autowired
+    private CorreosSeguimientoService correosSeguimientoService;
+
     public List<PlantillaCorreo> obtenerTodasLasPlantillas() {
         return repositorio.findAll();
     }
@@ -178,6 +181,8 @@ public class PlantillaCorreoService {
 
         plantilla.setFechaModificacion(LocalDateTime.now());
         repositorio.save(plantilla); // Asegura que los cambios se persistan
+        // Los programas de seguimiento compilados guardan asunto, mensaje y adjuntos
+        correosSeguimientoService.procesoModificado(null);
         return PlantillaCorreoDTO.fromEntity(plantilla); // Devuelve el DTO dentro de la transacción
     }
 
@@ -21,6 +21,8 @@ public class ProcesoAutomaticoService {
     private ProcesoAutomaticoRepository repository;
     @Autowired
     private PlantillaCorreoRepository plantillaRepository;
+    @Autowired
+    private CorreosSeguimientoService correosSeguimientoService;
 
     @Transactional(readOnly = true)
     public List<ProcesoAutomaticoDTO> obtenerTodos() {
@@ -85,6 +87,8 @@ public class ProcesoAutomaticoService {
         }
 
         repository.save(proceso);
+        // Los tratos que siguen el proceso se reprograman con los nuevos días
+        correosSeguimientoService.procesoModificado(proceso.getId());
         return repository.findByIdWithPasos(proceso.getId())
                 .map(ProcesoAutomaticoDTO::fromEntity)
                 .orElseThrow();
@@ -93,6 +97,7 @@ public class ProcesoAutomaticoService {
     @Transactional
     public void eliminar(Integer id) {
         repository.deleteById(id);
+        correosSeguimientoService.procesoModificado(id);
     }
 
     public boolean plantillaEstaEnUso(Integer plantillaId) {
@@ -0,0 +1,277 @@
+package com.tss.tssmanager_backend.service;
+
+import com.tss.tssmanager_backend.entity.Actividad;
+import com.tss.tssmanager_backend.entity.NotificacionPopupMostrada;
+import com.tss.tssmanager_backend.enums.EstatusActividadEnum;
+import com.tss.tssmanager_backend.enums.TipoActividadEnum;
+import com.tss.tssmanager_backend.repository.ActividadRepository;
+import com.tss.tssmanager_backend.repository.EmpresaRepository;
+import com.tss.tssmanager_backend.repository.NotificacionPopupMostradaRepository;
+import com.tss.tssmanager_backend.repository.TratoRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recordatorios de reuniones y llamadas enviados por WebSocket en el momento exacto en que
+ * corresponden: las llamadas a su hora de inicio y las reuniones 30 minutos antes. Cada
+ * actividad abierta de hoy y mañana tiene una tarea en una cola de retardo; las altas,
+ * reprogramaciones y cierres la actualizan a través de {@code RecordatorioActividadAspect} y
+ * una resincronización periódica recoge los cambios hechos con consultas masivas.
+ */
+@Service
+public class RecordatorioActividadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordatorioActividadService.class);
+
+    private static final ZoneId ZONE_ID = ZoneId.of("America/Mexico_City");
+    private static final long MINUTOS_ANTICIPACION_REUNION = 30;
+    // Recordatorios cuyo momento ya pasó por más de este margen no se envían
+    private static final Duration TOLERANCIA_RETRASO = Duration.ofMinutes(1);
+    private static final List<TipoActividadEnum> TIPOS_CON_RECORDATORIO =
+            List.of(TipoActividadEnum.REUNION, TipoActividadEnum.LLAMADA);
+
+    @Autowired
+    private ActividadRepository actividadRepository;
+    @Autowired
+    private TratoRepository tratoRepository;
+    @Autowired
+    private EmpresaRepository empresaRepository;
+    @Autowired
+    private NotificacionPopupMostradaRepository notificacionPopupMostradaRepository;
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+    private final ScheduledThreadPoolExecutor temporizador;
+    private final Map<Integer, Programado> programados = new ConcurrentHashMap<>();
+
+    public RecordatorioActividadService(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.temporizador = new ScheduledThreadPoolExecutor(1, tarea -> {
+            Thread hilo = new Thread(tarea, "recordatorios-actividades");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        this.temporizador.setRemoveOnCancelPolicy(true);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargarAlIniciar() {
+        sincronizar();
+    }
+
+    // Recoge cambios que no pasan por el repositorio (actualizaciones masivas) y el cambio de día
+    @Scheduled(cron = "0 */15 * * * *", zone = "America/Mexico_City")
+    public void sincronizar() {
+        try {
+            LocalDate hoy = LocalDate.now(ZONE_ID);
+            List<Actividad> actividades = actividadRepository.findPendientesDeRecordatorio(
+                    EstatusActividadEnum.ABIERTA, TIPOS_CON_RECORDATORIO, hoy, hoy.plusDays(1));
+
+            Set<Integer> vigentes = new HashSet<>();
+            for (Actividad actividad : actividades) {
+                if (programar(actividad)) {
+                    vigentes.add(actividad.getId());
+                }
+            }
+
+            for (Integer actividadId : new ArrayList<>(programados.keySet())) {
+                if (!vigentes.contains(actividadId)) {
+                    cancelar(actividadId);
+                }
+            }
+
+            logger.info("Recordatorios de actividades sincronizados: {} programados", programados.size());
+        } catch (Exception e) {
+            logger.error("Error al sincronizar recordatorios de actividades: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reprograma o cancela el recordatorio de una actividad guardada, una vez confirmada la
+     * transacción en curso.
+     */
+    public void actividadGuardada(Actividad actividad) {
+        if (actividad == null || actividad.getId() == null) {
+            return;
+        }
+        despuesDeConfirmar(() -> programar(actividad));
+    }
+
+    public void actividadEliminada(Integer actividadId) {
+        if (actividadId == null) {
+            return;
+        }
+        despuesDeConfirmar(() -> cancelar(actividadId));
+    }
+
+    /**
+     * Datos del recordatorio que recibe el cliente, tanto por WebSocket como por la consulta
+     * de actividades próximas.
+     */
+    public Map<String, Object> construirRecordatorio(Actividad actividad, long minutosRestantes) {
+        Map<String, Object> actividadMap = new HashMap<>();
+        actividadMap.put("id", actividad.getId());
+        actividadMap.put("tratoId", actividad.getTratoId());
+        actividadMap.put("tipo", actividad.getTipo().name());
+        actividadMap.put("horaInicio", actividad.getHoraInicio().toString());
+        actividadMap.put("duracion", actividad.getDuracion());
+        actividadMap.put("modalidad", actividad.getModalidad() != null ?
+                actividad.getModalidad().name() : null);
+        actividadMap.put("enlaceReunion", actividad.getEnlaceReunion());
+        actividadMap.put("lugarReunion", actividad.getLugarReunion());
+
+        if (actividad.getTratoId() != null) {
+            tratoRepository.findById(actividad.getTratoId()).ifPresent(trato -> {
+                actividadMap.put("tratoNombre", trato.getNombre());
+                if (trato.getEmpresaId() != null) {
+                    empresaRepository.findById(trato.getEmpresaId()).ifPresent(empresa ->
+                            actividadMap.put("empresaNombre", empresa.getNombre()));
+                }
+            });
+        }
+
+        actividadMap.put("minutosRestantes", minutosRestantes);
+        return actividadMap;
+    }
+
+    @PreDestroy
+    public void detener() {
+        temporizador.shutdownNow();
+    }
+
+    private synchronized boolean programar(Actividad actividad) {
+        Integer actividadId = actividad.getId();
+        Instant instante = calcularInstanteRecordatorio(actividad);
+        Instant ahora = Instant.now();
+        Instant limite = LocalDate.now(ZONE_ID).plusDays(2).atStartOfDay(ZONE_ID).toInstant();
+
+        if (instante == null || instante.isBefore(ahora.minus(TOLERANCIA_RETRASO)) || !instante.isBefore(limite)) {
+            cancelar(actividadId);
+            return false;
+        }
+
+        Programado actual = programados.get(actividadId);
+        if (actual != null && actual.instante.equals(instante)) {
+            return true;
+        }
+
+        cancelar(actividadId);
+        long demora = Math.max(0, Duration.between(ahora, instante).toMillis());
+        ScheduledFuture<?> tarea = temporizador.schedule(() -> disparar(actividadId, instante),
+                demora, TimeUnit.MILLISECONDS);
+        programados.put(actividadId, new Programado(instante, tarea));
+        logger.debug("Recordatorio de actividad {} programado para {}", actividadId, instante.atZone(ZONE_ID));
+        return true;
+    }
+
+    private synchronized void cancelar(Integer actividadId) {
+        Programado actual = programados.remove(actividadId);
+        if (actual != null) {
+            actual.tarea.cancel(false);
+        }
+    }
+
+    private void disparar(Integer actividadId, Instant instante) {
+        synchronized (this) {
+            programados.computeIfPresent(actividadId, (id, actual) -> actual.instante.equals(instante) ? null : actual);
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> enviarRecordatorio(actividadId, instante));
+        } catch (DataIntegrityViolationException e) {
+            logger.debug("Popup de actividad {} ya registrado por otra instancia", actividadId);
+        } catch (Exception e) {
+            logger.error("Error al enviar recordatorio de actividad {}: {}", actividadId, e.getMessage(), e);
+        }
+    }
+
+    private void enviarRecordatorio(Integer actividadId, Instant instante) {
+        Actividad actividad = actividadRepository.findById(actividadId).orElse(null);
+        // Si la actividad cambió desde que se programó, el cambio ya generó su propio recordatorio
+        if (actividad == null || !instante.equals(calcularInstanteRecordatorio(actividad))) {
+            return;
+        }
+
+        Integer usuarioId = actividad.getAsignadoAId();
+        if (notificacionPopupMostradaRepository.existsByActividadIdAndUsuarioId(actividadId, usuarioId)) {
+            logger.debug("Popup ya mostrado para actividad {} - Usuario {}", actividadId, usuarioId);
+            return;
+        }
+
+        NotificacionPopupMostrada registro = new NotificacionPopupMostrada();
+        registro.setActividadId(actividadId);
+        registro.setUsuarioId(usuarioId);
+        registro.setFechaMostrado(Instant.now());
+        notificacionPopupMostradaRepository.saveAndFlush(registro);
+
+        ZonedDateTime inicio = ZonedDateTime.of(actividad.getFechaLimite(),
+                actividad.getHoraInicio().toLocalTime(), ZONE_ID);
+        long segundosRestantes = ChronoUnit.SECONDS.between(ZonedDateTime.now(ZONE_ID), inicio);
+        long minutosRestantes = Math.max(0, (segundosRestantes + 59) / 60);
+
+        messagingTemplate.convertAndSend("/topic/actividades-proximas/" + usuarioId,
+                construirRecordatorio(actividad, minutosRestantes));
+        logger.info("Recordatorio enviado para actividad {} - Usuario {}", actividadId, usuarioId);
+    }
+
+    private Instant calcularInstanteRecordatorio(Actividad actividad) {
+        if (actividad.getEstatus() != EstatusActividadEnum.ABIERTA
+                || !TIPOS_CON_RECORDATORIO.contains(actividad.getTipo())
+                || actividad.getAsignadoAId() == null
+                || actividad.getFechaLimite() == null
+                || actividad.getHoraInicio() == null) {
+            return null;
+        }
+
+        ZonedDateTime inicio = ZonedDateTime.of(actividad.getFechaLimite(),
+                actividad.getHoraInicio().toLocalTime(), ZONE_ID);
+        if (actividad.getTipo() == TipoActividadEnum.REUNION) {
+            inicio = inicio.minusMinutes(MINUTOS_ANTICIPACION_REUNION);
+        }
+        return inicio.toInstant();
+    }
+
+    private void despuesDeConfirmar(Runnable accion) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    accion.run();
+                }
+            });
+        } else {
+            accion.run();
+        }
+    }
+
+    private static final class Programado {
+        private final Instant instante;
+        private final ScheduledFuture<?> tarea;
+
+        private Programado(Instant instante, ScheduledFuture<?> tarea) {
+            this.instante = instante;
+            this.tarea = tarea;
+        }
+    }
+}
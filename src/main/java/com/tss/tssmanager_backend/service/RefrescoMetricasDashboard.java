@@ -0,0 +1,79 @@
+package com.tss.tssmanager_backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mantiene al día las vistas materializadas de las que lee el dashboard de métricas. Los cambios
+ * en actividades, tratos y empresas solo marcan las vistas como pendientes; una tarea periódica
+ * las refresca (CONCURRENTLY, sin bloquear las lecturas) como mucho una vez por intervalo, y
+ * además cada cierto tiempo aunque no haya cambios, porque algunas métricas dependen de datos
+ * escritos por otras vías.
+ */
+@Component
+@Slf4j
+public class RefrescoMetricasDashboard {
+
+    private static final List<String> VISTAS = List.of("mv_metricas_actividades_dia", "mv_metricas_empresas");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final long refrescoMaximoMs;
+
+    private final AtomicBoolean pendiente = new AtomicBoolean(true);
+    private volatile long ultimoRefresco;
+
+    public RefrescoMetricasDashboard(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                     @Value("${dashboard.metricas.refresco-maximo-ms:3600000}") long refrescoMaximoMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.refrescoMaximoMs = refrescoMaximoMs;
+    }
+
+    // Se marca ya y otra vez al terminar la transacción, para no refrescar antes del commit y perder el cambio
+    public void marcarPendiente() {
+        pendiente.set(true);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    pendiente.set(true);
+                }
+            });
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${dashboard.metricas.refresco-ms:60000}", initialDelay = 30000)
+    public void refrescarSiHaceFalta() {
+        boolean vencido = System.currentTimeMillis() - ultimoRefresco >= refrescoMaximoMs;
+        if (!pendiente.getAndSet(false) && !vencido) {
+            return;
+        }
+        try {
+            refrescar();
+        } catch (Exception e) {
+            pendiente.set(true);
+            log.error("Error al refrescar las métricas del dashboard: {}", e.getMessage(), e);
+        }
+    }
+
+    public void refrescar() {
+        long inicio = System.currentTimeMillis();
+        for (String vista : VISTAS) {
+            transactionTemplate.executeWithoutResult(status ->
+                    jdbcTemplate.execute("REFRESH MATERIALIZED VIEW CONCURRENTLY " + vista));
+        }
+        ultimoRefresco = System.currentTimeMillis();
+        log.debug("Métricas del dashboard refrescadas en {} ms", ultimoRefresco - inicio);
+    }
+}
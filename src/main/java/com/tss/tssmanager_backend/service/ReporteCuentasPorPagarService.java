@@ -6,12 +6,13 @@ import com.tss.tssmanager_backend.dto.FilaResumenDTO;
 import com.tss.tssmanager_backend.dto.ReporteCuentasPorPagarDTO;
 import com.tss.tssmanager_backend.dto.ReporteCuentasPorPagarDTO.CuentaReporteDTO;
 import com.tss.tssmanager_backend.entity.CuentaPorPagar;
+import com.tss.tssmanager_backend.enums.TarifaSimEnum;
 import com.tss.tssmanager_backend.repository.CuentaPorPagarRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.awt.Color;
-import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.text.NumberFormat;
 import java.time.LocalDate;
@@ -41,6 +42,10 @@ public class ReporteCuentasPorPagarService {
     private static final Color BORDER_GRAY = new Color(222, 226, 230);
     private static final Color TEXT_DARK = new Color(33, 37, 41);
 
+    // Una recarga de $50 en una SIM por segundo con más de $210 se cubre con el saldo de la línea
+    private static final BigDecimal MONTO_RECARGA_SALDO = new BigDecimal("50");
+    private static final BigDecimal SALDO_MINIMO_ACUMULADO = new BigDecimal("210");
+
     private static final Map<String, String> FORMAS_PAGO = Map.of(
             "01", "Efectivo",
             "03", "Transferencia electrónica de fondos",
@@ -52,83 +57,91 @@ public class ReporteCuentasPorPagarService {
             "02", "Tarjeta Spin"
     );
 
-    public ReporteCuentasPorPagarDTO generarDatosReporte(LocalDate fechaInicio, LocalDate fechaFin, String filtroEstatus, String filtroCuenta) {        List<CuentaPorPagar> cuentas = obtenerCuentasFiltradas(fechaInicio, fechaFin, filtroEstatus, filtroCuenta);
-        ReporteCuentasPorPagarDTO reporte = new ReporteCuentasPorPagarDTO(fechaInicio, fechaFin, filtroEstatus);
-
-        BigDecimal montoTotal = BigDecimal.ZERO;
-        BigDecimal montoSaldoAcumulado = BigDecimal.ZERO;
+    public ReporteCuentasPorPagarDTO generarDatosReporte(LocalDate fechaInicio, LocalDate fechaFin, String filtroEstatus, String filtroCuenta) {
+        return construirDatosReporte(calcularReporte(fechaInicio, fechaFin, filtroEstatus, filtroCuenta, false),
+                fechaInicio, fechaFin, filtroEstatus);
+    }
 
+    /**
+     * Carga las cuentas del reporte con una sola consulta filtrada en la base de datos, los saldos
+     * de todas sus SIMs en otra y, si se piden, los números principales de sus grupos. Cada cuenta
+     * queda marcada una sola vez como pagada con saldo acumulado o no.
+     */
+    private ReporteCalculado calcularReporte(LocalDate fechaInicio, LocalDate fechaFin, String filtroEstatus,
+                                             String filtroCuenta, boolean conGrupos) {
+        String estatus = filtroEstatus == null || "Todas".equals(filtroEstatus) ? null : filtroEstatus;
+        String cuentaNombre = filtroCuenta == null || filtroCuenta.isEmpty() ? null : filtroCuenta;
+        List<CuentaPorPagar> cuentas = cuentaPorPagarRepository.findParaReporte(fechaInicio, fechaFin, estatus, cuentaNombre);
+
+        Set<Integer> simIds = new HashSet<>();
+        Set<Integer> grupos = new HashSet<>();
         for (CuentaPorPagar cuenta : cuentas) {
-            boolean usarSaldo = false;
-
             if (cuenta.getSim() != null) {
-                BigDecimal saldoActual = simService.obtenerSaldoNumerico(cuenta.getSim().getId());
-                boolean montoEs50 = cuenta.getMonto().compareTo(new BigDecimal("50")) == 0;
-                boolean esquemaEsPorSegundo = cuenta.getSim().getTarifa() != null &&
-                        cuenta.getSim().getTarifa() == com.tss.tssmanager_backend.enums.TarifaSimEnum.POR_SEGUNDO;
-                boolean tieneSaldoSuficiente = saldoActual.compareTo(new BigDecimal("210")) > 0;
-
-                usarSaldo = montoEs50 && esquemaEsPorSegundo && tieneSaldoSuficiente;
+                simIds.add(cuenta.getSim().getId());
+                Integer grupo = cuenta.getSim().getGrupo();
+                if (grupo != null && grupo > 0) {
+                    grupos.add(grupo);
+                }
             }
+        }
 
-            if (usarSaldo) {
-                montoSaldoAcumulado = montoSaldoAcumulado.add(cuenta.getMonto());
-            } else {
-                montoTotal = montoTotal.add(cuenta.getMonto());
+        Map<Integer, BigDecimal> saldos = simIds.isEmpty() ? Collections.emptyMap() : simService.obtenerSaldosNumericos(simIds);
+        Map<Integer, String> numerosPrincipales = new HashMap<>();
+        if (conGrupos && !grupos.isEmpty()) {
+            for (Object[] row : simRepository.findNumerosPrincipalesByGrupos(grupos)) {
+                numerosPrincipales.putIfAbsent((Integer) row[0], (String) row[1]);
             }
         }
 
-        reporte.setMontoTotal(montoTotal);
-        reporte.setMontoSaldoAcumulado(montoSaldoAcumulado);
-
-        Map<LocalDate, BigDecimal> montoPorDia = new HashMap<>();
-
+        List<CuentaCalculada> calculadas = new ArrayList<>(cuentas.size());
         for (CuentaPorPagar cuenta : cuentas) {
+            BigDecimal saldoActual = BigDecimal.ZERO;
             boolean usarSaldo = false;
 
             if (cuenta.getSim() != null) {
-                BigDecimal saldoActual = simService.obtenerSaldoNumerico(cuenta.getSim().getId());
-                boolean montoEs50 = cuenta.getMonto().compareTo(new BigDecimal("50")) == 0;
-                boolean esquemaEsPorSegundo = cuenta.getSim().getTarifa() != null &&
-                        cuenta.getSim().getTarifa() == com.tss.tssmanager_backend.enums.TarifaSimEnum.POR_SEGUNDO;
-                boolean tieneSaldoSuficiente = saldoActual.compareTo(new BigDecimal("210")) > 0;
+                saldoActual = saldos.getOrDefault(cuenta.getSim().getId(), BigDecimal.ZERO);
+                boolean montoEs50 = cuenta.getMonto().compareTo(MONTO_RECARGA_SALDO) == 0;
+                boolean esquemaEsPorSegundo = cuenta.getSim().getTarifa() == TarifaSimEnum.POR_SEGUNDO;
+                boolean tieneSaldoSuficiente = saldoActual.compareTo(SALDO_MINIMO_ACUMULADO) > 0;
 
                 usarSaldo = montoEs50 && esquemaEsPorSegundo && tieneSaldoSuficiente;
             }
+            calculadas.add(new CuentaCalculada(cuenta, saldoActual, usarSaldo));
+        }
+
+        return new ReporteCalculado(calculadas, numerosPrincipales);
+    }
+
+    // Totales, montos por día y cuentas por día en un solo recorrido
+    private ReporteCuentasPorPagarDTO construirDatosReporte(ReporteCalculado calculado, LocalDate fechaInicio,
+                                                           LocalDate fechaFin, String filtroEstatus) {
+        ReporteCuentasPorPagarDTO reporte = new ReporteCuentasPorPagarDTO(fechaInicio, fechaFin, filtroEstatus);
 
-            if (!usarSaldo) {
-                LocalDate fecha = cuenta.getFechaPago();
-                BigDecimal montoActual = montoPorDia.getOrDefault(fecha, BigDecimal.ZERO);
-                montoPorDia.put(fecha, montoActual.add(cuenta.getMonto()));
+        BigDecimal montoTotal = BigDecimal.ZERO;
+        BigDecimal montoSaldoAcumulado = BigDecimal.ZERO;
+        Map<LocalDate, BigDecimal> montoPorDia = new HashMap<>();
+        Map<LocalDate, List<CuentaReporteDTO>> cuentasPorDia = new HashMap<>();
+
+        for (CuentaCalculada calculada : calculado.cuentas()) {
+            CuentaPorPagar cuenta = calculada.cuenta();
+            if (calculada.usarSaldo()) {
+                montoSaldoAcumulado = montoSaldoAcumulado.add(cuenta.getMonto());
+            } else {
+                montoTotal = montoTotal.add(cuenta.getMonto());
+                montoPorDia.merge(cuenta.getFechaPago(), cuenta.getMonto(), BigDecimal::add);
             }
+            cuentasPorDia.computeIfAbsent(cuenta.getFechaPago(), fecha -> new ArrayList<>())
+                    .add(convertirACuentaReporte(cuenta));
         }
 
+        reporte.setMontoTotal(montoTotal);
+        reporte.setMontoSaldoAcumulado(montoSaldoAcumulado);
         reporte.setMontoPorDia(montoPorDia);
-
-        Map<LocalDate, List<CuentaReporteDTO>> cuentasPorDia = cuentas.stream()
-                .collect(Collectors.groupingBy(
-                        CuentaPorPagar::getFechaPago,
-                        Collectors.mapping(this::convertirACuentaReporte, Collectors.toList())
-                ));
         reporte.setCuentasPorDia(cuentasPorDia);
 
         return reporte;
     }
 
-    private List<CuentaPorPagar> obtenerCuentasFiltradas(LocalDate fechaInicio, LocalDate fechaFin, String filtroEstatus, String filtroCuenta) {
-        if ("Todas".equals(filtroEstatus)) {
-            return cuentaPorPagarRepository.findByFechaPagoBetween(fechaInicio, fechaFin).stream()
-                    .filter(c -> filtroCuenta == null || filtroCuenta.isEmpty() || (c.getCuenta() != null && c.getCuenta().getNombre().equals(filtroCuenta)))
-                    .collect(Collectors.toList());
-        } else {
-            return cuentaPorPagarRepository.findByFechaPagoBetween(fechaInicio, fechaFin)
-                    .stream()
-                    .filter(cuenta -> filtroEstatus.equals(cuenta.getEstatus()))
-                    .filter(c -> filtroCuenta == null || filtroCuenta.isEmpty() || (c.getCuenta() != null && c.getCuenta().getNombre().equals(filtroCuenta)))
-                    .collect(Collectors.toList());
-        }
-    }
-
     private CuentaReporteDTO convertirACuentaReporte(CuentaPorPagar cuenta) {
         String numeroSim = cuenta.getSim() != null ? cuenta.getSim().getNumero() : "-";
         String categoria = cuenta.getTransaccion() != null && cuenta.getTransaccion().getCategoria() != null
@@ -146,10 +159,15 @@ public class ReporteCuentasPorPagarService {
         );
     }
 
-    public byte[] generarReportePDF(ReporteCuentasPorPagarDTO datosReporte, String filtroCuenta) throws Exception {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    // Escribe el reporte directo en la salida (la respuesta HTTP) sin armar el PDF completo en memoria
+    public void escribirReportePDF(LocalDate fechaInicio, LocalDate fechaFin, String filtroEstatus,
+                                   String filtroCuenta, OutputStream salida) throws Exception {
+        ReporteCalculado calculado = calcularReporte(fechaInicio, fechaFin, filtroEstatus, filtroCuenta, true);
+        ReporteCuentasPorPagarDTO datosReporte = construirDatosReporte(calculado, fechaInicio, fechaFin, filtroEstatus);
+
         Document document = new Document(PageSize.A4, 30, 30, 40, 40);
-        PdfWriter writer = PdfWriter.getInstance(document, baos);
+        PdfWriter writer = PdfWriter.getInstance(document, salida);
+        writer.setCloseStream(false);
 
         document.open();
 
@@ -169,44 +187,21 @@ public class ReporteCuentasPorPagarService {
 
         addResumenEjecutivo(document, datosReporte, dateFormatter, currencyFormat, sectionTitleFont, tableHeaderFont, normalFont);
 
-        List<CuentaPorPagar> cuentasRaw = obtenerCuentasFiltradas(
-                datosReporte.getFechaInicio(),
-                datosReporte.getFechaFin(),
-                datosReporte.getFiltroEstatus(),
-                filtroCuenta
-        );
-
         List<CuentaPorPagar> otrosPagos = new ArrayList<>();
         List<DatosTelcelEnriquecidos> pagosTelcel = new ArrayList<>();
 
-        for (CuentaPorPagar c : cuentasRaw) {
-            boolean tieneSim = c.getSim() != null;
-            boolean esCategoriaTelcel = c.getTransaccion() != null &&
-                    c.getTransaccion().getCategoria() != null &&
-                    c.getTransaccion().getCategoria().getDescripcion().toUpperCase().contains("TELCEL");
-
-            if (tieneSim || esCategoriaTelcel) {
-                if (tieneSim) {
-                    Integer grupoId = c.getSim().getGrupo();
-                    String numeroPrincipal = "Sin Grupo / Individual";
-
-                    if (grupoId != null && grupoId > 0) {
-                        numeroPrincipal = simRepository.findNumeroPrincipalByGrupo(grupoId).orElse("No asignado");
-                    }
-
-                    BigDecimal saldoActual = simService.obtenerSaldoNumerico(c.getSim().getId());
+        for (CuentaCalculada calculada : calculado.cuentas()) {
+            CuentaPorPagar c = calculada.cuenta();
+            if (c.getSim() != null) {
+                Integer grupoId = c.getSim().getGrupo();
+                String numeroPrincipal = "Sin Grupo / Individual";
 
-                    boolean montoEs50 = c.getMonto().compareTo(new BigDecimal("50")) == 0;
-                    boolean esquemaEsPorSegundo = c.getSim().getTarifa() != null &&
-                            c.getSim().getTarifa() == com.tss.tssmanager_backend.enums.TarifaSimEnum.POR_SEGUNDO;
-                    boolean tieneSaldoSuficiente = saldoActual.compareTo(new BigDecimal("210")) > 0;
-
-                    boolean usarSaldo = montoEs50 && esquemaEsPorSegundo && tieneSaldoSuficiente;
-
-                    pagosTelcel.add(new DatosTelcelEnriquecidos(c, numeroPrincipal, usarSaldo, grupoId != null ? grupoId : 9999));
-                } else {
-                    otrosPagos.add(c);
+                if (grupoId != null && grupoId > 0) {
+                    numeroPrincipal = calculado.numerosPrincipales().getOrDefault(grupoId, "No asignado");
                 }
+
+                pagosTelcel.add(new DatosTelcelEnriquecidos(c, numeroPrincipal, calculada.usarSaldo(),
+                        grupoId != null ? grupoId : 9999, calculada.saldoActual()));
             } else {
                 otrosPagos.add(c);
             }
@@ -233,7 +228,6 @@ public class ReporteCuentasPorPagarService {
 
         addSimpleFooter(document, normalFont);
         document.close();
-        return baos.toByteArray();
     }
 
     private void addModernHeader(Document document, ReporteCuentasPorPagarDTO datosReporte,
@@ -475,12 +469,17 @@ public class ReporteCuentasPorPagarService {
         String numeroPrincipal;
         boolean usarSaldo;
         Integer grupoId;
+        BigDecimal saldoActual;
 
-        public DatosTelcelEnriquecidos(CuentaPorPagar c, String np, boolean us, Integer g) {
-            this.cuenta = c; this.numeroPrincipal = np; this.usarSaldo = us; this.grupoId = g;
+        public DatosTelcelEnriquecidos(CuentaPorPagar c, String np, boolean us, Integer g, BigDecimal saldo) {
+            this.cuenta = c; this.numeroPrincipal = np; this.usarSaldo = us; this.grupoId = g; this.saldoActual = saldo;
         }
     }
 
+    private record CuentaCalculada(CuentaPorPagar cuenta, BigDecimal saldoActual, boolean usarSaldo) {}
+
+    private record ReporteCalculado(List<CuentaCalculada> cuentas, Map<Integer, String> numerosPrincipales) {}
+
     private void addSeccionOtrosPagos(Document document, List<CuentaPorPagar> cuentas, NumberFormat currencyFormat,
                                       DateTimeFormatter dateFormatter, Font titleFont, Font headerFont, Font normalFont) throws DocumentException {
         if (cuentas.isEmpty()) return;
@@ -569,8 +568,7 @@ public class ReporteCuentasPorPagarService {
                 addCompactDataCell(table, c.getCuenta().getNombre(), normalFont, bg, Element.ALIGN_LEFT);
                 addCompactDataCell(table, c.getEstatus(), normalFont, bg, Element.ALIGN_CENTER);
 
-                BigDecimal saldoReal = simService.obtenerSaldoNumerico(c.getSim().getId());
-                addCompactDataCell(table, currencyFormat.format(saldoReal), normalFont, bg, Element.ALIGN_RIGHT);
+                addCompactDataCell(table, currencyFormat.format(d.saldoActual), normalFont, bg, Element.ALIGN_RIGHT);
 
                 if (d.usarSaldo) {
                     PdfPCell cellSaldo = new PdfPCell(new Phrase("SALDO ACUMULADO", saldoFont));
@@ -590,10 +588,10 @@ public class ReporteCuentasPorPagarService {
         }
     }
 
-    public byte[] generarReporteResumidoPDF(LocalDate fechaInicio, LocalDate fechaFin, String filtroEstatus, String filtroCuenta) throws Exception {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    public void escribirReporteResumidoPDF(LocalDate fechaInicio, LocalDate fechaFin, String filtroEstatus,
+                                           String filtroCuenta, OutputStream salida) throws Exception {
         Document document = new Document(PageSize.A4, 30, 30, 40, 40);
-        PdfWriter.getInstance(document, baos);
+        PdfWriter.getInstance(document, salida).setCloseStream(false);
         document.open();
 
         NumberFormat currencyFormat = NumberFormat.getCurrencyInstance(new Locale("es", "MX"));
@@ -606,96 +604,39 @@ public class ReporteCuentasPorPagarService {
         Font normalFont = FontFactory.getFont(FontFactory.HELVETICA, 9, TEXT_DARK);
         Font moneyFont = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 12, SUCCESS_GREEN);
 
-        List<CuentaPorPagar> cuentas = obtenerCuentasFiltradas(fechaInicio, fechaFin, filtroEstatus, filtroCuenta);
-        List<FilaResumenDTO> resumen = agruparParaResumen(cuentas, true);
-        BigDecimal montoTotal = calcularMontoTotal(cuentas, true);
-
-        addEncabezadoResumido(document, fechaInicio, fechaFin, montoTotal, filtroEstatus,
-                dateFormatter, currencyFormat, titleFont, subtitleFont, moneyFont);
-
-        addTablaResumen(document, resumen, currencyFormat, dateFormatter,
-                sectionTitleFont, tableHeaderFont, normalFont);
+        ReporteCalculado calculado = calcularReporte(fechaInicio, fechaFin, filtroEstatus, filtroCuenta, false);
 
-        addSimpleFooter(document, normalFont);
-
-        document.close();
-        return baos.toByteArray();
-    }
-
-    private List<FilaResumenDTO> agruparParaResumen(List<CuentaPorPagar> cuentas, boolean excluirSaldoAcumulado) {
+        // Agrupación y total en un solo recorrido, sin las cuentas pagadas con saldo acumulado
         Map<String, FilaResumenDTO> agrupado = new LinkedHashMap<>();
+        BigDecimal montoTotal = BigDecimal.ZERO;
+        for (CuentaCalculada calculada : calculado.cuentas()) {
+            if (calculada.usarSaldo()) {
+                continue;
+            }
+            CuentaPorPagar cuenta = calculada.cuenta();
+            montoTotal = montoTotal.add(cuenta.getMonto());
 
-        List<CuentaPorPagar> cuentasAgrupar = cuentas;
-        if (excluirSaldoAcumulado) {
-            cuentasAgrupar = cuentas.stream()
-                    .filter(cuenta -> {
-                        if (cuenta.getSim() == null) {
-                            return true;
-                        }
-
-                        BigDecimal saldoActual = simService.obtenerSaldoNumerico(cuenta.getSim().getId());
-                        boolean montoEs50 = cuenta.getMonto().compareTo(new BigDecimal("50")) == 0;
-                        boolean esquemaEsPorSegundo = cuenta.getSim().getTarifa() != null &&
-                                cuenta.getSim().getTarifa() == com.tss.tssmanager_backend.enums.TarifaSimEnum.POR_SEGUNDO;
-                        boolean tieneSaldoSuficiente = saldoActual.compareTo(new BigDecimal("210")) > 0;
-
-                        boolean usarSaldo = montoEs50 && esquemaEsPorSegundo && tieneSaldoSuficiente;
-
-                        return !usarSaldo;
-                    })
-                    .collect(Collectors.toList());
-        }
-
-
-        for (CuentaPorPagar cuenta : cuentasAgrupar) {
             LocalDate fecha = cuenta.getFechaPago();
             String categoria = (cuenta.getTransaccion() != null && cuenta.getTransaccion().getCategoria() != null)
                     ? cuenta.getTransaccion().getCategoria().getDescripcion() : "Sin categoría";
             String cliente = cuenta.getCuenta().getNombre();
 
-            String clave = fecha + "|" + categoria + "|" + cliente;
-
-            if (agrupado.containsKey(clave)) {
-                FilaResumenDTO fila = agrupado.get(clave);
-                agrupado.put(clave, new FilaResumenDTO(
-                        fecha,
-                        categoria,
-                        cliente,
-                        fila.getTotalCuentas() + 1,
-                        fila.getMonto().add(cuenta.getMonto())
-                ));
-            } else {
-                agrupado.put(clave, new FilaResumenDTO(fecha, categoria, cliente, 1, cuenta.getMonto()));
-            }
+            agrupado.merge(fecha + "|" + categoria + "|" + cliente,
+                    new FilaResumenDTO(fecha, categoria, cliente, 1, cuenta.getMonto()),
+                    (fila, nueva) -> new FilaResumenDTO(fecha, categoria, cliente,
+                            fila.getTotalCuentas() + 1, fila.getMonto().add(nueva.getMonto())));
         }
+        List<FilaResumenDTO> resumen = new ArrayList<>(agrupado.values());
 
-        return new ArrayList<>(agrupado.values());
-    }
+        addEncabezadoResumido(document, fechaInicio, fechaFin, montoTotal, filtroEstatus,
+                dateFormatter, currencyFormat, titleFont, subtitleFont, moneyFont);
 
-    private BigDecimal calcularMontoTotal(List<CuentaPorPagar> cuentas, boolean excluirSaldoAcumulado) {
-        if (!excluirSaldoAcumulado) {
-            return cuentas.stream()
-                    .map(CuentaPorPagar::getMonto)
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-        }
+        addTablaResumen(document, resumen, currencyFormat, dateFormatter,
+                sectionTitleFont, tableHeaderFont, normalFont);
+
+        addSimpleFooter(document, normalFont);
 
-        return cuentas.stream()
-                .filter(cuenta -> {
-                    if (cuenta.getSim() == null) {
-                        return true;
-                    }
-
-                    BigDecimal saldoActual = simService.obtenerSaldoNumerico(cuenta.getSim().getId());
-                    boolean montoEs50 = cuenta.getMonto().compareTo(new BigDecimal("50")) == 0;
-                    boolean esquemaEsPorSegundo = cuenta.getSim().getTarifa() != null &&
-                            cuenta.getSim().getTarifa() == com.tss.tssmanager_backend.enums.TarifaSimEnum.POR_SEGUNDO;
-                    boolean tieneSaldoSuficiente = saldoActual.compareTo(new BigDecimal("210")) > 0;
-
-                    boolean usarSaldo = montoEs50 && esquemaEsPorSegundo && tieneSaldoSuficiente;
-                    return !usarSaldo;
-                })
-                .map(CuentaPorPagar::getMonto)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        document.close();
     }
 
     private void addEncabezadoResumido(Document document, LocalDate fechaInicio, LocalDate fechaFin,
@@ -1,21 +1,27 @@
 package com.tss.tssmanager_backend.service;
 
 import com.tss.tssmanager_backend.dto.ReporteDTO;
-import com.tss.tssmanager_backend.entity.Actividad;
 import com.tss.tssmanager_backend.entity.Usuario;
+import com.tss.tssmanager_backend.enums.EstatusActividadEnum;
+import com.tss.tssmanager_backend.enums.MedioReunionEnum;
+import com.tss.tssmanager_backend.enums.TipoActividadEnum;
 import com.tss.tssmanager_backend.repository.ActividadRepository;
 import com.tss.tssmanager_backend.repository.NotaTratoRepository;
 import com.tss.tssmanager_backend.repository.UsuarioRepository;
 import com.tss.tssmanager_backend.security.CustomUserDetails;
 import com.tss.tssmanager_backend.utils.DateUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
-import java.util.List;
+import java.util.*;
 import java.util.stream.Collectors;
 
 @Service
@@ -27,6 +33,10 @@ public class ReporteService {
     private NotaTratoRepository notaTratoRepository;
     @Autowired
     private UsuarioRepository usuarioRepository;
+    @Autowired
+    private CacheManager cacheManager;
+
+    private static final String CACHE_REPORTES = "reports-data";
 
     public ReporteDTO generarReporteActividades(LocalDate startDate, LocalDate endDate, String nombreUsuario) {
         CustomUserDetails userDetails = (CustomUserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
@@ -39,15 +49,11 @@ public class ReporteService {
             Usuario usuario = usuarioRepository.findByNombre(nombreUsuario.trim());
 
             if (usuario == null) {
-                List<Usuario> todosUsuarios = usuarioRepository.findAll();
-                usuario = todosUsuarios.stream()
-                        .filter(u -> u.getNombre().trim().equalsIgnoreCase(nombreUsuario.trim()))
-                        .findFirst()
-                        .orElse(null);
+                usuario = usuarioRepository.findByNombreIgnorandoMayusculas(nombreUsuario);
 
                 if (usuario == null) {
                     throw new RuntimeException("Usuario no encontrado: '" + nombreUsuario + "'. Usuarios disponibles: " +
-                            todosUsuarios.stream().map(Usuario::getNombre).collect(Collectors.toList()));
+                            usuarioRepository.findAll().stream().map(Usuario::getNombre).collect(Collectors.toList()));
                 }
             }
             userId = usuario.getId();
@@ -55,51 +61,51 @@ public class ReporteService {
             userId = userDetails.getId();
         }
 
+        ClaveReporte clave = new ClaveReporte(userId, startDate, endDate);
+        Cache cache = cacheManager.getCache(CACHE_REPORTES);
+        ReporteDTO enCache = cache != null ? cache.get(clave, ReporteDTO.class) : null;
+        if (enCache != null) {
+            return enCache;
+        }
+
+        ReporteDTO reporte = calcularReporteActividades(userId, startDate, endDate);
+        if (cache != null) {
+            cache.put(clave, reporte);
+        }
+        return reporte;
+    }
+
+    // Conteos y notas con tres consultas agregadas en lugar de una consulta de empresa por actividad
+    private ReporteDTO calcularReporteActividades(Integer userId, LocalDate startDate, LocalDate endDate) {
         Instant start = DateUtils.localDateToInstantStartOfDay(startDate);
         Instant end = DateUtils.localDateToInstantEndOfDay(endDate);
 
-        // Obtener actividades completadas
-        List<Actividad> actividades = actividadRepository.findByUsuarioCompletadoIdAndFechaCompletadoBetween(
-                userId, start, end);
         ReporteDTO reporte = new ReporteDTO();
 
-        // Gráfica de Actividades Realizadas
-        reporte.setActividades(actividades.stream()
-                .collect(Collectors.groupingBy(
-                        a -> a.getTipo().name(),
-                        Collectors.groupingBy(
-                                a -> getMedio(a),
-                                Collectors.counting()
-                        )
-                )).entrySet().stream()
-                .flatMap(tipoEntry ->
-                        tipoEntry.getValue().entrySet().stream()
-                                .map(medioEntry -> new ReporteDTO.ActividadCount(
-                                        medioEntry.getKey(),
-                                        medioEntry.getValue().intValue(),
-                                        getColor(tipoEntry.getKey()),
-                                        tipoEntry.getKey()
-                                ))
-                )
-                .collect(Collectors.toList()));
+        // Gráfica de Actividades Realizadas (varios medios pueden caer en "Otros")
+        Map<String, Map<String, Integer>> conteos = new LinkedHashMap<>();
+        for (Object[] row : actividadRepository.contarCompletadasPorTipoYMedio(userId, start, end)) {
+            String tipo = ((TipoActividadEnum) row[0]).name();
+            conteos.computeIfAbsent(tipo, k -> new LinkedHashMap<>())
+                    .merge(getMedio(tipo, (MedioReunionEnum) row[1]), ((Number) row[2]).intValue(), Integer::sum);
+        }
+        List<ReporteDTO.ActividadCount> actividades = new ArrayList<>();
+        conteos.forEach((tipo, porMedio) -> porMedio.forEach((medio, total) ->
+                actividades.add(new ReporteDTO.ActividadCount(medio, total, getColor(tipo), tipo))));
+        reporte.setActividades(actividades);
 
         // Gráfica de Empresas Contactada
-        reporte.setEmpresas(actividades.stream()
-                .collect(Collectors.groupingBy(
-                        a -> actividadRepository.findEmpresaNameByTratoId(a.getTratoId()),
-                        Collectors.counting()
-                )).entrySet().stream()
-                .map(e -> new ReporteDTO.EmpresaCount(e.getKey(), e.getValue().intValue()))
+        reporte.setEmpresas(actividadRepository.contarCompletadasPorEmpresa(userId, start, end).stream()
+                .map(row -> new ReporteDTO.EmpresaCount((String) row[0], ((Number) row[1]).intValue()))
                 .collect(Collectors.toList()));
 
         // Notas de Interacciones (usando actividades completadas)
-        reporte.setNotas(actividades.stream()
-                .filter(a -> a.getEstatus() == com.tss.tssmanager_backend.enums.EstatusActividadEnum.CERRADA)
-                .map(a -> new ReporteDTO.Nota(
-                        actividadRepository.findEmpresaNameByTratoId(a.getTratoId()),
-                        a.getNotas() != null ? a.getNotas() : "Sin notas",
-                        a.getRespuesta() != null ? a.getRespuesta().name() : "No",
-                        a.getInteres() != null ? a.getInteres().name() : "Bajo"
+        reporte.setNotas(actividadRepository.findNotasCompletadas(userId, start, end, EstatusActividadEnum.CERRADA).stream()
+                .map(row -> new ReporteDTO.Nota(
+                        (String) row[0],
+                        row[1] != null ? (String) row[1] : "Sin notas",
+                        row[2] != null ? ((Enum<?>) row[2]).name() : "No",
+                        row[3] != null ? ((Enum<?>) row[3]).name() : "Bajo"
                 ))
                 .collect(Collectors.toList()));
 
@@ -109,6 +115,43 @@ public class ReporteService {
         return reporte;
     }
 
+    // Descarta los reportes en caché de un usuario, ahora y al terminar la transacción en curso
+    public void invalidarReporteActividades(Integer usuarioId) {
+        Runnable descarte = () -> {
+            Cache cache = cacheManager.getCache(CACHE_REPORTES);
+            if (cache != null && cache.getNativeCache() instanceof com.github.benmanes.caffeine.cache.Cache<?, ?> nativo) {
+                nativo.asMap().keySet().removeIf(clave ->
+                        clave instanceof ClaveReporte reporte && Objects.equals(reporte.usuarioId(), usuarioId));
+            } else if (cache != null) {
+                cache.clear();
+            }
+        };
+        ejecutarAhoraYAlTerminar(descarte);
+    }
+
+    public void invalidarReportesActividades() {
+        ejecutarAhoraYAlTerminar(() -> {
+            Cache cache = cacheManager.getCache(CACHE_REPORTES);
+            if (cache != null) {
+                cache.clear();
+            }
+        });
+    }
+
+    private void ejecutarAhoraYAlTerminar(Runnable descarte) {
+        descarte.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    descarte.run();
+                }
+            });
+        }
+    }
+
+    private record ClaveReporte(Integer usuarioId, LocalDate inicio, LocalDate fin) {}
+
     private String getColor(String type) {
         switch (type) {
             case "REUNIONES": return "#ff6b6b";
@@ -119,9 +162,8 @@ public class ReporteService {
         }
     }
 
-    private String getMedio(Actividad actividad) {
-        String tipo = actividad.getTipo().name();
-        String medio = actividad.getMedio() != null ? actividad.getMedio().name() : "SIN_MEDIO";
+    private String getMedio(String tipo, MedioReunionEnum medioActividad) {
+        String medio = medioActividad != null ? medioActividad.name() : "SIN_MEDIO";
 
         if ("TAREAS".equals(tipo)) {
             switch (medio) {
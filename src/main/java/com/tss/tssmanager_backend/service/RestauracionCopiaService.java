@@ -0,0 +1,251 @@
+package com.tss.tssmanager_backend.service;
+
+import com.tss.tssmanager_backend.dto.ResultadoRestauracionDTO;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Motor de restauración por conjuntos para las copias de seguridad. Las filas ya normalizadas
+ * se cargan en una tabla temporal con lotes JDBC grandes y se insertan en la tabla destino con
+ * una sola sentencia INSERT ... SELECT que resuelve las referencias (contactos, empresas,
+ * sectores, modelos, proveedores, plataformas, equipos) con joins. Debe ejecutarse dentro de la
+ * transacción de la restauración: las tablas temporales se descartan al confirmarla.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RestauracionCopiaService {
+
+    private static final int TAMANO_LOTE_CARGA = 1000;
+    private static final String USUARIO_RESTAURACION = "SISTEMA_RESTAURACION";
+
+    public static final String[] COLUMNAS_TRATOS = {"nombre", "empresa_id", "contacto", "numero_unidades",
+            "ingresos_esperados", "descripcion", "fecha_cierre", "no_trato", "probabilidad", "fase"};
+    public static final String[] COLUMNAS_EMPRESAS = {"nombre", "estatus", "sitio_web", "sector", "domicilio_fisico",
+            "domicilio_fiscal", "rfc", "razon_social", "regimen_fiscal"};
+    public static final String[] COLUMNAS_CONTACTOS = {"nombre", "empresa", "rol", "celular"};
+    public static final String[] COLUMNAS_EQUIPOS = {"imei", "nombre", "modelo_id", "cliente_id", "proveedor_id", "tipo",
+            "estatus", "tipo_activacion", "plataforma", "fecha_activacion", "fecha_expiracion"};
+    public static final String[] COLUMNAS_SIMS = {"numero", "tarifa", "vigencia", "recarga", "responsable", "principal",
+            "grupo", "equipo_imei", "contrasena"};
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // Tipo SQL de cada columna destino, leído del catálogo para convertir el texto de la tabla temporal
+    private final Map<String, String> tiposColumna = new ConcurrentHashMap<>();
+
+    public int insertarTratos(Integer usuarioId, List<String[]> filas, ResultadoRestauracionDTO resultado) {
+        String tabla = "\"Tratos\"";
+        medir(resultado, "carga", () -> cargarTablaTemporal("restauracion_tratos", COLUMNAS_TRATOS, filas));
+
+        // Los tratos sin empresa existente, sin contacto del usuario o sin probabilidad violarían
+        // las restricciones NOT NULL / FK: se omiten en lugar de abortar la sentencia completa
+        String sql = "INSERT INTO " + tabla + " (nombre, empresa_id, contacto_id, numero_unidades, ingresos_esperados, " +
+                "descripcion, propietario_id, fecha_cierre, no_trato, probabilidad, fase, correos_automaticos_activos, " +
+                "correos_seguimiento_activo, correos_seguimiento_enviados, fecha_creacion, fecha_modificacion, " +
+                "fecha_ultima_actividad) " +
+                "SELECT s.nombre, e.id, c.id, " +
+                convertir("s.numero_unidades", tabla, "numero_unidades") + ", " +
+                convertir("s.ingresos_esperados", tabla, "ingresos_esperados") + ", " +
+                "s.descripcion, ?, " +
+                convertir("s.fecha_cierre", tabla, "fecha_cierre") + ", " +
+                "NULLIF(s.no_trato, ''), " +
+                convertir("s.probabilidad", tabla, "probabilidad") + ", " +
+                "s.fase, false, false, 0, now(), now(), now() " +
+                "FROM restauracion_tratos s " +
+                "JOIN \"Empresas\" e ON e.id = CAST(s.empresa_id AS integer) " +
+                "JOIN LATERAL (SELECT x.id FROM \"Contactos\" x WHERE x.nombre = s.contacto AND x.propietario_id = ? " +
+                "ORDER BY x.id LIMIT 1) c ON true " +
+                "WHERE s.probabilidad IS NOT NULL " +
+                "ORDER BY s.fila " +
+                "ON CONFLICT DO NOTHING";
+
+        return registrar(resultado, filas.size(), medir(resultado, "insercion", () -> jdbcTemplate.update(sql, usuarioId, usuarioId)));
+    }
+
+    public int insertarEmpresas(Integer usuarioId, List<String[]> filas, ResultadoRestauracionDTO resultado) {
+        String tabla = "\"Empresas\"";
+        medir(resultado, "carga", () -> cargarTablaTemporal("restauracion_empresas", COLUMNAS_EMPRESAS, filas));
+
+        // Los sectores que no existen se crean de una vez antes de insertar las empresas
+        int sectoresCreados = medir(resultado, "sectores", () -> jdbcTemplate.update(
+                "INSERT INTO \"Sectores\" (nombre_sector, creado_por, modificado_por, fecha_creacion, fecha_modificacion) " +
+                        "SELECT DISTINCT ON (lower(s.sector)) s.sector, ?, ?, now(), now() " +
+                        "FROM restauracion_empresas s " +
+                        "WHERE s.sector <> '' " +
+                        "AND NOT EXISTS (SELECT 1 FROM \"Sectores\" x WHERE lower(x.nombre_sector) = lower(s.sector)) " +
+                        "ON CONFLICT DO NOTHING",
+                USUARIO_RESTAURACION, USUARIO_RESTAURACION));
+        if (sectoresCreados > 0) {
+            log.info("Creados {} sectores durante la restauración de empresas", sectoresCreados);
+        }
+
+        String sql = "INSERT INTO " + tabla + " (nombre, propietario_id, estatus, sitio_web, sector_id, domicilio_fisico, " +
+                "domicilio_fiscal, rfc, razon_social, regimen_fiscal, creado_por, modificado_por, fecha_creacion, " +
+                "fecha_modificacion, fecha_ultima_actividad) " +
+                "SELECT s.nombre, ?, " + convertir("s.estatus", tabla, "estatus") + ", s.sitio_web, sec.id, " +
+                "s.domicilio_fisico, s.domicilio_fiscal, s.rfc, s.razon_social, s.regimen_fiscal, ?, ?, now(), now(), now() " +
+                "FROM restauracion_empresas s " +
+                "LEFT JOIN LATERAL (SELECT x.id FROM \"Sectores\" x WHERE lower(x.nombre_sector) = lower(s.sector) " +
+                "ORDER BY x.id LIMIT 1) sec ON true " +
+                "ORDER BY s.fila " +
+                "ON CONFLICT DO NOTHING";
+
+        return registrar(resultado, filas.size(), medir(resultado, "insercion", () ->
+                jdbcTemplate.update(sql, usuarioId, USUARIO_RESTAURACION, USUARIO_RESTAURACION)));
+    }
+
+    public int insertarContactos(Integer usuarioId, List<String[]> filas, ResultadoRestauracionDTO resultado) {
+        String tabla = "\"Contactos\"";
+        medir(resultado, "carga", () -> cargarTablaTemporal("restauracion_contactos", COLUMNAS_CONTACTOS, filas));
+
+        String sql = "INSERT INTO " + tabla + " (empresa_id, nombre, rol, celular, propietario_id, creado_por, " +
+                "modificado_por, fecha_creacion, fecha_modificacion, fecha_ultima_actividad) " +
+                "SELECT e.id, s.nombre, " + convertir("s.rol", tabla, "rol") + ", s.celular, ?, ?, ?, now(), now(), now() " +
+                "FROM restauracion_contactos s " +
+                "JOIN LATERAL (SELECT x.id FROM \"Empresas\" x WHERE x.nombre = s.empresa AND x.propietario_id = ? " +
+                "ORDER BY x.id LIMIT 1) e ON true " +
+                "ORDER BY s.fila " +
+                "ON CONFLICT DO NOTHING";
+
+        return registrar(resultado, filas.size(), medir(resultado, "insercion", () ->
+                jdbcTemplate.update(sql, usuarioId, USUARIO_RESTAURACION, USUARIO_RESTAURACION, usuarioId)));
+    }
+
+    /**
+     * Elimina todos los equipos y las SIMs vinculadas a ellos, equivalente al borrado en
+     * cascada que hacía JPA entidad por entidad.
+     */
+    public void eliminarEquipos() {
+        jdbcTemplate.update("DELETE FROM \"SIMs\" WHERE equipo_imei IS NOT NULL");
+        jdbcTemplate.update("DELETE FROM \"Equipos\"");
+    }
+
+    public int insertarEquipos(List<String[]> filas, ResultadoRestauracionDTO resultado) {
+        String tabla = "\"Equipos\"";
+        medir(resultado, "carga", () -> cargarTablaTemporal("restauracion_equipos", COLUMNAS_EQUIPOS, filas));
+
+        String sql = "INSERT INTO " + tabla + " (imei, nombre, modelo_id, cliente_id, proveedor_id, tipo, estatus, " +
+                "tipo_activacion, plataforma_id, fecha_activacion, fecha_expiracion, creditos_usados) " +
+                "SELECT s.imei, s.nombre, m.id, cli.id, p.id, " +
+                convertir("s.tipo", tabla, "tipo") + ", " +
+                convertir("s.estatus", tabla, "estatus") + ", " +
+                convertir("s.tipo_activacion", tabla, "tipo_activacion") + ", " +
+                "pl.id, " +
+                convertir("s.fecha_activacion", tabla, "fecha_activacion") + ", " +
+                convertir("s.fecha_expiracion", tabla, "fecha_expiracion") + ", 0 " +
+                "FROM restauracion_equipos s " +
+                "JOIN \"Modelos_Equipos\" m ON m.id = CAST(s.modelo_id AS integer) " +
+                "JOIN \"Proveedores\" p ON p.id = CAST(s.proveedor_id AS integer) " +
+                "LEFT JOIN \"Empresas\" cli ON cli.id = CAST(s.cliente_id AS integer) " +
+                "LEFT JOIN plataformas pl ON pl.nombre_plataforma = s.plataforma " +
+                "WHERE s.tipo IS NOT NULL AND s.estatus IS NOT NULL " +
+                "ORDER BY s.fila " +
+                "ON CONFLICT DO NOTHING";
+
+        return registrar(resultado, filas.size(), medir(resultado, "insercion", () -> jdbcTemplate.update(sql)));
+    }
+
+    public void eliminarSims() {
+        jdbcTemplate.update("DELETE FROM \"SIMs\"");
+    }
+
+    public int insertarSims(List<String[]> filas, ResultadoRestauracionDTO resultado) {
+        String tabla = "\"SIMs\"";
+        medir(resultado, "carga", () -> cargarTablaTemporal("restauracion_sims", COLUMNAS_SIMS, filas));
+
+        String sql = "INSERT INTO " + tabla + " (numero, tarifa, vigencia, recarga, responsable, principal, grupo, " +
+                "equipo_imei, contrasena) " +
+                "SELECT s.numero, " +
+                convertir("s.tarifa", tabla, "tarifa") + ", " +
+                convertir("s.vigencia", tabla, "vigencia") + ", " +
+                convertir("s.recarga", tabla, "recarga") + ", " +
+                convertir("s.responsable", tabla, "responsable") + ", " +
+                convertir("s.principal", tabla, "principal") + ", " +
+                convertir("s.grupo", tabla, "grupo") + ", " +
+                "eq.imei, s.contrasena " +
+                "FROM restauracion_sims s " +
+                "LEFT JOIN LATERAL (SELECT x.imei FROM \"Equipos\" x WHERE x.imei = s.equipo_imei LIMIT 1) eq ON true " +
+                "WHERE s.tarifa IS NOT NULL AND s.responsable IS NOT NULL AND s.principal IS NOT NULL " +
+                "ORDER BY s.fila " +
+                "ON CONFLICT DO NOTHING";
+
+        return registrar(resultado, filas.size(), medir(resultado, "insercion", () -> jdbcTemplate.update(sql)));
+    }
+
+    /**
+     * Ejecuta una fase de la restauración acumulando su duración en el resultado.
+     */
+    public <T> T medir(ResultadoRestauracionDTO resultado, String fase, Supplier<T> accion) {
+        long inicio = System.nanoTime();
+        try {
+            return accion.get();
+        } finally {
+            long duracionMs = (System.nanoTime() - inicio) / 1_000_000;
+            resultado.getTiemposPorFaseMs().merge(fase, duracionMs, Long::sum);
+            resultado.setTiempoTotalMs(resultado.getTiempoTotalMs() + duracionMs);
+        }
+    }
+
+    private int registrar(ResultadoRestauracionDTO resultado, int leidos, int restaurados) {
+        resultado.setRegistrosRestaurados(resultado.getRegistrosRestaurados() + restaurados);
+        resultado.setRegistrosOmitidos(resultado.getRegistrosOmitidos() + (leidos - restaurados));
+        return restaurados;
+    }
+
+    private Void cargarTablaTemporal(String tablaTemporal, String[] columnas, List<String[]> filas) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + tablaTemporal);
+        jdbcTemplate.execute("CREATE TEMP TABLE " + tablaTemporal + " (fila INTEGER, " +
+                Arrays.stream(columnas).map(c -> c + " TEXT").collect(Collectors.joining(", ")) +
+                ") ON COMMIT DROP");
+
+        String insert = "INSERT INTO " + tablaTemporal + " (fila, " + String.join(", ", columnas) + ") VALUES (?" +
+                ", ?".repeat(columnas.length) + ")";
+
+        for (int desde = 0; desde < filas.size(); desde += TAMANO_LOTE_CARGA) {
+            int inicioLote = desde;
+            List<String[]> lote = filas.subList(desde, Math.min(desde + TAMANO_LOTE_CARGA, filas.size()));
+            jdbcTemplate.batchUpdate(insert, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    String[] fila = lote.get(i);
+                    ps.setInt(1, inicioLote + i);
+                    for (int j = 0; j < columnas.length; j++) {
+                        ps.setString(j + 2, j < fila.length ? fila[j] : null);
+                    }
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return lote.size();
+                }
+            });
+        }
+
+        jdbcTemplate.execute("ANALYZE " + tablaTemporal);
+        return null;
+    }
+
+    private String convertir(String expresion, String tabla, String columna) {
+        return "CAST(" + expresion + " AS " + tipoColumna(tabla, columna) + ")";
+    }
+
+    private String tipoColumna(String tabla, String columna) {
+        return tiposColumna.computeIfAbsent(tabla + "." + columna, llave -> jdbcTemplate.queryForObject(
+                "SELECT format_type(a.atttypid, a.atttypmod) FROM pg_attribute a " +
+                        "WHERE a.attrelid = CAST(? AS regclass) AND a.attname = ? AND NOT a.attisdropped",
+                String.class, tabla, columna));
+    }
+}
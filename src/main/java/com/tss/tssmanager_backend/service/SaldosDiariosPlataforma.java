@@ -0,0 +1,145 @@
+package com.tss.tssmanager_backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Saldo al cierre de cada día por plataforma/subtipo (la misma clave que usa la gráfica del
+ * dashboard de créditos), guardado en saldos_diarios_plataforma. Cada movimiento del libro de
+ * créditos suma su importe al día en que ocurre y a los días posteriores ya registrados, así que
+ * el historial de cualquier rango es una lectura por índice de fecha más el último cierre previo
+ * de cada clave. La tabla se reconstruye completa desde creditos_plataforma al arrancar si está
+ * vacía y cada noche, para corregir cualquier diferencia.
+ */
+@Component
+@Slf4j
+public class SaldosDiariosPlataforma {
+
+    private static final String SQL_REGISTRAR_DIA = """
+            INSERT INTO saldos_diarios_plataforma AS s (clave, fecha, movimiento, saldo)
+            VALUES (?, ?, ?, COALESCE((SELECT p.saldo FROM saldos_diarios_plataforma p
+                                       WHERE p.clave = ? AND p.fecha < ?
+                                       ORDER BY p.fecha DESC LIMIT 1), 0) + ?)
+            ON CONFLICT (clave, fecha) DO UPDATE
+                SET movimiento = s.movimiento + EXCLUDED.movimiento,
+                    saldo = s.saldo + EXCLUDED.movimiento
+            """;
+
+    private static final String SQL_ARRASTRAR_DIAS_POSTERIORES =
+            "UPDATE saldos_diarios_plataforma SET saldo = saldo + ? WHERE clave = ? AND fecha > ?";
+
+    private static final String SQL_MOVIMIENTOS_POR_DIA = """
+            SELECT p.nombre_plataforma, c.subtipo, CAST(c.fecha AS date) AS dia,
+                   SUM(CASE WHEN c.tipo = 'ABONO' THEN c.monto ELSE -c.monto END)
+            FROM creditos_plataforma c
+            JOIN plataformas p ON p.id = c.plataforma_id
+            GROUP BY p.nombre_plataforma, c.subtipo, CAST(c.fecha AS date)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public SaldosDiariosPlataforma(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Aplica un movimiento al cierre de su día y a los cierres posteriores. Debe llamarse dentro
+     * de la transacción que guarda el crédito, para que ambos se confirmen o se descarten juntos.
+     */
+    public void registrarMovimiento(String clave, LocalDate fecha, BigDecimal movimiento) {
+        Date dia = Date.valueOf(fecha);
+        jdbcTemplate.update(SQL_REGISTRAR_DIA, clave, dia, movimiento, clave, dia, movimiento);
+        jdbcTemplate.update(SQL_ARRASTRAR_DIAS_POSTERIORES, movimiento, clave, dia);
+    }
+
+    /**
+     * Saldos al cierre de los días con movimientos dentro del rango, en orden de fecha. El mapa
+     * de cada día trae solo las claves que se movieron ese día; {@code saldosIniciales} recibe el
+     * último cierre anterior al rango de cada clave.
+     */
+    public SortedMap<LocalDate, Map<String, BigDecimal>> obtenerCierres(LocalDate fechaInicio, LocalDate fechaFin,
+                                                                         Map<String, BigDecimal> saldosIniciales) {
+        jdbcTemplate.query("""
+                        SELECT DISTINCT ON (clave) clave, saldo FROM saldos_diarios_plataforma
+                        WHERE fecha < ? ORDER BY clave, fecha DESC
+                        """,
+                rs -> {
+                    saldosIniciales.put(rs.getString(1), rs.getBigDecimal(2));
+                }, Date.valueOf(fechaInicio));
+
+        SortedMap<LocalDate, Map<String, BigDecimal>> cierres = new TreeMap<>();
+        jdbcTemplate.query("SELECT fecha, clave, saldo FROM saldos_diarios_plataforma WHERE fecha BETWEEN ? AND ?",
+                rs -> {
+                    cierres.computeIfAbsent(rs.getDate(1).toLocalDate(), k -> new HashMap<>())
+                            .put(rs.getString(2), rs.getBigDecimal(3));
+                }, Date.valueOf(fechaInicio), Date.valueOf(fechaFin));
+        return cierres;
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void inicializar() {
+        try {
+            Integer cierres = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM (SELECT 1 FROM saldos_diarios_plataforma LIMIT 1) t", Integer.class);
+            if (cierres == null || cierres == 0) {
+                reconstruir();
+            }
+        } catch (Exception e) {
+            log.error("No se pudieron preparar los saldos diarios de plataformas: {}", e.getMessage(), e);
+        }
+    }
+
+    @Scheduled(cron = "0 30 3 * * *", zone = "America/Mexico_City")
+    public void reconciliar() {
+        try {
+            reconstruir();
+        } catch (Exception e) {
+            log.error("Error al reconciliar los saldos diarios de plataformas: {}", e.getMessage(), e);
+        }
+    }
+
+    // Recalcula todos los cierres desde el libro de créditos en una sola transacción
+    public void reconstruir() {
+        long inicio = System.currentTimeMillis();
+        int dias = transactionTemplate.execute(status -> {
+            // Bloquea el libro para que ningún movimiento nuevo quede fuera de la reconstrucción
+            jdbcTemplate.execute("LOCK TABLE creditos_plataforma IN SHARE MODE");
+
+            Map<String, SortedMap<LocalDate, BigDecimal>> movimientos = new HashMap<>();
+            jdbcTemplate.query(SQL_MOVIMIENTOS_POR_DIA, rs -> {
+                String clave = CreditoPlataformaService.claveHistorial(rs.getString(1), rs.getString(2));
+                movimientos.computeIfAbsent(clave, k -> new TreeMap<>())
+                        .merge(rs.getDate(3).toLocalDate(), rs.getBigDecimal(4), BigDecimal::add);
+            });
+
+            List<Object[]> filas = new ArrayList<>();
+            movimientos.forEach((clave, porDia) -> {
+                BigDecimal saldo = BigDecimal.ZERO;
+                for (Map.Entry<LocalDate, BigDecimal> dia : porDia.entrySet()) {
+                    saldo = saldo.add(dia.getValue());
+                    filas.add(new Object[]{clave, Date.valueOf(dia.getKey()), dia.getValue(), saldo});
+                }
+            });
+
+            jdbcTemplate.update("DELETE FROM saldos_diarios_plataforma");
+            jdbcTemplate.batchUpdate(
+                    "INSERT INTO saldos_diarios_plataforma (clave, fecha, movimiento, saldo) VALUES (?, ?, ?, ?)", filas);
+            return filas.size();
+        });
+        log.info("Saldos diarios de plataformas reconstruidos: {} cierres en {} ms", dias, System.currentTimeMillis() - inicio);
+    }
+}
@@ -50,6 +50,9 @@ public class SimService {
     @Autowired
     private CuentaPorPagarService cuentaPorPagarService;
 
+    @Autowired
+    private IndiceSaldosSim indiceSaldosSim;
+
     @Transactional
     public Sim guardarSim(Sim sim) {
 
@@ -156,6 +159,7 @@ public class SimService {
         }
 
         Sim savedSim = simRepository.save(sim);
+        indiceSaldosSim.invalidar(savedSim.getId());
 
         if (savedSim.getResponsable() == ResponsableSimEnum.TSS &&
                 savedSim.getTarifa() == TarifaSimEnum.POR_SEGUNDO &&
@@ -511,14 +515,15 @@ public class SimService {
     @Transactional(readOnly = true)
     public String obtenerUltimoSaldoParaSim(Integer simId, TarifaSimEnum tarifa) {
         try {
-            HistorialSaldosSim ultimoSaldo = obtenerUltimoSaldo(simId);
-            if (ultimoSaldo == null) return "Sin registros";
+            IndiceSaldosSim.UltimoSaldo ultimoSaldo = indiceSaldosSim.obtener(simId)
+                    .orElseThrow(() -> new EntityNotFoundException("SIM no encontrada con ID: " + simId));
+            if (!ultimoSaldo.tieneRegistro()) return "Sin registros";
 
-            if (tarifa == TarifaSimEnum.POR_SEGUNDO && ultimoSaldo.getSaldoActual() != null) {
-                return "$" + ultimoSaldo.getSaldoActual().toString();
+            if (tarifa == TarifaSimEnum.POR_SEGUNDO && ultimoSaldo.saldoActual() != null) {
+                return "$" + ultimoSaldo.saldoActual().toString();
             } else if ((tarifa == TarifaSimEnum.SIN_LIMITE || tarifa == TarifaSimEnum.M2M_GLOBAL_15)
-                    && ultimoSaldo.getDatos() != null) {
-                return ultimoSaldo.getDatos().intValue() + " MB";
+                    && ultimoSaldo.datos() != null) {
+                return ultimoSaldo.datos().intValue() + " MB";
             }
             return "N/A";
         } catch (Exception e) {
@@ -576,6 +581,7 @@ public class SimService {
         }
         historialSaldosSimRepository.deleteBySimNumero(sim.getNumero());
         simRepository.delete(sim);
+        indiceSaldosSim.invalidar(id);
 
         System.out.println("SIM eliminada exitosamente: " + sim.getNumero());
     }
@@ -606,6 +612,7 @@ public class SimService {
         historial.setDatos((sim.getTarifa() == TarifaSimEnum.SIN_LIMITE || sim.getTarifa() == TarifaSimEnum.M2M_GLOBAL_15) ? datos : null);
         historial.setFecha(fecha != null ? fecha : Date.valueOf(LocalDate.now()));
         historialSaldosSimRepository.save(historial);
+        indiceSaldosSim.invalidar(simId);
     }
 
     @Transactional(readOnly = true)
@@ -694,68 +701,50 @@ public class SimService {
 
     @Transactional(readOnly = true)
     public HistorialSaldosSim obtenerUltimoSaldo(Integer simId) {
-        Sim sim = simRepository.findById(simId)
+        IndiceSaldosSim.UltimoSaldo ultimoSaldo = indiceSaldosSim.obtener(simId)
                 .orElseThrow(() -> new EntityNotFoundException("SIM no encontrada con ID: " + simId));
-
-        List<HistorialSaldosSim> historial = historialSaldosSimRepository.findBySimNumeroOrderByFechaDesc(sim.getNumero());
-
-        HistorialSaldosSim ultimoSaldo = historial.stream()
-                .findFirst()
-                .orElse(null);
-
-        return ultimoSaldo;
+        if (!ultimoSaldo.tieneRegistro()) {
+            return null;
+        }
+        return historialSaldosSimRepository.findById(ultimoSaldo.historialId()).orElse(null);
     }
 
     @Transactional(readOnly = true)
     public Map<Integer, String> obtenerUltimosSaldosParaLista(List<Integer> simIds) {
         Map<Integer, String> ultimosSaldos = new HashMap<>();
-
-        for (Integer simId : simIds) {
-            try {
-                Sim sim = simRepository.findById(simId).orElse(null);
-                if (sim == null) continue;
-
-                List<HistorialSaldosSim> historial = historialSaldosSimRepository.findBySimNumeroOrderByFechaDesc(sim.getNumero());
-
-                if (!historial.isEmpty()) {
-                    HistorialSaldosSim ultimoRegistro = historial.get(0);
-                    if (ultimoRegistro != null) {
-                        if (sim.getTarifa() == TarifaSimEnum.POR_SEGUNDO && ultimoRegistro.getSaldoActual() != null) {
-                            ultimosSaldos.put(simId, "$" + ultimoRegistro.getSaldoActual().toString());
-                        } else if ((sim.getTarifa() == TarifaSimEnum.SIN_LIMITE || sim.getTarifa() == TarifaSimEnum.M2M_GLOBAL_15)
-                                && ultimoRegistro.getDatos() != null) {
-                            int datosEnteros = ultimoRegistro.getDatos().intValue();
-                            ultimosSaldos.put(simId, datosEnteros + " MB");
-                        } else {
-                            ultimosSaldos.put(simId, "N/A");
-                        }
-                    }
-                     else {
-                        ultimosSaldos.put(simId, "N/A");
-                    }
-                } else {
-                    ultimosSaldos.put(simId, "Sin registros");
-                }
-            } catch (Exception e) {
+        try {
+            indiceSaldosSim.obtener(simIds)
+                    .forEach((simId, ultimoSaldo) -> ultimosSaldos.put(simId, ultimoSaldo.descripcion()));
+        } catch (Exception e) {
+            for (Integer simId : simIds) {
                 ultimosSaldos.put(simId, "Error");
             }
         }
-
         return ultimosSaldos;
     }
 
     public BigDecimal obtenerSaldoNumerico(Integer simId) {
         try {
-            HistorialSaldosSim ultimo = obtenerUltimoSaldo(simId);
-            if (ultimo != null && ultimo.getSaldoActual() != null) {
-                return ultimo.getSaldoActual();
-            }
-            return BigDecimal.ZERO;
+            return indiceSaldosSim.obtener(simId)
+                    .map(IndiceSaldosSim.UltimoSaldo::saldoActual)
+                    .orElse(BigDecimal.ZERO);
         } catch (Exception e) {
             return BigDecimal.ZERO;
         }
     }
 
+    // Saldo numérico de varias SIMs en una sola consulta; las que no tienen saldo quedan en cero
+    public Map<Integer, BigDecimal> obtenerSaldosNumericos(Collection<Integer> simIds) {
+        Map<Integer, BigDecimal> saldos = new HashMap<>();
+        try {
+            indiceSaldosSim.obtener(simIds).forEach((simId, ultimoSaldo) ->
+                    saldos.put(simId, ultimoSaldo.saldoActual() != null ? ultimoSaldo.saldoActual() : BigDecimal.ZERO));
+        } catch (Exception e) {
+            System.err.println("Error al obtener saldos de SIMs: " + e.getMessage());
+        }
+        return saldos;
+    }
+
     @Transactional
     public void aprobarAlertaSaldo(Integer simId) {
         // Obtenemos el historial más reciente de esa SIM
@@ -765,6 +754,7 @@ public class SimService {
             // Marcamos ESE registro específico como revisado
             ultimoSaldo.setRevisado(true);
             historialSaldosSimRepository.save(ultimoSaldo);
+            indiceSaldosSim.invalidar(simId);
         } else {
             throw new EntityNotFoundException("No hay historial para aprobar.");
         }
@@ -772,10 +762,11 @@ public class SimService {
 
     @Transactional
     public void eliminarHistorialSaldo(Integer id) {
-        if (!historialSaldosSimRepository.existsById(id)) {
-            throw new EntityNotFoundException("Registro de historial no encontrado.");
-        }
-        historialSaldosSimRepository.deleteById(id);
+        HistorialSaldosSim historial = historialSaldosSimRepository.findById(id)
+                .orElseThrow(() -> new EntityNotFoundException("Registro de historial no encontrado."));
+        Integer simId = historial.getSim().getId();
+        historialSaldosSimRepository.delete(historial);
+        indiceSaldosSim.invalidar(simId);
     }
 
     @Transactional
@@ -789,6 +780,7 @@ public class SimService {
         historial.setRevisado(false);
 
         historialSaldosSimRepository.save(historial);
+        indiceSaldosSim.invalidar(historial.getSim().getId());
     }
 
     @Transactional
@@ -0,0 +1,179 @@
+package com.tss.tssmanager_backend.service;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Modelo de lectura del pipeline de tratos ("Tratos_Pipeline"): por trato guarda el total de
+ * actividades, las abiertas por tipo y la próxima actividad abierta, para que el tablero no
+ * tenga que contar ni cargar actividades en cada consulta. Las filas de los tratos cuyas
+ * actividades cambian se recalculan al confirmar la transacción que las modificó; una
+ * reconstrucción diaria corrige lo que se haya escrito por fuera del repositorio.
+ */
+@Service
+@Slf4j
+public class TratoPipelineService {
+
+    private static final String RECURSO_PENDIENTES = TratoPipelineService.class.getName() + ".pendientes";
+    private static final String RECURSO_RECONSTRUCCION = TratoPipelineService.class.getName() + ".reconstruccion";
+
+    private static final String SQL_ACTUALIZAR = """
+            INSERT INTO "Tratos_Pipeline" (trato_id, actividades_total, actividades_abiertas, tareas_abiertas,
+                    llamadas_abiertas, reuniones_abiertas, proxima_actividad_id, proxima_actividad_tipo,
+                    proxima_actividad_fecha, fecha_actualizacion)
+            SELECT t.id,
+                   COUNT(a.id),
+                   COUNT(a.id) FILTER (WHERE a.estatus = 'ABIERTA'),
+                   COUNT(a.id) FILTER (WHERE a.estatus = 'ABIERTA' AND a.tipo = 'TAREA'),
+                   COUNT(a.id) FILTER (WHERE a.estatus = 'ABIERTA' AND a.tipo = 'LLAMADA'),
+                   COUNT(a.id) FILTER (WHERE a.estatus = 'ABIERTA' AND a.tipo = 'REUNION'),
+                   prox.id, prox.tipo, prox.fecha_limite, now()
+            FROM "Tratos" t
+            LEFT JOIN "Actividades" a ON a.trato_id = t.id
+            LEFT JOIN LATERAL (
+                SELECT pa.id, pa.tipo::text AS tipo, pa.fecha_limite
+                FROM "Actividades" pa
+                WHERE pa.trato_id = t.id AND pa.estatus = 'ABIERTA'
+                ORDER BY pa.fecha_limite ASC, pa.hora_inicio ASC NULLS LAST, pa.id
+                LIMIT 1
+            ) prox ON TRUE
+            WHERE %s
+            GROUP BY t.id, prox.id, prox.tipo, prox.fecha_limite
+            ON CONFLICT (trato_id) DO UPDATE SET
+                actividades_total = EXCLUDED.actividades_total,
+                actividades_abiertas = EXCLUDED.actividades_abiertas,
+                tareas_abiertas = EXCLUDED.tareas_abiertas,
+                llamadas_abiertas = EXCLUDED.llamadas_abiertas,
+                reuniones_abiertas = EXCLUDED.reuniones_abiertas,
+                proxima_actividad_id = EXCLUDED.proxima_actividad_id,
+                proxima_actividad_tipo = EXCLUDED.proxima_actividad_tipo,
+                proxima_actividad_fecha = EXCLUDED.proxima_actividad_fecha,
+                fecha_actualizacion = EXCLUDED.fecha_actualizacion
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate transaccionNueva;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public TratoPipelineService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transaccionNueva = new TransactionTemplate(transactionManager);
+        this.transaccionNueva.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Marca el trato para recalcular su fila justo antes de confirmar la transacción actual,
+     * una sola vez aunque se modifiquen varias de sus actividades.
+     */
+    public void marcarTrato(Integer tratoId) {
+        if (tratoId == null) {
+            return;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            transactionTemplate.executeWithoutResult(status -> actualizar(Set.of(tratoId)));
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        Set<Integer> pendientes = (Set<Integer>) TransactionSynchronizationManager.getResource(RECURSO_PENDIENTES);
+        if (pendientes == null) {
+            Set<Integer> nuevos = new HashSet<>();
+            pendientes = nuevos;
+            TransactionSynchronizationManager.bindResource(RECURSO_PENDIENTES, nuevos);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    // Las actividades guardadas por JPA deben estar en la base antes de contar
+                    entityManager.flush();
+                    actualizar(nuevos);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(RECURSO_PENDIENTES);
+                }
+            });
+        }
+        pendientes.add(tratoId);
+    }
+
+    /**
+     * Para bajas en las que no se sabe a qué tratos pertenecían las actividades (deleteById,
+     * deleteAll*): reconstruye todo el pipeline una vez confirmada la transacción.
+     */
+    public void marcarReconstruccion() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            reconstruir();
+            return;
+        }
+        if (TransactionSynchronizationManager.hasResource(RECURSO_RECONSTRUCCION)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(RECURSO_RECONSTRUCCION, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                reconstruirEn(transaccionNueva);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(RECURSO_RECONSTRUCCION);
+            }
+        });
+    }
+
+    public int actualizar(Collection<Integer> tratoIds) {
+        if (tratoIds.isEmpty()) {
+            return 0;
+        }
+        Integer[] ids = tratoIds.toArray(new Integer[0]);
+        // Bloquea los tratos antes de contar. Otra transacción que marque los mismos tratos espera a
+        // este commit, y su INSERT (una sentencia nueva, con su propia instantánea en READ COMMITTED)
+        // ya cuenta estas actividades en lugar de sobrescribir la fila con un conteo viejo. NO KEY
+        // UPDATE no bloquea las altas de actividades que solo referencian el trato.
+        jdbcTemplate.query("SELECT 1 FROM \"Tratos\" WHERE id = ANY(?) ORDER BY id FOR NO KEY UPDATE",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("integer", ids)),
+                (RowCallbackHandler) rs -> {});
+        return jdbcTemplate.update(String.format(SQL_ACTUALIZAR, "t.id = ANY(?)"),
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("integer", ids)));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "0 30 3 * * *", zone = "America/Mexico_City")
+    public void reconstruir() {
+        reconstruirEn(transactionTemplate);
+    }
+
+    private void reconstruirEn(TransactionTemplate transaccion) {
+        try {
+            long inicio = System.currentTimeMillis();
+            Integer filas = transaccion.execute(status ->
+                    jdbcTemplate.update(String.format(SQL_ACTUALIZAR, "TRUE")));
+            log.info("Pipeline de tratos reconstruido: {} tratos en {} ms", filas, System.currentTimeMillis() - inicio);
+        } catch (Exception e) {
+            log.error("Error al reconstruir el pipeline de tratos: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -718,6 +718,13 @@ public class TratoService {
 
     @Transactional(readOnly = true)
     public List<TratoDTO> filtrarTratos(Integer empresaId, Integer propietarioId, Instant startDate, Instant endDate) {
+        return filtrarTratos(empresaId, propietarioId, startDate, endDate, true);
+    }
+
+    // Sin incluirActividades el tablero se arma solo con el modelo de lectura del pipeline
+    @Transactional(readOnly = true)
+    public List<TratoDTO> filtrarTratos(Integer empresaId, Integer propietarioId, Instant startDate, Instant endDate,
+                                        boolean incluirActividades) {
         Instant start = (startDate != null) ? startDate : Instant.now().minusSeconds(60 * 60 * 24 * 365 * 10);
         Instant end = (endDate != null) ? endDate : Instant.now();
 
@@ -741,7 +748,9 @@ public class TratoService {
         List<TratoDTO> tratos = convertToTratosDTOOptimized(results);
 
         // Cargar actividades por lotes solo para los tratos que las necesiten
-        loadActivitiesInBatch(tratos);
+        if (incluirActividades) {
+            loadActivitiesInBatch(tratos);
+        }
 
         return tratos;
     }
@@ -793,6 +802,13 @@ public class TratoService {
                 Long actividadesAbiertasCount = ((Number) row[19]).longValue();
                 Boolean hasActivities = (Boolean) row[20];
 
+                dto.setActividadesAbiertasCount(actividadesAbiertasCount.intValue());
+                dto.setTareasAbiertasCount(((Number) row[21]).intValue());
+                dto.setLlamadasAbiertasCount(((Number) row[22]).intValue());
+                dto.setReunionesAbiertasCount(((Number) row[23]).intValue());
+                dto.setProximaActividadTipo((String) row[24]);
+                dto.setProximaActividadFecha(convertToLocalDate(row[25]));
+
                 Instant fechaUltimaActividad = dto.getFechaUltimaActividad() != null ?
                         dto.getFechaUltimaActividad() : dto.getFechaCreacion();
 
@@ -853,37 +869,34 @@ public class TratoService {
             List<Actividad> tratoActivities = activitiesByTrato.get(trato.getId());
             if (tratoActivities != null && !tratoActivities.isEmpty()) {
 
-                // Convertir actividades a DTOs
-                List<ActividadDTO> actividadesDTOs = tratoActivities.stream()
-                        .map(this::convertToDTO)
-                        .collect(Collectors.toList());
+                // Convertir y clasificar las actividades en una sola pasada
+                List<ActividadDTO> actividadesDTOs = new ArrayList<>(tratoActivities.size());
+                List<ActividadDTO> tareas = new ArrayList<>();
+                List<ActividadDTO> llamadas = new ArrayList<>();
+                List<ActividadDTO> reuniones = new ArrayList<>();
+                List<ActividadDTO> historial = new ArrayList<>();
+
+                for (Actividad actividad : tratoActivities) {
+                    ActividadDTO dto = convertToDTO(actividad);
+                    actividadesDTOs.add(dto);
+
+                    if (EstatusActividadEnum.CERRADA.equals(dto.getEstatus())) {
+                        historial.add(dto);
+                    } else if (EstatusActividadEnum.ABIERTA.equals(dto.getEstatus())) {
+                        if (TipoActividadEnum.TAREA.equals(dto.getTipo())) {
+                            tareas.add(dto);
+                        } else if (TipoActividadEnum.LLAMADA.equals(dto.getTipo())) {
+                            llamadas.add(dto);
+                        } else if (TipoActividadEnum.REUNION.equals(dto.getTipo())) {
+                            reuniones.add(dto);
+                        }
+                    }
+                }
 
                 trato.setActividades(actividadesDTOs);
-
-                // Separar actividades abiertas por tipo
-                List<ActividadDTO> abiertas = actividadesDTOs.stream()
-                        .filter(a -> EstatusActividadEnum.ABIERTA.equals(a.getEstatus()))
-                        .collect(Collectors.toList());
-
-                List<ActividadDTO> tareas = abiertas.stream()
-                        .filter(a -> TipoActividadEnum.TAREA.equals(a.getTipo()))
-                        .collect(Collectors.toList());
-
-                List<ActividadDTO> llamadas = abiertas.stream()
-                        .filter(a -> TipoActividadEnum.LLAMADA.equals(a.getTipo()))
-                        .collect(Collectors.toList());
-
-                List<ActividadDTO> reuniones = abiertas.stream()
-                        .filter(a -> TipoActividadEnum.REUNION.equals(a.getTipo()))
-                        .collect(Collectors.toList());
-
                 trato.setActividadesAbiertas(new ActividadesAbiertasDTO(tareas, llamadas, reuniones));
 
                 // Historial de interacciones (actividades cerradas)
-                List<ActividadDTO> historial = actividadesDTOs.stream()
-                        .filter(a -> EstatusActividadEnum.CERRADA.equals(a.getEstatus()))
-                        .collect(Collectors.toList());
-
                 trato.setHistorialInteracciones(historial);
             }
         }
@@ -1674,6 +1687,10 @@ public class TratoService {
                     dto.setProximaActividadFecha(convertToLocalDate(row[16]));
                 }
 
+                dto.setTareasAbiertasCount(((Number) row[17]).intValue());     // 17: tareas_abiertas_count
+                dto.setLlamadasAbiertasCount(((Number) row[18]).intValue());   // 18: llamadas_abiertas_count
+                dto.setReunionesAbiertasCount(((Number) row[19]).intValue());  // 19: reuniones_abiertas_count
+
                 // Calcular si está desatendido
                 Instant fechaUltimaActividad = dto.getFechaUltimaActividad() != null ?
                         dto.getFechaUltimaActividad() : dto.getFechaCreacion();
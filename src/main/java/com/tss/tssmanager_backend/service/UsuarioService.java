@@ -8,6 +8,7 @@ import com.tss.tssmanager_backend.enums.EstatusUsuarioEnum;
 import com.tss.tssmanager_backend.repository.ActividadRepository;
 import com.tss.tssmanager_backend.repository.TratoRepository;
 import com.tss.tssmanager_backend.repository.UsuarioRepository;
+import com.tss.tssmanager_backend.security.CacheAutenticacion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -42,6 +43,9 @@ public class UsuarioService {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private CacheAutenticacion cacheAutenticacion;
+
     @Cacheable(value = "usuarios", key = "#id")
     public Usuario findById(Integer id) {
         return usuarioRepository.findById(id).orElse(null);
@@ -54,6 +58,7 @@ public class UsuarioService {
 
     @CacheEvict(value = "usuarios", key = "#usuario.id")
     public Usuario save(Usuario usuario) {
+        cacheAutenticacion.invalidarUsuario(usuario.getNombreUsuario());
         return usuarioRepository.save(usuario);
     }
 
@@ -96,6 +101,7 @@ public class UsuarioService {
             if (usuario.getContrasena() != null && !usuario.getContrasena().isEmpty()) {
                 usuarioExistente.setContrasena(passwordEncoder.encode(usuario.getContrasena()));
             }
+            cacheAutenticacion.invalidarUsuario(usuarioExistente.getNombreUsuario());
             return usuarioRepository.save(usuarioExistente);
         }
         return usuarioRepository.save(usuario);
@@ -107,6 +113,17 @@ public class UsuarioService {
                 .orElseThrow(() -> new RuntimeException("Usuario no encontrado o ya inactivo"));
         usuario.setEstatus(EstatusUsuarioEnum.INACTIVO);
         usuarioRepository.save(usuario);
+        cacheAutenticacion.invalidarUsuario(usuario.getNombreUsuario());
+    }
+
+    @Transactional
+    public Usuario alternarEstatus(Integer id) {
+        Usuario usuario = usuarioRepository.findById(id)
+                .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
+        usuario.setEstatus(usuario.getEstatus() == EstatusUsuarioEnum.ACTIVO ?
+                EstatusUsuarioEnum.INACTIVO : EstatusUsuarioEnum.ACTIVO);
+        cacheAutenticacion.invalidarUsuario(usuario.getNombreUsuario());
+        return usuarioRepository.save(usuario);
     }
 
     @Transactional
@@ -115,6 +132,7 @@ public class UsuarioService {
                 .orElseThrow(() -> new RuntimeException("Usuario no encontrado o inactivo"));
         usuario.setContrasena(passwordEncoder.encode(nuevaContrasena));
         usuarioRepository.save(usuario);
+        cacheAutenticacion.invalidarUsuario(usuario.getNombreUsuario());
     }
 
 
@@ -153,6 +171,7 @@ public class UsuarioService {
         // Desactivar usuario
         usuarioOrigen.setEstatus(EstatusUsuarioEnum.INACTIVO);
         usuarioRepository.save(usuarioOrigen);
+        cacheAutenticacion.invalidarUsuario(usuarioOrigen.getNombreUsuario());
 
         logger.info("Usuario {} desactivado. Tratos y actividades reasignados a usuario {}",
                 usuarioId, usuarioDestinoId);
@@ -0,0 +1,65 @@
+package com.tss.tssmanager_backend.utils;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Descargas que se generan mientras se envían (exportaciones, reportes PDF). A diferencia de
+ * StreamingResponseBody, cada descarga lleva su propio tiempo límite en lugar del
+ * spring.mvc.async.request-timeout general, que está pensado para respuestas cortas y cortaría
+ * los archivos grandes a la mitad. El archivo se escribe en un hilo virtual y se envía al
+ * cliente en bloques.
+ */
+public class DescargaEnStreaming {
+
+    private static final int TAMANO_BLOQUE = 64 * 1024;
+
+    @FunctionalInterface
+    public interface Escritor {
+        void escribir(OutputStream salida) throws Exception;
+    }
+
+    public static ResponseBodyEmitter iniciar(Duration timeout, MediaType tipo, Escritor escritor) {
+        ResponseBodyEmitter emisor = new ResponseBodyEmitter(timeout.toMillis());
+        Thread.ofVirtual().name("descarga-streaming").start(() -> {
+            try (OutputStream salida = new BufferedOutputStream(new SalidaEmisor(emisor, tipo), TAMANO_BLOQUE)) {
+                escritor.escribir(salida);
+            } catch (Exception e) {
+                System.err.println("Error al generar descarga: " + e.getMessage());
+                emisor.completeWithError(e);
+                return;
+            }
+            emisor.complete();
+        });
+        return emisor;
+    }
+
+    private static class SalidaEmisor extends OutputStream {
+
+        private final ResponseBodyEmitter emisor;
+        private final MediaType tipo;
+
+        SalidaEmisor(ResponseBodyEmitter emisor, MediaType tipo) {
+            this.emisor = emisor;
+            this.tipo = tipo;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                emisor.send(Arrays.copyOfRange(b, off, off + len), tipo);
+            }
+        }
+    }
+}